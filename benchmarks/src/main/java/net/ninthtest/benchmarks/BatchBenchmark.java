@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import net.ninthtest.crypto.helix.HelixBatch;
+import net.ninthtest.crypto.helix.HelixEncryption;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link HelixBatch} encryption of 10,000 records under one key
+ * (on the calling thread and fanned out across the common
+ * <tt>ForkJoinPool</tt>), compared to one {@link HelixEncryption} per record.
+ * 
+ * <p>
+ * Scores are per record.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+    /* The number of records per batch. */
+    private static final int RECORDS = 10000;
+
+    /** The record size in bytes. */
+    @Param({"64", "1024"})
+    public int size;
+
+    /* the key, nonces and plaintext slices */
+    private final byte[] key = new byte[32];
+    private final byte[][] nonces = new byte[RECORDS][16];
+    private byte[] plainText;
+    private final int[] offsets = new int[RECORDS];
+    private final int[] lengths = new int[RECORDS];
+
+    /* the batches */
+    private HelixBatch callerThread;
+    private HelixBatch forkJoin;
+
+    /**
+     * Creates the records.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        random.nextBytes(key);
+        plainText = new byte[RECORDS * size];
+        random.nextBytes(plainText);
+        for (int r = 0; r < RECORDS; ++r) {
+            random.nextBytes(nonces[r]);
+            offsets[r] = r * size;
+            lengths[r] = size;
+        }
+
+        callerThread = new HelixBatch(key);
+        forkJoin = new HelixBatch(key, ForkJoinPool.commonPool(), HelixBatch.DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Encrypts the batch on the calling thread.
+     * 
+     * @return the arena
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public HelixBatch.Arena callerThread() {
+        return callerThread.encrypt(nonces, plainText, offsets, lengths);
+    }
+
+    /**
+     * Encrypts the batch across the common fork-join pool.
+     * 
+     * @return the arena
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public HelixBatch.Arena forkJoin() {
+        return forkJoin.encrypt(nonces, plainText, offsets, lengths);
+    }
+
+    /**
+     * Encrypts the batch one record at a time.
+     * 
+     * @return the last MAC
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public byte[] oneAtATime() {
+        byte[] mac = null;
+        for (int r = 0; r < RECORDS; ++r) {
+            byte[] record = new byte[size];
+            System.arraycopy(plainText, offsets[r], record, 0, size);
+            HelixEncryption primitive = new HelixEncryption(key, nonces[r]);
+            primitive.finish(record);
+            mac = primitive.getGeneratedMac();
+        }
+
+        return mac;
+    }
+}
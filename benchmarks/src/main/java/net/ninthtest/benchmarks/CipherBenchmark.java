@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.ninthtest.crypto.provider.helix.HelixParameterSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Helix <tt>Cipher</tt> encryption and decryption against the JDK
+ * AES-GCM and ChaCha20-Poly1305 ciphers.
+ * 
+ * <p>
+ * Each invocation is a complete operation (<tt>init</tt> and
+ * <tt>doFinal</tt>). Encryption uses a fresh nonce for every invocation
+ * (AES-GCM and ChaCha20-Poly1305 reject nonce reuse); decryption alternates
+ * between two authenticated ciphertexts (ChaCha20-Poly1305 rejects
+ * re-initialization with the previous key and nonce).
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CipherBenchmark {
+    /** The cipher transformation. */
+    @Param({"Helix", "AES/GCM/NoPadding", "ChaCha20-Poly1305"})
+    public String transformation;
+
+    /** The number of bytes per operation (1 B to 64 MB). */
+    @Param({"1", "16", "256", "4096", "65536", "1048576", "67108864"})
+    public int size;
+
+    /* the cipher under test */
+    private Cipher cipher;
+
+    /* the secret key */
+    private SecretKeySpec key;
+
+    /* the nonce (incremented before each encryption) */
+    private byte[] nonce;
+
+    /* the plaintext */
+    private byte[] plainText;
+
+    /* the ciphertexts (including the tag for AES-GCM and ChaCha20-Poly1305) */
+    private final byte[][] cipherTexts = new byte[2][];
+
+    /* the parameters used to decrypt each ciphertext */
+    private final AlgorithmParameterSpec[] decryptParams = new AlgorithmParameterSpec[2];
+
+    /*
+     * the index of the ciphertext decrypted last (initially the one encrypted
+     * last, so that the first decryption uses the other)
+     */
+    private int next = 1;
+
+    /* direct buffers for the ByteBuffer benchmarks */
+    private ByteBuffer plainBuffer;
+
+    private final ByteBuffer[] cipherBuffers = new ByteBuffer[2];
+
+    private ByteBuffer outputBuffer;
+
+    /**
+     * Creates the cipher and encrypts the ciphertexts used by the decryption
+     * benchmarks.
+     * 
+     * @throws GeneralSecurityException
+     *             if the transformation is not available
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws GeneralSecurityException {
+        boolean helix = Providers.isNinthTest(transformation);
+        cipher = helix ? Cipher.getInstance(transformation, Providers.NINTHTEST) : Cipher.getInstance(transformation);
+
+        String keyAlgorithm = helix ? transformation : transformation.startsWith("AES") ? "AES" : "ChaCha20";
+        key = new SecretKeySpec(new byte[32], keyAlgorithm);
+        nonce = new byte[helix ? 16 : 12];
+        plainText = new byte[size];
+
+        for (int i = 0; i < 2; ++i) {
+            cipher.init(Cipher.ENCRYPT_MODE, key, encryptParams());
+            cipherTexts[i] = cipher.doFinal(plainText);
+            if (helix) {
+                HelixParameterSpec spec = cipher.getParameters().getParameterSpec(HelixParameterSpec.class);
+                decryptParams[i] = new HelixParameterSpec(spec.getNonce(), spec.getMac());
+            } else {
+                decryptParams[i] = parametersFor(nonce.clone());
+            }
+
+            cipherBuffers[i] = ByteBuffer.allocateDirect(cipherTexts[i].length);
+            cipherBuffers[i].put(cipherTexts[i]).flip();
+        }
+
+        plainBuffer = ByteBuffer.allocateDirect(size);
+        plainBuffer.put(plainText).flip();
+        outputBuffer = ByteBuffer.allocateDirect(cipherTexts[0].length + 16);
+    }
+
+    /* Returns new encryption parameters (with a fresh nonce). */
+    private AlgorithmParameterSpec encryptParams() {
+        for (int i = 0; (i < nonce.length) && (++nonce[i] == 0); ++i) {
+            /* increment the nonce (little-endian) */
+        }
+
+        return parametersFor(nonce.clone());
+    }
+
+    /* Returns the parameters of the transformation for a nonce. */
+    private AlgorithmParameterSpec parametersFor(final byte[] iv) {
+        if (Providers.isNinthTest(transformation)) {
+            return new HelixParameterSpec(iv);
+        } else if (transformation.startsWith("AES")) {
+            return new GCMParameterSpec(128, iv);
+        }
+
+        return new IvParameterSpec(iv);
+    }
+
+    /**
+     * Encrypts a byte array.
+     * 
+     * @return the ciphertext
+     * @throws GeneralSecurityException
+     *             if encryption fails
+     */
+    @Benchmark
+    public byte[] encrypt() throws GeneralSecurityException {
+        cipher.init(Cipher.ENCRYPT_MODE, key, encryptParams());
+
+        return cipher.doFinal(plainText);
+    }
+
+    /**
+     * Decrypts (and verifies) a byte array.
+     * 
+     * @return the plaintext
+     * @throws GeneralSecurityException
+     *             if decryption fails
+     */
+    @Benchmark
+    public byte[] decrypt() throws GeneralSecurityException {
+        next ^= 1;
+        cipher.init(Cipher.DECRYPT_MODE, key, decryptParams[next]);
+
+        return cipher.doFinal(cipherTexts[next]);
+    }
+
+    /**
+     * Encrypts a direct byte buffer.
+     * 
+     * @return the number of bytes written
+     * @throws GeneralSecurityException
+     *             if encryption fails
+     */
+    @Benchmark
+    public int encryptByteBuffer() throws GeneralSecurityException {
+        cipher.init(Cipher.ENCRYPT_MODE, key, encryptParams());
+        plainBuffer.rewind();
+        outputBuffer.clear();
+
+        return cipher.doFinal(plainBuffer, outputBuffer);
+    }
+
+    /**
+     * Decrypts (and verifies) a direct byte buffer.
+     * 
+     * @return the number of bytes written
+     * @throws GeneralSecurityException
+     *             if decryption fails
+     */
+    @Benchmark
+    public int decryptByteBuffer() throws GeneralSecurityException {
+        next ^= 1;
+        cipher.init(Cipher.DECRYPT_MODE, key, decryptParams[next]);
+        cipherBuffers[next].rewind();
+        outputBuffer.clear();
+
+        return cipher.doFinal(cipherBuffers[next], outputBuffer);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.ninthtest.crypto.helix.HelixRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link HelixRandom} (the non-JCA Helix PRNG).
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HelixRandomBenchmark {
+    /* the PRNG under test */
+    private Random random;
+
+    /* the nextBytes request buffer */
+    private final byte[] bytes = new byte[256];
+
+    /**
+     * Creates the PRNG.
+     */
+    @Setup
+    public void setUp() {
+        random = new HelixRandom(0x5EEDL);
+    }
+
+    /**
+     * Generates a pseudo-random <tt>int</tt>.
+     * 
+     * @return a pseudo-random <tt>int</tt>
+     */
+    @Benchmark
+    public int nextInt() {
+        return random.nextInt();
+    }
+
+    /**
+     * Generates a pseudo-random <tt>long</tt>.
+     * 
+     * @return a pseudo-random <tt>long</tt>
+     */
+    @Benchmark
+    public long nextLong() {
+        return random.nextLong();
+    }
+
+    /**
+     * Generates 256 pseudo-random bytes.
+     * 
+     * @return the request buffer
+     */
+    @Benchmark
+    public byte[] nextBytes() {
+        random.nextBytes(bytes);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.ninthtest.crypto.helix.HelixDecryption;
+import net.ninthtest.crypto.helix.HelixEncryption;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Helix key setup.
+ * 
+ * <p>
+ * Constructing a Helix primitive performs key mixing and then nonce mixing
+ * (both are private to the primitive, so they are measured together). The
+ * <tt>finish</tt> benchmarks add the cost of an empty operation (the MAC
+ * function) for comparison with the <tt>Cipher</tt> benchmarks.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeySetupBenchmark {
+    /** The key length in bytes (Helix keys are 0 to 32 bytes). */
+    @Param({"0", "16", "32"})
+    public int keyLength;
+
+    /* the key */
+    private byte[] key;
+
+    /* the nonce */
+    private final byte[] nonce = new byte[16];
+
+    /**
+     * Creates the key.
+     */
+    @Setup
+    public void setUp() {
+        key = new byte[keyLength];
+    }
+
+    /**
+     * Performs key mixing and nonce mixing for encryption.
+     * 
+     * @return the primitive
+     */
+    @Benchmark
+    public HelixEncryption keyAndNonceMixing() {
+        return new HelixEncryption(key, nonce);
+    }
+
+    /**
+     * Performs key mixing and nonce mixing for decryption.
+     * 
+     * @return the primitive
+     */
+    @Benchmark
+    public HelixDecryption keyAndNonceMixingForDecryption() {
+        return new HelixDecryption(key, nonce);
+    }
+
+    /**
+     * Performs key mixing, nonce mixing and the MAC function for an empty
+     * message.
+     * 
+     * @return the generated MAC
+     */
+    @Benchmark
+    public byte[] keySetupAndFinish() {
+        HelixEncryption primitive = new HelixEncryption(key, nonce);
+        primitive.finish(new byte[0]);
+
+        return primitive.getGeneratedMac();
+    }
+}
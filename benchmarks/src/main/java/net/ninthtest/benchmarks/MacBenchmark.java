@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.ninthtest.crypto.provider.helix.HelixParameterSpec;
+import net.ninthtest.security.provider.NinthTestProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the Helix <tt>Mac</tt>.
+ * 
+ * <p>
+ * A Helix MAC must be re-initialized (with a nonce) after each
+ * <tt>doFinal</tt>, so each invocation is a complete operation.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MacBenchmark {
+    /** The number of bytes per MAC. */
+    @Param({"1", "16", "256", "4096", "65536", "1048576"})
+    public int size;
+
+    /* the MAC under test */
+    private Mac mac;
+
+    /* the secret key */
+    private SecretKeySpec key;
+
+    /* the MAC parameters */
+    private HelixParameterSpec params;
+
+    /* the message */
+    private byte[] message;
+
+    /**
+     * Creates the MAC.
+     * 
+     * @throws GeneralSecurityException
+     *             if the MAC is not available
+     */
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        mac = Mac.getInstance(NinthTestProvider.HELIX, Providers.NINTHTEST);
+        key = new SecretKeySpec(new byte[32], NinthTestProvider.HELIX);
+        params = new HelixParameterSpec(new byte[16]);
+        message = new byte[size];
+    }
+
+    /**
+     * Initializes the MAC and computes the MAC of the message.
+     * 
+     * @return the MAC
+     * @throws GeneralSecurityException
+     *             if the MAC cannot be initialized
+     */
+    @Benchmark
+    public byte[] initAndDoFinal() throws GeneralSecurityException {
+        mac.init(key, params);
+
+        return mac.doFinal(message);
+    }
+}
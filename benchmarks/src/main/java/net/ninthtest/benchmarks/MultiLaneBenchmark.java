@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.ninthtest.crypto.helix.HelixEncryption;
+import net.ninthtest.crypto.helix.HelixMultiLane;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks batch encryption of independent messages with
+ * {@link HelixMultiLane}, compared to one {@link HelixEncryption} per message.
+ * 
+ * <p>
+ * Scores are per message.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiLaneBenchmark {
+    /* The number of messages per batch. */
+    private static final int BATCH = 64;
+
+    /** The number of lanes. */
+    @Param({"1", "4", "8", "16"})
+    public int lanes;
+
+    /** The message size in bytes. */
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    /* the engine */
+    private HelixMultiLane multiLane;
+
+    /* the keys, nonces, plaintexts, ciphertexts and MACs */
+    private final byte[][] keys = new byte[BATCH][];
+    private final byte[][] nonces = new byte[BATCH][];
+    private final byte[][] plainTexts = new byte[BATCH][];
+    private final byte[][] cipherTexts = new byte[BATCH][];
+    private final byte[][] macs = new byte[BATCH][];
+
+    /**
+     * Creates the batch.
+     */
+    @Setup
+    public void setUp() {
+        multiLane = new HelixMultiLane(lanes);
+
+        Random random = new Random(size);
+        for (int m = 0; m < BATCH; ++m) {
+            keys[m] = new byte[32];
+            random.nextBytes(keys[m]);
+            nonces[m] = new byte[16];
+            random.nextBytes(nonces[m]);
+            plainTexts[m] = new byte[size];
+            random.nextBytes(plainTexts[m]);
+            cipherTexts[m] = new byte[size];
+            macs[m] = new byte[16];
+        }
+    }
+
+    /**
+     * Encrypts the batch in lockstep.
+     * 
+     * @return the MACs
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public byte[][] multiLane() {
+        multiLane.encrypt(keys, nonces, plainTexts, cipherTexts, macs);
+
+        return macs;
+    }
+
+    /**
+     * Encrypts the batch one message at a time.
+     * 
+     * @return the MACs
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public byte[][] oneAtATime() {
+        for (int m = 0; m < BATCH; ++m) {
+            HelixEncryption primitive = new HelixEncryption(keys[m], nonces[m]);
+            cipherTexts[m] = primitive.finish(plainTexts[m]);
+            macs[m] = primitive.getGeneratedMac();
+        }
+
+        return macs;
+    }
+}
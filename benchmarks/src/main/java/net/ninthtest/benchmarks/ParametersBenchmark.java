@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.io.IOException;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import net.ninthtest.crypto.provider.helix.HelixParameterSpec;
+import net.ninthtest.security.provider.NinthTestProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Helix <tt>AlgorithmParameters</tt> encoding and decoding.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParametersBenchmark {
+    /** Whether or not the parameters include a MAC. */
+    @Param({"false", "true"})
+    public boolean withMac;
+
+    /* the parameter specification */
+    private HelixParameterSpec spec;
+
+    /* the encoded parameters */
+    private byte[] encoded;
+
+    /**
+     * Creates and encodes the parameters.
+     * 
+     * @throws GeneralSecurityException
+     *             if the parameters cannot be created
+     * @throws IOException
+     *             if the parameters cannot be encoded
+     */
+    @Setup
+    public void setUp() throws GeneralSecurityException, IOException {
+        spec = withMac ? new HelixParameterSpec(new byte[16], new byte[16]) : new HelixParameterSpec(new byte[16]);
+        encoded = encode();
+    }
+
+    /**
+     * Encodes the parameters (ASN.1).
+     * 
+     * @return the encoded parameters
+     * @throws GeneralSecurityException
+     *             if the parameters cannot be created
+     * @throws IOException
+     *             if the parameters cannot be encoded
+     */
+    @Benchmark
+    public byte[] encode() throws GeneralSecurityException, IOException {
+        AlgorithmParameters params = AlgorithmParameters.getInstance(NinthTestProvider.HELIX, Providers.NINTHTEST);
+        params.init(spec);
+
+        return params.getEncoded();
+    }
+
+    /**
+     * Decodes the parameters (ASN.1).
+     * 
+     * @return the decoded parameter specification
+     * @throws GeneralSecurityException
+     *             if the parameters cannot be created
+     * @throws IOException
+     *             if the parameters cannot be decoded
+     */
+    @Benchmark
+    public HelixParameterSpec decode() throws GeneralSecurityException, IOException {
+        AlgorithmParameters params = AlgorithmParameters.getInstance(NinthTestProvider.HELIX, Providers.NINTHTEST);
+        params.init(encoded);
+
+        return params.getParameterSpec(HelixParameterSpec.class);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.ninthtest.crypto.helix.HelixOutputStream;
+import net.ninthtest.crypto.helix.HelixPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks encrypting a 64 MB file into another file with
+ * {@link HelixPipeline} (reading, encryption and writing overlapped), compared
+ * to a single thread copying through a {@link HelixOutputStream}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    /* The plaintext file length. */
+    private static final int LENGTH = 64 * 1024 * 1024;
+
+    /* the key and nonce */
+    private final byte[] key = new byte[32];
+    private final byte[] nonce = new byte[16];
+
+    /* the plaintext and encrypted files */
+    private File plainFile;
+    private File encryptedFile;
+
+    /* the pipeline (re-used, as its buffers are) */
+    private HelixPipeline pipeline;
+
+    /* the copy buffer of the single-threaded copy */
+    private final byte[] buffer = new byte[HelixPipeline.DEFAULT_BUFFER_SIZE];
+
+    /**
+     * Creates the plaintext file and the pipeline.
+     * 
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    @Setup
+    public void setUp() throws IOException {
+        plainFile = File.createTempFile("pipeline", ".plain");
+        encryptedFile = File.createTempFile("pipeline", ".helix");
+        byte[] bytes = new byte[LENGTH];
+        new Random(0L).nextBytes(bytes);
+        OutputStream out = new FileOutputStream(plainFile);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        pipeline = new HelixPipeline(key);
+    }
+
+    /**
+     * Deletes the files.
+     */
+    @TearDown
+    public void tearDown() {
+        plainFile.delete();
+        encryptedFile.delete();
+    }
+
+    /**
+     * Encrypts the file with a <tt>HelixPipeline</tt>.
+     * 
+     * @return the number of bytes encrypted
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    @Benchmark
+    public long pipeline() throws IOException {
+        ++nonce[0];
+        FileInputStream in = new FileInputStream(plainFile);
+        FileOutputStream out = new FileOutputStream(encryptedFile);
+        try {
+            return pipeline.encrypt(in.getChannel(), out.getChannel(), nonce);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Encrypts the file by copying it through a <tt>HelixOutputStream</tt> on
+     * one thread.
+     * 
+     * @return the number of bytes encrypted
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    @Benchmark
+    public long singleThread() throws IOException {
+        ++nonce[0];
+        InputStream in = new FileInputStream(plainFile);
+        OutputStream out = new HelixOutputStream(new FileOutputStream(encryptedFile), key, nonce);
+        long length = 0L;
+        try {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+                length += read;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        return length;
+    }
+}
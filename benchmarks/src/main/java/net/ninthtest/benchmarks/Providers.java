@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.security.Provider;
+
+import net.ninthtest.security.provider.NinthTestProvider;
+
+/**
+ * Resolves the provider of each benchmarked algorithm.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class Providers {
+    /** The NinthTest provider instance shared by all benchmarks. */
+    static final Provider NINTHTEST = new NinthTestProvider();
+
+    /**
+     * Determines whether or not an algorithm is provided by the NinthTest
+     * provider (otherwise, the JDK default provider is used as a baseline).
+     * 
+     * @param algorithm
+     *            a transformation or algorithm name
+     * @return <tt>true</tt> if <i>algorithm</i> is a NinthTest algorithm
+     */
+    static boolean isNinthTest(final String algorithm) {
+        return NinthTestProvider.HELIX.equals(algorithm);
+    }
+
+    private Providers() {
+        /* never instantiated */
+    }
+}
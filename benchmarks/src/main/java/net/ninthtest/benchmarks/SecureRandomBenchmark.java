@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the Helix <tt>SecureRandom</tt> against the JDK DRBG.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecureRandomBenchmark {
+    /** The PRNG algorithm. */
+    @Param({"Helix", "DRBG"})
+    public String algorithm;
+
+    /** The number of bytes per request. */
+    @Param({"1", "8", "16", "256", "4096"})
+    public int size;
+
+    /* the PRNG under test */
+    private SecureRandom random;
+
+    /* the request buffer */
+    private byte[] bytes;
+
+    /**
+     * Creates (and seeds) the PRNG.
+     * 
+     * @throws GeneralSecurityException
+     *             if the algorithm is not available
+     */
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        random = Providers.isNinthTest(algorithm) ? SecureRandom.getInstance(algorithm, Providers.NINTHTEST)
+                : SecureRandom.getInstance(algorithm);
+        bytes = new byte[size];
+        random.nextBytes(bytes);
+    }
+
+    /**
+     * Fills the request buffer with pseudo-random bytes.
+     * 
+     * @return the request buffer
+     */
+    @Benchmark
+    public byte[] nextBytes() {
+        random.nextBytes(bytes);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.ninthtest.crypto.helix.HelixOutputStream;
+import net.ninthtest.crypto.provider.helix.HelixParameterSpec;
+import net.ninthtest.security.provider.NinthTestProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks streaming encryption of 16 MB (written in parts of the given
+ * size) with {@link HelixOutputStream}, compared to <tt>update</tt> calls on
+ * the Helix <tt>Cipher</tt>.
+ * 
+ * <p>
+ * The ciphertext is discarded, so scores are the cost of encryption alone.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+    /* The number of bytes written per operation. */
+    private static final int TOTAL = 16 * 1024 * 1024;
+
+    /* Discards everything written to it. */
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+            /* discarded */
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            /* discarded */
+        }
+    };
+
+    /** The size of each write in bytes. */
+    @Param({"8192", "1048576"})
+    public int part;
+
+    /* the key, nonce and plaintext part */
+    private final byte[] key = new byte[32];
+    private final byte[] nonce = new byte[16];
+    private byte[] plainText;
+
+    /* the Helix cipher */
+    private Cipher cipher;
+
+    /**
+     * Creates the cipher and plaintext.
+     * 
+     * @throws GeneralSecurityException
+     *             if the Helix cipher is not available
+     */
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        plainText = new byte[part];
+        cipher = Cipher.getInstance(NinthTestProvider.HELIX, Providers.NINTHTEST);
+    }
+
+    /**
+     * Encrypts with a <tt>HelixOutputStream</tt>.
+     * 
+     * @throws IOException
+     *             if writing fails
+     */
+    @Benchmark
+    public void helixOutputStream() throws IOException {
+        ++nonce[0];
+        OutputStream out = new HelixOutputStream(NULL_STREAM, key, nonce);
+        for (int written = 0; written < TOTAL; written += part) {
+            out.write(plainText);
+        }
+        out.close();
+    }
+
+    /**
+     * Encrypts with the Helix <tt>Cipher</tt>, one <tt>update</tt> per part
+     * (what a <tt>CipherOutputStream</tt> does, without its copying).
+     * 
+     * @return the last ciphertext part
+     * @throws GeneralSecurityException
+     *             if encryption fails
+     */
+    @Benchmark
+    public byte[] cipherUpdate() throws GeneralSecurityException {
+        ++nonce[0];
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, NinthTestProvider.HELIX), new HelixParameterSpec(
+                nonce.clone()));
+        for (int written = part; written < TOTAL; written += part) {
+            cipher.update(plainText);
+        }
+
+        return cipher.doFinal(plainText);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks.load;
+
+/**
+ * A log-linear latency histogram (in nanoseconds) with a relative error of at
+ * most 1/{@value #SUB_BUCKETS}.
+ * 
+ * <p>
+ * A histogram is recorded by a single worker and merged into a total after
+ * the worker finishes, so recording does not synchronize.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class LatencyHistogram {
+    /* the number of linear sub-buckets per power of two */
+    private static final int SUB_BUCKETS = 16;
+
+    /* log2(SUB_BUCKETS) */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /* the counts, indexed by #indexOf(long) */
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+
+    /* the total number of recorded values */
+    private long totalCount;
+
+    /**
+     * Records a latency.
+     * 
+     * @param nanos
+     *            the latency in nanoseconds
+     */
+    void record(final long nanos) {
+        ++counts[indexOf(Math.max(nanos, 0L))];
+        ++totalCount;
+    }
+
+    /**
+     * Adds the counts of another histogram to this histogram.
+     * 
+     * @param other
+     *            the histogram to merge
+     */
+    void merge(final LatencyHistogram other) {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] += other.counts[i];
+        }
+
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Returns the total number of recorded values.
+     * 
+     * @return the number of recorded latencies
+     */
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the value at a percentile.
+     * 
+     * @param percentile
+     *            the percentile (e.g. <i>99.9</i>)
+     * @return the (upper bound of the bucket of the) latency in nanoseconds at
+     *         <i>percentile</i>, or <i>0</i> if nothing was recorded
+     */
+    long getValueAtPercentile(final double percentile) {
+        long rank = (long) Math.ceil((percentile / 100.0) * totalCount);
+        long seen = 0L;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if ((seen >= rank) && (seen > 0L)) {
+                return upperBoundOf(i);
+            }
+        }
+
+        return 0L;
+    }
+
+    /* Returns the bucket index of a (non-negative) value. */
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+        return ((shift + 1) * SUB_BUCKETS) + subBucket;
+    }
+
+    /* Returns the largest value that falls in a bucket. */
+    private static long upperBoundOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = (index / SUB_BUCKETS) - 1;
+        long base = ((long) (SUB_BUCKETS + (index % SUB_BUCKETS))) << shift;
+
+        return base + ((1L << shift) - 1L);
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks.load;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.ninthtest.security.provider.NinthTestProvider;
+
+/**
+ * A multi-threaded load harness that measures how the NinthTest provider
+ * scales with the number of concurrent callers.
+ * 
+ * <p>
+ * Each run starts the requested number of workers (platform threads, or
+ * virtual threads on Java 21 and later), and each worker performs the mixed
+ * {@link Workload} until the measurement period ends. For every run the
+ * harness reports the aggregate operations per second, payload bytes per
+ * second and the p50/p99/p999 operation latency:
+ * </p>
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar net.ninthtest.benchmarks.load.LoadHarness \
+ *     --platform 1,2,4,8,16 --virtual 1000,10000 --seconds 10 --size 1024 --mix 4:2:1
+ * </pre>
+ * 
+ * <p>
+ * Options (all optional):
+ * </p>
+ * 
+ * <dl>
+ * <dt><tt>--platform</tt> <i>n,n,...</i></dt>
+ * <dd>platform thread counts (default: powers of two up to twice the number
+ * of processors)</dd>
+ * <dt><tt>--virtual</tt> <i>n,n,...</i></dt>
+ * <dd>virtual thread counts (default <i>1000,10000</i>; skipped before Java
+ * 21, use <i>0</i> to disable)</dd>
+ * <dt><tt>--seconds</tt> <i>n</i></dt>
+ * <dd>the measurement period of each run (default <i>5</i>)</dd>
+ * <dt><tt>--warmup</tt> <i>n</i></dt>
+ * <dd>the warm-up period, in seconds, before the first run (default
+ * <i>5</i>)</dd>
+ * <dt><tt>--size</tt> <i>n</i></dt>
+ * <dd>the payload bytes per operation (default <i>1024</i>)</dd>
+ * <dt><tt>--mix</tt> <i>cipher:mac:random</i></dt>
+ * <dd>the relative operation weights (default <i>4:2:1</i>)</dd>
+ * <dt><tt>--reuse</tt></dt>
+ * <dd>reuse per-worker engines instead of obtaining new ones for every
+ * operation</dd>
+ * </dl>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class LoadHarness {
+    /* the workload performed by every worker */
+    private final Workload workload;
+
+    /* the output */
+    private final PrintStream out;
+
+    /**
+     * Creates a load harness.
+     * 
+     * @param workload
+     *            the workload performed by every worker
+     * @param out
+     *            where results are printed
+     */
+    LoadHarness(final Workload workload, final PrintStream out) {
+        this.workload = workload;
+        this.out = out;
+    }
+
+    /**
+     * Runs the load harness.
+     * 
+     * @param args
+     *            the command line options (see the class description)
+     * @throws Exception
+     *             if a run fails
+     */
+    public static void main(final String[] args) throws Exception {
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> platformCounts = new ArrayList<Integer>();
+        for (int n = 1; n <= (2 * processors); n <<= 1) {
+            platformCounts.add(n);
+        }
+
+        List<Integer> virtualCounts = parseCounts("1000,10000");
+        int seconds = 5;
+        int warmupSeconds = 5;
+        int size = 1024;
+        int[] weights = new int[] {4, 2, 1};
+        boolean reuse = false;
+
+        for (int i = 0; i < args.length; ++i) {
+            String option = args[i];
+            if ("--reuse".equals(option)) {
+                reuse = true;
+                continue;
+            } else if ((i + 1) == args.length) {
+                throw new IllegalArgumentException("missing value for " + option);
+            }
+
+            String value = args[++i];
+            if ("--platform".equals(option)) {
+                platformCounts = parseCounts(value);
+            } else if ("--virtual".equals(option)) {
+                virtualCounts = parseCounts(value);
+            } else if ("--seconds".equals(option)) {
+                seconds = Integer.parseInt(value);
+            } else if ("--warmup".equals(option)) {
+                warmupSeconds = Integer.parseInt(value);
+            } else if ("--size".equals(option)) {
+                size = Integer.parseInt(value);
+            } else if ("--mix".equals(option)) {
+                String[] parts = value.split(":");
+                if (parts.length != 3) {
+                    throw new IllegalArgumentException("--mix must be cipher:mac:random");
+                }
+
+                for (int w = 0; w < 3; ++w) {
+                    weights[w] = Integer.parseInt(parts[w]);
+                }
+            } else {
+                throw new IllegalArgumentException("unrecognized option " + option);
+            }
+        }
+
+        LoadHarness harness =
+                new LoadHarness(new Workload(new NinthTestProvider(), weights, size, reuse), System.out);
+        harness.printHeader(size, weights, reuse);
+        harness.warmUp(processors, warmupSeconds);
+
+        for (int threads : platformCounts) {
+            if (threads > 0) {
+                harness.report("platform", threads, harness.run(Executors.newFixedThreadPool(threads), threads,
+                        seconds));
+            }
+        }
+
+        for (int threads : virtualCounts) {
+            if (threads > 0) {
+                ExecutorService executor = newVirtualThreadExecutor();
+                if (executor == null) {
+                    System.out.println("(virtual threads require Java 21 or later; skipped)");
+                    break;
+                }
+
+                harness.report("virtual", threads, harness.run(executor, threads, seconds));
+            }
+        }
+    }
+
+    /* Parses a comma-separated list of thread counts. */
+    private static List<Integer> parseCounts(final String value) {
+        List<Integer> counts = new ArrayList<Integer>();
+        for (String count : value.split(",")) {
+            counts.add(Integer.valueOf(count.trim()));
+        }
+
+        return counts;
+    }
+
+    /*
+     * Returns a virtual-thread-per-task executor, or null before Java 21 (the
+     * module is compiled for Java 11, so it is looked up reflectively).
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    /* Prints the workload description and the result table header. */
+    void printHeader(final int size, final int[] weights, final boolean reuse) {
+        out.printf(Locale.ROOT, "# %s, payload %d bytes, mix cipher:mac:random = %d:%d:%d, %s engines%n",
+                System.getProperty("java.vm.version"), size, weights[0], weights[1], weights[2],
+                reuse ? "reused" : "new");
+        out.printf(Locale.ROOT, "%-8s %8s %14s %10s %10s %10s %10s%n", "threads", "workers", "ops/s", "MB/s",
+                "p50(us)", "p99(us)", "p999(us)");
+    }
+
+    /* Runs the workload (results discarded) so that the JIT has settled. */
+    void warmUp(final int threads, final int seconds) throws Exception {
+        if (seconds > 0) {
+            run(Executors.newFixedThreadPool(threads), threads, seconds);
+        }
+    }
+
+    /* Prints the result of a run. */
+    void report(final String kind, final int threads, final Result result) {
+        LatencyHistogram latencies = result.latencies;
+        double seconds = result.elapsedNanos / 1e9;
+        double opsPerSecond = latencies.getTotalCount() / seconds;
+        double megabytesPerSecond = (opsPerSecond * workload.getSize()) / (1024.0 * 1024.0);
+
+        out.printf(Locale.ROOT, "%-8s %8d %14.1f %10.2f %10.1f %10.1f %10.1f%n", kind, threads, opsPerSecond,
+                megabytesPerSecond, latencies.getValueAtPercentile(50.0) / 1e3,
+                latencies.getValueAtPercentile(99.0) / 1e3, latencies.getValueAtPercentile(99.9) / 1e3);
+    }
+
+    /**
+     * Runs the workload on a number of concurrent workers.
+     * 
+     * @param executor
+     *            the executor that runs the workers (shut down by this method)
+     * @param workers
+     *            the number of concurrent workers
+     * @param seconds
+     *            the measurement period
+     * @return the merged latencies and the elapsed time
+     * @throws Exception
+     *             if a worker fails
+     */
+    Result run(final ExecutorService executor, final int workers, final int seconds) throws Exception {
+        final CountDownLatch ready = new CountDownLatch(workers);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(workers);
+        final LatencyHistogram total = new LatencyHistogram();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final long[] deadline = new long[1];
+
+        try {
+            for (int w = 0; w < workers; ++w) {
+                final Workload.Worker worker = workload.newWorker(w + 1);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        LatencyHistogram latencies = new LatencyHistogram();
+                        try {
+                            ready.countDown();
+                            start.await();
+
+                            long end = deadline[0];
+                            long now = System.nanoTime();
+                            while ((now < end) && (failure.get() == null)) {
+                                worker.perform(worker.nextOperation());
+                                long finished = System.nanoTime();
+                                latencies.record(finished - now);
+                                now = finished;
+                            }
+                        } catch (GeneralSecurityException ex) {
+                            failure.compareAndSet(null, ex);
+                        } catch (InterruptedException ex) {
+                            failure.compareAndSet(null, ex);
+                        } finally {
+                            synchronized (total) {
+                                total.merge(latencies);
+                            }
+
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            ready.await();
+            long begin = System.nanoTime();
+            deadline[0] = begin + TimeUnit.SECONDS.toNanos(seconds);
+            start.countDown();
+            done.await();
+            long elapsed = System.nanoTime() - begin;
+
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+
+            synchronized (total) {
+                return new Result(total, elapsed);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The result of a run.
+     */
+    static final class Result {
+        /** The latencies of all operations. */
+        final LatencyHistogram latencies;
+
+        /** The wall-clock duration of the run. */
+        final long elapsedNanos;
+
+        /* Creates a result. */
+        Result(final LatencyHistogram latencies, final long elapsedNanos) {
+            this.latencies = latencies;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+}
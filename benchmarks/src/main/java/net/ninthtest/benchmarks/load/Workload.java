@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.benchmarks.load;
+
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.ninthtest.crypto.provider.helix.HelixParameterSpec;
+import net.ninthtest.security.provider.NinthTestProvider;
+
+/**
+ * The mixed Helix <tt>Cipher</tt>, <tt>Mac</tt> and <tt>SecureRandom</tt>
+ * workload performed by each load harness worker.
+ * 
+ * <p>
+ * By default every operation obtains a new engine from the provider and lets
+ * the cipher generate its own nonce, as typical application code does; this
+ * exercises the provider self-integrity check, the nonce
+ * <tt>SecureRandom</tt> and the shared <tt>SecureRandom</tt> lock. With
+ * <i>reuse</i>, each worker keeps its engines and supplies nonces itself.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class Workload {
+    /** The kind of operation: Helix <tt>Cipher</tt> encryption. */
+    static final int CIPHER = 0;
+
+    /** The kind of operation: Helix <tt>Mac</tt>. */
+    static final int MAC = 1;
+
+    /** The kind of operation: Helix <tt>SecureRandom</tt>. */
+    static final int RANDOM = 2;
+
+    /* the secret key shared by all workers */
+    private static final SecretKeySpec KEY = new SecretKeySpec(new byte[32], NinthTestProvider.HELIX);
+
+    /* the provider */
+    private final Provider provider;
+
+    /* the SecureRandom shared by all workers (contended by design) */
+    private final SecureRandom sharedRandom;
+
+    /* whether or not each worker reuses its engines */
+    private final boolean reuse;
+
+    /* the cumulative operation weights (CIPHER, MAC, RANDOM) */
+    private final int[] cumulativeWeights;
+
+    /* the payload size in bytes */
+    private final int size;
+
+    /**
+     * Creates a workload.
+     * 
+     * @param provider
+     *            the provider under test
+     * @param weights
+     *            the relative weights of the CIPHER, MAC and RANDOM operations
+     * @param size
+     *            the number of bytes per operation
+     * @param reuse
+     *            whether or not workers reuse their engines
+     * @throws GeneralSecurityException
+     *             if the shared <tt>SecureRandom</tt> cannot be created
+     */
+    Workload(final Provider provider, final int[] weights, final int size, final boolean reuse)
+            throws GeneralSecurityException {
+        this.provider = provider;
+        this.size = size;
+        this.reuse = reuse;
+        sharedRandom = SecureRandom.getInstance(NinthTestProvider.HELIX, provider);
+        cumulativeWeights = new int[] {weights[0], weights[0] + weights[1], weights[0] + weights[1] + weights[2]};
+        if (cumulativeWeights[2] <= 0) {
+            throw new IllegalArgumentException("at least one operation weight must be positive");
+        }
+    }
+
+    /**
+     * Returns the payload size.
+     * 
+     * @return the number of bytes per operation
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Creates the per-worker state.
+     * 
+     * @param seed
+     *            a seed that makes the worker's nonces unique
+     * @return a new worker
+     */
+    Worker newWorker(final long seed) {
+        return new Worker(seed);
+    }
+
+    /**
+     * The state of a single load harness worker (not thread-safe).
+     */
+    final class Worker {
+        /* the payload */
+        private final byte[] data = new byte[size];
+
+        /* the nonce (unique per worker and operation when reusing engines) */
+        private final byte[] nonce = new byte[16];
+
+        /* the (reused) engines */
+        private Cipher cipher;
+
+        private Mac mac;
+
+        /* the operation selector state (xorshift) */
+        private long state;
+
+        /* Creates a worker. */
+        Worker(final long seed) {
+            state = (seed * 0x9E3779B97F4A7C15L) | 1L;
+            for (int i = 0; i < 8; ++i) {
+                nonce[8 + i] = (byte) (seed >>> (8 * i));
+            }
+        }
+
+        /**
+         * Selects the next operation according to the workload weights.
+         * 
+         * @return {@link Workload#CIPHER}, {@link Workload#MAC} or
+         *         {@link Workload#RANDOM}
+         */
+        int nextOperation() {
+            state ^= state << 13;
+            state ^= state >>> 7;
+            state ^= state << 17;
+            int pick = (int) ((state >>> 1) % cumulativeWeights[2]);
+
+            return (pick < cumulativeWeights[0]) ? CIPHER : (pick < cumulativeWeights[1]) ? MAC : RANDOM;
+        }
+
+        /**
+         * Performs an operation.
+         * 
+         * @param operation
+         *            the kind of operation
+         * @throws GeneralSecurityException
+         *             if the operation fails
+         */
+        void perform(final int operation) throws GeneralSecurityException {
+            switch (operation) {
+            case CIPHER:
+                if (reuse) {
+                    if (cipher == null) {
+                        cipher = Cipher.getInstance(NinthTestProvider.HELIX, provider);
+                    }
+
+                    cipher.init(Cipher.ENCRYPT_MODE, KEY, new HelixParameterSpec(nextNonce()));
+                    cipher.doFinal(data);
+                } else {
+                    Cipher newCipher = Cipher.getInstance(NinthTestProvider.HELIX, provider);
+                    newCipher.init(Cipher.ENCRYPT_MODE, KEY);
+                    newCipher.doFinal(data);
+                }
+                break;
+            case MAC:
+                Mac macToUse = mac;
+                if (!reuse || (macToUse == null)) {
+                    macToUse = Mac.getInstance(NinthTestProvider.HELIX, provider);
+                    mac = macToUse;
+                }
+
+                macToUse.init(KEY, new HelixParameterSpec(nextNonce()));
+                macToUse.doFinal(data);
+                break;
+            default:
+                sharedRandom.nextBytes(data);
+                break;
+            }
+        }
+
+        /* Returns a nonce that this worker has not used before. */
+        private byte[] nextNonce() {
+            for (int i = 0; (i < 8) && (++nonce[i] == 0); ++i) {
+                /* increment the per-worker counter (little-endian) */
+            }
+
+            return nonce.clone();
+        }
+    }
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * Encrypts and decrypts batches of records under a single Helix key.
+ * 
+ * <p>
+ * Each record is a (nonce, slice) pair. Encryption writes the ciphertext of
+ * every record, each followed by its 16-byte MAC (the "tag"), into one
+ * contiguous {@link Arena}; decryption verifies every tag and reports the
+ * records that failed verification in a {@link BitSet} rather than throwing
+ * an exception for each one.
+ * </p>
+ * 
+ * <p>
+ * Records are divided into runs of at least <i>parallelThreshold</i> bytes.
+ * If an executor is supplied (e.g. a Java 7+ <tt>ForkJoinPool</tt>), every
+ * run except the last is submitted to it, and the calling thread processes
+ * the last run; a batch smaller than the threshold is therefore processed
+ * entirely on the calling thread. Key mixing is performed once per run rather
+ * than once per record.
+ * </p>
+ * 
+ * <p>
+ * A <tt>HelixBatch</tt> is immutable and thread-safe.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixBatch {
+    /** The length (bytes) of the MAC that follows each ciphertext. */
+    public static final int TAG_LENGTH = 16;
+
+    /** The default minimum number of bytes processed by one task. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 16384;
+
+    /* the Helix key */
+    private final byte[] key;
+
+    /* the executor that processes all but the last run (or null) */
+    private final ExecutorService executor;
+
+    /* the minimum number of bytes processed by one task */
+    private final int parallelThreshold;
+
+    /**
+     * Creates a new <tt>HelixBatch</tt> that processes every batch on the
+     * calling thread.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @throws IllegalArgumentException
+     *             if <i>key</i> is not valid
+     */
+    public HelixBatch(final byte[] key) {
+        this(key, null, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Creates a new <tt>HelixBatch</tt> that fans batches out across an
+     * executor.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param executor
+     *            the executor that processes runs of records (or
+     *            <tt>null</tt> to process every batch on the calling thread)
+     * @param parallelThreshold
+     *            the minimum number of bytes (ciphertext and tags) processed
+     *            by one task
+     * @throws IllegalArgumentException
+     *             if <i>key</i> is not valid, or if <i>parallelThreshold</i>
+     *             is negative
+     */
+    public HelixBatch(final byte[] key, final ExecutorService executor, final int parallelThreshold) {
+        if ((key == null) || (key.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if (parallelThreshold < 0) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_parallel_threshold"));
+        }
+
+        this.key = key.clone();
+        this.executor = executor;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Encrypts a batch of records.
+     * 
+     * <p>
+     * Record <i>r</i> is the slice of <i>plainText</i> starting at
+     * <tt>offsets[r]</tt> of length <tt>lengths[r]</tt>, encrypted using
+     * <tt>nonces[r]</tt>. Slices may overlap or appear in any order.
+     * </p>
+     * 
+     * @param nonces
+     *            the Helix nonces (each must be exactly 16 bytes in length)
+     * @param plainText
+     *            the plaintext bytes
+     * @param offsets
+     *            the offset of each plaintext slice
+     * @param lengths
+     *            the length of each plaintext slice
+     * @return the ciphertexts and tags
+     * @throws IllegalArgumentException
+     *             if the arrays differ in length, if any nonce is not valid,
+     *             if any slice is out of bounds, or if the arena would be too
+     *             large for a byte array
+     */
+    public Arena encrypt(final byte[][] nonces, final byte[] plainText, final int[] offsets, final int[] lengths) {
+        if ((nonces == null) || (offsets == null) || (lengths == null) || (offsets.length != nonces.length)
+                || (lengths.length != nonces.length)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.batch_slice_mismatch"));
+        } else if (plainText == null) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.input_byte_array_is_required"));
+        }
+
+        int count = nonces.length;
+        int[] arenaOffsets = new int[count + 1];
+        long size = 0L;
+        for (int r = 0; r < count; ++r) {
+            validateNonce(nonces[r]);
+            if ((offsets[r] < 0) || (lengths[r] < 0) || (offsets[r] > (plainText.length - lengths[r]))) {
+                throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_batch_slice", r));
+            }
+
+            size += lengths[r] + TAG_LENGTH;
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(Messages.getMessage("helix.error.batch_too_large"));
+            }
+            arenaOffsets[r + 1] = (int) size;
+        }
+
+        Arena arena = new Arena(new byte[(int) size], arenaOffsets);
+        run(new Batch(nonces, plainText, offsets, lengths, arena, null, null, true));
+
+        return arena;
+    }
+
+    /**
+     * Decrypts a batch of records and verifies their tags.
+     * 
+     * <p>
+     * Record <i>r</i> is decrypted using <tt>nonces[r]</tt> into
+     * <i>plainText</i>, starting at <tt>arena.getPlainTextOffset(r)</tt> (so
+     * the plaintexts are contiguous, in record order). The plaintext of a
+     * record that fails verification is zeroed.
+     * </p>
+     * 
+     * @param nonces
+     *            the Helix nonces (each must be exactly 16 bytes in length)
+     * @param arena
+     *            the ciphertexts and tags
+     * @param plainText
+     *            receives the plaintexts (at least
+     *            <tt>arena.getPlainTextLength()</tt> bytes in length)
+     * @return the records whose tags failed verification (empty if every
+     *         record is authentic)
+     * @throws IllegalArgumentException
+     *             if <i>nonces</i> and <i>arena</i> have different numbers of
+     *             records, if any nonce is not valid, or if <i>plainText</i>
+     *             is too short
+     */
+    public BitSet decrypt(final byte[][] nonces, final Arena arena, final byte[] plainText) {
+        if ((nonces == null) || (arena == null) || (arena.getCount() != nonces.length)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.batch_slice_mismatch"));
+        } else if ((plainText == null) || (plainText.length < arena.getPlainTextLength())) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_output_length"));
+        }
+
+        int count = nonces.length;
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        for (int r = 0; r < count; ++r) {
+            validateNonce(nonces[r]);
+            offsets[r] = arena.getOffset(r);
+            lengths[r] = arena.getLength(r);
+        }
+
+        boolean[] failed = new boolean[count];
+        run(new Batch(nonces, arena.bytes, offsets, lengths, arena, plainText, failed, false));
+
+        BitSet failures = new BitSet(count);
+        for (int r = 0; r < count; ++r) {
+            if (failed[r]) {
+                failures.set(r);
+            }
+        }
+        if (!failures.isEmpty()) {
+            ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, failures.cardinality());
+        }
+
+        return failures;
+    }
+
+    /* Validates a nonce. */
+    private static void validateNonce(final byte[] nonce) {
+        if ((nonce == null) || (nonce.length != 16)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_nonce"));
+        }
+    }
+
+    /*
+     * Divides a batch into runs, submits all but the last to the executor,
+     * processes the last on the calling thread, then waits for the others.
+     */
+    private void run(final Batch batch) {
+        int count = batch.nonces.length;
+        List<Run> runs = new ArrayList<Run>();
+        if (executor == null) {
+            runs.add(new Run(batch, 0, count));
+        } else {
+            int start = 0;
+            long bytes = 0L;
+            for (int r = 0; r < count; ++r) {
+                bytes += batch.lengths[r] + TAG_LENGTH;
+                if (bytes >= parallelThreshold) {
+                    runs.add(new Run(batch, start, r + 1));
+                    start = r + 1;
+                    bytes = 0L;
+                }
+            }
+            if ((start < count) || runs.isEmpty()) {
+                runs.add(new Run(batch, start, count));
+            }
+        }
+
+        List<Future<Void>> results = new ArrayList<Future<Void>>(runs.size() - 1);
+        for (int i = 0; i < (runs.size() - 1); ++i) {
+            results.add(executor.submit(runs.get(i)));
+        }
+
+        runs.get(runs.size() - 1).call();
+
+        /* the runs are bounded, so wait for them even if interrupted */
+        boolean interrupted = false;
+        try {
+            for (Future<Void> result : results) {
+                while (true) {
+                    try {
+                        result.get();
+                        break;
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        } else if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * The inputs and outputs of one encryption or decryption batch (shared,
+     * read-only, by every run; each run writes only its own records).
+     */
+    private static final class Batch {
+        final byte[][] nonces;
+        final byte[] input;
+        final int[] offsets;
+        final int[] lengths;
+        final Arena arena;
+        final byte[] plainText;
+        final boolean[] failed;
+        final boolean encrypt;
+
+        Batch(final byte[][] nonces, final byte[] input, final int[] offsets, final int[] lengths,
+                final Arena arena, final byte[] plainText, final boolean[] failed, final boolean encrypt) {
+            this.nonces = nonces;
+            this.input = input;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.arena = arena;
+            this.plainText = plainText;
+            this.failed = failed;
+            this.encrypt = encrypt;
+        }
+    }
+
+    /* Processes a contiguous range of the records of a batch. */
+    private final class Run implements Callable<Void> {
+        private final Batch batch;
+        private final int start;
+        private final int end;
+
+        Run(final Batch batch, final int start, final int end) {
+            this.batch = batch;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Void call() {
+            if (start == end) {
+                return null;
+            }
+
+            HelixEngine engine = HelixTransforms.newKeyedEngine(key);
+            int[] nonceWords = new int[4];
+            int[] words = new int[64];
+            int[] word = new int[1];
+            try {
+                byte[] arenaBytes = batch.arena.bytes;
+                for (int r = start; r < end; ++r) {
+                    HelixTransforms.nonceMixing(engine, batch.nonces[r], nonceWords);
+
+                    int length = batch.lengths[r];
+                    int in = batch.offsets[r];
+                    byte[] output = batch.encrypt ? arenaBytes : batch.plainText;
+                    int out = batch.encrypt ? batch.arena.getOffset(r) : batch.arena.getPlainTextOffset(r);
+
+                    int count = length / 4;
+                    if (words.length < count) {
+                        Arrays.fill(words, 0);
+                        words = new int[count];
+                    }
+                    HelixWords.toInts(batch.input, in, words, 0, count);
+                    if (batch.encrypt) {
+                        engine.encrypt(words, words, count);
+                    } else {
+                        engine.decrypt(words, words, count, 0xffffffff);
+                    }
+                    HelixWords.toBytes(words, 0, output, out, count);
+
+                    int extra = length - (count * 4);
+                    if (extra != 0) {
+                        HelixTransforms.transformTail(engine, batch.input, in + (count * 4), output,
+                                out + (count * 4), extra, batch.encrypt, word);
+                    }
+
+                    int[] mac = engine.macFunction(length);
+                    int tag = batch.arena.getTagOffset(r);
+                    if (batch.encrypt) {
+                        HelixWords.toBytes(mac, 0, arenaBytes, tag, 4);
+                    } else if (!HelixTransforms.macEquals(mac, arenaBytes, tag)) {
+                        batch.failed[r] = true;
+                        Arrays.fill(output, out, out + length, (byte) 0);
+                    }
+                }
+            } finally {
+                engine.clear();
+                Arrays.fill(nonceWords, 0);
+                Arrays.fill(words, 0);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * A contiguous byte array of Helix records (each a ciphertext followed by
+     * its 16-byte tag) and the table of their offsets.
+     * 
+     * <p>
+     * Record <i>r</i> occupies <tt>getBytes()[getOffsets()[r]]</tt> up to (but
+     * not including) <tt>getBytes()[getOffsets()[r + 1]]</tt>, so the offsets
+     * table has one more entry than there are records.
+     * </p>
+     * 
+     * @author Matthew Zipay (mattz@ninthtest.net)
+     * @version 1.1.0
+     */
+    public static final class Arena {
+        /* the records */
+        private final byte[] bytes;
+
+        /* the record offsets (count + 1 entries) */
+        private final int[] offsets;
+
+        /**
+         * Creates an arena over existing records (e.g. records received from
+         * a peer).
+         * 
+         * @param bytes
+         *            the records
+         * @param offsets
+         *            the record offsets (one more entry than there are
+         *            records; ascending, each record at least
+         *            {@link HelixBatch#TAG_LENGTH} bytes long, and the last
+         *            entry within <i>bytes</i>)
+         * @throws IllegalArgumentException
+         *             if <i>bytes</i> or <i>offsets</i> is not valid
+         */
+        public Arena(final byte[] bytes, final int[] offsets) {
+            if ((bytes == null) || (offsets == null) || (offsets.length == 0)) {
+                throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_batch_arena"));
+            }
+
+            /* the copy is checked, so that the caller cannot change the table afterwards */
+            int[] table = offsets.clone();
+            for (int r = 0; r < table.length; ++r) {
+                /* long arithmetic, so that a crafted table cannot wrap around */
+                if ((table[r] < 0) || (table[r] > bytes.length)
+                        || ((r > 0) && (((long) table[r] - table[r - 1]) < TAG_LENGTH))) {
+                    throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_batch_arena"));
+                }
+            }
+
+            this.bytes = bytes;
+            this.offsets = table;
+        }
+
+        /**
+         * Returns the array that holds the records (not a copy).
+         * 
+         * @return the records
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the record offsets table.
+         * 
+         * @return a copy of the record offsets (one more entry than there are
+         *         records)
+         */
+        public int[] getOffsets() {
+            return offsets.clone();
+        }
+
+        /**
+         * Returns the number of records.
+         * 
+         * @return the record count
+         */
+        public int getCount() {
+            return offsets.length - 1;
+        }
+
+        /**
+         * Returns the offset of a record's ciphertext.
+         * 
+         * @param record
+         *            the record index
+         * @return the offset of the ciphertext in {@link #getBytes()}
+         */
+        public int getOffset(final int record) {
+            return offsets[record];
+        }
+
+        /**
+         * Returns the length of a record's ciphertext (excluding its tag).
+         * 
+         * @param record
+         *            the record index
+         * @return the ciphertext length
+         */
+        public int getLength(final int record) {
+            return offsets[record + 1] - offsets[record] - TAG_LENGTH;
+        }
+
+        /**
+         * Returns the offset of a record's tag.
+         * 
+         * @param record
+         *            the record index
+         * @return the offset of the 16-byte tag in {@link #getBytes()}
+         */
+        public int getTagOffset(final int record) {
+            return offsets[record + 1] - TAG_LENGTH;
+        }
+
+        /**
+         * Returns the offset of a record's plaintext in the output of
+         * {@link HelixBatch#decrypt(byte[][], Arena, byte[])}.
+         * 
+         * @param record
+         *            the record index
+         * @return the plaintext offset
+         */
+        public int getPlainTextOffset(final int record) {
+            return offsets[record] - offsets[0] - (record * TAG_LENGTH);
+        }
+
+        /**
+         * Returns the total length of the plaintexts of every record.
+         * 
+         * @return the plaintext length
+         */
+        public int getPlainTextLength() {
+            return getPlainTextOffset(getCount());
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * Encrypts and decrypts a Helix message that is scattered across a sequence
+ * of byte buffers, without first concatenating it.
+ * 
+ * <p>
+ * The message is the remaining bytes of the source buffers, in order (as
+ * written by a <tt>GatheringByteChannel</tt>); the result is written to the
+ * remaining space of the destination buffers, in order (as read by a
+ * <tt>ScatteringByteChannel</tt>). The buffers may be of any lengths, byte
+ * orders and kinds (heap or direct): whole words within a buffer are moved a
+ * block at a time, and only a word that straddles two buffers is assembled a
+ * byte at a time. To transform a message in place, pass duplicates
+ * (<tt>ByteBuffer.duplicate()</tt>) of the source buffers as the
+ * destination buffers.
+ * </p>
+ * 
+ * <p>
+ * The positions of the source and destination buffers are advanced by the
+ * number of bytes read from and written to each; their limits and byte
+ * orders are not changed.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixByteBuffers {
+    /* the number of words transformed at a time */
+    private static final int BLOCK_WORDS = 1024;
+
+    /* no instances */
+    private HelixByteBuffers() {
+    }
+
+    /**
+     * Encrypts the remaining bytes of a sequence of buffers into another.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length, and must
+     *            never be re-used with the same key)
+     * @param sources
+     *            the buffers holding the plaintext
+     * @param destinations
+     *            the buffers that receive the ciphertext
+     * @return the 16-byte MAC
+     * @throws IllegalArgumentException
+     *             if <i>key</i> or <i>nonce</i> is not valid, or if the
+     *             destination buffers have less space remaining than the
+     *             source buffers have bytes
+     */
+    public static byte[] encrypt(final byte[] key, final byte[] nonce, final ByteBuffer[] sources,
+            final ByteBuffer[] destinations) {
+        HelixStreamTransform transform = new HelixStreamTransform(key, nonce, true);
+        try {
+            return transform(transform, sources, destinations, checkLengths(sources, destinations));
+        } finally {
+            transform.clear();
+        }
+    }
+
+    /**
+     * Decrypts the remaining bytes of a sequence of buffers into another, and
+     * verifies the MAC.
+     * 
+     * <p>
+     * If the MAC does not match, the plaintext written to the destination
+     * buffers is zeroed (their positions are still advanced).
+     * </p>
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length)
+     * @param sources
+     *            the buffers holding the ciphertext
+     * @param destinations
+     *            the buffers that receive the plaintext
+     * @param expectedMac
+     *            the 16-byte MAC that was generated by encryption
+     * @return <tt>true</tt> if the MAC matches; otherwise <tt>false</tt>
+     * @throws IllegalArgumentException
+     *             if <i>key</i>, <i>nonce</i> or <i>expectedMac</i> is not
+     *             valid, or if the destination buffers have less space
+     *             remaining than the source buffers have bytes
+     */
+    public static boolean decrypt(final byte[] key, final byte[] nonce, final ByteBuffer[] sources,
+            final ByteBuffer[] destinations, final byte[] expectedMac) {
+        if ((expectedMac == null) || (expectedMac.length != 16)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_mac"));
+        }
+
+        /* checked before the transform is keyed, so that a rejected call leaves no keyed state behind */
+        long length = checkLengths(sources, destinations);
+        HelixStreamTransform transform = new HelixStreamTransform(key, nonce, false);
+
+        /* remember where the plaintext starts, so that it can be zeroed */
+        int[] starts = new int[destinations.length];
+        for (int i = 0; i < destinations.length; ++i) {
+            starts[i] = destinations[i].position();
+        }
+
+        byte[] mac;
+        try {
+            mac = transform(transform, sources, destinations, length);
+        } finally {
+            transform.clear();
+        }
+
+        int difference = 0;
+        for (int i = 0; i < 16; ++i) {
+            difference |= mac[i] ^ expectedMac[i];
+        }
+        if (difference != 0) {
+            for (int i = 0; i < destinations.length; ++i) {
+                for (int p = starts[i]; p < destinations[i].position(); ++p) {
+                    destinations[i].put(p, (byte) 0);
+                }
+            }
+
+            ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, 1L);
+            ProviderEvents.commit(ProviderEvents.begin(ProviderEvents.MAC_FAILURE), ProviderEvents.MAC_FAILURE,
+                    "verify", "DECRYPT", length);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * Returns the number of source bytes, or throws IllegalArgumentException
+     * if the destinations cannot hold them.
+     */
+    private static long checkLengths(final ByteBuffer[] sources, final ByteBuffer[] destinations) {
+        long length = 0L;
+        for (ByteBuffer source : sources) {
+            length += source.remaining();
+        }
+        long space = 0L;
+        for (ByteBuffer destination : destinations) {
+            space += destination.remaining();
+        }
+        if (space < length) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.insufficient_buffer_space"));
+        }
+
+        return length;
+    }
+
+    /* Transforms length bytes, a block of words at a time, and returns the MAC. */
+    private static byte[] transform(final HelixStreamTransform transform, final ByteBuffer[] sources,
+            final ByteBuffer[] destinations, final long length) {
+        Cursor in = new Cursor(sources);
+        Cursor out = new Cursor(destinations);
+        int[] words = new int[(int) Math.min(BLOCK_WORDS, length >>> 2)];
+        try {
+            for (long remaining = length >>> 2; remaining > 0L; remaining -= words.length) {
+                int count = (int) Math.min(words.length, remaining);
+                in.getWords(words, count);
+                transform.transformWords(words, count);
+                out.putWords(words, count);
+            }
+
+            int extra = (int) (length & 3);
+            byte[] tail = new byte[3];
+            in.getBytes(tail, extra);
+            byte[] mac = transform.finish(tail, 0, extra);
+            out.putBytes(tail, extra);
+
+            return mac;
+        } finally {
+            Arrays.fill(words, 0);
+        }
+    }
+
+    /* A position within a sequence of buffers. */
+    private static final class Cursor {
+        /* the buffers */
+        private final ByteBuffer[] buffers;
+
+        /* the index of the current buffer */
+        private int index;
+
+        Cursor(final ByteBuffer[] buffers) {
+            this.buffers = buffers;
+        }
+
+        /* Returns the current buffer, skipping those that have no bytes remaining. */
+        private ByteBuffer current() {
+            while (!buffers[index].hasRemaining()) {
+                ++index;
+            }
+
+            return buffers[index];
+        }
+
+        /* Gets little-endian words, block-wise within buffers. */
+        void getWords(final int[] words, final int count) {
+            int i = 0;
+            while (i < count) {
+                ByteBuffer buffer = current();
+                int whole = Math.min(count - i, buffer.remaining() >>> 2);
+                if (whole > 0) {
+                    buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(words, i, whole);
+
+                    /* Buffer casts keep the Java 6 method descriptors when built on Java 9+ */
+                    ((Buffer) buffer).position(buffer.position() + (whole << 2));
+                    i += whole;
+                } else {
+                    /* the word straddles two or more buffers */
+                    int word = 0;
+                    for (int b = 0; b < 4; ++b) {
+                        word |= (current().get() & 0xff) << (b * 8);
+                    }
+                    words[i++] = word;
+                }
+            }
+        }
+
+        /* Puts little-endian words, block-wise within buffers. */
+        void putWords(final int[] words, final int count) {
+            int i = 0;
+            while (i < count) {
+                ByteBuffer buffer = current();
+                int whole = Math.min(count - i, buffer.remaining() >>> 2);
+                if (whole > 0) {
+                    buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(words, i, whole);
+                    ((Buffer) buffer).position(buffer.position() + (whole << 2));
+                    i += whole;
+                } else {
+                    /* the word straddles two or more buffers */
+                    int word = words[i++];
+                    for (int b = 0; b < 4; ++b) {
+                        current().put((byte) (word >>> (b * 8)));
+                    }
+                }
+            }
+        }
+
+        /* Gets count bytes. */
+        void getBytes(final byte[] bytes, final int count) {
+            for (int i = 0; i < count; ++i) {
+                bytes[i] = current().get();
+            }
+        }
+
+        /* Puts count bytes. */
+        void putBytes(final byte[] bytes, final int count) {
+            for (int i = 0; i < count; ++i) {
+                current().put(bytes[i]);
+            }
+        }
+    }
+}
@@ -23,6 +23,9 @@ import java.util.Arrays;
 
 import net.ninthtest.crypto.MessageAuthenticationException;
 import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
+import net.ninthtest.security.provider.ProviderConfiguration;
 
 /**
  * A Helix primitive for a single decryption operation.
@@ -32,16 +35,40 @@ import net.ninthtest.security.Messages;
  * decryption-with-MAC-verification, based upon how the instance is constructed.
  * </p>
  * 
+ * <p>
+ * MAC verification failure is signaled either by a
+ * {@link MessageAuthenticationException} from {@link #finish(byte[])}, or
+ * (without an exception) by the status returned from {@link #getMacStatus()}
+ * after {@link #finishQuietly(byte[])}; the latter is preferred where forged
+ * messages are expected to be common. Either way, the MACs are compared in
+ * constant time.
+ * </p>
+ * 
  * @author Matthew Zipay (mattz@ninthtest.net)
  * @version 1.0
  */
 public class HelixDecryption extends HelixImpl {
+    /**
+     * The MAC status of a decryption that has not completed, or that was
+     * constructed without an expected MAC.
+     */
+    public static final int MAC_UNVERIFIED = 0;
+
+    /** The MAC status of a decryption whose MAC matched the expected MAC. */
+    public static final int MAC_VERIFIED = 1;
+
+    /** The MAC status of a decryption whose MAC did not match. */
+    public static final int MAC_MISMATCH = 2;
+
     /*
      * Holds the MAC that is expected to be generated after the decryption
      * operation completes successfully.
      */
     private final byte[] expectedMac;
 
+    /* the MAC status (one of the MAC_* constants) */
+    private int macStatus = MAC_UNVERIFIED;
+
     /**
      * Creates a new <tt>HelixDecryption</tt> primitive using the specified key
      * and nonce.
@@ -83,7 +110,35 @@ public class HelixDecryption extends HelixImpl {
      *            to bypass MAC verification)
      */
     public HelixDecryption(final byte[] key, final byte[] nonce, final byte[] expectedMac) {
-        super(key, nonce);
+        this(key, nonce, expectedMac, HelixEngines.newEngine());
+    }
+
+    /**
+     * Creates a new <tt>HelixDecryption</tt> primitive (with optional MAC
+     * verification) that uses the engine selected by a provider configuration.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length)
+     * @param expectedMac
+     *            the Helix MAC that is expected to be generated after the
+     *            decryption operation completes successfully (or <tt>null</tt>
+     *            to bypass MAC verification)
+     * @param configuration
+     *            the provider configuration
+     */
+    public HelixDecryption(final byte[] key, final byte[] nonce, final byte[] expectedMac,
+            final ProviderConfiguration configuration) {
+        this(key, nonce, expectedMac, HelixEngines.newEngine(configuration));
+    }
+
+    /*
+     * Creates a new HelixDecryption primitive (with optional MAC verification)
+     * that uses a specific engine.
+     */
+    HelixDecryption(final byte[] key, final byte[] nonce, final byte[] expectedMac, final HelixEngine engine) {
+        super(key, nonce, engine);
 
         if ((expectedMac != null) && (expectedMac.length != 16)) {
             throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_mac_length"));
@@ -104,20 +159,60 @@ public class HelixDecryption extends HelixImpl {
      */
     @Override
     public byte[] finish(byte[] cipherTextBytes) {
+        byte[] plainTextBytes = finishQuietly(cipherTextBytes);
+
+        if (macStatus == MAC_MISMATCH) {
+            throw new HelixMacMismatchException(expectedMac, generatedMac());
+        }
+
+        return plainTextBytes;
+    }
+
+    /**
+     * Processes the final group of ciphertext bytes and verifies the MAC
+     * without throwing an exception.
+     * 
+     * <p>
+     * If this primitive was constructed with an expected MAC, the outcome of
+     * verification is available from {@link #getMacStatus()}. If verification
+     * fails, the returned plaintext is zeroed (it must not be used).
+     * </p>
+     * 
+     * @param cipherTextBytes
+     *            the final group of ciphertext bytes to be decrypted
+     * @return the final group of decrypted (plaintext) bytes (zeroed if MAC
+     *         verification fails)
+     */
+    public byte[] finishQuietly(byte[] cipherTextBytes) {
         byte[] plainTextBytes = super.finish(cipherTextBytes);
 
         if (expectedMac != null) {
-            byte[] generatedMac = getGeneratedMac();
+            if (generatedMacEquals(expectedMac)) {
+                macStatus = MAC_VERIFIED;
+            } else {
+                macStatus = MAC_MISMATCH;
+                Arrays.fill(plainTextBytes, (byte) 0);
 
-            if (!Arrays.equals(expectedMac, generatedMac)) {
-                throw new MessageAuthenticationException(Messages.getMessage("error.mac_mismatch"), expectedMac,
-                        generatedMac);
+                ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, 1L);
+                ProviderEvents.commit(ProviderEvents.begin(ProviderEvents.MAC_FAILURE), ProviderEvents.MAC_FAILURE,
+                        "verify", "DECRYPT", plainTextBytes.length);
             }
         }
 
         return plainTextBytes;
     }
 
+    /**
+     * Returns the outcome of MAC verification.
+     * 
+     * @return {@link #MAC_VERIFIED} or {@link #MAC_MISMATCH} once decryption
+     *         has completed (if this primitive was constructed with an
+     *         expected MAC); otherwise {@link #MAC_UNVERIFIED}
+     */
+    public int getMacStatus() {
+        return macStatus;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -130,14 +225,6 @@ public class HelixDecryption extends HelixImpl {
      */
     @Override
     protected int[] transformWords(int[] cipherTextWords, int mask) {
-        int[] plainTextWords = new int[cipherTextWords.length];
-
-        /* decryption loop */
-        for (int x = 0; x < cipherTextWords.length; ++x) {
-            plainTextWords[x] = (cipherTextWords[x] ^ nextStateWord()) & mask;
-            doBlock(plainTextWords[x]);
-        }
-
-        return plainTextWords;
+        return decryptWords(cipherTextWords, mask);
     }
 }
@@ -19,6 +19,8 @@
 
 package net.ninthtest.crypto.helix;
 
+import net.ninthtest.security.provider.ProviderConfiguration;
+
 /**
  * A Helix primitive for a single encryption operation.
  * 
@@ -39,6 +41,26 @@ public class HelixEncryption extends HelixImpl {
         super(key, nonce);
     }
 
+    /**
+     * Creates a new <tt>HelixEncryption</tt> primitive using the specified key
+     * and nonce, and the engine selected by a provider configuration.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length)
+     * @param configuration
+     *            the provider configuration
+     */
+    public HelixEncryption(final byte[] key, final byte[] nonce, final ProviderConfiguration configuration) {
+        super(key, nonce, HelixEngines.newEngine(configuration));
+    }
+
+    /* Creates a new HelixEncryption primitive that uses a specific engine. */
+    HelixEncryption(final byte[] key, final byte[] nonce, final HelixEngine engine) {
+        super(key, nonce, engine);
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -50,14 +72,6 @@ public class HelixEncryption extends HelixImpl {
      */
     @Override
     protected int[] transformWords(int[] plainTextWords, int mask) {
-        int[] cipherTextWords = new int[plainTextWords.length];
-
-        /* encryption loop */
-        for (int x = 0; x < plainTextWords.length; ++x) {
-            cipherTextWords[x] = (plainTextWords[x] ^ nextStateWord());
-            doBlock(plainTextWords[x]);
-        }
-
-        return cipherTextWords;
+        return encryptWords(plainTextWords);
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+/**
+ * The word-level Helix state machine used by a {@link HelixImpl} primitive.
+ * 
+ * <p>
+ * A primitive handles the byte-oriented concerns (buffering, padding, byte
+ * order and the total length); an engine performs key mixing, nonce mixing,
+ * the encryption/decryption loops and the MAC function on 32-bit words. An
+ * engine instance holds the state of a single operation and is not
+ * thread-safe.
+ * </p>
+ * 
+ * <p>
+ * Every engine must produce exactly the same key stream and MAC as the
+ * Dr. Dobb's reference implementation.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ * @see HelixEngines
+ */
+interface HelixEngine {
+    /**
+     * Performs key mixing.
+     * 
+     * @param keyWords
+     *            the eight (zero-padded) key words
+     * @param keyLength
+     *            the length of the key in bytes (0 to 32)
+     */
+    public void keyMixing(int[] keyWords, int keyLength);
+
+    /**
+     * Performs nonce mixing (after key mixing).
+     * 
+     * @param nonceWords
+     *            the four nonce words
+     */
+    public void nonceMixing(int[] nonceWords);
+
+    /**
+     * Returns the working key (the key words immediately following key
+     * mixing).
+     * 
+     * @return a copy of the eight working key words
+     */
+    public int[] getWorkingKey();
+
+    /**
+     * Returns the next word of key stream (state word <i>Z<sub>0</sub></i>).
+     * 
+     * @return the next key stream word
+     */
+    public int nextStateWord();
+
+    /**
+     * Applies a single Helix block to a plaintext word.
+     * 
+     * @param plainTextWord
+     *            the plaintext word
+     */
+    public void doBlock(int plainTextWord);
+
+    /**
+     * Encrypts plaintext words.
+     * 
+     * @param plainTextWords
+     *            the plaintext words
+     * @param cipherTextWords
+     *            receives the ciphertext words (may be <i>plainTextWords</i>)
+     * @param count
+     *            the number of words to encrypt
+     */
+    public void encrypt(int[] plainTextWords, int[] cipherTextWords, int count);
+
+    /**
+     * Decrypts ciphertext words.
+     * 
+     * @param cipherTextWords
+     *            the ciphertext words
+     * @param plainTextWords
+     *            receives the plaintext words (may be <i>cipherTextWords</i>)
+     * @param count
+     *            the number of words to decrypt
+     * @param mask
+     *            a mask applied to each plaintext word (to discard padding)
+     */
+    public void decrypt(int[] cipherTextWords, int[] plainTextWords, int count, int mask);
+
+    /**
+     * Performs the MAC function (after the last word has been processed).
+     * 
+     * @param totalLength
+     *            the total number of bytes encrypted or decrypted
+     * @return the four MAC words
+     */
+    public int[] macFunction(int totalLength);
+
+    /**
+     * Zeroes all key and state words.
+     */
+    public void clear();
+}
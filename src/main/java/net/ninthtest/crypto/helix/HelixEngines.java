@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.util.Locale;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.provider.ProviderConfiguration;
+
+/**
+ * Creates the {@link HelixEngine} instances used by Helix primitives.
+ * 
+ * <p>
+ * The engine implementation is selected by the
+ * <i>ninthtest.provider.engine</i> key of the provider configuration (the
+ * configuration of the provider that created the SPI implementation, or the
+ * default configuration for primitives that are created directly):
+ * </p>
+ * 
+ * <dl>
+ * <dt><i>auto</i> (default)</dt>
+ * <dd>the fastest engine available on this platform</dd>
+ * <dt><i>reference</i></dt>
+ * <dd>the {@link ReferenceHelixEngine reference engine}</dd>
+ * <dt><i>scalar</i></dt>
+ * <dd>the optimized {@link ScalarHelixEngine scalar engine}</dd>
+ * </dl>
+ * 
+ * <p>
+ * When <i>auto</i> is selected, {@link HelixMultiLane} also uses a
+ * {@link HelixLaneKernel} if one is available on this platform (the
+ * Vector API kernel requires Java 17 or later, the provider's multi-release
+ * JAR, and <tt>--add-modules jdk.incubator.vector</tt>).
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class HelixEngines {
+    /** The name that selects the fastest available engine. */
+    static final String AUTO = "auto";
+
+    /** The name of the reference engine. */
+    static final String REFERENCE = "reference";
+
+    /** The name of the optimized scalar engine. */
+    static final String SCALAR = "scalar";
+
+    /* the class name of the (optional) Vector API lane kernel */
+    private static final String VECTOR_LANE_KERNEL_CLASS_NAME = "net.ninthtest.crypto.helix.VectorHelixLaneKernel";
+
+    /* the lane kernel available on this platform (or null) */
+    private static final HelixLaneKernel AVAILABLE_LANE_KERNEL = loadLaneKernel();
+
+    /*
+     * identifies the selection (the resolved engine name and the lane kernel)
+     * cached with each configuration
+     */
+    private static final Object SELECTION = new Object();
+
+    /**
+     * Creates a new engine of the implementation selected by the default
+     * provider configuration.
+     * 
+     * @return a new engine
+     */
+    static HelixEngine newEngine() {
+        return newEngine(ProviderConfiguration.getDefault());
+    }
+
+    /**
+     * Creates a new engine of the implementation selected by a provider
+     * configuration.
+     * 
+     * @param configuration
+     *            the provider configuration
+     * @return a new engine
+     */
+    static HelixEngine newEngine(final ProviderConfiguration configuration) {
+        return newEngine((String) getSelection(configuration)[0]);
+    }
+
+    /**
+     * Creates a new engine of the named implementation.
+     * 
+     * @param name
+     *            an engine name (<i>auto</i>, <i>reference</i> or
+     *            <i>scalar</i>)
+     * @return a new engine
+     * @throws IllegalArgumentException
+     *             if <i>name</i> is not a recognized engine name
+     */
+    static HelixEngine newEngine(final String name) {
+        String resolved = resolve(name);
+        if (REFERENCE.equals(resolved)) {
+            return new ReferenceHelixEngine();
+        }
+
+        return new ScalarHelixEngine();
+    }
+
+    /**
+     * Returns the name of the engine implementation selected by a provider
+     * configuration.
+     * 
+     * @param configuration
+     *            the provider configuration
+     * @return the (resolved) engine name; never <i>auto</i>
+     */
+    static String getSelectedName(final ProviderConfiguration configuration) {
+        return (String) getSelection(configuration)[0];
+    }
+
+    /**
+     * Returns the lane kernel selected by the default provider configuration.
+     * 
+     * @return the lane kernel, or <tt>null</tt> if no kernel is available or
+     *         the <i>auto</i> engine is not selected
+     */
+    static HelixLaneKernel getLaneKernel() {
+        return (HelixLaneKernel) getSelection(ProviderConfiguration.getDefault())[1];
+    }
+
+    /*
+     * Returns the selection of a configuration: the resolved engine name and
+     * the lane kernel (resolved once, and cached with the configuration).
+     */
+    private static Object[] getSelection(final ProviderConfiguration configuration) {
+        Object[] selection = (Object[]) configuration.getCached(SELECTION);
+        if (selection == null) {
+            String name = configuration.get(ProviderConfiguration.ENGINE);
+            HelixLaneKernel kernel = AUTO.equalsIgnoreCase(name) ? AVAILABLE_LANE_KERNEL : null;
+            selection = (Object[]) configuration.cacheIfAbsent(SELECTION, new Object[] {resolve(name), kernel});
+        }
+
+        return selection;
+    }
+
+    /*
+     * Loads the Vector API lane kernel, or returns null if it is not
+     * available.
+     */
+    private static HelixLaneKernel loadLaneKernel() {
+        try {
+            return (HelixLaneKernel) Class.forName(VECTOR_LANE_KERNEL_CLASS_NAME).newInstance();
+        } catch (Throwable th) {
+            /*
+             * the kernel is not available (not packaged, a Java 16 or earlier
+             * runtime, or the jdk.incubator.vector module is not resolved)
+             */
+            return null;
+        }
+    }
+
+    /*
+     * Resolves an engine name to the name of an available implementation.
+     */
+    private static String resolve(final String name) {
+        String lowerName = (name != null) ? name.toLowerCase(Locale.ENGLISH) : null;
+        if (AUTO.equals(lowerName) || SCALAR.equals(lowerName)) {
+            return SCALAR;
+        } else if (REFERENCE.equals(lowerName)) {
+            return REFERENCE;
+        }
+
+        throw new IllegalArgumentException(Messages.getMessage("error.invalid_configuration_value",
+                ProviderConfiguration.ENGINE, name));
+    }
+
+    private HelixEngines() {
+        /* never instantiated */
+    }
+}
@@ -22,6 +22,7 @@ package net.ninthtest.crypto.helix;
 import java.util.Arrays;
 
 import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderStatistics;
 
 /**
  * The implementation of the Helix combined stream cipher and MAC function used
@@ -33,17 +34,20 @@ import net.ninthtest.security.Messages;
  * Encryption &amp; Authentication</a> (Dr. Dobb's November 2003).
  * </p>
  * 
+ * <p>
+ * The word-level operations are performed by a {@link HelixEngine} selected at
+ * runtime (see {@link HelixEngines}); this class handles buffering, padding and
+ * byte order.
+ * </p>
+ * 
  * @author Matthew Zipay (mattz@ninthtest.net)
  * @version 1.0
  * @see <a href="http://www.schneier.com/paper-helix.html">Helix: Fast
  *      Encryption and Authentication in a Single Cryptographic Primitive</a>
  */
 abstract class HelixImpl implements HelixPrimitive {
-    /* length of the Helix key in bytes */
-    private int lU;
-
-    /* the eight 32-bit working/expanded key words */
-    private int[] K;
+    /* the engine that performs the word-level Helix operations */
+    private HelixEngine engine;
 
     /*
      * the Helix "working key" (the key words immediately following key mixing);
@@ -52,15 +56,6 @@ abstract class HelixImpl implements HelixPrimitive {
      */
     private byte[] workingKey;
 
-    /* the five 32-bit state words */
-    private int[] Z;
-
-    /* the eight 32-bit key material words */
-    private int[] X1;
-
-    /* keeps track of the Helix block */
-    private int i8;
-
     /*
      * the generated MAC (after a successful encryption or decryption operation)
      */
@@ -93,110 +88,43 @@ abstract class HelixImpl implements HelixPrimitive {
 
     /* Performs the initial key and nonce mixing. */
     HelixImpl(final byte[] U, final byte[] N) {
+        this(U, N, HelixEngines.newEngine());
+    }
+
+    /* Performs the initial key and nonce mixing using a specific engine. */
+    HelixImpl(final byte[] U, final byte[] N, final HelixEngine engine) {
         if ((U == null) || (U.length > 32)) {
             throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
         } else if ((N == null) || (N.length != 16)) {
             throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_nonce"));
         }
 
-        lU = U.length;
-
-        K = new int[8];
-        Z = new int[5];
-        X1 = new int[8];
-
-        if (32 == lU) {
-            bytesToInts(U, 0, 32, K, 0);
+        int[] keyWords = new int[8];
+        if (32 == U.length) {
+            bytesToInts(U, 0, 32, keyWords, 0);
         } else {
             // expand key to 32 bytes
             byte[] extendedInputKey = new byte[32];
-            System.arraycopy(U, 0, extendedInputKey, 0, lU);
-            bytesToInts(extendedInputKey, 0, 32, K, 0);
+            System.arraycopy(U, 0, extendedInputKey, 0, U.length);
+            bytesToInts(extendedInputKey, 0, 32, keyWords, 0);
         }
 
+        int[] nonceWords = new int[4];
+        bytesToInts(N, 0, 16, nonceWords, 0);
+
         /*
          * initialize Helix state for encryption or decryption (key mixing
          * yields the "working key," used for unit testing with the official
          * Helix test vectors)
          */
-        workingKey = keyMixing();
-        nonceMixing(N);
-    }
-
-    /*
-     * Converts the expanded key to the working key (K) using the Helix block
-     * function.
-     */
-    private byte[] keyMixing() {
-        int lUPlus64 = lU + 64;
-        int[] words = new int[8];
-
-        for (int i = 0; i < 8; ++i) {
-            System.arraycopy(K, 0, Z, 0, 4);
-            Z[4] = lUPlus64;
-
-            blockFunction(0, 0, 0);
-
-            System.arraycopy(K, 0, words, 0, 8);
-
-            K[0] = words[4] ^ Z[0];
-            K[1] = words[5] ^ Z[1];
-            K[2] = words[6] ^ Z[2];
-            K[3] = words[7] ^ Z[3];
-
-            System.arraycopy(words, 0, K, 4, 4);
-        }
-
-        /*
-         * return the "working key" (for unit testing using the official Helix
-         * test vectors)
-         */
-        return intsToBytes(K);
-    }
-
-    /*
-     * Expand the nonce to eight words (32-bit integers) and mix using the Helix
-     * block function.
-     */
-    private void nonceMixing(final byte[] N) {
-        // expand the nonce
-        int[] nonceWords = new int[8];
-        bytesToInts(N, 0, 16, nonceWords, 0);
-
-        for (int i = 0; i < 4; ++i) {
-            nonceWords[i + 4] = (i - nonceWords[i]);
-        }
-
-        int x = 0;
-        for (int i = 0; i < 8; ++i) {
-            x = ((i % 4) == 1) ? 4 * lU : 0;
-            X1[i] = K[(i + 4) % 8] + nonceWords[i] + x;
-        }
-
-        Z[0] = (K[3] ^ nonceWords[0]);
-        Z[1] = (K[4] ^ nonceWords[1]);
-        Z[2] = (K[5] ^ nonceWords[2]);
-        Z[3] = (K[6] ^ nonceWords[3]);
-        Z[4] = K[7];
-
-        i8 = 0;
-
-        for (int i = 0; i < 8; ++i) {
-            doBlock(0);
-        }
-    }
+        this.engine = engine;
+        engine.keyMixing(keyWords, U.length);
+        workingKey = intsToBytes(engine.getWorkingKey());
+        engine.nonceMixing(nonceWords);
 
-    /*
-     * Converts an array of bytes into an array of 32-bit integers.
-     * 
-     * The bytes array is a contiguous block of 4-byte sequences representing
-     * integers (least-significant bytes first).
-     */
-    private int[] bytesToInts(final byte[] bytes) {
-        int[] ints = new int[bytes.length / 4];
-        bytesToInts(bytes, 0, bytes.length, ints, 0);
+        Arrays.fill(keyWords, 0);
 
-        return ints;
+        ProviderStatistics.record(ProviderStatistics.KEY_SCHEDULES, 1L);
     }
 
     /*
@@ -206,12 +134,7 @@ abstract class HelixImpl implements HelixPrimitive {
      * integers (least-significant bytes first).
      */
     private void bytesToInts(final byte[] bytes, int bx, final int by, final int[] ints, int ix) {
-        int b = bx;
-        int i = ix;
-        while (b < by) {
-            ints[i++] =
-                    (bytes[b++] & 0xff) + ((bytes[b++] & 0xff) << 8) + ((bytes[b++] & 0xff) << 16) + (bytes[b++] << 24);
-        }
+        HelixWords.toInts(bytes, bx, ints, ix, (by - bx) / 4);
     }
 
     /*
@@ -221,86 +144,12 @@ abstract class HelixImpl implements HelixPrimitive {
      * representing integers (least-significant bytes first).
      */
     private byte[] intsToBytes(final int[] ints) {
-        int ix = 0;
-        int iy = ints.length;
-        int bx = 0;
-
-        byte[] bytes = new byte[iy * 4];
-
-        while (ix < iy) {
-            bytes[bx++] = (byte) ints[ix];
-            bytes[bx++] = (byte) (ints[ix] >> 8);
-            bytes[bx++] = (byte) (ints[ix] >> 16);
-            bytes[bx++] = (byte) (ints[ix] >> 24);
-            ++ix;
-        }
+        byte[] bytes = new byte[ints.length * 4];
+        HelixWords.toBytes(ints, 0, bytes, 0, ints.length);
 
         return bytes;
     }
 
-    /*
-     * Executes a single block of Helix.
-     * 
-     * At the end of the block function, the next word of key stream is in Z[0].
-     */
-    private void blockFunction(final int X_i0, final int X_i1, final int W_i) {
-        int z0 = Z[0];
-        int z1 = Z[1];
-        int z2 = Z[2];
-        int z3 = Z[3];
-        int z4 = Z[4];
-
-        z0 += z3;
-        z3 = (z3 << 15) | (z3 >>> -15);
-        z1 += z4;
-        z4 = (z4 << 25) | (z4 >>> -25);
-        z2 ^= z0;
-        z0 = (z0 << 9) | (z0 >>> -9);
-        z3 ^= z1;
-        z1 = (z1 << 10) | (z1 >>> -10);
-        z4 += z2;
-        z2 = (z2 << 17) | (z2 >>> -17);
-
-        z0 ^= (z3 + X_i0);
-        z3 = (z3 << 30) | (z3 >>> -30);
-        z1 ^= z4;
-        z4 = (z4 << 13) | (z4 >>> -13);
-        z2 += z0;
-        z0 = (z0 << 20) | (z0 >>> -20);
-        z3 += z1;
-        z1 = (z1 << 11) | (z1 >>> -11);
-        z4 ^= z2;
-        z2 = (z2 << 5) | (z2 >>> -5);
-
-        z0 += (z3 ^ W_i);
-        z3 = (z3 << 15) | (z3 >>> -15);
-        z1 += z4;
-        z4 = (z4 << 25) | (z4 >>> -25);
-        z2 ^= z0;
-        z0 = (z0 << 9) | (z0 >>> -9);
-        z3 ^= z1;
-        z1 = (z1 << 10) | (z1 >>> -10);
-        z4 += z2;
-        z2 = (z2 << 17) | (z2 >>> -17);
-
-        z0 ^= (z3 + X_i1);
-        z3 = (z3 << 30) | (z3 >>> -30);
-        z1 ^= z4;
-        z4 = (z4 << 13) | (z4 >>> -13);
-        z2 += z0;
-        z0 = (z0 << 20) | (z0 >>> -20);
-        z3 += z1;
-        z1 = (z1 << 11) | (z1 >>> -11);
-        z4 ^= z2;
-        z2 = (z2 << 5) | (z2 >>> -5);
-
-        Z[0] = z0;
-        Z[1] = z1;
-        Z[2] = z2;
-        Z[3] = z3;
-        Z[4] = z4;
-    }
-
     /**
      * Returns the next state word for use in the main encryption/decryption
      * loop.
@@ -308,7 +157,7 @@ abstract class HelixImpl implements HelixPrimitive {
      * @return the state word <tt>Z[0]</tt>.
      */
     protected final int nextStateWord() {
-        return Z[0];
+        return engine.nextStateWord();
     }
 
     /**
@@ -318,19 +167,37 @@ abstract class HelixImpl implements HelixPrimitive {
      *            a single word (32-bit integer) of plaintext or ciphertext
      */
     protected final void doBlock(int word) {
-        int i = i8 % 8;
+        engine.doBlock(word);
+    }
 
-        int X_i0 = K[i];
+    /**
+     * Encrypts plaintext words using the engine's encryption loop.
+     * 
+     * @param plainTextWords
+     *            the plaintext words
+     * @return the ciphertext words
+     */
+    protected final int[] encryptWords(final int[] plainTextWords) {
+        int[] cipherTextWords = new int[plainTextWords.length];
+        engine.encrypt(plainTextWords, cipherTextWords, plainTextWords.length);
 
-        int X_i1 = X1[i];
-        if ((i % 4) == 3) {
-            X_i1 += i8 >> 31;
-        }
-        X_i1 += i8;
+        return cipherTextWords;
+    }
 
-        blockFunction(X_i0, X_i1, word);
+    /**
+     * Decrypts ciphertext words using the engine's decryption loop.
+     * 
+     * @param cipherTextWords
+     *            the ciphertext words
+     * @param mask
+     *            a 32-bit mask applied to each plaintext word
+     * @return the plaintext words
+     */
+    protected final int[] decryptWords(final int[] cipherTextWords, final int mask) {
+        int[] plainTextWords = new int[cipherTextWords.length];
+        engine.decrypt(cipherTextWords, plainTextWords, cipherTextWords.length, mask);
 
-        i8 += 1;
+        return plainTextWords;
     }
 
     /**
@@ -373,35 +240,42 @@ abstract class HelixImpl implements HelixPrimitive {
         totalLength += part.length;
 
         /*
-         * the text array will contain any previously-buffered bytes followed by
-         * the input bytes
+         * the text to be processed is any previously-buffered bytes followed by
+         * the input bytes; words are read directly from part (only a word that
+         * spans the buffer and part is assembled separately)
          */
-        byte[] text = null;
-        if (buffer != null) {
-            text = new byte[buffer.length + part.length];
-            System.arraycopy(buffer, 0, text, 0, buffer.length);
-            System.arraycopy(part, 0, text, buffer.length, part.length);
-            /*
-             * clear the buffer; it may be re-initialized later, if the number
-             * of text bytes does not equate to a whole number of words (32-bit
-             * ints)
-             */
-            buffer = null;
-        } else {
-            text = new byte[part.length];
-            System.arraycopy(part, 0, text, 0, part.length);
+        int buffered = (buffer != null) ? buffer.length : 0;
+        int extra = (buffered + part.length) % 4;
+        int processed = (buffered + part.length) - extra;
+
+        int[] inputWords = new int[processed / 4];
+        if (0 == buffered) {
+            HelixWords.toInts(part, 0, inputWords, 0, inputWords.length);
+        } else if (processed != 0) {
+            int fill = 4 - buffered;
+            byte[] spanning = new byte[4];
+            System.arraycopy(buffer, 0, spanning, 0, buffered);
+            System.arraycopy(part, 0, spanning, buffered, fill);
+            HelixWords.toInts(spanning, 0, inputWords, 0, 1);
+            HelixWords.toInts(part, fill, inputWords, 1, inputWords.length - 1);
         }
 
-        int extra = text.length % 4;
-        int processed = text.length - extra;
-
         /*
          * if any bytes will be unprocessed, buffer them (note that the buffer
          * will ALWAYS be an array of length 1, 2, or 3; or null)
          */
+        byte[] previous = buffer;
+        buffer = null;
         if (extra != 0) {
             buffer = new byte[extra];
-            System.arraycopy(text, processed, buffer, 0, extra);
+            if (0 == processed) {
+                if (buffered != 0) {
+                    System.arraycopy(previous, 0, buffer, 0, buffered);
+                }
+                System.arraycopy(part, 0, buffer, buffered, part.length);
+            } else {
+                System.arraycopy(part, part.length - extra, buffer, 0, extra);
+            }
         }
 
         /* bail early if there would be no text produced */
@@ -409,10 +283,6 @@ abstract class HelixImpl implements HelixPrimitive {
             return null;
         }
 
-        byte[] inputBytes = new byte[processed];
-        System.arraycopy(text, 0, inputBytes, 0, processed);
-
-        int[] inputWords = bytesToInts(inputBytes);
         int[] outputWords = transformWords(inputWords, mask);
 
         byte[] outputBytes = intsToBytes(outputWords);
@@ -552,21 +422,7 @@ abstract class HelixImpl implements HelixPrimitive {
 
     /* Generates the MAC after a Helix encryption/decryption operation. */
     private byte[] macFunction() {
-        int lengthMod4 = totalLength % 4;
-
-        Z[0] ^= 0x912d94f1;
-
-        for (int i = 0; i < 8; ++i) {
-            doBlock(lengthMod4);
-        }
-
-        int[] tag = new int[4];
-        for (int i = 0; i < 4; ++i) {
-            tag[i] = Z[0];
-            doBlock(lengthMod4);
-        }
-
-        return intsToBytes(tag);
+        return intsToBytes(engine.macFunction(totalLength));
     }
 
     /**
@@ -589,6 +445,42 @@ abstract class HelixImpl implements HelixPrimitive {
         return mac;
     }
 
+    /**
+     * Compares the generated MAC to an expected MAC in constant time.
+     * 
+     * <p>
+     * Every byte is compared (the time taken does not depend on where the MACs
+     * differ), and nothing is allocated.
+     * </p>
+     * 
+     * @param expectedMac
+     *            the 16-byte expected MAC
+     * @return <tt>true</tt> if the MACs are equal
+     * @throws IllegalStateException
+     *             if the encryption/decryption operation has not completed
+     *             successfully
+     */
+    protected final boolean generatedMacEquals(final byte[] expectedMac) {
+        if (!stateIsCleared || (T == null)) {
+            throw new IllegalStateException(Messages.getMessage("helix.error.mac_not_available"));
+        }
+
+        int difference = 0;
+        for (int i = 0; i < 16; ++i) {
+            difference |= T[i] ^ expectedMac[i];
+        }
+
+        return (difference == 0);
+    }
+
+    /*
+     * Returns the generated MAC itself (not a copy; it is never modified once
+     * the operation has completed).
+     */
+    final byte[] generatedMac() {
+        return T;
+    }
+
     /*
      * Zeroes and/or nullifies all internal state following a Helix
      * encryption/decryption operation.
@@ -598,22 +490,12 @@ abstract class HelixImpl implements HelixPrimitive {
      * be thrown.
      */
     private void clearState() {
-        lU = 0;
-
-        Arrays.fill(K, 0);
-        K = null;
+        engine.clear();
+        engine = null;
 
         Arrays.fill(workingKey, (byte) 0);
         workingKey = null;
 
-        Arrays.fill(Z, 0);
-        Z = null;
-
-        Arrays.fill(X1, 0);
-        X1 = null;
-
-        i8 = 0;
-
         buffer = null;
 
         totalLength = 0;
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * An input stream that decrypts a stream written by
+ * {@link HelixOutputStream}, and verifies its MAC.
+ * 
+ * <p>
+ * The nonce is read from the underlying stream when this stream is created.
+ * Ciphertext is read into a single buffer (64 KB by default) and decrypted in
+ * place, always holding back the last 16 bytes read (which may be the MAC),
+ * so steady-state reading allocates nothing.
+ * </p>
+ * 
+ * <p>
+ * The MAC is verified when the end of the underlying stream is reached, or
+ * (if the end has not been reached) when this stream is closed, in which case
+ * the remaining ciphertext is read and decrypted first. If verification
+ * fails, an <tt>IOException</tt> whose cause is a
+ * {@link net.ninthtest.crypto.MessageAuthenticationException} is thrown.
+ * <b>Plaintext returned before the end of the stream has not yet been
+ * authenticated</b>; do not act on it until this stream has returned -1 or
+ * been closed without an exception.
+ * </p>
+ * 
+ * <p>
+ * A stream written with a codec (see
+ * {@link HelixOutputStream#HelixOutputStream(java.io.OutputStream, byte[], byte[], int, int)}
+ * ) must be read by a <tt>HelixInputStream</tt> that expects a codec byte.
+ * With the deflate codec, an <tt>Inflater</tt> decompresses directly from the
+ * buffer in which the ciphertext was decrypted.
+ * </p>
+ * 
+ * <p>
+ * A <tt>HelixInputStream</tt> does not support mark/reset, and is not
+ * thread-safe.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixInputStream extends FilterInputStream {
+    /** The default buffer size (bytes). */
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /* the length (bytes) of the nonce header and of the MAC trailer */
+    private static final int NONCE_LENGTH = 16;
+    private static final int MAC_LENGTH = 16;
+
+    /* the Helix transform */
+    private final HelixStreamTransform transform;
+
+    /*
+     * plaintext [position, limit) followed by ciphertext that has not yet been
+     * decrypted [limit, count)
+     */
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private int count;
+
+    /* decompresses the plaintext from the buffer (or null) */
+    private Inflater inflater;
+
+    /* the byte read by read() when decompressing */
+    private final byte[] single = new byte[1];
+
+    /* the bytes discarded by skip(long) when decompressing (or null) */
+    private byte[] skipped;
+
+    /* true once the MAC has been verified */
+    private boolean verified;
+
+    /* the MAC verification (or truncation) failure, if any */
+    private IOException failure;
+
+    /* true once this stream has been closed */
+    private boolean closed;
+
+    /**
+     * Creates a new <tt>HelixInputStream</tt> with the default buffer size,
+     * and reads the nonce from the underlying stream.
+     * 
+     * @param in
+     *            the underlying input stream
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @throws IOException
+     *             if the nonce cannot be read
+     * @throws IllegalArgumentException
+     *             if <i>key</i> is not valid
+     */
+    public HelixInputStream(final InputStream in, final byte[] key) throws IOException {
+        this(in, key, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new <tt>HelixInputStream</tt>, and reads the nonce from the
+     * underlying stream.
+     * 
+     * @param in
+     *            the underlying input stream
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param bufferSize
+     *            the buffer size in bytes (rounded down to a multiple of four;
+     *            at least 36)
+     * @throws IOException
+     *             if the nonce cannot be read
+     * @throws IllegalArgumentException
+     *             if <i>key</i> or <i>bufferSize</i> is not valid
+     */
+    public HelixInputStream(final InputStream in, final byte[] key, final int bufferSize) throws IOException {
+        super(in);
+
+        if (in == null) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.stream_is_required"));
+        } else if (bufferSize < (MAC_LENGTH + 20)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_buffer_size"));
+        }
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+        for (int n = 0; n < NONCE_LENGTH;) {
+            int read = in.read(nonce, n, NONCE_LENGTH - n);
+            if (read < 0) {
+                throw new IOException(Messages.getMessage("helix.error.stream_truncated"));
+            }
+            n += read;
+        }
+
+        transform = new HelixStreamTransform(key, nonce, false);
+        buffer = new byte[bufferSize & ~3];
+    }
+
+    /**
+     * Creates a new <tt>HelixInputStream</tt>, reads the nonce from the
+     * underlying stream and, if a codec byte is expected, reads and decrypts
+     * the codec byte.
+     * 
+     * @param in
+     *            the underlying input stream
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param bufferSize
+     *            the buffer size in bytes (rounded down to a multiple of four;
+     *            at least 36)
+     * @param codecHeader
+     *            <tt>true</tt> if the stream was written with a codec (and
+     *            begins with a codec byte)
+     * @throws IOException
+     *             if the nonce or codec byte cannot be read, or if the codec is
+     *             not known
+     * @throws IllegalArgumentException
+     *             if <i>key</i> or <i>bufferSize</i> is not valid
+     */
+    public HelixInputStream(final InputStream in, final byte[] key, final int bufferSize, final boolean codecHeader)
+            throws IOException {
+        this(in, key, bufferSize);
+
+        if (codecHeader) {
+            if (!ensureAvailable()) {
+                throw new IOException(Messages.getMessage("helix.error.stream_truncated"));
+            }
+
+            int codec = buffer[position++];
+            if (codec == HelixOutputStream.CODEC_DEFLATE) {
+                inflater = new Inflater(true);
+            } else if (codec != HelixOutputStream.CODEC_NONE) {
+                throw new IOException(Messages.getMessage("helix.error.unknown_codec", codec));
+            }
+        }
+    }
+
+    /**
+     * Reads and decrypts a byte.
+     * 
+     * @return the next plaintext byte, or -1 if the end of the stream has been
+     *         reached (and the MAC has been verified)
+     * @throws IOException
+     *             if this stream is closed, if MAC verification fails, or if
+     *             an I/O error occurs
+     */
+    @Override
+    public int read() throws IOException {
+        if (inflater != null) {
+            return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xff);
+        } else if (!ensureAvailable()) {
+            return -1;
+        }
+
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Reads and decrypts bytes.
+     * 
+     * @param b
+     *            receives the plaintext bytes
+     * @param off
+     *            the offset of the first byte to be written
+     * @param len
+     *            the maximum number of bytes to read
+     * @return the number of bytes read, or -1 if the end of the stream has
+     *         been reached (and the MAC has been verified)
+     * @throws IOException
+     *             if this stream is closed, if MAC verification fails, or if
+     *             an I/O error occurs
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if ((off < 0) || (len < 0) || (off > (b.length - len))) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        } else if (inflater != null) {
+            return inflate(b, off, len);
+        } else if (!ensureAvailable()) {
+            return -1;
+        }
+
+        int length = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, length);
+        position += length;
+
+        return length;
+    }
+
+    /**
+     * Skips plaintext bytes (which are still read and decrypted, so that the
+     * MAC can be verified).
+     * 
+     * @param n
+     *            the number of bytes to skip (nothing is skipped if
+     *            <tt>n</tt> is not positive)
+     * @return the number of bytes skipped
+     * @throws IOException
+     *             if this stream is closed, if MAC verification fails, or if
+     *             an I/O error occurs
+     */
+    @Override
+    public long skip(final long n) throws IOException {
+        ensureOpen();
+        if (n <= 0L) {
+            return 0L;
+        }
+
+        if (inflater != null) {
+            if (skipped == null) {
+                skipped = new byte[4096];
+            }
+            long total = 0L;
+            for (int read = 0; (total < n) && (read >= 0); total += Math.max(read, 0)) {
+                read = inflate(skipped, 0, (int) Math.min(n - total, skipped.length));
+            }
+
+            return total;
+        }
+
+        long skipped = 0L;
+        while ((skipped < n) && ensureAvailable()) {
+            int length = (int) Math.min(n - skipped, limit - position);
+            position += length;
+            skipped += length;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Returns the number of decrypted bytes that can be read without
+     * blocking (zero if the stream is compressed).
+     * 
+     * @return the number of buffered plaintext bytes
+     * @throws IOException
+     *             if this stream is closed
+     */
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+
+        return (inflater != null) ? 0 : (limit - position);
+    }
+
+    /**
+     * Returns <tt>false</tt>; mark/reset is not supported.
+     * 
+     * @return <tt>false</tt>
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Does nothing; mark/reset is not supported.
+     * 
+     * @param readlimit
+     *            ignored
+     */
+    @Override
+    public synchronized void mark(final int readlimit) {
+        /* not supported */
+    }
+
+    /**
+     * Throws <tt>IOException</tt>; mark/reset is not supported.
+     * 
+     * @throws IOException
+     *             always
+     */
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException(Messages.getMessage("helix.error.mark_not_supported"));
+    }
+
+    /**
+     * Verifies the MAC (reading and decrypting any remaining ciphertext if the
+     * end of the stream has not been reached), then closes the underlying
+     * stream.
+     * 
+     * <p>
+     * Closing a closed stream has no effect.
+     * </p>
+     * 
+     * @throws IOException
+     *             if MAC verification fails, or if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            while (!verified && (failure == null)) {
+                position = limit;
+                fill();
+            }
+        } finally {
+            closed = true;
+            if (inflater != null) {
+                inflater.end();
+            }
+            transform.clear();
+            Arrays.fill(buffer, (byte) 0);
+            in.close();
+        }
+    }
+
+    /*
+     * Decompresses into b, feeding the inflater from the decrypted bytes of
+     * the buffer; returns -1 once the compressed data and the stream have
+     * both ended (and the MAC has been verified).
+     */
+    private int inflate(final byte[] b, final int off, final int len) throws IOException {
+        ensureOpen();
+
+        while (true) {
+            int inflated;
+            try {
+                inflated = inflater.inflate(b, off, len);
+            } catch (DataFormatException ex) {
+                throw new IOException(Messages.getMessage("helix.error.invalid_compressed_data"), ex);
+            }
+            if (inflated > 0) {
+                return inflated;
+            } else if (inflater.finished()) {
+                /* nothing may follow the compressed data */
+                if ((inflater.getRemaining() != 0) || ensureAvailable()) {
+                    throw new IOException(Messages.getMessage("helix.error.invalid_compressed_data"));
+                }
+                return -1;
+            } else if (inflater.needsDictionary()) {
+                throw new IOException(Messages.getMessage("helix.error.invalid_compressed_data"));
+            }
+
+            /* the inflater has consumed all of its input, so the buffer may be refilled */
+            if (!ensureAvailable()) {
+                throw new IOException(Messages.getMessage("helix.error.invalid_compressed_data"));
+            }
+            inflater.setInput(buffer, position, limit - position);
+            position = limit;
+        }
+    }
+
+    /*
+     * Ensures that plaintext is available, returning false if the end of the
+     * stream has been reached.
+     */
+    private boolean ensureAvailable() throws IOException {
+        ensureOpen();
+
+        while (position == limit) {
+            if (failure != null) {
+                throw failure;
+            } else if (verified) {
+                return false;
+            }
+            fill();
+        }
+
+        return true;
+    }
+
+    /*
+     * Reads more ciphertext and decrypts every whole word except those that
+     * may be part of the MAC; at the end of the stream, decrypts the rest and
+     * verifies the MAC.
+     */
+    private void fill() throws IOException {
+        int pending = count - limit;
+        System.arraycopy(buffer, limit, buffer, 0, pending);
+        count = pending;
+        position = limit = 0;
+
+        while (true) {
+            int read = in.read(buffer, count, buffer.length - count);
+            if (read < 0) {
+                verify();
+                return;
+            }
+            count += read;
+
+            int ready = (count - MAC_LENGTH) & ~3;
+            if (ready > 0) {
+                transform.transform(buffer, 0, ready);
+                limit = ready;
+                return;
+            }
+        }
+    }
+
+    /* Decrypts the remaining ciphertext and verifies the MAC that follows it. */
+    private void verify() throws IOException {
+        if (count < MAC_LENGTH) {
+            failure = new IOException(Messages.getMessage("helix.error.stream_truncated"));
+            throw failure;
+        }
+
+        int length = count - MAC_LENGTH;
+        int words = length & ~3;
+        transform.transform(buffer, 0, words);
+        byte[] generatedMac = transform.finish(buffer, words, length - words);
+
+        int difference = 0;
+        for (int i = 0; i < MAC_LENGTH; ++i) {
+            difference |= generatedMac[i] ^ buffer[length + i];
+        }
+
+        if (difference != 0) {
+            byte[] expectedMac = Arrays.copyOfRange(buffer, length, count);
+            Arrays.fill(buffer, (byte) 0);
+            count = 0;
+
+            ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, 1L);
+            ProviderEvents.commit(ProviderEvents.begin(ProviderEvents.MAC_FAILURE), ProviderEvents.MAC_FAILURE,
+                    "verify", "DECRYPT", length);
+
+            failure = new IOException(Messages.getMessage("error.mac_mismatch"), new HelixMacMismatchException(
+                    expectedMac, generatedMac));
+            throw failure;
+        }
+
+        limit = length;
+        count = length;
+        verified = true;
+    }
+
+    /* Throws IOException if this stream has been closed. */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException(Messages.getMessage("helix.error.stream_closed"));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+/**
+ * Advances several {@link HelixMultiLane} lanes in lockstep (typically using
+ * SIMD instructions).
+ * 
+ * <p>
+ * A kernel is optional: {@link HelixEngines#getLaneKernel()} returns one only
+ * if a kernel implementation is available on this platform and the
+ * <i>auto</i> engine is selected; otherwise lanes are advanced by the scalar
+ * four-lane lockstep of {@link HelixMultiLane}.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+interface HelixLaneKernel {
+    /**
+     * Returns the number of lanes advanced by each call to
+     * {@link #lockstep(int[][], int[][], int[][], int[], int[], int, int, int, boolean)}.
+     * 
+     * @return the number of lanes per call (at most
+     *         {@link HelixMultiLane#MAX_LANES})
+     */
+    int lanes();
+
+    /**
+     * Advances {@link #lanes()} lanes, starting at <i>lane</i>, by
+     * <i>steps</i> blocks (one word of input per lane per block).
+     * 
+     * <p>
+     * All lanes start at block index 8 (following nonce mixing). The words of
+     * <i>in</i> and <i>out</i> are step-major: the word of lane <i>l</i> in
+     * step <i>s</i> is at index <tt>(s * stride) + l</tt>.
+     * </p>
+     * 
+     * @param k
+     *            the working key words (<tt>k[i][l]</tt> for lane <i>l</i>)
+     * @param x1
+     *            the second X key words (<tt>x1[i][l]</tt>)
+     * @param z
+     *            the state words (<tt>z[i][l]</tt>), updated in place
+     * @param in
+     *            the input words
+     * @param out
+     *            receives the output words
+     * @param stride
+     *            the number of words per step in <i>in</i> and <i>out</i>
+     * @param lane
+     *            the first lane to advance
+     * @param steps
+     *            the number of blocks
+     * @param encrypt
+     *            <tt>true</tt> if the input is plaintext, <tt>false</tt> if
+     *            it is ciphertext
+     */
+    void lockstep(int[][] k, int[][] x1, int[][] z, int[] in, int[] out, int stride, int lane, int steps,
+            boolean encrypt);
+}
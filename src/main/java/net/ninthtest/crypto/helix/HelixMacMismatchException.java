@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import net.ninthtest.crypto.MessageAuthenticationException;
+import net.ninthtest.security.Messages;
+
+/**
+ * The {@link MessageAuthenticationException} thrown by
+ * {@link HelixDecryption#finish(byte[])} when MAC verification fails.
+ * 
+ * <p>
+ * Because a flood of forged messages makes MAC verification failure a hot
+ * path, this exception is as cheap as possible to throw: it does not fill in
+ * a stack trace, its detail message is only formatted (and then cached) when
+ * it is first requested, and the expected and generated MACs are only copied
+ * when they are requested.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class HelixMacMismatchException extends MessageAuthenticationException {
+    /* The universal serialization version ID for HelixMacMismatchException. */
+    private static final long serialVersionUID = 4186310739567081249L;
+
+    /* The MAC the caller expected to be generated (not a copy). */
+    private final byte[] expectedMac;
+
+    /* The MAC that was actually generated (not a copy). */
+    private final byte[] actualMac;
+
+    /* The detail message (formatted on first use). */
+    private String message;
+
+    /**
+     * Creates a new <tt>HelixMacMismatchException</tt>.
+     * 
+     * @param expectedMac
+     *            the MAC that was expected to be generated (must not be
+     *            modified after this exception is created)
+     * @param actualMac
+     *            the MAC that was actually generated (must not be modified
+     *            after this exception is created)
+     */
+    HelixMacMismatchException(final byte[] expectedMac, final byte[] actualMac) {
+        super(null);
+        this.expectedMac = expectedMac;
+        this.actualMac = actualMac;
+    }
+
+    /**
+     * Returns the detail message (formatting it on first use).
+     * 
+     * @return the detail message
+     */
+    @Override
+    public String getMessage() {
+        if (message == null) {
+            message = Messages.getMessage("error.mac_mismatch");
+        }
+
+        return message;
+    }
+
+    /**
+     * Does nothing; this exception has no stack trace.
+     * 
+     * @return this exception
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return a copy of the expected MAC
+     */
+    @Override
+    public byte[] getExpectedMac() {
+        return expectedMac.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return a copy of the actual MAC
+     */
+    @Override
+    public byte[] getActualMac() {
+        return actualMac.clone();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * Encrypts and decrypts whole files with Helix through memory-mapped
+ * windows.
+ * 
+ * <p>
+ * An encrypted file has the format written by {@link HelixOutputStream} (and
+ * read by {@link HelixInputStream}): the 16-byte nonce, the ciphertext, then
+ * the 16-byte MAC as a trailer. The input and output files are mapped a
+ * window (64 MB by default) at a time, and words are transformed directly
+ * from the input mapping into the output mapping, so files of any length
+ * (including files longer than 2 GB or than the heap) are processed with a
+ * small, fixed working buffer.
+ * </p>
+ * 
+ * <p>
+ * Decryption writes plaintext to the output file before the MAC (which
+ * covers the whole file) can be verified; if verification fails, the
+ * plaintext in the output file is overwritten with zeros, and the file is
+ * then truncated to zero length.
+ * </p>
+ * 
+ * <p>
+ * The windows stay mapped until they are garbage collected, and some
+ * platforms (e.g. Windows) refuse to truncate a file while any part of it is
+ * mapped. The output file is therefore only truncated when it is longer than
+ * the result (so an output file that has already been mapped should be
+ * empty, or at most as long as the result); and if the truncation after a
+ * failed verification is refused, the file is left at its length, holding
+ * only zeros, and the verification failure is still thrown.
+ * </p>
+ * 
+ * <p>
+ * A <tt>HelixMappedFile</tt> is immutable and thread-safe.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixMappedFile {
+    /** The default window size (bytes). */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 26;
+
+    /** The minimum window size (bytes). */
+    public static final int MIN_WINDOW_SIZE = 4096;
+
+    /* the lengths (bytes) of the nonce header and of the MAC trailer */
+    private static final int NONCE_LENGTH = 16;
+    private static final int MAC_LENGTH = 16;
+
+    /* the Helix key */
+    private final byte[] key;
+
+    /* the number of bytes mapped at a time */
+    private final int windowSize;
+
+    /**
+     * Creates a new <tt>HelixMappedFile</tt> that uses the default window
+     * size.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @throws IllegalArgumentException
+     *             if <i>key</i> is not valid
+     */
+    public HelixMappedFile(final byte[] key) {
+        this(key, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a new <tt>HelixMappedFile</tt>.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param windowSize
+     *            the number of bytes mapped at a time (a multiple of four,
+     *            and at least {@value #MIN_WINDOW_SIZE})
+     * @throws IllegalArgumentException
+     *             if <i>key</i> or <i>windowSize</i> is not valid
+     */
+    public HelixMappedFile(final byte[] key, final int windowSize) {
+        if ((key == null) || (key.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if ((windowSize < MIN_WINDOW_SIZE) || ((windowSize & 3) != 0)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_window_size",
+                    MIN_WINDOW_SIZE));
+        }
+
+        this.key = key.clone();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Encrypts a file.
+     * 
+     * <p>
+     * Every byte of <i>in</i> (regardless of its position) is encrypted, and
+     * <i>out</i> (which must be open for reading and writing) is replaced by
+     * the nonce, ciphertext and MAC. It is truncated only if it is longer
+     * than the encrypted file.
+     * </p>
+     * 
+     * @param in
+     *            the plaintext file
+     * @param out
+     *            receives the encrypted file
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length, and must
+     *            never be re-used with the same key)
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws IllegalArgumentException
+     *             if <i>nonce</i> is not valid
+     */
+    public void encrypt(final FileChannel in, final FileChannel out, final byte[] nonce) throws IOException {
+        HelixStreamTransform transform = new HelixStreamTransform(key, nonce, true);
+        try {
+            long length = in.size();
+            truncateTo(out, NONCE_LENGTH + length + MAC_LENGTH);
+            HelixSegmentedFile.writeFully(out, nonce, 0, NONCE_LENGTH, 0L);
+            byte[] mac = transform(transform, in, 0L, out, NONCE_LENGTH, length);
+            HelixSegmentedFile.writeFully(out, mac, 0, MAC_LENGTH, NONCE_LENGTH + length);
+        } finally {
+            transform.clear();
+        }
+    }
+
+    /**
+     * Decrypts a file.
+     * 
+     * <p>
+     * <i>out</i> (which must be open for reading and writing) is replaced by
+     * the plaintext. It is truncated only if it is longer than the plaintext.
+     * If the MAC does not match, the plaintext in <i>out</i> is overwritten
+     * with zeros and <i>out</i> is truncated to zero length (if the platform
+     * permits; see above).
+     * </p>
+     * 
+     * @param in
+     *            the encrypted file
+     * @param out
+     *            receives the plaintext
+     * @throws IOException
+     *             if the file is too short to hold a nonce and MAC, if the MAC
+     *             does not match (the cause is then a
+     *             {@link net.ninthtest.crypto.MessageAuthenticationException}
+     *             ), or if an I/O error occurs
+     */
+    public void decrypt(final FileChannel in, final FileChannel out) throws IOException {
+        long length = in.size();
+        if (length < (NONCE_LENGTH + MAC_LENGTH)) {
+            throw new EOFException(Messages.getMessage("helix.error.stream_truncated"));
+        }
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+        byte[] expectedMac = new byte[MAC_LENGTH];
+        HelixSegmentedFile.readFully(in, nonce, 0, NONCE_LENGTH, 0L);
+        HelixSegmentedFile.readFully(in, expectedMac, 0, MAC_LENGTH, length - MAC_LENGTH);
+
+        long plainTextLength = length - NONCE_LENGTH - MAC_LENGTH;
+        HelixStreamTransform transform = new HelixStreamTransform(key, nonce, false);
+        try {
+            truncateTo(out, plainTextLength);
+            byte[] mac = transform(transform, in, NONCE_LENGTH, out, 0L, plainTextLength);
+
+            int difference = 0;
+            for (int i = 0; i < MAC_LENGTH; ++i) {
+                difference |= mac[i] ^ expectedMac[i];
+            }
+            if (difference != 0) {
+                ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, 1L);
+                ProviderEvents.commit(ProviderEvents.begin(ProviderEvents.MAC_FAILURE), ProviderEvents.MAC_FAILURE,
+                        "verify", "DECRYPT", plainTextLength);
+
+                throw new IOException(Messages.getMessage("error.mac_mismatch"), new HelixMacMismatchException(
+                        expectedMac, mac));
+            }
+        } catch (IOException ex) {
+            discard(out, plainTextLength);
+            throw ex;
+        } finally {
+            transform.clear();
+        }
+    }
+
+    /* Truncates a file to a length if (and only if) it is longer. */
+    private static void truncateTo(final FileChannel out, final long length) throws IOException {
+        if (out.size() > length) {
+            out.truncate(length);
+        }
+    }
+
+    /*
+     * Overwrites the (unverified) plaintext at the start of a file with zeros,
+     * then truncates the file to zero length if the platform permits.
+     */
+    private static void discard(final FileChannel out, final long length) {
+        try {
+            long written = Math.min(length, out.size());
+            byte[] zeros = new byte[(int) Math.min(written, 8192L)];
+            for (long done = 0L; done < written; done += zeros.length) {
+                HelixSegmentedFile.writeFully(out, zeros, 0, (int) Math.min(zeros.length, written - done), done);
+            }
+        } catch (IOException ex) {
+            /* the failure being thrown is the one that matters; still attempt the truncation */
+        }
+
+        try {
+            out.truncate(0L);
+        } catch (IOException ex) {
+            /* the file is mapped (and the platform refuses to truncate it); it now holds only zeros */
+        }
+    }
+
+    /*
+     * Transforms length bytes of one file into another, a mapped window at a
+     * time, and returns the MAC.
+     */
+    private byte[] transform(final HelixStreamTransform transform, final FileChannel in, final long inPosition,
+            final FileChannel out, final long outPosition, final long length) throws IOException {
+        byte[] tail = new byte[3];
+        for (long done = 0L; done < length; done += windowSize) {
+            int window = (int) Math.min(windowSize, length - done);
+            MappedByteBuffer source = in.map(MapMode.READ_ONLY, inPosition + done, window);
+            MappedByteBuffer destination = out.map(MapMode.READ_WRITE, outPosition + done, window);
+            source.order(ByteOrder.LITTLE_ENDIAN);
+            destination.order(ByteOrder.LITTLE_ENDIAN);
+
+            int words = window >>> 2;
+            transform.transform(source.asIntBuffer(), destination.asIntBuffer(), words);
+
+            /*
+             * only the last window can end with a partial word (the Buffer
+             * casts keep the Java 6 method descriptors when built on Java 9+)
+             */
+            int extra = window & 3;
+            if (extra != 0) {
+                ((Buffer) source).position(words << 2);
+                source.get(tail, 0, extra);
+                byte[] mac = transform.finish(tail, 0, extra);
+                ((Buffer) destination).position(words << 2);
+                destination.put(tail, 0, extra);
+
+                return mac;
+            }
+        }
+
+        return transform.finish(tail, 0, 0);
+    }
+}
@@ -0,0 +1,693 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.util.Arrays;
+
+import net.ninthtest.security.Messages;
+
+/**
+ * Encrypts or decrypts batches of independent Helix messages by advancing the
+ * states of several messages ("lanes") in lockstep.
+ * 
+ * <p>
+ * A single Helix stream is strictly sequential: every block depends on the
+ * previous one. Independent messages have no such dependency, so interleaving
+ * the blocks of 4 or 8 messages in one loop lets the processor execute them in
+ * parallel. Each message produces exactly the same output and MAC as a
+ * {@link HelixEncryption} or {@link HelixDecryption} primitive constructed with
+ * the same key and nonce:
+ * </p>
+ * 
+ * <pre>
+ * HelixMultiLane multiLane = new HelixMultiLane(4);
+ * byte[][] cipherTexts = new byte[plainTexts.length][];
+ * byte[][] macs = new byte[plainTexts.length][];
+ * multiLane.encrypt(keys, nonces, plainTexts, cipherTexts, macs);
+ * </pre>
+ * 
+ * <p>
+ * Messages are grouped by length so that the messages sharing a group of lanes
+ * are of similar length. The words common to every message of a group are
+ * processed in lockstep, four lanes at a time (or as many lanes as fit in a
+ * SIMD register when the Vector API is available; see {@link HelixEngines});
+ * the remaining words, the padded
+ * tail and the MAC of each message (and any lanes left over from a multiple of
+ * four) are then processed one lane at a time.
+ * </p>
+ * 
+ * <p>
+ * <b>Measured performance:</b> on the scalar path (no lane kernel) the
+ * benchmark <tt>MultiLaneBenchmark</tt> (64 messages of 16 to 4096 bytes)
+ * has not shown a configuration in which lockstep wins: 4 and 8 lanes
+ * measured 20-35% slower than {@link HelixEncryption} one message at a time,
+ * and 1 lane about the same, because the JIT does not interleave the lanes
+ * any better than it schedules a single stream. For that reason no provider
+ * service uses this class; it is kept as an explicit opt-in for processors
+ * (or lane kernels) on which the benchmark shows a gain.
+ * </p>
+ * 
+ * <p>
+ * Decryption does not verify MACs; the generated MAC of each message is
+ * returned for the caller to compare. Instances are immutable and
+ * thread-safe.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixMultiLane {
+    /** The maximum number of lanes. */
+    public static final int MAX_LANES = 16;
+
+    /* the number of messages processed in lockstep */
+    private final int lanes;
+
+    /* false to advance the lanes without the lane kernel */
+    private final boolean useLaneKernel;
+
+    /**
+     * Creates a new <tt>HelixMultiLane</tt>.
+     * 
+     * @param lanes
+     *            the number of messages to process in lockstep (1 to
+     *            {@link #MAX_LANES}; only multiples of four are interleaved,
+     *            and whether 4 or 8 lanes outperform 1 depends on the
+     *            processor; see the class documentation)
+     * @throws IllegalArgumentException
+     *             if <i>lanes</i> is out of range
+     */
+    public HelixMultiLane(final int lanes) {
+        this(lanes, true);
+    }
+
+    /**
+     * Creates a new <tt>HelixMultiLane</tt> that optionally bypasses the lane
+     * kernel.
+     * 
+     * @param lanes
+     *            the number of messages to process in lockstep (1 to
+     *            {@link #MAX_LANES})
+     * @param useLaneKernel
+     *            <tt>true</tt> to use the selected lane kernel (if any),
+     *            <tt>false</tt> to advance the lanes on the scalar path only
+     * @throws IllegalArgumentException
+     *             if <i>lanes</i> is out of range
+     */
+    HelixMultiLane(final int lanes, final boolean useLaneKernel) {
+        if ((lanes < 1) || (lanes > MAX_LANES)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_lane_count", MAX_LANES));
+        }
+
+        this.lanes = lanes;
+        this.useLaneKernel = useLaneKernel;
+    }
+
+    /**
+     * Returns the number of messages processed in lockstep.
+     * 
+     * @return the number of lanes
+     */
+    public int getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Encrypts a batch of messages.
+     * 
+     * <p>
+     * Message <i>m</i> is encrypted using <tt>keys[m]</tt> and
+     * <tt>nonces[m]</tt>. A <tt>null</tt> element of <i>cipherTexts</i> or
+     * <i>macs</i> is replaced with a new array of the required length.
+     * </p>
+     * 
+     * @param keys
+     *            the Helix keys (each cannot exceed 32 bytes in length)
+     * @param nonces
+     *            the Helix nonces (each must be exactly 16 bytes in length)
+     * @param plainTexts
+     *            the plaintext messages
+     * @param cipherTexts
+     *            receives the ciphertext messages (each at least as long as the
+     *            corresponding plaintext)
+     * @param macs
+     *            receives the 16-byte generated MACs
+     * @throws IllegalArgumentException
+     *             if the arrays differ in length, or if any key, nonce,
+     *             message or output array is not valid
+     */
+    public void encrypt(final byte[][] keys, final byte[][] nonces, final byte[][] plainTexts,
+            final byte[][] cipherTexts, final byte[][] macs) {
+        transform(keys, nonces, plainTexts, cipherTexts, macs, true);
+    }
+
+    /**
+     * Decrypts a batch of messages.
+     * 
+     * <p>
+     * Message <i>m</i> is decrypted using <tt>keys[m]</tt> and
+     * <tt>nonces[m]</tt>. A <tt>null</tt> element of <i>plainTexts</i> or
+     * <i>macs</i> is replaced with a new array of the required length.
+     * </p>
+     * 
+     * @param keys
+     *            the Helix keys (each cannot exceed 32 bytes in length)
+     * @param nonces
+     *            the Helix nonces (each must be exactly 16 bytes in length)
+     * @param cipherTexts
+     *            the ciphertext messages
+     * @param plainTexts
+     *            receives the plaintext messages (each at least as long as the
+     *            corresponding ciphertext)
+     * @param macs
+     *            receives the 16-byte generated MACs (which the caller should
+     *            compare to the expected MACs)
+     * @throws IllegalArgumentException
+     *             if the arrays differ in length, or if any key, nonce,
+     *             message or output array is not valid
+     */
+    public void decrypt(final byte[][] keys, final byte[][] nonces, final byte[][] cipherTexts,
+            final byte[][] plainTexts, final byte[][] macs) {
+        transform(keys, nonces, cipherTexts, plainTexts, macs, false);
+    }
+
+    /**
+     * Generates the MACs of a batch of messages.
+     * 
+     * <p>
+     * The MAC of message <i>m</i> is the MAC generated by encrypting it using
+     * <tt>keys[m]</tt> and <tt>nonces[m]</tt> (as the <i>Helix</i>
+     * <tt>Mac</tt> does); the ciphertext is discarded. A <tt>null</tt> element
+     * of <i>macs</i> is replaced with a new 16-byte array.
+     * </p>
+     * 
+     * @param keys
+     *            the Helix keys (each cannot exceed 32 bytes in length)
+     * @param nonces
+     *            the Helix nonces (each must be exactly 16 bytes in length)
+     * @param messages
+     *            the messages to authenticate
+     * @param macs
+     *            receives the 16-byte generated MACs
+     * @throws IllegalArgumentException
+     *             if the arrays differ in length, or if any key, nonce,
+     *             message or MAC array is not valid
+     */
+    public void mac(final byte[][] keys, final byte[][] nonces, final byte[][] messages, final byte[][] macs) {
+        transform(keys, nonces, messages, null, macs, true);
+    }
+
+    /*
+     * Validates the batch, then processes it in groups of (at most) #lanes
+     * messages of similar length.
+     */
+    private void transform(final byte[][] keys, final byte[][] nonces, final byte[][] inputs,
+            final byte[][] outputs, final byte[][] macs, final boolean encrypt) {
+        if ((keys == null) || (nonces == null) || (inputs == null) || (macs == null)
+                || (nonces.length != keys.length) || (inputs.length != keys.length)
+                || ((outputs != null) && (outputs.length != keys.length)) || (macs.length != keys.length)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.batch_length_mismatch"));
+        }
+
+        int count = keys.length;
+
+        /* sort the messages by length (in the high bits) and index */
+        long[] order = new long[count];
+        for (int m = 0; m < count; ++m) {
+            validate(keys[m], nonces[m], inputs[m]);
+            if (outputs == null) {
+                /* MAC only */
+            } else if (outputs[m] == null) {
+                outputs[m] = new byte[inputs[m].length];
+            } else if (outputs[m].length < inputs[m].length) {
+                throw new IllegalArgumentException(Messages.getMessage("helix.error.batch_output_too_small", m));
+            }
+            if (macs[m] == null) {
+                macs[m] = new byte[16];
+            } else if (macs[m].length != 16) {
+                throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_mac_length"));
+            }
+
+            order[m] = ((long) inputs[m].length << 32) | m;
+        }
+        Arrays.sort(order);
+
+        Group scratch = new Group(lanes, useLaneKernel ? HelixEngines.getLaneKernel() : null);
+        int[] group = new int[lanes];
+        try {
+            for (int g = 0; g < count; g += lanes) {
+                int width = Math.min(lanes, count - g);
+                for (int l = 0; l < width; ++l) {
+                    group[l] = (int) order[g + l];
+                }
+
+                scratch.transform(group, width, keys, nonces, inputs, outputs, macs, encrypt);
+            }
+        } finally {
+            scratch.clear();
+        }
+    }
+
+    /* Validates the key, nonce and input of a single message. */
+    private static void validate(final byte[] key, final byte[] nonce, final byte[] input) {
+        if ((key == null) || (key.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if ((nonce == null) || (nonce.length != 16)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_nonce"));
+        } else if (input == null) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.input_byte_array_is_required"));
+        }
+    }
+
+    /*
+     * The scratch state of a group of up to #lanes messages (allocated once per
+     * batch and re-used for every group).
+     */
+    private static final class Group {
+        /* the lane engines (used for key/nonce mixing, tails and MACs) */
+        private final ScalarHelixEngine[] engines;
+
+        /* the key words, key material words and state words (word-major) */
+        private final int[][] k;
+        private final int[][] x1;
+        private final int[][] z;
+
+        /* the vectorized lockstep kernel (or null) */
+        private final HelixLaneKernel kernel;
+
+        /* the key, nonce and tail conversion buffers */
+        private final int[] keyWords = new int[8];
+        private final int[] nonceWords = new int[4];
+        private final int[] word = new int[1];
+
+        Group(final int lanes, final HelixLaneKernel kernel) {
+            this.kernel = kernel;
+            engines = new ScalarHelixEngine[lanes];
+            for (int l = 0; l < lanes; ++l) {
+                engines[l] = new ScalarHelixEngine();
+            }
+            k = new int[8][lanes];
+            x1 = new int[8][lanes];
+            z = new int[5][lanes];
+        }
+
+        /* Processes a group of up to #lanes messages. */
+        void transform(final int[] group, final int width, final byte[][] keys, final byte[][] nonces,
+                final byte[][] inputs, final byte[][] outputs, final byte[][] macs, final boolean encrypt) {
+            /*
+             * lanes are advanced in lockstep four at a time; any remaining
+             * lanes are processed entirely one lane at a time
+             */
+            int lockstepWidth = width & ~3;
+
+            /* key and nonce mixing are done one lane at a time */
+            int steps = (lockstepWidth != 0) ? Integer.MAX_VALUE : 0;
+            for (int l = 0; l < width; ++l) {
+                int m = group[l];
+
+                HelixTransforms.keyMixing(engines[l], keys[m], keyWords);
+                HelixTransforms.nonceMixing(engines[l], nonces[m], nonceWords);
+
+                if (l < lockstepWidth) {
+                    engines[l].exportLane(k, x1, z, l);
+                    steps = Math.min(steps, inputs[m].length / 4);
+                }
+            }
+
+            /*
+             * the words common to every message are processed in lockstep
+             * (step-major, so that the words of one step are contiguous)
+             */
+            int[] in = new int[steps * lockstepWidth];
+            int[] out = new int[steps * lockstepWidth];
+            int[] words = new int[steps];
+            for (int l = 0; l < lockstepWidth; ++l) {
+                HelixWords.toInts(inputs[group[l]], 0, words, 0, steps);
+                for (int s = 0, x = l; s < steps; ++s, x += lockstepWidth) {
+                    in[x] = words[s];
+                }
+            }
+
+            int lane = 0;
+            if (kernel != null) {
+                for (int kernelLanes = kernel.lanes(); (lane + kernelLanes) <= lockstepWidth; lane += kernelLanes) {
+                    kernel.lockstep(k, x1, z, in, out, lockstepWidth, lane, steps, encrypt);
+                }
+            }
+            for (; lane < lockstepWidth; lane += 4) {
+                lockstep(k, x1, z, in, out, lockstepWidth, lane, steps, encrypt);
+            }
+
+            /* the remaining words, tail and MAC are processed one lane at a time */
+            for (int l = 0; l < width; ++l) {
+                int m = group[l];
+
+                int offset = 0;
+                byte[] output = (outputs != null) ? outputs[m] : null;
+                if (l < lockstepWidth) {
+                    if (output != null) {
+                        for (int s = 0, x = l; s < steps; ++s, x += lockstepWidth) {
+                            words[s] = out[x];
+                        }
+                        HelixWords.toBytes(words, 0, output, 0, steps);
+                    }
+                    engines[l].importLane(z, l, steps);
+                    offset = steps * 4;
+                }
+
+                finish(engines[l], inputs[m], output, offset, macs[m], encrypt, word);
+                engines[l].clear();
+            }
+        }
+
+        /* Zeroes all key and state words. */
+        void clear() {
+            Arrays.fill(keyWords, 0);
+            Arrays.fill(nonceWords, 0);
+            for (int i = 0; i < 8; ++i) {
+                Arrays.fill(k[i], 0);
+                Arrays.fill(x1[i], 0);
+            }
+            for (int i = 0; i < 5; ++i) {
+                Arrays.fill(z[i], 0);
+            }
+        }
+    }
+
+    /*
+     * Advances four lanes (starting at the specified lane) by the specified
+     * number of blocks (one word of input per lane per block), holding the
+     * state words of all four lanes in locals so that the four independent
+     * dependency chains are interleaved.
+     * 
+     * All lanes start at the same block index (8, following nonce mixing), so
+     * the key word index and block counter are shared by every lane in a step.
+     */
+    private static void lockstep(final int[][] k, final int[][] x1s, final int[][] z, final int[] in, final int[] out,
+            final int stride, final int lane, final int steps, final boolean encrypt) {
+        int a0 = z[0][lane];
+        int b0 = z[1][lane];
+        int c0 = z[2][lane];
+        int d0 = z[3][lane];
+        int e0 = z[4][lane];
+        int a1 = z[0][lane + 1];
+        int b1 = z[1][lane + 1];
+        int c1 = z[2][lane + 1];
+        int d1 = z[3][lane + 1];
+        int e1 = z[4][lane + 1];
+        int a2 = z[0][lane + 2];
+        int b2 = z[1][lane + 2];
+        int c2 = z[2][lane + 2];
+        int d2 = z[3][lane + 2];
+        int e2 = z[4][lane + 2];
+        int a3 = z[0][lane + 3];
+        int b3 = z[1][lane + 3];
+        int c3 = z[2][lane + 3];
+        int d3 = z[3][lane + 3];
+        int e3 = z[4][lane + 3];
+
+        for (int s = 0; s < steps; ++s) {
+            int n = 8 + s;
+            int i = n & 7;
+            int[] ki = k[i];
+            int[] xi = x1s[i];
+            int counter = ((i & 3) == 3) ? n + (n >> 31) : n;
+            int x = (s * stride) + lane;
+
+            int w0 = in[x];
+            if (encrypt) {
+                out[x] = w0 ^ a0;
+            } else {
+                w0 ^= a0;
+                out[x] = w0;
+            }
+            int w1 = in[x + 1];
+            if (encrypt) {
+                out[x + 1] = w1 ^ a1;
+            } else {
+                w1 ^= a1;
+                out[x + 1] = w1;
+            }
+            int w2 = in[x + 2];
+            if (encrypt) {
+                out[x + 2] = w2 ^ a2;
+            } else {
+                w2 ^= a2;
+                out[x + 2] = w2;
+            }
+            int w3 = in[x + 3];
+            if (encrypt) {
+                out[x + 3] = w3 ^ a3;
+            } else {
+                w3 ^= a3;
+                out[x + 3] = w3;
+            }
+
+            a0 += d0;
+            d0 = (d0 << 15) | (d0 >>> -15);
+            b0 += e0;
+            e0 = (e0 << 25) | (e0 >>> -25);
+            c0 ^= a0;
+            a0 = (a0 << 9) | (a0 >>> -9);
+            d0 ^= b0;
+            b0 = (b0 << 10) | (b0 >>> -10);
+            e0 += c0;
+            c0 = (c0 << 17) | (c0 >>> -17);
+
+            a1 += d1;
+            d1 = (d1 << 15) | (d1 >>> -15);
+            b1 += e1;
+            e1 = (e1 << 25) | (e1 >>> -25);
+            c1 ^= a1;
+            a1 = (a1 << 9) | (a1 >>> -9);
+            d1 ^= b1;
+            b1 = (b1 << 10) | (b1 >>> -10);
+            e1 += c1;
+            c1 = (c1 << 17) | (c1 >>> -17);
+
+            a2 += d2;
+            d2 = (d2 << 15) | (d2 >>> -15);
+            b2 += e2;
+            e2 = (e2 << 25) | (e2 >>> -25);
+            c2 ^= a2;
+            a2 = (a2 << 9) | (a2 >>> -9);
+            d2 ^= b2;
+            b2 = (b2 << 10) | (b2 >>> -10);
+            e2 += c2;
+            c2 = (c2 << 17) | (c2 >>> -17);
+
+            a3 += d3;
+            d3 = (d3 << 15) | (d3 >>> -15);
+            b3 += e3;
+            e3 = (e3 << 25) | (e3 >>> -25);
+            c3 ^= a3;
+            a3 = (a3 << 9) | (a3 >>> -9);
+            d3 ^= b3;
+            b3 = (b3 << 10) | (b3 >>> -10);
+            e3 += c3;
+            c3 = (c3 << 17) | (c3 >>> -17);
+
+            a0 ^= (d0 + ki[lane]);
+            d0 = (d0 << 30) | (d0 >>> -30);
+            b0 ^= e0;
+            e0 = (e0 << 13) | (e0 >>> -13);
+            c0 += a0;
+            a0 = (a0 << 20) | (a0 >>> -20);
+            d0 += b0;
+            b0 = (b0 << 11) | (b0 >>> -11);
+            e0 ^= c0;
+            c0 = (c0 << 5) | (c0 >>> -5);
+
+            a1 ^= (d1 + ki[lane + 1]);
+            d1 = (d1 << 30) | (d1 >>> -30);
+            b1 ^= e1;
+            e1 = (e1 << 13) | (e1 >>> -13);
+            c1 += a1;
+            a1 = (a1 << 20) | (a1 >>> -20);
+            d1 += b1;
+            b1 = (b1 << 11) | (b1 >>> -11);
+            e1 ^= c1;
+            c1 = (c1 << 5) | (c1 >>> -5);
+
+            a2 ^= (d2 + ki[lane + 2]);
+            d2 = (d2 << 30) | (d2 >>> -30);
+            b2 ^= e2;
+            e2 = (e2 << 13) | (e2 >>> -13);
+            c2 += a2;
+            a2 = (a2 << 20) | (a2 >>> -20);
+            d2 += b2;
+            b2 = (b2 << 11) | (b2 >>> -11);
+            e2 ^= c2;
+            c2 = (c2 << 5) | (c2 >>> -5);
+
+            a3 ^= (d3 + ki[lane + 3]);
+            d3 = (d3 << 30) | (d3 >>> -30);
+            b3 ^= e3;
+            e3 = (e3 << 13) | (e3 >>> -13);
+            c3 += a3;
+            a3 = (a3 << 20) | (a3 >>> -20);
+            d3 += b3;
+            b3 = (b3 << 11) | (b3 >>> -11);
+            e3 ^= c3;
+            c3 = (c3 << 5) | (c3 >>> -5);
+
+            a0 += (d0 ^ w0);
+            d0 = (d0 << 15) | (d0 >>> -15);
+            b0 += e0;
+            e0 = (e0 << 25) | (e0 >>> -25);
+            c0 ^= a0;
+            a0 = (a0 << 9) | (a0 >>> -9);
+            d0 ^= b0;
+            b0 = (b0 << 10) | (b0 >>> -10);
+            e0 += c0;
+            c0 = (c0 << 17) | (c0 >>> -17);
+
+            a1 += (d1 ^ w1);
+            d1 = (d1 << 15) | (d1 >>> -15);
+            b1 += e1;
+            e1 = (e1 << 25) | (e1 >>> -25);
+            c1 ^= a1;
+            a1 = (a1 << 9) | (a1 >>> -9);
+            d1 ^= b1;
+            b1 = (b1 << 10) | (b1 >>> -10);
+            e1 += c1;
+            c1 = (c1 << 17) | (c1 >>> -17);
+
+            a2 += (d2 ^ w2);
+            d2 = (d2 << 15) | (d2 >>> -15);
+            b2 += e2;
+            e2 = (e2 << 25) | (e2 >>> -25);
+            c2 ^= a2;
+            a2 = (a2 << 9) | (a2 >>> -9);
+            d2 ^= b2;
+            b2 = (b2 << 10) | (b2 >>> -10);
+            e2 += c2;
+            c2 = (c2 << 17) | (c2 >>> -17);
+
+            a3 += (d3 ^ w3);
+            d3 = (d3 << 15) | (d3 >>> -15);
+            b3 += e3;
+            e3 = (e3 << 25) | (e3 >>> -25);
+            c3 ^= a3;
+            a3 = (a3 << 9) | (a3 >>> -9);
+            d3 ^= b3;
+            b3 = (b3 << 10) | (b3 >>> -10);
+            e3 += c3;
+            c3 = (c3 << 17) | (c3 >>> -17);
+
+            a0 ^= (d0 + xi[lane] + counter);
+            d0 = (d0 << 30) | (d0 >>> -30);
+            b0 ^= e0;
+            e0 = (e0 << 13) | (e0 >>> -13);
+            c0 += a0;
+            a0 = (a0 << 20) | (a0 >>> -20);
+            d0 += b0;
+            b0 = (b0 << 11) | (b0 >>> -11);
+            e0 ^= c0;
+            c0 = (c0 << 5) | (c0 >>> -5);
+
+            a1 ^= (d1 + xi[lane + 1] + counter);
+            d1 = (d1 << 30) | (d1 >>> -30);
+            b1 ^= e1;
+            e1 = (e1 << 13) | (e1 >>> -13);
+            c1 += a1;
+            a1 = (a1 << 20) | (a1 >>> -20);
+            d1 += b1;
+            b1 = (b1 << 11) | (b1 >>> -11);
+            e1 ^= c1;
+            c1 = (c1 << 5) | (c1 >>> -5);
+
+            a2 ^= (d2 + xi[lane + 2] + counter);
+            d2 = (d2 << 30) | (d2 >>> -30);
+            b2 ^= e2;
+            e2 = (e2 << 13) | (e2 >>> -13);
+            c2 += a2;
+            a2 = (a2 << 20) | (a2 >>> -20);
+            d2 += b2;
+            b2 = (b2 << 11) | (b2 >>> -11);
+            e2 ^= c2;
+            c2 = (c2 << 5) | (c2 >>> -5);
+
+            a3 ^= (d3 + xi[lane + 3] + counter);
+            d3 = (d3 << 30) | (d3 >>> -30);
+            b3 ^= e3;
+            e3 = (e3 << 13) | (e3 >>> -13);
+            c3 += a3;
+            a3 = (a3 << 20) | (a3 >>> -20);
+            d3 += b3;
+            b3 = (b3 << 11) | (b3 >>> -11);
+            e3 ^= c3;
+            c3 = (c3 << 5) | (c3 >>> -5);
+        }
+
+        z[0][lane] = a0;
+        z[1][lane] = b0;
+        z[2][lane] = c0;
+        z[3][lane] = d0;
+        z[4][lane] = e0;
+        z[0][lane + 1] = a1;
+        z[1][lane + 1] = b1;
+        z[2][lane + 1] = c1;
+        z[3][lane + 1] = d1;
+        z[4][lane + 1] = e1;
+        z[0][lane + 2] = a2;
+        z[1][lane + 2] = b2;
+        z[2][lane + 2] = c2;
+        z[3][lane + 2] = d2;
+        z[4][lane + 2] = e2;
+        z[0][lane + 3] = a3;
+        z[1][lane + 3] = b3;
+        z[2][lane + 3] = c3;
+        z[3][lane + 3] = d3;
+        z[4][lane + 3] = e3;
+    }
+
+    /*
+     * Processes the remaining words and the (padded) tail of a single message,
+     * starting at the specified byte offset, then generates its MAC (output is
+     * null when only the MAC is wanted).
+     */
+    private static void finish(final HelixEngine engine, final byte[] input, final byte[] output, final int offset,
+            final byte[] mac, final boolean encrypt, final int[] word) {
+        int position = offset;
+
+        int words = (input.length - position) / 4;
+        if (words > 0) {
+            int[] buffer = new int[words];
+            HelixWords.toInts(input, position, buffer, 0, words);
+            if (encrypt) {
+                engine.encrypt(buffer, buffer, words);
+            } else {
+                engine.decrypt(buffer, buffer, words, 0xffffffff);
+            }
+            if (output != null) {
+                HelixWords.toBytes(buffer, 0, output, position, words);
+            }
+            position += words * 4;
+        }
+
+        int extra = input.length - position;
+        if (extra != 0) {
+            HelixTransforms.transformTail(engine, input, position, output, position, extra, encrypt, word);
+        }
+
+        HelixWords.toBytes(engine.macFunction(input.length), 0, mac, 0, 4);
+    }
+}
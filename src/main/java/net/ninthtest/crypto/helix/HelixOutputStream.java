@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import net.ninthtest.security.Messages;
+
+/**
+ * An output stream that encrypts everything written to it with Helix.
+ * 
+ * <p>
+ * The underlying stream receives the 16-byte nonce, then the ciphertext, then
+ * (when this stream is closed) the 16-byte MAC; {@link HelixInputStream}
+ * reads this format. Bytes are collected in a single buffer (64 KB by
+ * default), which is encrypted in place and written to the underlying stream
+ * each time it fills, so steady-state writing allocates nothing.
+ * </p>
+ * 
+ * <p>
+ * A stream created with a codec ({@link #CODEC_NONE} or
+ * {@link #CODEC_DEFLATE}) records the codec in the first byte of the
+ * (encrypted, and therefore authenticated) message; such a stream must be
+ * read by a {@link HelixInputStream} that expects a codec byte. With the
+ * deflate codec, a <tt>Deflater</tt> compresses directly into the buffer
+ * that is then encrypted in place, so compression needs no intermediate
+ * buffer. (Compressed data held by the <tt>Deflater</tt> is written only as
+ * the buffer fills and when the stream is closed; {@link #flush()} cannot
+ * force it out.)
+ * </p>
+ * 
+ * <p>
+ * The stream is not complete (and cannot be decrypted) until it has been
+ * closed. A <tt>HelixOutputStream</tt> is not thread-safe.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixOutputStream extends FilterOutputStream {
+    /** The default buffer size (bytes). */
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /** The codec that stores the plaintext unchanged. */
+    public static final int CODEC_NONE = 0;
+
+    /** The codec that compresses the plaintext with (raw) deflate. */
+    public static final int CODEC_DEFLATE = 1;
+
+    /* the Helix transform */
+    private final HelixStreamTransform transform;
+
+    /* the plaintext collected since the buffer was last encrypted */
+    private final byte[] buffer;
+
+    /* the number of bytes in the buffer */
+    private int count;
+
+    /* compresses the plaintext into the buffer (or null) */
+    private final Deflater deflater;
+
+    /* the byte written by write(int) when compressing */
+    private final byte[] single = new byte[1];
+
+    /* true once this stream has been closed */
+    private boolean closed;
+
+    /**
+     * Creates a new <tt>HelixOutputStream</tt> with the default buffer size,
+     * and writes the nonce to the underlying stream.
+     * 
+     * @param out
+     *            the underlying output stream
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length, and must
+     *            never be re-used with the same key)
+     * @throws IOException
+     *             if the nonce cannot be written
+     * @throws IllegalArgumentException
+     *             if <i>key</i> or <i>nonce</i> is not valid
+     */
+    public HelixOutputStream(final OutputStream out, final byte[] key, final byte[] nonce) throws IOException {
+        this(out, key, nonce, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new <tt>HelixOutputStream</tt>, and writes the nonce to the
+     * underlying stream.
+     * 
+     * @param out
+     *            the underlying output stream
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length, and must
+     *            never be re-used with the same key)
+     * @param bufferSize
+     *            the buffer size in bytes (rounded down to a multiple of four;
+     *            at least four)
+     * @throws IOException
+     *             if the nonce cannot be written
+     * @throws IllegalArgumentException
+     *             if <i>key</i>, <i>nonce</i> or <i>bufferSize</i> is not
+     *             valid
+     */
+    public HelixOutputStream(final OutputStream out, final byte[] key, final byte[] nonce, final int bufferSize)
+            throws IOException {
+        this(out, key, nonce, bufferSize, CODEC_NONE, false);
+    }
+
+    /**
+     * Creates a new <tt>HelixOutputStream</tt> that records (and applies) a
+     * codec, writes the nonce to the underlying stream, and collects the codec
+     * byte.
+     * 
+     * @param out
+     *            the underlying output stream
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length, and must
+     *            never be re-used with the same key)
+     * @param bufferSize
+     *            the buffer size in bytes (rounded down to a multiple of four;
+     *            at least four)
+     * @param codec
+     *            {@link #CODEC_NONE} or {@link #CODEC_DEFLATE}
+     * @throws IOException
+     *             if the nonce cannot be written
+     * @throws IllegalArgumentException
+     *             if <i>key</i>, <i>nonce</i>, <i>bufferSize</i> or
+     *             <i>codec</i> is not valid
+     */
+    public HelixOutputStream(final OutputStream out, final byte[] key, final byte[] nonce, final int bufferSize,
+            final int codec) throws IOException {
+        this(out, key, nonce, bufferSize, codec, true);
+    }
+
+    /* Creates a new HelixOutputStream, with or without a codec byte. */
+    private HelixOutputStream(final OutputStream out, final byte[] key, final byte[] nonce, final int bufferSize,
+            final int codec, final boolean codecHeader) throws IOException {
+        super(out);
+
+        if (out == null) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.stream_is_required"));
+        } else if (bufferSize < 4) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_buffer_size"));
+        } else if ((codec != CODEC_NONE) && (codec != CODEC_DEFLATE)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.unknown_codec", codec));
+        }
+
+        transform = new HelixStreamTransform(key, nonce, true);
+        buffer = new byte[bufferSize & ~3];
+        deflater = (codec == CODEC_DEFLATE) ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+
+        out.write(nonce);
+        if (codecHeader) {
+            buffer[count++] = (byte) codec;
+        }
+    }
+
+    /**
+     * Encrypts and writes a byte.
+     * 
+     * @param b
+     *            the byte to write (the low-order eight bits)
+     * @throws IOException
+     *             if this stream is closed, or if an I/O error occurs
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        ensureOpen();
+
+        if (deflater != null) {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+            return;
+        } else if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * Encrypts and writes bytes.
+     * 
+     * @param b
+     *            the bytes to write
+     * @param off
+     *            the offset of the first byte to write
+     * @param len
+     *            the number of bytes to write
+     * @throws IOException
+     *             if this stream is closed, or if an I/O error occurs
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        ensureOpen();
+        if ((off < 0) || (len < 0) || (off > (b.length - len))) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (deflater != null) {
+            /* the deflater reads b lazily, so it must consume all of it here */
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+            return;
+        }
+
+        int position = off;
+        int remaining = len;
+        while (remaining > 0) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+
+            int length = Math.min(remaining, buffer.length - count);
+            System.arraycopy(b, position, buffer, count, length);
+            count += length;
+            position += length;
+            remaining -= length;
+        }
+    }
+
+    /**
+     * Encrypts and writes every whole word collected so far (up to three bytes
+     * may remain buffered, as may data held by the deflate codec), then
+     * flushes the underlying stream.
+     * 
+     * @throws IOException
+     *             if this stream is closed, or if an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Encrypts and writes the remaining bytes and the MAC, then closes the
+     * underlying stream.
+     * 
+     * <p>
+     * Closing a closed stream has no effect.
+     * </p>
+     * 
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+            }
+
+            flushBuffer();
+            byte[] mac = transform.finish(buffer, 0, count);
+            out.write(buffer, 0, count);
+            out.write(mac);
+            out.flush();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            transform.clear();
+            Arrays.fill(buffer, (byte) 0);
+            out.close();
+        }
+    }
+
+    /* Compresses into the free space of the buffer (flushing it if full). */
+    private void deflate() throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        count += deflater.deflate(buffer, count, buffer.length - count);
+    }
+
+    /*
+     * Encrypts the whole words in the buffer in place and writes them, moving
+     * any remaining (partial word) bytes to the front of the buffer.
+     */
+    private void flushBuffer() throws IOException {
+        int length = count & ~3;
+        if (length == 0) {
+            return;
+        }
+
+        transform.transform(buffer, 0, length);
+        out.write(buffer, 0, length);
+
+        count -= length;
+        System.arraycopy(buffer, length, buffer, 0, count);
+    }
+
+    /* Throws IOException if this stream has been closed. */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException(Messages.getMessage("helix.error.stream_closed"));
+        }
+    }
+}
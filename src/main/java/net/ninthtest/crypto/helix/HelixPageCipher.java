@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * Encrypts and decrypts fixed-size storage pages in place with Helix.
+ * 
+ * <p>
+ * Helix ciphertext is exactly as long as its plaintext, so a page is
+ * encrypted or decrypted in place, and its 16-byte MAC is written to (or
+ * read from) a caller-supplied tag array. The nonce of a page is derived
+ * from its 64-bit page id and 64-bit version (<tt>id || version</tt>, each
+ * little-endian), so <b>a page must be re-encrypted under a new version
+ * every time it is written</b>; encrypting different contents under the same
+ * key, page id and version destroys the security of both.
+ * </p>
+ * 
+ * <p>
+ * Key mixing is performed once, when the page cipher is created; each page
+ * then costs only nonce mixing and the page's words, and no memory is
+ * allocated. A failed verification does not throw an exception: the
+ * decrypting methods return <tt>false</tt> and zero the page.
+ * </p>
+ * 
+ * <p>
+ * A <tt>HelixPageCipher</tt> is not thread-safe; use one per thread (e.g.
+ * per buffer pool eviction thread).
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixPageCipher {
+    /** The length (bytes) of a page tag (MAC). */
+    public static final int TAG_LENGTH = 16;
+
+    /* the page size (bytes) */
+    private final int pageSize;
+
+    /* the engine (keyed once; null once cleared) */
+    private HelixEngine engine;
+
+    /* the nonce words of the current page */
+    private final int[] nonceWords = new int[4];
+
+    /* the words of the current page */
+    private final int[] words;
+
+    /* the last, partial word of the current page */
+    private final int[] word = new int[1];
+
+    /**
+     * Creates a new <tt>HelixPageCipher</tt> and performs key mixing.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param pageSize
+     *            the page size (bytes)
+     * @throws IllegalArgumentException
+     *             if <i>key</i> or <i>pageSize</i> is not valid
+     */
+    public HelixPageCipher(final byte[] key, final int pageSize) {
+        if ((key == null) || (key.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if (pageSize < 1) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_page_size"));
+        }
+
+        this.pageSize = pageSize;
+        words = new int[(pageSize + 3) / 4];
+
+        engine = HelixTransforms.newKeyedEngine(key);
+    }
+
+    /**
+     * Returns the page size.
+     * 
+     * @return the page size (bytes)
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Encrypts a page of a byte array in place.
+     * 
+     * @param pageId
+     *            the page id
+     * @param version
+     *            the page version (must be different every time the page is
+     *            encrypted)
+     * @param page
+     *            the array holding the page
+     * @param offset
+     *            the offset of the page in <i>page</i>
+     * @param tags
+     *            receives the page tag
+     * @param tagOffset
+     *            the offset of the page tag in <i>tags</i>
+     * @throws IllegalArgumentException
+     *             if the page or tag is out of bounds
+     * @throws IllegalStateException
+     *             if this page cipher has been cleared
+     */
+    public void encrypt(final long pageId, final long version, final byte[] page, final int offset,
+            final byte[] tags, final int tagOffset) {
+        checkPage(page.length, offset, tags, tagOffset);
+        HelixWords.toInts(page, offset, words, 0, words.length - 1);
+        words[words.length - 1] = tailWord(page, offset + ((words.length - 1) * 4));
+
+        int[] mac = transform(pageId, version, true);
+        HelixWords.toBytes(words, 0, page, offset, words.length - 1);
+        putTailWord(page, offset + ((words.length - 1) * 4));
+        HelixWords.toBytes(mac, 0, tags, tagOffset, 4);
+        Arrays.fill(words, 0);
+    }
+
+    /**
+     * Decrypts and verifies a page of a byte array in place.
+     * 
+     * @param pageId
+     *            the page id
+     * @param version
+     *            the page version
+     * @param page
+     *            the array holding the page
+     * @param offset
+     *            the offset of the page in <i>page</i>
+     * @param tags
+     *            the page tag
+     * @param tagOffset
+     *            the offset of the page tag in <i>tags</i>
+     * @return <tt>true</tt> if the page tag matches; otherwise <tt>false</tt>
+     *         (and the page is zeroed)
+     * @throws IllegalArgumentException
+     *             if the page or tag is out of bounds
+     * @throws IllegalStateException
+     *             if this page cipher has been cleared
+     */
+    public boolean decrypt(final long pageId, final long version, final byte[] page, final int offset,
+            final byte[] tags, final int tagOffset) {
+        checkPage(page.length, offset, tags, tagOffset);
+        HelixWords.toInts(page, offset, words, 0, words.length - 1);
+        words[words.length - 1] = tailWord(page, offset + ((words.length - 1) * 4));
+
+        boolean verified = verify(transform(pageId, version, false), tags, tagOffset);
+        if (verified) {
+            HelixWords.toBytes(words, 0, page, offset, words.length - 1);
+            putTailWord(page, offset + ((words.length - 1) * 4));
+        } else {
+            Arrays.fill(page, offset, offset + pageSize, (byte) 0);
+        }
+        Arrays.fill(words, 0);
+
+        return verified;
+    }
+
+    /**
+     * Encrypts in place the page that begins at the position of a buffer.
+     * 
+     * <p>
+     * The position and limit of <i>page</i> are not changed.
+     * </p>
+     * 
+     * @param pageId
+     *            the page id
+     * @param version
+     *            the page version (must be different every time the page is
+     *            encrypted)
+     * @param page
+     *            the buffer holding the page (which may be direct)
+     * @param tags
+     *            receives the page tag
+     * @param tagOffset
+     *            the offset of the page tag in <i>tags</i>
+     * @throws IllegalArgumentException
+     *             if the page or tag is out of bounds
+     * @throws java.nio.ReadOnlyBufferException
+     *             if <i>page</i> is read-only
+     * @throws IllegalStateException
+     *             if this page cipher has been cleared
+     */
+    public void encrypt(final long pageId, final long version, final ByteBuffer page, final byte[] tags,
+            final int tagOffset) {
+        /* check the buffer (not its backing array) so that heap slices and direct buffers have the same bounds */
+        checkPage(page.limit(), page.position(), tags, tagOffset);
+        if (page.hasArray()) {
+            encrypt(pageId, version, page.array(), page.arrayOffset() + page.position(), tags, tagOffset);
+        } else {
+            ByteBuffer view = page.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            getWords(view, page.position());
+
+            int[] mac = transform(pageId, version, true);
+            putWords(view, page.position());
+            HelixWords.toBytes(mac, 0, tags, tagOffset, 4);
+            Arrays.fill(words, 0);
+        }
+    }
+
+    /**
+     * Decrypts and verifies in place the page that begins at the position of
+     * a buffer.
+     * 
+     * <p>
+     * The position and limit of <i>page</i> are not changed.
+     * </p>
+     * 
+     * @param pageId
+     *            the page id
+     * @param version
+     *            the page version
+     * @param page
+     *            the buffer holding the page (which may be direct)
+     * @param tags
+     *            the page tag
+     * @param tagOffset
+     *            the offset of the page tag in <i>tags</i>
+     * @return <tt>true</tt> if the page tag matches; otherwise <tt>false</tt>
+     *         (and the page is zeroed)
+     * @throws IllegalArgumentException
+     *             if the page or tag is out of bounds
+     * @throws java.nio.ReadOnlyBufferException
+     *             if <i>page</i> is read-only
+     * @throws IllegalStateException
+     *             if this page cipher has been cleared
+     */
+    public boolean decrypt(final long pageId, final long version, final ByteBuffer page, final byte[] tags,
+            final int tagOffset) {
+        checkPage(page.limit(), page.position(), tags, tagOffset);
+        if (page.hasArray()) {
+            return decrypt(pageId, version, page.array(), page.arrayOffset() + page.position(), tags, tagOffset);
+        }
+
+        ByteBuffer view = page.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        getWords(view, page.position());
+
+        boolean verified = verify(transform(pageId, version, false), tags, tagOffset);
+        if (!verified) {
+            Arrays.fill(words, 0);
+        }
+        putWords(view, page.position());
+        Arrays.fill(words, 0);
+
+        return verified;
+    }
+
+    /**
+     * Zeroes the key schedule; this page cipher cannot be used afterwards.
+     */
+    public void clear() {
+        if (engine != null) {
+            engine.clear();
+            engine = null;
+        }
+        Arrays.fill(words, 0);
+    }
+
+    /* Transforms the page words under the page nonce and returns the MAC. */
+    private int[] transform(final long pageId, final long version, final boolean encrypt) {
+        if (engine == null) {
+            throw new IllegalStateException(Messages.getMessage("helix.error.must_reinitialize"));
+        }
+
+        nonceWords[0] = (int) pageId;
+        nonceWords[1] = (int) (pageId >>> 32);
+        nonceWords[2] = (int) version;
+        nonceWords[3] = (int) (version >>> 32);
+        engine.nonceMixing(nonceWords);
+
+        int extra = pageSize & 3;
+        int count = (extra == 0) ? words.length : (words.length - 1);
+        if (encrypt) {
+            engine.encrypt(words, words, words.length);
+        } else {
+            engine.decrypt(words, words, count, 0xffffffff);
+            if (extra != 0) {
+                words[count] = HelixTransforms.transformTail(engine, words[count], extra, false, word);
+            }
+        }
+
+        return engine.macFunction(pageSize);
+    }
+
+    /* Returns the last (possibly partial, zero-padded) word of a page. */
+    private int tailWord(final byte[] page, final int offset) {
+        int length = pageSize - ((words.length - 1) * 4);
+        int tail = 0;
+        for (int i = 0; i < length; ++i) {
+            tail |= (page[offset + i] & 0xff) << (i * 8);
+        }
+
+        return tail;
+    }
+
+    /* Stores the last (possibly partial) word of a page. */
+    private void putTailWord(final byte[] page, final int offset) {
+        int length = pageSize - ((words.length - 1) * 4);
+        int tail = words[words.length - 1];
+        for (int i = 0; i < length; ++i) {
+            page[offset + i] = (byte) (tail >>> (i * 8));
+        }
+    }
+
+    /* Reads the words of a page from a little-endian buffer. */
+    private void getWords(final ByteBuffer view, final int position) {
+        int count = pageSize >>> 2;
+        for (int i = 0; i < count; ++i) {
+            words[i] = view.getInt(position + (i * 4));
+        }
+        if (count < words.length) {
+            int tail = 0;
+            for (int i = 0; i < (pageSize & 3); ++i) {
+                tail |= (view.get(position + (count * 4) + i) & 0xff) << (i * 8);
+            }
+            words[count] = tail;
+        }
+    }
+
+    /* Writes the words of a page to a little-endian buffer. */
+    private void putWords(final ByteBuffer view, final int position) {
+        int count = pageSize >>> 2;
+        for (int i = 0; i < count; ++i) {
+            view.putInt(position + (i * 4), words[i]);
+        }
+        if (count < words.length) {
+            for (int i = 0; i < (pageSize & 3); ++i) {
+                view.put(position + (count * 4) + i, (byte) (words[count] >>> (i * 8)));
+            }
+        }
+    }
+
+    /*
+     * Compares (in constant time) a generated MAC with a page tag, recording
+     * a failure.
+     */
+    private boolean verify(final int[] mac, final byte[] tags, final int tagOffset) {
+        if (!HelixTransforms.macEquals(mac, tags, tagOffset)) {
+            ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, 1L);
+            ProviderEvents.commit(ProviderEvents.begin(ProviderEvents.MAC_FAILURE), ProviderEvents.MAC_FAILURE,
+                    "verify", "DECRYPT", pageSize);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /* Throws IllegalArgumentException if a page or tag is out of bounds. */
+    private void checkPage(final int limit, final int offset, final byte[] tags, final int tagOffset) {
+        if ((offset < 0) || (offset > (limit - pageSize)) || (tags == null) || (tagOffset < 0)
+                || (tagOffset > (tags.length - TAG_LENGTH))) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_page_region"));
+        }
+    }
+}
@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * Encrypts or decrypts a single Helix stream with reading, the Helix
+ * transform and writing overlapped on three stages.
+ * 
+ * <p>
+ * A reader stage fills buffers from the input channel, the calling thread
+ * transforms each buffer in place, and a writer stage drains buffers to the
+ * output channel; the stages hand a small ring of reusable direct buffers
+ * (four of 64 KB by default) to one another through queues. The Helix state
+ * never leaves the calling thread, and a large stream therefore runs at
+ * about the speed of the slowest stage rather than at the sum of the I/O and
+ * cryptographic speeds.
+ * </p>
+ * 
+ * <p>
+ * The encrypted format is that written by {@link HelixOutputStream} (and read
+ * by {@link HelixInputStream}): the 16-byte nonce, the ciphertext, then the
+ * 16-byte MAC. The reader and writer stages run on threads from a
+ * caller-supplied <tt>ThreadFactory</tt> (e.g. a virtual thread factory on
+ * Java 21), or on daemon platform threads by default.
+ * </p>
+ * 
+ * <p>
+ * Decryption writes plaintext before the MAC (which covers the whole stream)
+ * can be verified. If {@link #decrypt(ReadableByteChannel, WritableByteChannel)}
+ * throws an exception, everything that it wrote must be discarded.
+ * </p>
+ * 
+ * <p>
+ * A <tt>HelixPipeline</tt> re-uses its buffers, and is therefore not
+ * thread-safe: it performs one encryption or decryption at a time.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixPipeline {
+    /** The default buffer size (bytes). */
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /** The default number of buffers. */
+    public static final int DEFAULT_BUFFERS = 4;
+
+    /** The minimum buffer size (bytes). */
+    public static final int MIN_BUFFER_SIZE = 64;
+
+    /* the lengths (bytes) of the nonce header and of the MAC trailer */
+    private static final int NONCE_LENGTH = 16;
+    private static final int MAC_LENGTH = 16;
+
+    /* marks the end of the input (or output) */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /* tells a stage to stop because another stage has failed */
+    private static final ByteBuffer ABORT = ByteBuffer.allocate(0);
+
+    /* copied over the buffers to zero them (never written) */
+    private static final byte[] ZEROS = new byte[4096];
+
+    /* creates the daemon threads used for the reader and writer stages */
+    private static final ThreadFactory STAGE_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "NinthTest-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /* the Helix key */
+    private final byte[] key;
+
+    /* the ring of buffers (zeroed after every operation) */
+    final ByteBuffer[] buffers;
+
+    /* creates the reader and writer stage threads */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * Creates a new <tt>HelixPipeline</tt> with the default buffers, whose
+     * reader and writer stages run on daemon platform threads.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @throws IllegalArgumentException
+     *             if <i>key</i> is not valid
+     */
+    public HelixPipeline(final byte[] key) {
+        this(key, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS, null);
+    }
+
+    /**
+     * Creates a new <tt>HelixPipeline</tt>.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param bufferSize
+     *            the size of each buffer (a multiple of four, and at least
+     *            {@value #MIN_BUFFER_SIZE})
+     * @param buffers
+     *            the number of buffers (at least two)
+     * @param threadFactory
+     *            creates the reader and writer stage threads (or
+     *            <tt>null</tt> for daemon platform threads)
+     * @throws IllegalArgumentException
+     *             if <i>key</i>, <i>bufferSize</i> or <i>buffers</i> is not
+     *             valid
+     */
+    public HelixPipeline(final byte[] key, final int bufferSize, final int buffers, final ThreadFactory threadFactory) {
+        if ((key == null) || (key.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if ((bufferSize < MIN_BUFFER_SIZE) || ((bufferSize & 3) != 0) || (buffers < 2)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_pipeline_buffers",
+                    MIN_BUFFER_SIZE));
+        }
+
+        this.key = key.clone();
+        this.buffers = new ByteBuffer[buffers];
+        for (int i = 0; i < buffers; ++i) {
+            this.buffers[i] = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.threadFactory = (threadFactory != null) ? threadFactory : STAGE_THREAD_FACTORY;
+    }
+
+    /**
+     * Encrypts everything read from a channel.
+     * 
+     * <p>
+     * The nonce, ciphertext and MAC are written to <i>out</i>. Neither channel
+     * is closed.
+     * </p>
+     * 
+     * @param in
+     *            the plaintext
+     * @param out
+     *            receives the encrypted stream
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length, and must
+     *            never be re-used with the same key)
+     * @return the number of plaintext bytes encrypted
+     * @throws IOException
+     *             if an I/O error occurs on either channel, or if the calling
+     *             thread is interrupted
+     * @throws IllegalArgumentException
+     *             if <i>nonce</i> is not valid
+     */
+    public long encrypt(final ReadableByteChannel in, final WritableByteChannel out, final byte[] nonce)
+            throws IOException {
+        HelixStreamTransform transform = new HelixStreamTransform(key, nonce, true);
+        try {
+            writeFully(out, ByteBuffer.wrap(nonce));
+            Stages stages = new Stages(in, out);
+            byte[] tail = new byte[3];
+            byte[] mac = null;
+            long length = 0L;
+            try {
+                for (ByteBuffer buffer = stages.take(); buffer != END; buffer = stages.take()) {
+                    length += buffer.remaining();
+
+                    /* only the last buffer (short, because the input ended) can end with a partial word */
+                    mac = transform(transform, buffer, buffer.limit(), tail);
+                    stages.transformed.add(buffer);
+                }
+                stages.finish();
+            } finally {
+                stages.await();
+            }
+
+            writeFully(out, ByteBuffer.wrap((mac != null) ? mac : transform.finish(tail, 0, 0)));
+
+            return length;
+        } finally {
+            transform.clear();
+        }
+    }
+
+    /**
+     * Decrypts everything read from a channel and verifies the MAC.
+     * 
+     * <p>
+     * The plaintext is written to <i>out</i>. Neither channel is closed.
+     * </p>
+     * 
+     * @param in
+     *            the encrypted stream (nonce, ciphertext and MAC)
+     * @param out
+     *            receives the plaintext
+     * @return the number of plaintext bytes decrypted
+     * @throws IOException
+     *             if the stream is too short to hold a nonce and MAC, if the
+     *             MAC does not match (the cause is then a
+     *             {@link net.ninthtest.crypto.MessageAuthenticationException}
+     *             ), if an I/O error occurs on either channel, or if the
+     *             calling thread is interrupted
+     */
+    public long decrypt(final ReadableByteChannel in, final WritableByteChannel out) throws IOException {
+        ByteBuffer nonce = ByteBuffer.allocate(NONCE_LENGTH);
+        while (nonce.hasRemaining()) {
+            if (in.read(nonce) < 0) {
+                throw new EOFException(Messages.getMessage("helix.error.stream_truncated"));
+            }
+        }
+
+        HelixStreamTransform transform = new HelixStreamTransform(key, nonce.array(), false);
+        try {
+            Stages stages = new Stages(in, out);
+            byte[] tail = new byte[3];
+            byte[] expectedMac = new byte[MAC_LENGTH];
+            byte[] mac = null;
+            long length = 0L;
+            try {
+                /* a buffer is held back until it is known whether the MAC begins in it */
+                ByteBuffer held = null;
+                for (ByteBuffer buffer = stages.take(); buffer != END; buffer = stages.take()) {
+                    if (held == null) {
+                        held = buffer;
+                    } else if (buffer.remaining() >= MAC_LENGTH) {
+                        length += held.remaining();
+                        transform(transform, held, held.limit(), tail);
+                        stages.transformed.add(held);
+                        held = buffer;
+                    } else {
+                        /* the last buffer is short: the MAC begins in the held buffer */
+                        int split = MAC_LENGTH - buffer.remaining();
+                        int end = held.limit() - split;
+                        ((Buffer) held).position(end);
+                        held.get(expectedMac, 0, split);
+                        buffer.get(expectedMac, split, buffer.limit());
+                        ((Buffer) buffer).limit(0);
+
+                        length += end;
+                        mac = transform(transform, held, end, tail);
+                        stages.transformed.add(held);
+                        stages.transformed.add(buffer);
+                        held = null;
+                    }
+                }
+
+                if (held != null) {
+                    if (held.remaining() < MAC_LENGTH) {
+                        throw new EOFException(Messages.getMessage("helix.error.stream_truncated"));
+                    }
+                    int end = held.limit() - MAC_LENGTH;
+                    ((Buffer) held).position(end);
+                    held.get(expectedMac);
+
+                    length += end;
+                    mac = transform(transform, held, end, tail);
+                    stages.transformed.add(held);
+                } else if (mac == null) {
+                    throw new EOFException(Messages.getMessage("helix.error.stream_truncated"));
+                }
+                stages.finish();
+            } finally {
+                stages.await();
+            }
+
+            int difference = 0;
+            for (int i = 0; i < MAC_LENGTH; ++i) {
+                difference |= mac[i] ^ expectedMac[i];
+            }
+            if (difference != 0) {
+                ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, 1L);
+                ProviderEvents.commit(ProviderEvents.begin(ProviderEvents.MAC_FAILURE), ProviderEvents.MAC_FAILURE,
+                        "verify", "DECRYPT", length);
+
+                throw new IOException(Messages.getMessage("error.mac_mismatch"), new HelixMacMismatchException(
+                        expectedMac, mac));
+            }
+
+            return length;
+        } finally {
+            transform.clear();
+        }
+    }
+
+    /*
+     * Transforms (in place) the bytes of a buffer from position zero to end,
+     * and leaves the buffer ready to be written. If end is not a multiple of
+     * four, or if the buffer is short (because the input ended), the transform
+     * is finished and the MAC is returned; otherwise null is returned.
+     */
+    private byte[] transform(final HelixStreamTransform transform, final ByteBuffer buffer, final int end,
+            final byte[] tail) {
+        int words = end >>> 2;
+        int extra = end & 3;
+
+        /* Buffer casts keep the Java 6 method descriptors when built on Java 9+ */
+        ((Buffer) buffer).position(0);
+        ((Buffer) buffer).limit(end);
+        IntBuffer view = buffer.asIntBuffer();
+        transform.transform(view, view.duplicate(), words);
+
+        byte[] mac = null;
+        if ((extra != 0) || (end < buffer.capacity())) {
+            ((Buffer) buffer).position(words << 2);
+            buffer.get(tail, 0, extra);
+            mac = transform.finish(tail, 0, extra);
+            ((Buffer) buffer).position(words << 2);
+            buffer.put(tail, 0, extra);
+            ((Buffer) buffer).position(0);
+        }
+
+        return mac;
+    }
+
+    /* Writes all of the remaining bytes of a buffer to a channel. */
+    private static void writeFully(final WritableByteChannel out, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /* The queues and the reader and writer stages of one operation. */
+    private final class Stages {
+        /* buffers that are ready to be filled */
+        final BlockingQueue<ByteBuffer> free;
+
+        /* buffers that have been filled by the reader stage */
+        final BlockingQueue<ByteBuffer> filled;
+
+        /* buffers that are ready to be drained by the writer stage */
+        final BlockingQueue<ByteBuffer> transformed;
+
+        /* the reader and writer stages */
+        private final FutureTask<Void> reader;
+        private final FutureTask<Void> writer;
+
+        /* true once END has been sent to the writer stage */
+        private boolean finished;
+
+        Stages(final ReadableByteChannel in, final WritableByteChannel out) {
+            /* each queue can hold every buffer and a marker, so adding never blocks */
+            free = new ArrayBlockingQueue<ByteBuffer>(buffers.length + 1);
+            filled = new ArrayBlockingQueue<ByteBuffer>(buffers.length + 1);
+            transformed = new ArrayBlockingQueue<ByteBuffer>(buffers.length + 1);
+            for (ByteBuffer buffer : buffers) {
+                ((Buffer) buffer).clear();
+                free.add(buffer);
+            }
+
+            reader = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException, InterruptedException {
+                    try {
+                        for (ByteBuffer buffer = free.take(); buffer != ABORT; buffer = free.take()) {
+                            ((Buffer) buffer).clear();
+                            int read = 0;
+                            while (buffer.hasRemaining() && ((read = in.read(buffer)) >= 0)) {
+                                /* fill the buffer unless the input ends */
+                            }
+                            ((Buffer) buffer).flip();
+                            if (buffer.hasRemaining()) {
+                                filled.add(buffer);
+                            }
+                            if (read < 0) {
+                                filled.add(END);
+                                return null;
+                            }
+                        }
+                        filled.add(ABORT);
+                    } catch (IOException ex) {
+                        filled.add(ABORT);
+                        throw ex;
+                    } catch (RuntimeException ex) {
+                        filled.add(ABORT);
+                        throw ex;
+                    }
+
+                    return null;
+                }
+            });
+
+            writer = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException, InterruptedException {
+                    try {
+                        for (ByteBuffer buffer = transformed.take(); (buffer != END) && (buffer != ABORT); buffer =
+                                transformed.take()) {
+                            writeFully(out, buffer);
+                            ((Buffer) buffer).clear();
+                            free.add(buffer);
+                        }
+                    } catch (IOException ex) {
+                        free.add(ABORT);
+                        throw ex;
+                    } catch (RuntimeException ex) {
+                        free.add(ABORT);
+                        throw ex;
+                    }
+
+                    return null;
+                }
+            });
+
+            threadFactory.newThread(reader).start();
+            threadFactory.newThread(writer).start();
+        }
+
+        /* Returns the next filled buffer, or END; throws if a stage failed. */
+        ByteBuffer take() throws IOException {
+            ByteBuffer buffer;
+            try {
+                buffer = filled.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            if (buffer == ABORT) {
+                /* the failure is thrown by await */
+                throw new InterruptedIOException();
+            }
+
+            return buffer;
+        }
+
+        /* Tells the writer stage that every buffer has been transformed. */
+        void finish() {
+            transformed.add(END);
+            finished = true;
+        }
+
+        /*
+         * Stops the stages (if the operation did not finish), waits for them,
+         * zeroes the buffers (which hold plaintext, including unverified
+         * plaintext after a failed decryption), and throws the first stage
+         * failure.
+         */
+        void await() throws IOException {
+            if (!finished) {
+                free.offer(ABORT);
+                transformed.offer(ABORT);
+            }
+
+            boolean interrupted = Thread.interrupted();
+            try {
+                /* both stages are waited for (so that neither still uses a buffer) before any failure is thrown */
+                Throwable failure = null;
+                for (int i = 0; i < 2; ++i) {
+                    FutureTask<Void> stage = (i == 0) ? reader : writer;
+                    while (true) {
+                        try {
+                            stage.get();
+                            break;
+                        } catch (InterruptedException ex) {
+                            interrupted = true;
+                        } catch (ExecutionException ex) {
+                            Throwable cause = ex.getCause();
+                            if ((failure == null) || ((failure instanceof IOException)
+                                    && !(cause instanceof IOException))) {
+                                failure = cause;
+                            }
+                            break;
+                        }
+                    }
+                }
+
+                for (ByteBuffer buffer : buffers) {
+                    zero(buffer);
+                }
+
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /* Overwrites the whole of a buffer with zeros. */
+        private void zero(final ByteBuffer buffer) {
+            ((Buffer) buffer).clear();
+            while (buffer.hasRemaining()) {
+                buffer.put(ZEROS, 0, Math.min(ZEROS.length, buffer.remaining()));
+            }
+            ((Buffer) buffer).clear();
+        }
+    }
+}
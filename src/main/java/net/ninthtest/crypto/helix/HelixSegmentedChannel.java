@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.ninthtest.security.Messages;
+
+/**
+ * A read-only, seekable channel over the plaintext of a Helix segmented file
+ * (see {@link HelixSegmentedFile}).
+ * 
+ * <p>
+ * Only the chunks that cover a read are read and decrypted, so a read at any
+ * position costs one chunk rather than everything before it. Because every
+ * chunk but the last is the same length, the location of a chunk is computed
+ * from its index and no chunk index is needed. Decrypted and verified chunks
+ * are kept in a least-recently-used cache of a fixed number of chunks, so the
+ * cache holds up to that many times the chunk size; because the chunk size
+ * is read from the (unauthenticated) header, a file from an untrusted source
+ * should be opened with the largest chunk size the caller is prepared to
+ * cache (see {@link #HelixSegmentedChannel(byte[], FileChannel, int, int)}).
+ * </p>
+ * 
+ * <p>
+ * The methods of this class match those of the Java 7
+ * <tt>java.nio.channels.SeekableByteChannel</tt> read methods
+ * ({@link #position()}, {@link #position(long)}, {@link #size()} and
+ * {@link #read(ByteBuffer)}). A read of a chunk that fails verification
+ * throws an <tt>IOException</tt> whose cause is a
+ * {@link net.ninthtest.crypto.MessageAuthenticationException}; the chunk is
+ * not cached, so no unverified plaintext is ever returned.
+ * </p>
+ * 
+ * <p>
+ * A <tt>HelixSegmentedChannel</tt> is not thread-safe. Closing it does not
+ * close the underlying file channel.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixSegmentedChannel implements ReadableByteChannel {
+    /** The default number of decrypted chunks that are cached. */
+    public static final int DEFAULT_CACHE_CHUNKS = 16;
+
+    /* the Helix key */
+    private final byte[] key;
+
+    /* the segmented file */
+    private final FileChannel in;
+
+    /* the file nonce prefix */
+    private final byte[] noncePrefix;
+
+    /* the plaintext chunk size */
+    private final int chunkSize;
+
+    /* the number of chunks */
+    private final long chunks;
+
+    /* the plaintext length */
+    private final long size;
+
+    /*
+     * the decrypted chunks (in least-recently-used order), each in the buffer
+     * it was decrypted in, so followed by its tag
+     */
+    private final Map<Long, byte[]> cache;
+
+    /* the current plaintext position */
+    private long position;
+
+    /* whether or not this channel is open */
+    private boolean open = true;
+
+    /**
+     * Creates a new <tt>HelixSegmentedChannel</tt> that caches up to
+     * {@value #DEFAULT_CACHE_CHUNKS} decrypted chunks.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param in
+     *            the segmented file
+     * @throws IOException
+     *             if the segmented file header is not valid, if the file is
+     *             truncated, or if an I/O error occurs
+     * @throws IllegalArgumentException
+     *             if <i>key</i> is not valid
+     */
+    public HelixSegmentedChannel(final byte[] key, final FileChannel in) throws IOException {
+        this(key, in, DEFAULT_CACHE_CHUNKS);
+    }
+
+    /**
+     * Creates a new <tt>HelixSegmentedChannel</tt>.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param in
+     *            the segmented file
+     * @param cacheChunks
+     *            the maximum number of decrypted chunks that are cached
+     * @throws IOException
+     *             if the segmented file header is not valid, if the file is
+     *             truncated, or if an I/O error occurs
+     * @throws IllegalArgumentException
+     *             if <i>key</i>, <i>in</i> or <i>cacheChunks</i> is not valid
+     */
+    public HelixSegmentedChannel(final byte[] key, final FileChannel in, final int cacheChunks) throws IOException {
+        this(key, in, cacheChunks, HelixSegmentedFile.MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new <tt>HelixSegmentedChannel</tt> over a segmented file whose
+     * chunk size does not exceed a maximum.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param in
+     *            the segmented file
+     * @param cacheChunks
+     *            the maximum number of decrypted chunks that are cached
+     * @param maxChunkSize
+     *            the largest chunk size accepted (bytes)
+     * @throws IOException
+     *             if the segmented file header is not valid or names a chunk
+     *             size larger than <i>maxChunkSize</i>, if the file is
+     *             truncated, or if an I/O error occurs
+     * @throws IllegalArgumentException
+     *             if <i>key</i>, <i>in</i> or <i>cacheChunks</i> is not valid
+     */
+    public HelixSegmentedChannel(final byte[] key, final FileChannel in, final int cacheChunks,
+            final int maxChunkSize) throws IOException {
+        if ((key == null) || (key.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if (in == null) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.stream_is_required"));
+        } else if (cacheChunks < 1) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_cache_size"));
+        }
+
+        this.key = key.clone();
+        this.in = in;
+        noncePrefix = new byte[HelixSegmentedFile.NONCE_PREFIX_LENGTH];
+        chunkSize = HelixSegmentedFile.readHeader(in, noncePrefix);
+        if (chunkSize > maxChunkSize) {
+            throw new IOException(Messages.getMessage("helix.error.chunk_size_not_accepted", chunkSize,
+                    maxChunkSize));
+        }
+        long length = in.size();
+        chunks = HelixSegmentedFile.encryptedChunkCount(length, chunkSize);
+        size = HelixSegmentedFile.plainTextLength(length, chunkSize);
+        cache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+                if (size() > cacheChunks) {
+                    Arrays.fill(eldest.getValue(), (byte) 0);
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the current plaintext position of this channel.
+     * 
+     * @return the current position
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     */
+    public long position() throws ClosedChannelException {
+        checkOpen();
+
+        return position;
+    }
+
+    /**
+     * Sets the plaintext position of this channel.
+     * 
+     * <p>
+     * Setting the position beyond the end of the plaintext is permitted; a
+     * subsequent read then returns end-of-stream.
+     * </p>
+     * 
+     * @param newPosition
+     *            the new position
+     * @return this channel
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     * @throws IllegalArgumentException
+     *             if <i>newPosition</i> is negative
+     */
+    public HelixSegmentedChannel position(final long newPosition) throws ClosedChannelException {
+        checkOpen();
+        if (newPosition < 0L) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_position"));
+        }
+
+        position = newPosition;
+
+        return this;
+    }
+
+    /**
+     * Returns the plaintext length of the segmented file.
+     * 
+     * @return the plaintext length
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     */
+    public long size() throws ClosedChannelException {
+        checkOpen();
+
+        return size;
+    }
+
+    /**
+     * Reads plaintext from the current position into a buffer, decrypting
+     * (or taking from the cache) only the chunks that cover the read, and
+     * advances the position.
+     * 
+     * @param destination
+     *            the buffer into which plaintext is transferred
+     * @return the number of bytes read, or <tt>-1</tt> if the position is at
+     *         or beyond the end of the plaintext
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     * @throws IOException
+     *             if a chunk fails MAC verification, or if an I/O error
+     *             occurs
+     */
+    @Override
+    public int read(final ByteBuffer destination) throws IOException {
+        checkOpen();
+        if (position >= size) {
+            return -1;
+        }
+
+        int count = 0;
+        while (destination.hasRemaining() && (position < size)) {
+            long index = position / chunkSize;
+            int offset = (int) (position - (index * chunkSize));
+            byte[] chunk = chunk(index);
+            int length = Math.min(chunkLength(index) - offset, destination.remaining());
+
+            destination.put(chunk, offset, length);
+            position += length;
+            count += length;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns whether or not this channel is open.
+     * 
+     * @return <tt>true</tt> if this channel is open
+     */
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Closes this channel and clears the decrypted chunk cache.
+     * 
+     * <p>
+     * The underlying file channel is not closed.
+     * </p>
+     */
+    @Override
+    public void close() {
+        if (open) {
+            open = false;
+            for (byte[] chunk : cache.values()) {
+                Arrays.fill(chunk, (byte) 0);
+            }
+            cache.clear();
+        }
+    }
+
+    /* Returns the plaintext length of a chunk. */
+    private int chunkLength(final long index) {
+        return (int) Math.min(chunkSize, size - (index * chunkSize));
+    }
+
+    /*
+     * Returns a decrypted, verified chunk (from the cache if possible); the
+     * plaintext (chunkLength bytes) is followed by the chunk's tag.
+     */
+    private byte[] chunk(final long index) throws IOException {
+        Long key = Long.valueOf(index);
+        byte[] chunk = cache.get(key);
+        if (chunk == null) {
+            boolean last = (index == (chunks - 1));
+            int length = chunkLength(index);
+            chunk = new byte[length + HelixSegmentedFile.TAG_LENGTH];
+            HelixSegmentedFile.readFully(in, chunk, 0, chunk.length, HelixSegmentedFile.HEADER_LENGTH
+                    + (index * (chunkSize + HelixSegmentedFile.TAG_LENGTH)));
+            HelixSegmentedFile.decryptChunk(this.key, noncePrefix, index, last, chunk, length);
+
+            cache.put(key, chunk);
+        }
+
+        return chunk;
+    }
+
+    /* Throws ClosedChannelException if this channel is closed. */
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
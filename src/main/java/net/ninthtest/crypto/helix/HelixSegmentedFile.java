@@ -0,0 +1,531 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * Encrypts and decrypts files in the Helix segmented format, in which the
+ * plaintext is divided into fixed-size chunks that are encrypted (and can
+ * therefore be processed in parallel) independently.
+ * 
+ * <p>
+ * A segmented file is a {@value #HEADER_LENGTH}-byte header followed by the
+ * encrypted chunks:
+ * </p>
+ * 
+ * <table border="1" summary="Segmented file header">
+ * <tr>
+ * <th>Bytes</th>
+ * <th>Content</th>
+ * </tr>
+ * <tr>
+ * <td>0-3</td>
+ * <td>the magic number <tt>"HXS1"</tt></td>
+ * </tr>
+ * <tr>
+ * <td>4-7</td>
+ * <td>the plaintext chunk size (little-endian)</td>
+ * </tr>
+ * <tr>
+ * <td>8-18</td>
+ * <td>the 11-byte file nonce prefix</td>
+ * </tr>
+ * <tr>
+ * <td>19</td>
+ * <td>reserved (zero)</td>
+ * </tr>
+ * </table>
+ * 
+ * <p>
+ * Each encrypted chunk is the ciphertext of a plaintext chunk followed by its
+ * 16-byte MAC. Every chunk is a full chunk size in length except the last,
+ * which may be shorter (an empty file is a single, empty, last chunk). Chunk
+ * <i>i</i> is encrypted using the nonce <tt>prefix || i || last</tt>, where
+ * <i>i</i> is a 32-bit little-endian chunk index and <i>last</i> is a byte
+ * that is 1 for the last chunk and 0 otherwise. Because the index and the
+ * last-chunk flag are authenticated by each chunk's MAC, reordered, removed
+ * or appended chunks (including truncation at a chunk boundary) are
+ * detected.
+ * </p>
+ * 
+ * <p>
+ * Chunks are divided into runs of about a megabyte. If an executor is
+ * supplied (e.g. a Java 7+ <tt>ForkJoinPool</tt>), every run except the last
+ * is submitted to it and the calling thread processes the last run;
+ * otherwise the calling thread processes every chunk. Files are read and
+ * written with positional <tt>FileChannel</tt> I/O, so runs do not contend
+ * for a file position.
+ * </p>
+ * 
+ * <p>
+ * A <tt>HelixSegmentedFile</tt> is immutable and thread-safe.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixSegmentedFile {
+    /** The length (bytes) of the segmented file header. */
+    public static final int HEADER_LENGTH = 20;
+
+    /** The length (bytes) of the file nonce prefix. */
+    public static final int NONCE_PREFIX_LENGTH = 11;
+
+    /** The length (bytes) of the MAC that follows each chunk. */
+    public static final int TAG_LENGTH = 16;
+
+    /** The default plaintext chunk size (bytes). */
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    /** The minimum plaintext chunk size (bytes). */
+    public static final int MIN_CHUNK_SIZE = 16;
+
+    /** The maximum plaintext chunk size (bytes). */
+    public static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    /* the magic number ("HXS1") */
+    private static final byte[] MAGIC = new byte[] {'H', 'X', 'S', '1'};
+
+    /* the approximate number of plaintext bytes processed by one task */
+    private static final int RUN_LENGTH = 1 << 20;
+
+    /* the maximum number of chunks (the chunk index is 32 bits) */
+    private static final long MAX_CHUNKS = 1L << 32;
+
+    /* the Helix key */
+    private final byte[] key;
+
+    /* the plaintext chunk size (used for encryption) */
+    private final int chunkSize;
+
+    /* the executor that processes all but the last run (or null) */
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new <tt>HelixSegmentedFile</tt> that processes every chunk on
+     * the calling thread, using the default chunk size for encryption.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @throws IllegalArgumentException
+     *             if <i>key</i> is not valid
+     */
+    public HelixSegmentedFile(final byte[] key) {
+        this(key, DEFAULT_CHUNK_SIZE, null);
+    }
+
+    /**
+     * Creates a new <tt>HelixSegmentedFile</tt>.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param chunkSize
+     *            the plaintext chunk size used for encryption (decryption
+     *            uses the chunk size recorded in the file header)
+     * @param executor
+     *            the executor that processes runs of chunks (or
+     *            <tt>null</tt> to process every chunk on the calling thread)
+     * @throws IllegalArgumentException
+     *             if <i>key</i> or <i>chunkSize</i> is not valid
+     */
+    public HelixSegmentedFile(final byte[] key, final int chunkSize, final ExecutorService executor) {
+        if ((key == null) || (key.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if ((chunkSize < MIN_CHUNK_SIZE) || (chunkSize > MAX_CHUNK_SIZE)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_chunk_size", MIN_CHUNK_SIZE,
+                    MAX_CHUNK_SIZE));
+        }
+
+        this.key = key.clone();
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the length of a segmented file.
+     * 
+     * @param plainTextLength
+     *            the plaintext length
+     * @param chunkSize
+     *            the plaintext chunk size
+     * @return the segmented file length (header, ciphertext and MACs)
+     */
+    public static long encryptedLength(final long plainTextLength, final int chunkSize) {
+        return HEADER_LENGTH + plainTextLength + (chunkCount(plainTextLength, chunkSize) * TAG_LENGTH);
+    }
+
+    /**
+     * Encrypts a file.
+     * 
+     * <p>
+     * Every byte of <i>in</i> (regardless of its position) is encrypted, and
+     * <i>out</i> is replaced by the segmented file (from position zero).
+     * </p>
+     * 
+     * @param in
+     *            the plaintext file
+     * @param out
+     *            receives the segmented file
+     * @param noncePrefix
+     *            the 11-byte file nonce prefix (must never be re-used with the
+     *            same key)
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws IllegalArgumentException
+     *             if <i>noncePrefix</i> is not valid, or if the file has too
+     *             many chunks
+     */
+    public void encrypt(final FileChannel in, final FileChannel out, final byte[] noncePrefix) throws IOException {
+        if ((noncePrefix == null) || (noncePrefix.length != NONCE_PREFIX_LENGTH)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_nonce_prefix",
+                    NONCE_PREFIX_LENGTH));
+        }
+
+        long length = in.size();
+        long chunks = chunkCount(length, chunkSize);
+        if (chunks > MAX_CHUNKS) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.too_many_chunks"));
+        }
+
+        byte[] header = new byte[HEADER_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, 4);
+        HelixWords.toBytes(new int[] {chunkSize}, 0, header, 4, 1);
+        System.arraycopy(noncePrefix, 0, header, 8, NONCE_PREFIX_LENGTH);
+
+        out.truncate(0L);
+        writeFully(out, header, 0, HEADER_LENGTH, 0L);
+        run(new Segments(in, out, noncePrefix.clone(), chunkSize, length, chunks, true));
+    }
+
+    /**
+     * Decrypts a segmented file of any chunk size.
+     * 
+     * <p>
+     * <i>out</i> is replaced by the plaintext (from position zero). If any
+     * chunk fails verification, <i>out</i> is truncated to zero length.
+     * </p>
+     * 
+     * @param in
+     *            the segmented file
+     * @param out
+     *            receives the plaintext
+     * @throws IOException
+     *             if the header is not valid, if the file is truncated, if any
+     *             chunk fails MAC verification (the cause is then a
+     *             {@link net.ninthtest.crypto.MessageAuthenticationException}
+     *             ), or if an I/O error occurs
+     * @see #decrypt(FileChannel, FileChannel, int)
+     */
+    public void decrypt(final FileChannel in, final FileChannel out) throws IOException {
+        decrypt(in, out, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Decrypts a segmented file whose chunk size does not exceed a maximum.
+     * 
+     * <p>
+     * The chunk size is read from the (unauthenticated) header, and each run
+     * buffers one chunk; a file from an untrusted source should therefore be
+     * decrypted with the largest chunk size the caller is prepared to buffer
+     * per thread. <i>out</i> is replaced by the plaintext (from position
+     * zero). If any chunk fails verification, <i>out</i> is truncated to zero
+     * length.
+     * </p>
+     * 
+     * @param in
+     *            the segmented file
+     * @param out
+     *            receives the plaintext
+     * @param maxChunkSize
+     *            the largest chunk size accepted (bytes)
+     * @throws IOException
+     *             if the header is not valid or names a chunk size larger than
+     *             <i>maxChunkSize</i>, if the file is truncated, if any chunk
+     *             fails MAC verification (the cause is then a
+     *             {@link net.ninthtest.crypto.MessageAuthenticationException}
+     *             ), or if an I/O error occurs
+     */
+    public void decrypt(final FileChannel in, final FileChannel out, final int maxChunkSize) throws IOException {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        int size = readHeader(in, noncePrefix);
+        if (size > maxChunkSize) {
+            throw new IOException(Messages.getMessage("helix.error.chunk_size_not_accepted", size, maxChunkSize));
+        }
+        long chunks = encryptedChunkCount(in.size(), size);
+
+        out.truncate(0L);
+        try {
+            run(new Segments(in, out, noncePrefix, size, plainTextLength(in.size(), size), chunks, false));
+        } catch (IOException ex) {
+            out.truncate(0L);
+            throw ex;
+        }
+    }
+
+    /*
+     * Reads and validates the header of a segmented file, copies the nonce
+     * prefix and returns the chunk size.
+     */
+    static int readHeader(final FileChannel in, final byte[] noncePrefix) throws IOException {
+        if (in.size() < (HEADER_LENGTH + TAG_LENGTH)) {
+            throw new EOFException(Messages.getMessage("helix.error.stream_truncated"));
+        }
+
+        byte[] header = new byte[HEADER_LENGTH];
+        readFully(in, header, 0, HEADER_LENGTH, 0L);
+        int[] size = new int[1];
+        HelixWords.toInts(header, 4, size, 0, 1);
+        if (!Arrays.equals(MAGIC, Arrays.copyOf(header, 4)) || (size[0] < MIN_CHUNK_SIZE)
+                || (size[0] > MAX_CHUNK_SIZE) || (header[HEADER_LENGTH - 1] != 0)) {
+            throw new IOException(Messages.getMessage("helix.error.invalid_segment_header"));
+        }
+
+        System.arraycopy(header, 8, noncePrefix, 0, NONCE_PREFIX_LENGTH);
+
+        return size[0];
+    }
+
+    /*
+     * Returns the number of chunks of a segmented file of the given length,
+     * or throws EOFException if the length is not a valid segmented file
+     * length.
+     */
+    static long encryptedChunkCount(final long length, final int chunkSize) throws EOFException {
+        long encryptedChunk = chunkSize + TAG_LENGTH;
+        long body = length - HEADER_LENGTH;
+        long chunks = ((body - 1) / encryptedChunk) + 1;
+        long lastLength = body - ((chunks - 1) * encryptedChunk);
+        if ((body < TAG_LENGTH) || (lastLength < TAG_LENGTH) || (chunks > MAX_CHUNKS)) {
+            throw new EOFException(Messages.getMessage("helix.error.stream_truncated"));
+        }
+
+        return chunks;
+    }
+
+    /* Returns the plaintext length of a (valid) segmented file. */
+    static long plainTextLength(final long length, final int chunkSize) {
+        long body = length - HEADER_LENGTH;
+
+        return body - ((((body - 1) / (chunkSize + TAG_LENGTH)) + 1) * TAG_LENGTH);
+    }
+
+    /* Returns the number of chunks of a plaintext (at least one). */
+    static long chunkCount(final long plainTextLength, final int chunkSize) {
+        return (plainTextLength == 0L) ? 1L : (((plainTextLength - 1) / chunkSize) + 1);
+    }
+
+    /* Returns the nonce of a chunk: prefix || index || last. */
+    static byte[] chunkNonce(final byte[] noncePrefix, final long index, final boolean last) {
+        byte[] nonce = new byte[16];
+        System.arraycopy(noncePrefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+        HelixWords.toBytes(new int[] {(int) index}, 0, nonce, NONCE_PREFIX_LENGTH, 1);
+        nonce[15] = (byte) (last ? 1 : 0);
+
+        return nonce;
+    }
+
+    /*
+     * Decrypts (in place) and verifies a chunk whose ciphertext is followed by
+     * its MAC in a buffer.
+     */
+    static void decryptChunk(final byte[] key, final byte[] noncePrefix, final long index, final boolean last,
+            final byte[] buffer, final int length) throws IOException {
+        HelixStreamTransform transform = new HelixStreamTransform(key, chunkNonce(noncePrefix, index, last), false);
+        int words = length & ~3;
+        transform.transform(buffer, 0, words);
+        byte[] mac = transform.finish(buffer, words, length - words);
+
+        int difference = 0;
+        for (int i = 0; i < TAG_LENGTH; ++i) {
+            difference |= mac[i] ^ buffer[length + i];
+        }
+        if (difference != 0) {
+            Arrays.fill(buffer, 0, length, (byte) 0);
+            ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, 1L);
+            ProviderEvents.commit(ProviderEvents.begin(ProviderEvents.MAC_FAILURE), ProviderEvents.MAC_FAILURE,
+                    "verify", "DECRYPT", length);
+
+            throw new IOException(Messages.getMessage("helix.error.chunk_mac_mismatch", index),
+                    new HelixMacMismatchException(Arrays.copyOfRange(buffer, length, length + TAG_LENGTH), mac));
+        }
+    }
+
+    /*
+     * Divides the chunks into runs, submits all but the last to the executor,
+     * processes the last on the calling thread, then waits for the others.
+     */
+    private void run(final Segments segments) throws IOException {
+        long chunksPerRun = Math.max(1L, RUN_LENGTH / segments.chunkSize);
+        List<Run> runs = new ArrayList<Run>();
+        if (executor == null) {
+            runs.add(new Run(segments, 0L, segments.chunks));
+        } else {
+            for (long start = 0L; start < segments.chunks; start += chunksPerRun) {
+                runs.add(new Run(segments, start, Math.min(segments.chunks, start + chunksPerRun)));
+            }
+        }
+
+        List<Future<Void>> results = new ArrayList<Future<Void>>(runs.size() - 1);
+        try {
+            for (int i = 0; i < (runs.size() - 1); ++i) {
+                results.add(executor.submit(runs.get(i)));
+            }
+
+            runs.get(runs.size() - 1).call();
+        } finally {
+            /* the runs are bounded, so wait for them even if interrupted */
+            boolean interrupted = false;
+            IOException failure = null;
+            for (Future<Void> result : results) {
+                while (true) {
+                    try {
+                        result.get();
+                        break;
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        } else if (cause instanceof Error) {
+                            throw (Error) cause;
+                        } else if ((failure == null) && (cause instanceof IOException)) {
+                            failure = (IOException) cause;
+                        }
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /* Reads exactly length bytes from a position of a channel. */
+    static void readFully(final FileChannel channel, final byte[] bytes, final int offset, final int length,
+            final long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + (buffer.position() - offset)) < 0) {
+                throw new EOFException(Messages.getMessage("helix.error.stream_truncated"));
+            }
+        }
+    }
+
+    /* Writes exactly length bytes to a position of a channel. */
+    static void writeFully(final FileChannel channel, final byte[] bytes, final int offset, final int length,
+            final long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + (buffer.position() - offset));
+        }
+    }
+
+    /* The files and geometry of one encryption or decryption. */
+    private static final class Segments {
+        final FileChannel in;
+        final FileChannel out;
+        final byte[] noncePrefix;
+        final int chunkSize;
+        final long plainTextLength;
+        final long chunks;
+        final boolean encrypt;
+
+        Segments(final FileChannel in, final FileChannel out, final byte[] noncePrefix, final int chunkSize,
+                final long plainTextLength, final long chunks, final boolean encrypt) {
+            this.in = in;
+            this.out = out;
+            this.noncePrefix = noncePrefix;
+            this.chunkSize = chunkSize;
+            this.plainTextLength = plainTextLength;
+            this.chunks = chunks;
+            this.encrypt = encrypt;
+        }
+    }
+
+    /* Encrypts or decrypts a contiguous range of chunks. */
+    private final class Run implements Callable<Void> {
+        private final Segments segments;
+        private final long start;
+        private final long end;
+
+        Run(final Segments segments, final long start, final long end) {
+            this.segments = segments;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            int chunkSize = segments.chunkSize;
+            long encryptedChunk = chunkSize + TAG_LENGTH;
+
+            /* the chunk size of a decrypted file comes from its header, so never buffer more than the run holds */
+            int bufferLength = (int) Math.min(chunkSize, segments.plainTextLength - (start * chunkSize));
+            byte[] buffer = new byte[bufferLength + TAG_LENGTH];
+            try {
+                for (long index = start; index < end; ++index) {
+                    boolean last = (index == (segments.chunks - 1));
+                    long plainPosition = index * chunkSize;
+                    long cipherPosition = HEADER_LENGTH + (index * encryptedChunk);
+                    int length = (int) Math.min(chunkSize, segments.plainTextLength - plainPosition);
+
+                    if (segments.encrypt) {
+                        HelixStreamTransform transform =
+                                new HelixStreamTransform(key, chunkNonce(segments.noncePrefix, index, last), true);
+                        int words = length & ~3;
+                        readFully(segments.in, buffer, 0, length, plainPosition);
+                        transform.transform(buffer, 0, words);
+                        byte[] mac = transform.finish(buffer, words, length - words);
+                        System.arraycopy(mac, 0, buffer, length, TAG_LENGTH);
+                        writeFully(segments.out, buffer, 0, length + TAG_LENGTH, cipherPosition);
+                    } else {
+                        readFully(segments.in, buffer, 0, length + TAG_LENGTH, cipherPosition);
+                        decryptChunk(key, segments.noncePrefix, index, last, buffer, length);
+                        writeFully(segments.out, buffer, 0, length, plainPosition);
+                    }
+                }
+            } finally {
+                Arrays.fill(buffer, (byte) 0);
+            }
+
+            return null;
+        }
+    }
+}
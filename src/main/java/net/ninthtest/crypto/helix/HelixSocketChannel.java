@@ -0,0 +1,654 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Arrays;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * A channel that encrypts everything written to it, and decrypts and
+ * verifies everything read from it, as a sequence of Helix records over an
+ * underlying (e.g. socket) channel.
+ * 
+ * <p>
+ * Each record is the 4-byte little-endian plaintext length, the ciphertext,
+ * then the 16-byte MAC. Records are encrypted under a session key that both
+ * peers share, with the nonce <tt>counter || direction || end</tt>: a 64-bit
+ * little-endian record counter (starting at zero in each direction), a
+ * 32-bit little-endian direction that is 0 for records sent by the client
+ * and 1 for records sent by the server, and a 32-bit little-endian
+ * end-of-stream flag. Reordered, replayed, dropped or reflected records
+ * therefore fail verification. <b>A session key must never be used for more
+ * than one connection.</b>
+ * </p>
+ * 
+ * <p>
+ * {@link #close()} sends an end-of-stream record: an empty record whose
+ * length has its high bit set and whose nonce has an end-of-stream flag of 1.
+ * The flag is authenticated by the record's MAC, so a reader returns
+ * <tt>-1</tt> only after the peer has closed its channel; if the underlying
+ * channel ends without an end-of-stream record (e.g. because an attacker
+ * closed the connection between records), the read fails as truncated.
+ * </p>
+ * 
+ * <p>
+ * Key mixing is performed once per direction, when the channel is created;
+ * each record then costs only nonce mixing and its own words. Records are
+ * sealed and opened in place in one reusable direct buffer per direction,
+ * and no memory is allocated per record. A record is delivered to a reader
+ * only after its MAC has been verified; once a record fails verification,
+ * every subsequent read fails. Likewise, once the underlying channel fails
+ * part-way through a record, every subsequent read (or write, in the case of
+ * a failed write) fails, because the peers' record counters can no longer
+ * agree.
+ * </p>
+ * 
+ * <p>
+ * The underlying channel must be in blocking mode. Reading and writing may
+ * be performed concurrently (by different threads); concurrent reads (or
+ * concurrent writes) are serialized.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixSocketChannel implements ByteChannel, GatheringByteChannel, ScatteringByteChannel {
+    /** The default maximum plaintext length (bytes) of a record. */
+    public static final int DEFAULT_MAX_RECORD_SIZE = 16384;
+
+    /** The largest permitted maximum plaintext length (bytes) of a record. */
+    public static final int MAX_RECORD_SIZE = 1 << 24;
+
+    /** The length (bytes) of a record header. */
+    public static final int HEADER_LENGTH = 4;
+
+    /** The length (bytes) of a record MAC. */
+    public static final int TAG_LENGTH = 16;
+
+    /* the record length flag of an end-of-stream record */
+    private static final int END_OF_STREAM = 0x80000000;
+
+    /* the underlying channel */
+    private final ByteChannel channel;
+
+    /* the maximum plaintext length of a record */
+    private final int maxRecordSize;
+
+    /* the outbound and inbound record states */
+    private final Direction outbound;
+    private final Direction inbound;
+
+    /* the record being sent */
+    private final ByteBuffer sendRecord;
+
+    /* the record being received (its remaining bytes are undelivered plaintext) */
+    private final ByteBuffer receiveRecord;
+
+    /* serialize writes and reads, respectively */
+    private final Object writeLock = new Object();
+    private final Object readLock = new Object();
+
+    /* the failure of a record read (every subsequent read fails) */
+    private IOException readFailure;
+
+    /* true once the peer's end-of-stream record has been received */
+    private boolean ended;
+
+    /* the failure of a record write (every subsequent write fails) */
+    private IOException writeFailure;
+
+    /* whether or not this channel is open */
+    private volatile boolean open = true;
+
+    /**
+     * Creates a new <tt>HelixSocketChannel</tt> with the default maximum
+     * record size.
+     * 
+     * @param channel
+     *            the underlying channel (in blocking mode)
+     * @param sessionKey
+     *            the Helix session key (cannot exceed 32 bytes in length)
+     * @param client
+     *            <tt>true</tt> on the client end of the connection, and
+     *            <tt>false</tt> on the server end
+     * @throws IllegalArgumentException
+     *             if <i>channel</i> or <i>sessionKey</i> is not valid
+     */
+    public HelixSocketChannel(final ByteChannel channel, final byte[] sessionKey, final boolean client) {
+        this(channel, sessionKey, client, DEFAULT_MAX_RECORD_SIZE);
+    }
+
+    /**
+     * Creates a new <tt>HelixSocketChannel</tt>.
+     * 
+     * @param channel
+     *            the underlying channel (in blocking mode)
+     * @param sessionKey
+     *            the Helix session key (cannot exceed 32 bytes in length)
+     * @param client
+     *            <tt>true</tt> on the client end of the connection, and
+     *            <tt>false</tt> on the server end
+     * @param maxRecordSize
+     *            the maximum plaintext length of a record (both peers must use
+     *            the same value)
+     * @throws IllegalArgumentException
+     *             if <i>channel</i>, <i>sessionKey</i> or
+     *             <i>maxRecordSize</i> is not valid
+     */
+    public HelixSocketChannel(final ByteChannel channel, final byte[] sessionKey, final boolean client,
+            final int maxRecordSize) {
+        if (channel == null) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.stream_is_required"));
+        } else if ((sessionKey == null) || (sessionKey.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if ((maxRecordSize < 1) || (maxRecordSize > MAX_RECORD_SIZE)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_record_size",
+                    MAX_RECORD_SIZE));
+        }
+
+        this.channel = channel;
+        this.maxRecordSize = maxRecordSize;
+        outbound = new Direction(sessionKey, client ? 0 : 1, maxRecordSize);
+        inbound = new Direction(sessionKey, client ? 1 : 0, maxRecordSize);
+
+        int recordLength = HEADER_LENGTH + maxRecordSize + TAG_LENGTH;
+        sendRecord = ByteBuffer.allocateDirect(recordLength).order(ByteOrder.LITTLE_ENDIAN);
+        receiveRecord = ByteBuffer.allocateDirect(recordLength).order(ByteOrder.LITTLE_ENDIAN);
+        ((Buffer) receiveRecord).limit(0);
+    }
+
+    /**
+     * Encrypts the remaining bytes of a buffer as one or more records and
+     * writes them to the underlying channel.
+     * 
+     * @param source
+     *            the buffer from which plaintext is taken
+     * @return the number of plaintext bytes written (all of those remaining)
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     * @throws IOException
+     *             if an I/O error occurs (now or in a previous write)
+     */
+    @Override
+    public int write(final ByteBuffer source) throws IOException {
+        return (int) write(new ByteBuffer[] {source}, 0, 1);
+    }
+
+    /**
+     * Encrypts the remaining bytes of a sequence of buffers as one or more
+     * records (each filled from as many buffers as fit) and writes them to the
+     * underlying channel.
+     * 
+     * @param sources
+     *            the buffers from which plaintext is taken
+     * @return the number of plaintext bytes written (all of those remaining)
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     * @throws IOException
+     *             if an I/O error occurs (now or in a previous write)
+     */
+    @Override
+    public long write(final ByteBuffer[] sources) throws IOException {
+        return write(sources, 0, sources.length);
+    }
+
+    /**
+     * Encrypts the remaining bytes of a subsequence of buffers as one or more
+     * records (each filled from as many buffers as fit) and writes them to the
+     * underlying channel.
+     * 
+     * @param sources
+     *            the buffers from which plaintext is taken
+     * @param offset
+     *            the index of the first buffer
+     * @param length
+     *            the number of buffers
+     * @return the number of plaintext bytes written (all of those remaining)
+     * @throws IndexOutOfBoundsException
+     *             if <i>offset</i> or <i>length</i> is out of bounds
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     * @throws IOException
+     *             if an I/O error occurs (now or in a previous write)
+     */
+    @Override
+    public long write(final ByteBuffer[] sources, final int offset, final int length) throws IOException {
+        if ((offset < 0) || (length < 0) || (offset > (sources.length - length))) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        synchronized (writeLock) {
+            checkOpen();
+            if (writeFailure != null) {
+                throw writeFailure;
+            }
+
+            long total = 0L;
+            int index = offset;
+            int end = offset + length;
+            int recordLimit = HEADER_LENGTH + maxRecordSize;
+            while (true) {
+                /* Buffer casts keep the Java 6 method descriptors when built on Java 9+ */
+                ((Buffer) sendRecord).clear();
+                ((Buffer) sendRecord).position(HEADER_LENGTH);
+                while ((index < end) && (sendRecord.position() < recordLimit)) {
+                    ByteBuffer source = sources[index];
+                    int count = Math.min(source.remaining(), recordLimit - sendRecord.position());
+                    if (count == source.remaining()) {
+                        sendRecord.put(source);
+                        ++index;
+                    } else {
+                        ByteBuffer part = source.duplicate();
+                        ((Buffer) part).limit(part.position() + count);
+                        sendRecord.put(part);
+                        ((Buffer) source).position(source.position() + count);
+                    }
+                }
+
+                int recordLength = sendRecord.position() - HEADER_LENGTH;
+                if (recordLength == 0) {
+                    return total;
+                }
+
+                send(recordLength, false);
+                total += recordLength;
+            }
+        }
+    }
+
+    /**
+     * Reads verified plaintext into a buffer, receiving (and verifying) one
+     * record from the underlying channel if no plaintext is pending.
+     * 
+     * @param destination
+     *            the buffer into which plaintext is transferred
+     * @return the number of bytes read, or <tt>-1</tt> if the peer's
+     *         end-of-stream record has been received
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     * @throws IOException
+     *             if a record fails verification (the cause is then a
+     *             {@link net.ninthtest.crypto.MessageAuthenticationException}
+     *             ), if the underlying channel ends without an end-of-stream
+     *             record, if a record is too large, or if an I/O error occurs
+     *             (now or in a previous read)
+     */
+    @Override
+    public int read(final ByteBuffer destination) throws IOException {
+        return (int) read(new ByteBuffer[] {destination}, 0, 1);
+    }
+
+    /**
+     * Reads verified plaintext into a sequence of buffers, receiving (and
+     * verifying) one record from the underlying channel if no plaintext is
+     * pending.
+     * 
+     * @param destinations
+     *            the buffers into which plaintext is transferred
+     * @return the number of bytes read, or <tt>-1</tt> if the peer's
+     *         end-of-stream record has been received
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     * @throws IOException
+     *             if a record fails verification (the cause is then a
+     *             {@link net.ninthtest.crypto.MessageAuthenticationException}
+     *             ), if the underlying channel ends without an end-of-stream
+     *             record, if a record is too large, or if an I/O error occurs
+     *             (now or in a previous read)
+     */
+    @Override
+    public long read(final ByteBuffer[] destinations) throws IOException {
+        return read(destinations, 0, destinations.length);
+    }
+
+    /**
+     * Reads verified plaintext into a subsequence of buffers, receiving (and
+     * verifying) one record from the underlying channel if no plaintext is
+     * pending.
+     * 
+     * @param destinations
+     *            the buffers into which plaintext is transferred
+     * @param offset
+     *            the index of the first buffer
+     * @param length
+     *            the number of buffers
+     * @return the number of bytes read, or <tt>-1</tt> if the peer's
+     *         end-of-stream record has been received
+     * @throws IndexOutOfBoundsException
+     *             if <i>offset</i> or <i>length</i> is out of bounds
+     * @throws ClosedChannelException
+     *             if this channel is closed
+     * @throws IOException
+     *             if a record fails verification (the cause is then a
+     *             {@link net.ninthtest.crypto.MessageAuthenticationException}
+     *             ), if the underlying channel ends without an end-of-stream
+     *             record, if a record is too large, or if an I/O error occurs
+     *             (now or in a previous read)
+     */
+    @Override
+    public long read(final ByteBuffer[] destinations, final int offset, final int length) throws IOException {
+        if ((offset < 0) || (length < 0) || (offset > (destinations.length - length))) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        synchronized (readLock) {
+            checkOpen();
+            if (readFailure != null) {
+                throw readFailure;
+            }
+
+            long remaining = 0L;
+            for (int i = offset; i < (offset + length); ++i) {
+                remaining += destinations[i].remaining();
+            }
+            if (remaining == 0L) {
+                return 0L;
+            } else if (!receiveRecord.hasRemaining() && (ended || !receive())) {
+                return -1L;
+            }
+
+            long total = 0L;
+            for (int i = offset; (i < (offset + length)) && receiveRecord.hasRemaining(); ++i) {
+                ByteBuffer destination = destinations[i];
+                int count = Math.min(destination.remaining(), receiveRecord.remaining());
+                if (count == receiveRecord.remaining()) {
+                    destination.put(receiveRecord);
+                } else {
+                    ByteBuffer part = receiveRecord.duplicate();
+                    ((Buffer) part).limit(part.position() + count);
+                    destination.put(part);
+                    ((Buffer) receiveRecord).position(receiveRecord.position() + count);
+                }
+                total += count;
+            }
+
+            return total;
+        }
+    }
+
+    /**
+     * Returns whether or not this channel is open.
+     * 
+     * @return <tt>true</tt> if this channel is open
+     */
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Sends the end-of-stream record, then closes this channel and the
+     * underlying channel, and zeroes the session state.
+     * 
+     * <p>
+     * A write in progress (on another thread) is completed before the
+     * end-of-stream record is sent. No end-of-stream record is sent if a
+     * previous write failed.
+     * </p>
+     * 
+     * @throws IOException
+     *             if the end-of-stream record cannot be sent (this channel
+     *             and the underlying channel are closed regardless), or if the
+     *             underlying channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        synchronized (writeLock) {
+            if (!open) {
+                return;
+            }
+
+            if (writeFailure == null) {
+                ((Buffer) sendRecord).clear();
+                try {
+                    send(0, true);
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            }
+            open = false;
+        }
+
+        try {
+            channel.close();
+        } finally {
+            synchronized (writeLock) {
+                outbound.clear();
+            }
+            synchronized (readLock) {
+                inbound.clear();
+                ((Buffer) receiveRecord).limit(0);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /*
+     * Seals the plaintext in the send record (after the header) and writes the
+     * record; the caller holds the write lock.
+     */
+    private void send(final int recordLength, final boolean end) throws IOException {
+        int[] mac = outbound.transform(sendRecord, recordLength, true, end);
+        sendRecord.putInt(0, end ? (recordLength | END_OF_STREAM) : recordLength);
+        for (int i = 0; i < 4; ++i) {
+            sendRecord.putInt(HEADER_LENGTH + recordLength + (i * 4), mac[i]);
+        }
+
+        ((Buffer) sendRecord).limit(HEADER_LENGTH + recordLength + TAG_LENGTH);
+        ((Buffer) sendRecord).position(0);
+        try {
+            while (sendRecord.hasRemaining()) {
+                channel.write(sendRecord);
+            }
+        } catch (IOException ex) {
+            /* the record counter has advanced, so the peer could not open any later record */
+            writeFailure = ex;
+            throw ex;
+        }
+    }
+
+    /*
+     * Receives, opens and verifies the next non-empty record; returns false if
+     * the peer's (empty) end-of-stream record is received instead.
+     */
+    private boolean receive() throws IOException {
+        do {
+            ((Buffer) receiveRecord).clear();
+            ((Buffer) receiveRecord).limit(HEADER_LENGTH);
+            readRecord(true);
+
+            int header = receiveRecord.getInt(0);
+            boolean end = ((header & END_OF_STREAM) != 0);
+            int recordLength = header & ~END_OF_STREAM;
+            if (recordLength > maxRecordSize) {
+                ((Buffer) receiveRecord).limit(0);
+                readFailure = new IOException(Messages.getMessage("helix.error.record_too_large", maxRecordSize));
+                throw readFailure;
+            }
+
+            ((Buffer) receiveRecord).limit(HEADER_LENGTH + recordLength + TAG_LENGTH);
+            readRecord(false);
+
+            int[] mac = inbound.transform(receiveRecord, recordLength, false, end);
+            if (!HelixTransforms.macEquals(mac, receiveRecord, HEADER_LENGTH + recordLength)) {
+                byte[] expectedMac = new byte[TAG_LENGTH];
+                byte[] generatedMac = new byte[TAG_LENGTH];
+                ((Buffer) receiveRecord).position(HEADER_LENGTH + recordLength);
+                receiveRecord.get(expectedMac);
+                HelixWords.toBytes(mac, 0, generatedMac, 0, 4);
+                for (int i = 0; i < recordLength; ++i) {
+                    receiveRecord.put(HEADER_LENGTH + i, (byte) 0);
+                }
+                ((Buffer) receiveRecord).limit(0);
+
+                ProviderStatistics.record(ProviderStatistics.MAC_VERIFICATION_FAILURES, 1L);
+                ProviderEvents.commit(ProviderEvents.begin(ProviderEvents.MAC_FAILURE), ProviderEvents.MAC_FAILURE,
+                        "verify", "DECRYPT", recordLength);
+
+                readFailure =
+                        new IOException(Messages.getMessage("error.mac_mismatch"), new HelixMacMismatchException(
+                                expectedMac, generatedMac));
+                throw readFailure;
+            }
+
+            ((Buffer) receiveRecord).limit(HEADER_LENGTH + recordLength);
+            ((Buffer) receiveRecord).position(HEADER_LENGTH);
+            if (end) {
+                ended = true;
+                return receiveRecord.hasRemaining();
+            }
+        } while (!receiveRecord.hasRemaining());
+
+        return true;
+    }
+
+    /*
+     * Reads from the underlying channel until the receive record is full. An
+     * end of the channel (or an I/O error) fails every subsequent read, except
+     * for an I/O error before the first byte of a record header.
+     */
+    private void readRecord(final boolean header) throws IOException {
+        while (receiveRecord.hasRemaining()) {
+            int read;
+            try {
+                read = channel.read(receiveRecord);
+            } catch (IOException ex) {
+                boolean synchronous = header && (receiveRecord.position() == 0);
+                ((Buffer) receiveRecord).limit(0);
+                if (!synchronous) {
+                    readFailure = ex;
+                }
+                throw ex;
+            }
+
+            if (read < 0) {
+                ((Buffer) receiveRecord).limit(0);
+                readFailure =
+                        new EOFException(Messages.getMessage((header && (receiveRecord.position() == 0))
+                                ? "helix.error.end_of_stream_missing" : "helix.error.stream_truncated"));
+                throw readFailure;
+            }
+        }
+    }
+
+    /* Throws ClosedChannelException if this channel is closed. */
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /* The keyed engine and record counter of one direction. */
+    private static final class Direction {
+        /* the engine (keyed once; null once cleared) */
+        private HelixEngine engine;
+
+        /* the direction byte of the nonce */
+        private final int direction;
+
+        /* the number of records transformed */
+        private long counter;
+
+        /* the nonce words of the current record */
+        private final int[] nonceWords = new int[4];
+
+        /* the words of the current record */
+        private final int[] words;
+
+        /* the last, partial word of the current record */
+        private final int[] word = new int[1];
+
+        Direction(final byte[] key, final int direction, final int maxRecordSize) {
+            this.direction = direction;
+            words = new int[(maxRecordSize + 3) / 4];
+
+            engine = HelixTransforms.newKeyedEngine(key);
+        }
+
+        /*
+         * Transforms (in place) the payload of a little-endian record under
+         * the next record nonce, and returns the MAC.
+         */
+        int[] transform(final ByteBuffer record, final int length, final boolean encrypt, final boolean end)
+                throws ClosedChannelException {
+            if (engine == null) {
+                throw new ClosedChannelException();
+            }
+
+            nonceWords[0] = (int) counter;
+            nonceWords[1] = (int) (counter >>> 32);
+            nonceWords[2] = direction;
+            nonceWords[3] = end ? 1 : 0;
+            engine.nonceMixing(nonceWords);
+            ++counter;
+
+            int count = length >>> 2;
+            int extra = length & 3;
+            for (int i = 0; i < count; ++i) {
+                words[i] = record.getInt(HEADER_LENGTH + (i * 4));
+            }
+            if (encrypt) {
+                engine.encrypt(words, words, count);
+            } else {
+                engine.decrypt(words, words, count, 0xffffffff);
+            }
+            for (int i = 0; i < count; ++i) {
+                record.putInt(HEADER_LENGTH + (i * 4), words[i]);
+            }
+
+            if (extra != 0) {
+                int tail = 0;
+                for (int i = 0; i < extra; ++i) {
+                    tail |= (record.get(HEADER_LENGTH + (count * 4) + i) & 0xff) << (i * 8);
+                }
+                tail = HelixTransforms.transformTail(engine, tail, extra, encrypt, word);
+                for (int i = 0; i < extra; ++i) {
+                    record.put(HEADER_LENGTH + (count * 4) + i, (byte) (tail >>> (i * 8)));
+                }
+            }
+            Arrays.fill(words, 0, count, 0);
+
+            return engine.macFunction(length);
+        }
+
+        /* Zeroes the engine state. */
+        void clear() {
+            if (engine != null) {
+                engine.clear();
+                engine = null;
+            }
+        }
+    }
+}
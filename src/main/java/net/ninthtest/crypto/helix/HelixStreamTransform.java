@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import net.ninthtest.security.Messages;
+
+/**
+ * Encrypts or decrypts a single Helix message in place, in caller-sized
+ * chunks, for the Helix streams and files.
+ * 
+ * <p>
+ * Unlike {@link HelixImpl}, this transform does not buffer or copy input: the
+ * caller passes whole words (a multiple of four bytes) to
+ * {@link #transform(byte[], int, int)}, and passes the last zero to three
+ * bytes to {@link #finish(byte[], int, int)}.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class HelixStreamTransform {
+    /* the number of words transformed at a time between word buffers */
+    private static final int BLOCK_WORDS = 16384;
+
+    /* the engine (null once the transform is finished or cleared) */
+    private HelixEngine engine;
+
+    /* true to encrypt, false to decrypt */
+    private final boolean encrypt;
+
+    /* the words being transformed (re-used for every chunk) */
+    private int[] words = new int[0];
+
+    /**
+     * Performs key mixing and nonce mixing.
+     * 
+     * @param key
+     *            the Helix key (cannot exceed 32 bytes in length)
+     * @param nonce
+     *            the Helix nonce (must be exactly 16 bytes in length)
+     * @param encrypt
+     *            <tt>true</tt> to encrypt, <tt>false</tt> to decrypt
+     * @throws IllegalArgumentException
+     *             if <i>key</i> or <i>nonce</i> is not valid
+     */
+    HelixStreamTransform(final byte[] key, final byte[] nonce, final boolean encrypt) {
+        if ((key == null) || (key.length > 32)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_key"));
+        } else if ((nonce == null) || (nonce.length != 16)) {
+            throw new IllegalArgumentException(Messages.getMessage("helix.error.invalid_nonce"));
+        }
+
+        this.encrypt = encrypt;
+
+        engine = HelixTransforms.newKeyedEngine(key);
+        HelixTransforms.nonceMixing(engine, nonce, new int[4]);
+    }
+
+    /**
+     * Transforms whole words in place.
+     * 
+     * @param bytes
+     *            the bytes to transform
+     * @param offset
+     *            the offset of the first byte
+     * @param length
+     *            the number of bytes (a multiple of four)
+     */
+    void transform(final byte[] bytes, final int offset, final int length) {
+        checkNotFinished();
+
+        int count = length >>> 2;
+        if (words.length < count) {
+            Arrays.fill(words, 0);
+            words = new int[count];
+        }
+
+        HelixWords.toInts(bytes, offset, words, 0, count);
+        if (encrypt) {
+            engine.encrypt(words, words, count);
+        } else {
+            engine.decrypt(words, words, count, 0xffffffff);
+        }
+        HelixWords.toBytes(words, 0, bytes, offset, count);
+    }
+
+    /**
+     * Transforms words in place.
+     * 
+     * @param words
+     *            the words to transform
+     * @param count
+     *            the number of words
+     */
+    void transformWords(final int[] words, final int count) {
+        checkNotFinished();
+
+        if (encrypt) {
+            engine.encrypt(words, words, count);
+        } else {
+            engine.decrypt(words, words, count, 0xffffffff);
+        }
+    }
+
+    /**
+     * Transforms whole words from one word buffer to another (e.g. between
+     * little-endian views of memory-mapped files), a block at a time.
+     * 
+     * @param source
+     *            the words to transform
+     * @param destination
+     *            receives the transformed words
+     * @param count
+     *            the number of words
+     */
+    void transform(final IntBuffer source, final IntBuffer destination, final int count) {
+        checkNotFinished();
+
+        int block = Math.min(count, BLOCK_WORDS);
+        if (words.length < block) {
+            Arrays.fill(words, 0);
+            words = new int[block];
+        }
+
+        for (int remaining = count; remaining > 0; remaining -= block) {
+            block = Math.min(remaining, BLOCK_WORDS);
+            source.get(words, 0, block);
+            if (encrypt) {
+                engine.encrypt(words, words, block);
+            } else {
+                engine.decrypt(words, words, block, 0xffffffff);
+            }
+            destination.put(words, 0, block);
+        }
+    }
+
+    /**
+     * Transforms the last zero to three bytes in place and generates the
+     * MAC.
+     * 
+     * @param bytes
+     *            the bytes to transform
+     * @param offset
+     *            the offset of the first byte
+     * @param extra
+     *            the number of bytes (0 to 3)
+     * @return the 16-byte generated MAC
+     */
+    byte[] finish(final byte[] bytes, final int offset, final int extra) {
+        checkNotFinished();
+
+        if (extra != 0) {
+            HelixTransforms.transformTail(engine, bytes, offset, bytes, offset, extra, encrypt, new int[1]);
+        }
+
+        /* only whole words precede the tail, so the length modulo four is extra */
+        byte[] mac = new byte[16];
+        HelixWords.toBytes(engine.macFunction(extra), 0, mac, 0, 4);
+        clear();
+
+        return mac;
+    }
+
+    /**
+     * Zeroes the engine state and the working words.
+     */
+    void clear() {
+        if (engine != null) {
+            engine.clear();
+            engine = null;
+        }
+        Arrays.fill(words, 0);
+    }
+
+    /* Throws IllegalStateException if the transform is finished. */
+    private void checkNotFinished() {
+        if (engine == null) {
+            throw new IllegalStateException(Messages.getMessage("helix.error.must_reinitialize"));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.ninthtest.security.ProviderStatistics;
+
+/**
+ * The key mixing, nonce mixing, tail-word and MAC comparison steps shared by
+ * the classes that drive a {@link HelixEngine} directly.
+ * 
+ * <p>
+ * Callers validate keys and nonces; the scratch arrays passed in are zeroed
+ * (key words) or overwritten (nonce words, tail words) so that they may be
+ * re-used from one message to the next.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class HelixTransforms {
+    /* masks off the padding of a final word having 1, 2 or 3 bytes */
+    private static final int[] TAIL_MASKS = new int[] {0xffffffff, 0x000000ff, 0x0000ffff, 0x00ffffff};
+
+    /* not instantiable */
+    private HelixTransforms() {
+    }
+
+    /**
+     * Creates a new engine (the default selection) and performs key mixing.
+     * 
+     * @param key
+     *            the Helix key (at most 32 bytes)
+     * @return the keyed engine
+     */
+    static HelixEngine newKeyedEngine(final byte[] key) {
+        HelixEngine engine = HelixEngines.newEngine();
+        keyMixing(engine, key, new int[8]);
+
+        return engine;
+    }
+
+    /**
+     * Performs key mixing, then zeroes the key words.
+     * 
+     * @param engine
+     *            the engine to key
+     * @param key
+     *            the Helix key (at most 32 bytes)
+     * @param keyWords
+     *            the eight-word scratch for the zero-padded key
+     */
+    static void keyMixing(final HelixEngine engine, final byte[] key, final int[] keyWords) {
+        Arrays.fill(keyWords, 0);
+        for (int i = 0; i < key.length; ++i) {
+            keyWords[i >>> 2] |= (key[i] & 0xff) << ((i & 3) * 8);
+        }
+
+        engine.keyMixing(keyWords, key.length);
+        ProviderStatistics.record(ProviderStatistics.KEY_SCHEDULES, 1L);
+
+        Arrays.fill(keyWords, 0);
+    }
+
+    /**
+     * Performs nonce mixing.
+     * 
+     * @param engine
+     *            the keyed engine
+     * @param nonce
+     *            the Helix nonce (16 bytes)
+     * @param nonceWords
+     *            the four-word scratch for the nonce
+     */
+    static void nonceMixing(final HelixEngine engine, final byte[] nonce, final int[] nonceWords) {
+        HelixWords.toInts(nonce, 0, nonceWords, 0, 4);
+        engine.nonceMixing(nonceWords);
+    }
+
+    /**
+     * Encrypts or decrypts the last word of a message, which holds only the
+     * final 1 to 3 bytes (zero-padded) of the message.
+     * 
+     * @param engine
+     *            the engine
+     * @param tail
+     *            the zero-padded last word
+     * @param extra
+     *            the number of message bytes in the word (1 to 3)
+     * @param encrypt
+     *            <tt>true</tt> to encrypt, <tt>false</tt> to decrypt
+     * @param word
+     *            a one-word scratch (zeroed on return)
+     * @return the transformed word (only the low <i>extra</i> bytes are part
+     *         of the message)
+     */
+    static int transformTail(final HelixEngine engine, final int tail, final int extra, final boolean encrypt,
+            final int[] word) {
+        word[0] = tail;
+        if (encrypt) {
+            engine.encrypt(word, word, 1);
+        } else {
+            engine.decrypt(word, word, 1, TAIL_MASKS[extra]);
+        }
+        int transformed = word[0];
+        word[0] = 0;
+
+        return transformed;
+    }
+
+    /**
+     * Encrypts or decrypts the last 1 to 3 bytes of a message.
+     * 
+     * @param engine
+     *            the engine
+     * @param input
+     *            the message bytes
+     * @param inputOffset
+     *            the offset of the first tail byte
+     * @param output
+     *            receives the transformed bytes (or <tt>null</tt> if only
+     *            the MAC is wanted)
+     * @param outputOffset
+     *            the offset of the first transformed byte
+     * @param extra
+     *            the number of tail bytes (1 to 3)
+     * @param encrypt
+     *            <tt>true</tt> to encrypt, <tt>false</tt> to decrypt
+     * @param word
+     *            a one-word scratch (zeroed on return)
+     */
+    static void transformTail(final HelixEngine engine, final byte[] input, final int inputOffset,
+            final byte[] output, final int outputOffset, final int extra, final boolean encrypt, final int[] word) {
+        int tail = 0;
+        for (int i = 0; i < extra; ++i) {
+            tail |= (input[inputOffset + i] & 0xff) << (i * 8);
+        }
+
+        tail = transformTail(engine, tail, extra, encrypt, word);
+        if (output != null) {
+            for (int i = 0; i < extra; ++i) {
+                output[outputOffset + i] = (byte) (tail >>> (i * 8));
+            }
+        }
+    }
+
+    /**
+     * Compares (in constant time) a generated MAC with little-endian tag
+     * bytes.
+     * 
+     * @param mac
+     *            the four-word generated MAC
+     * @param tag
+     *            the bytes holding the expected MAC
+     * @param offset
+     *            the offset of the first tag byte
+     * @return <tt>true</tt> if the MACs match
+     */
+    static boolean macEquals(final int[] mac, final byte[] tag, final int offset) {
+        int difference = 0;
+        for (int i = 0, b = offset; i < 4; ++i, b += 4) {
+            difference |= mac[i] ^ ((tag[b] & 0xff) | ((tag[b + 1] & 0xff) << 8) | ((tag[b + 2] & 0xff) << 16)
+                    | (tag[b + 3] << 24));
+        }
+
+        return (difference == 0);
+    }
+
+    /**
+     * Compares (in constant time) a generated MAC with a tag in a
+     * little-endian buffer.
+     * 
+     * @param mac
+     *            the four-word generated MAC
+     * @param tag
+     *            the little-endian buffer holding the expected MAC
+     * @param position
+     *            the absolute position of the first tag byte
+     * @return <tt>true</tt> if the MACs match
+     */
+    static boolean macEquals(final int[] mac, final ByteBuffer tag, final int position) {
+        int difference = 0;
+        for (int i = 0; i < 4; ++i) {
+            difference |= mac[i] ^ tag.getInt(position + (i * 4));
+        }
+
+        return (difference == 0);
+    }
+}
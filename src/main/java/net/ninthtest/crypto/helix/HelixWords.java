@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+/**
+ * Converts between bytes and the little-endian 32-bit words processed by
+ * Helix (and the 64-bit counter words of the Helix PRNG).
+ * 
+ * <p>
+ * This is the baseline (Java 6) implementation, which assembles and
+ * disassembles each word one byte at a time. The multi-release provider JAR
+ * also contains a Java 17 implementation of this class (in
+ * <tt>META-INF/versions/17</tt>) that reads and writes each word with a single
+ * access; both implementations must produce identical results.
+ * </p>
+ * 
+ * <p>
+ * This class is public only so that the Helix service providers can share it;
+ * it is not part of the supported API.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixWords {
+    /**
+     * Converts bytes into little-endian 32-bit words.
+     * 
+     * @param bytes
+     *            the source bytes
+     * @param byteOffset
+     *            the offset of the first source byte
+     * @param words
+     *            receives the words
+     * @param wordOffset
+     *            the offset of the first word to be written
+     * @param count
+     *            the number of words to convert
+     */
+    public static void toInts(final byte[] bytes, final int byteOffset, final int[] words, final int wordOffset,
+            final int count) {
+        int b = byteOffset;
+        for (int i = wordOffset, end = wordOffset + count; i < end; ++i) {
+            words[i] =
+                    (bytes[b++] & 0xff) + ((bytes[b++] & 0xff) << 8) + ((bytes[b++] & 0xff) << 16) + (bytes[b++] << 24);
+        }
+    }
+
+    /**
+     * Converts 32-bit words into little-endian bytes.
+     * 
+     * @param words
+     *            the source words
+     * @param wordOffset
+     *            the offset of the first source word
+     * @param bytes
+     *            receives the bytes
+     * @param byteOffset
+     *            the offset of the first byte to be written
+     * @param count
+     *            the number of words to convert
+     */
+    public static void toBytes(final int[] words, final int wordOffset, final byte[] bytes, final int byteOffset,
+            final int count) {
+        int b = byteOffset;
+        for (int i = wordOffset, end = wordOffset + count; i < end; ++i) {
+            int word = words[i];
+            bytes[b++] = (byte) word;
+            bytes[b++] = (byte) (word >> 8);
+            bytes[b++] = (byte) (word >> 16);
+            bytes[b++] = (byte) (word >> 24);
+        }
+    }
+
+    /**
+     * Stores a 64-bit word as eight little-endian bytes.
+     * 
+     * @param bytes
+     *            receives the bytes
+     * @param offset
+     *            the offset of the first byte to be written
+     * @param value
+     *            the word
+     */
+    public static void putLong(final byte[] bytes, final int offset, final long value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+        bytes[offset + 4] = (byte) (value >> 32);
+        bytes[offset + 5] = (byte) (value >> 40);
+        bytes[offset + 6] = (byte) (value >> 48);
+        bytes[offset + 7] = (byte) (value >> 56);
+    }
+
+    private HelixWords() {
+        /* never instantiated */
+    }
+}
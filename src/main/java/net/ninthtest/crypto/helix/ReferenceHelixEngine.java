@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.util.Arrays;
+
+/**
+ * The reference Helix engine.
+ * 
+ * <p>
+ * This engine is the original implementation adapted from the Python
+ * reference implementation presented in <a
+ * href="http://www.ddj.com/security/184405478">Helix: Fast Encryption &amp;
+ * Authentication</a> (Dr. Dobb's November 2003). It favors clarity over speed
+ * and is always available as a fallback.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class ReferenceHelixEngine implements HelixEngine {
+    /* length of the Helix key in bytes */
+    private int lU;
+
+    /* the eight 32-bit working/expanded key words */
+    private final int[] K = new int[8];
+
+    /* the five 32-bit state words */
+    private final int[] Z = new int[5];
+
+    /* the eight 32-bit key material words */
+    private final int[] X1 = new int[8];
+
+    /* keeps track of the Helix block */
+    private int i8;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void keyMixing(final int[] keyWords, final int keyLength) {
+        lU = keyLength;
+        System.arraycopy(keyWords, 0, K, 0, 8);
+
+        int lUPlus64 = lU + 64;
+        int[] words = new int[8];
+
+        for (int i = 0; i < 8; ++i) {
+            System.arraycopy(K, 0, Z, 0, 4);
+            Z[4] = lUPlus64;
+
+            blockFunction(0, 0, 0);
+
+            System.arraycopy(K, 0, words, 0, 8);
+
+            K[0] = words[4] ^ Z[0];
+            K[1] = words[5] ^ Z[1];
+            K[2] = words[6] ^ Z[2];
+            K[3] = words[7] ^ Z[3];
+
+            System.arraycopy(words, 0, K, 4, 4);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void nonceMixing(final int[] N) {
+        // expand the nonce
+        int[] nonceWords = new int[8];
+        System.arraycopy(N, 0, nonceWords, 0, 4);
+
+        for (int i = 0; i < 4; ++i) {
+            nonceWords[i + 4] = (i - nonceWords[i]);
+        }
+
+        int x = 0;
+        for (int i = 0; i < 8; ++i) {
+            x = ((i % 4) == 1) ? 4 * lU : 0;
+            X1[i] = K[(i + 4) % 8] + nonceWords[i] + x;
+        }
+
+        Z[0] = (K[3] ^ nonceWords[0]);
+        Z[1] = (K[4] ^ nonceWords[1]);
+        Z[2] = (K[5] ^ nonceWords[2]);
+        Z[3] = (K[6] ^ nonceWords[3]);
+        Z[4] = K[7];
+
+        i8 = 0;
+
+        for (int i = 0; i < 8; ++i) {
+            doBlock(0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getWorkingKey() {
+        return K.clone();
+    }
+
+    /*
+     * Executes a single block of Helix.
+     * 
+     * At the end of the block function, the next word of key stream is in Z[0].
+     */
+    private void blockFunction(final int X_i0, final int X_i1, final int W_i) {
+        int z0 = Z[0];
+        int z1 = Z[1];
+        int z2 = Z[2];
+        int z3 = Z[3];
+        int z4 = Z[4];
+
+        z0 += z3;
+        z3 = (z3 << 15) | (z3 >>> -15);
+        z1 += z4;
+        z4 = (z4 << 25) | (z4 >>> -25);
+        z2 ^= z0;
+        z0 = (z0 << 9) | (z0 >>> -9);
+        z3 ^= z1;
+        z1 = (z1 << 10) | (z1 >>> -10);
+        z4 += z2;
+        z2 = (z2 << 17) | (z2 >>> -17);
+
+        z0 ^= (z3 + X_i0);
+        z3 = (z3 << 30) | (z3 >>> -30);
+        z1 ^= z4;
+        z4 = (z4 << 13) | (z4 >>> -13);
+        z2 += z0;
+        z0 = (z0 << 20) | (z0 >>> -20);
+        z3 += z1;
+        z1 = (z1 << 11) | (z1 >>> -11);
+        z4 ^= z2;
+        z2 = (z2 << 5) | (z2 >>> -5);
+
+        z0 += (z3 ^ W_i);
+        z3 = (z3 << 15) | (z3 >>> -15);
+        z1 += z4;
+        z4 = (z4 << 25) | (z4 >>> -25);
+        z2 ^= z0;
+        z0 = (z0 << 9) | (z0 >>> -9);
+        z3 ^= z1;
+        z1 = (z1 << 10) | (z1 >>> -10);
+        z4 += z2;
+        z2 = (z2 << 17) | (z2 >>> -17);
+
+        z0 ^= (z3 + X_i1);
+        z3 = (z3 << 30) | (z3 >>> -30);
+        z1 ^= z4;
+        z4 = (z4 << 13) | (z4 >>> -13);
+        z2 += z0;
+        z0 = (z0 << 20) | (z0 >>> -20);
+        z3 += z1;
+        z1 = (z1 << 11) | (z1 >>> -11);
+        z4 ^= z2;
+        z2 = (z2 << 5) | (z2 >>> -5);
+
+        Z[0] = z0;
+        Z[1] = z1;
+        Z[2] = z2;
+        Z[3] = z3;
+        Z[4] = z4;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int nextStateWord() {
+        return Z[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doBlock(final int word) {
+        int i = i8 % 8;
+
+        int X_i0 = K[i];
+
+        int X_i1 = X1[i];
+        if ((i % 4) == 3) {
+            X_i1 += i8 >> 31;
+        }
+        X_i1 += i8;
+
+        blockFunction(X_i0, X_i1, word);
+
+        i8 += 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encrypt(final int[] plainTextWords, final int[] cipherTextWords, final int count) {
+        /* encryption loop */
+        for (int x = 0; x < count; ++x) {
+            int plainTextWord = plainTextWords[x];
+            cipherTextWords[x] = (plainTextWord ^ nextStateWord());
+            doBlock(plainTextWord);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void decrypt(final int[] cipherTextWords, final int[] plainTextWords, final int count, final int mask) {
+        /* decryption loop */
+        for (int x = 0; x < count; ++x) {
+            plainTextWords[x] = (cipherTextWords[x] ^ nextStateWord()) & mask;
+            doBlock(plainTextWords[x]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] macFunction(final int totalLength) {
+        int lengthMod4 = totalLength % 4;
+
+        Z[0] ^= 0x912d94f1;
+
+        for (int i = 0; i < 8; ++i) {
+            doBlock(lengthMod4);
+        }
+
+        int[] tag = new int[4];
+        for (int i = 0; i < 4; ++i) {
+            tag[i] = Z[0];
+            doBlock(lengthMod4);
+        }
+
+        return tag;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        lU = 0;
+        Arrays.fill(K, 0);
+        Arrays.fill(Z, 0);
+        Arrays.fill(X1, 0);
+        i8 = 0;
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.util.Arrays;
+
+/**
+ * An optimized scalar Helix engine.
+ * 
+ * <p>
+ * The encryption and decryption loops keep the five state words in local
+ * variables for the duration of a call (rather than loading and storing them
+ * for every block), inline the block function, and replace the modular block
+ * index arithmetic with masks. The key stream and MAC are identical to those of
+ * the {@link ReferenceHelixEngine reference engine}.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class ScalarHelixEngine implements HelixEngine {
+    /* length of the Helix key in bytes */
+    private int lU;
+
+    /* the eight 32-bit working/expanded key words */
+    private final int[] K = new int[8];
+
+    /* the eight 32-bit key material words */
+    private final int[] X1 = new int[8];
+
+    /* the five 32-bit state words */
+    private int z0;
+    private int z1;
+    private int z2;
+    private int z3;
+    private int z4;
+
+    /* keeps track of the Helix block */
+    private int i8;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void keyMixing(final int[] keyWords, final int keyLength) {
+        lU = keyLength;
+
+        final int[] k = K;
+        System.arraycopy(keyWords, 0, k, 0, 8);
+
+        for (int i = 0; i < 8; ++i) {
+            z0 = k[0];
+            z1 = k[1];
+            z2 = k[2];
+            z3 = k[3];
+            z4 = lU + 64;
+
+            step(0, 0, 0);
+
+            int k0 = k[0];
+            int k1 = k[1];
+            int k2 = k[2];
+            int k3 = k[3];
+
+            k[0] = k[4] ^ z0;
+            k[1] = k[5] ^ z1;
+            k[2] = k[6] ^ z2;
+            k[3] = k[7] ^ z3;
+            k[4] = k0;
+            k[5] = k1;
+            k[6] = k2;
+            k[7] = k3;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void nonceMixing(final int[] N) {
+        final int[] k = K;
+        final int[] x1 = X1;
+
+        for (int i = 0; i < 4; ++i) {
+            x1[i] = k[i + 4] + N[i];
+            x1[i + 4] = k[i] + (i - N[i]);
+        }
+        x1[1] += 4 * lU;
+        x1[5] += 4 * lU;
+
+        z0 = k[3] ^ N[0];
+        z1 = k[4] ^ N[1];
+        z2 = k[5] ^ N[2];
+        z3 = k[6] ^ N[3];
+        z4 = k[7];
+
+        i8 = 0;
+
+        for (int i = 0; i < 8; ++i) {
+            doBlock(0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getWorkingKey() {
+        return K.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int nextStateWord() {
+        return z0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doBlock(final int word) {
+        int i = i8 & 7;
+        int x1 = X1[i] + i8;
+        if ((i & 3) == 3) {
+            x1 += i8 >> 31;
+        }
+
+        step(K[i], x1, word);
+
+        ++i8;
+    }
+
+    /*
+     * Executes a single block of Helix on the state words.
+     */
+    private void step(final int x0, final int x1, final int w) {
+        int a = z0;
+        int b = z1;
+        int c = z2;
+        int d = z3;
+        int e = z4;
+
+        a += d;
+        d = (d << 15) | (d >>> -15);
+        b += e;
+        e = (e << 25) | (e >>> -25);
+        c ^= a;
+        a = (a << 9) | (a >>> -9);
+        d ^= b;
+        b = (b << 10) | (b >>> -10);
+        e += c;
+        c = (c << 17) | (c >>> -17);
+
+        a ^= (d + x0);
+        d = (d << 30) | (d >>> -30);
+        b ^= e;
+        e = (e << 13) | (e >>> -13);
+        c += a;
+        a = (a << 20) | (a >>> -20);
+        d += b;
+        b = (b << 11) | (b >>> -11);
+        e ^= c;
+        c = (c << 5) | (c >>> -5);
+
+        a += (d ^ w);
+        d = (d << 15) | (d >>> -15);
+        b += e;
+        e = (e << 25) | (e >>> -25);
+        c ^= a;
+        a = (a << 9) | (a >>> -9);
+        d ^= b;
+        b = (b << 10) | (b >>> -10);
+        e += c;
+        c = (c << 17) | (c >>> -17);
+
+        a ^= (d + x1);
+        d = (d << 30) | (d >>> -30);
+        b ^= e;
+        e = (e << 13) | (e >>> -13);
+        c += a;
+        a = (a << 20) | (a >>> -20);
+        d += b;
+        b = (b << 11) | (b >>> -11);
+        e ^= c;
+        c = (c << 5) | (c >>> -5);
+
+        z0 = a;
+        z1 = b;
+        z2 = c;
+        z3 = d;
+        z4 = e;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encrypt(final int[] plainTextWords, final int[] cipherTextWords, final int count) {
+        transform(plainTextWords, cipherTextWords, count, 0xffffffff, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void decrypt(final int[] cipherTextWords, final int[] plainTextWords, final int count, final int mask) {
+        transform(cipherTextWords, plainTextWords, count, mask, false);
+    }
+
+    /*
+     * The shared encryption/decryption loop (state words are held in locals).
+     */
+    private void transform(final int[] in, final int[] out, final int count, final int mask, final boolean encrypt) {
+        final int[] k = K;
+        final int[] x1s = X1;
+
+        int a = z0;
+        int b = z1;
+        int c = z2;
+        int d = z3;
+        int e = z4;
+        int n = i8;
+
+        for (int x = 0; x < count; ++x) {
+            int input = in[x];
+            int w;
+            if (encrypt) {
+                w = input;
+                out[x] = input ^ a;
+            } else {
+                w = (input ^ a) & mask;
+                out[x] = w;
+            }
+
+            int i = n & 7;
+            int x1 = x1s[i] + n;
+            if ((i & 3) == 3) {
+                x1 += n >> 31;
+            }
+
+            a += d;
+            d = (d << 15) | (d >>> -15);
+            b += e;
+            e = (e << 25) | (e >>> -25);
+            c ^= a;
+            a = (a << 9) | (a >>> -9);
+            d ^= b;
+            b = (b << 10) | (b >>> -10);
+            e += c;
+            c = (c << 17) | (c >>> -17);
+
+            a ^= (d + k[i]);
+            d = (d << 30) | (d >>> -30);
+            b ^= e;
+            e = (e << 13) | (e >>> -13);
+            c += a;
+            a = (a << 20) | (a >>> -20);
+            d += b;
+            b = (b << 11) | (b >>> -11);
+            e ^= c;
+            c = (c << 5) | (c >>> -5);
+
+            a += (d ^ w);
+            d = (d << 15) | (d >>> -15);
+            b += e;
+            e = (e << 25) | (e >>> -25);
+            c ^= a;
+            a = (a << 9) | (a >>> -9);
+            d ^= b;
+            b = (b << 10) | (b >>> -10);
+            e += c;
+            c = (c << 17) | (c >>> -17);
+
+            a ^= (d + x1);
+            d = (d << 30) | (d >>> -30);
+            b ^= e;
+            e = (e << 13) | (e >>> -13);
+            c += a;
+            a = (a << 20) | (a >>> -20);
+            d += b;
+            b = (b << 11) | (b >>> -11);
+            e ^= c;
+            c = (c << 5) | (c >>> -5);
+
+            ++n;
+        }
+
+        z0 = a;
+        z1 = b;
+        z2 = c;
+        z3 = d;
+        z4 = e;
+        i8 = n;
+    }
+
+    /*
+     * Copies the key words, key material words and state words of this engine
+     * into one lane of a HelixMultiLane (word-major arrays).
+     */
+    void exportLane(final int[][] k, final int[][] x1, final int[][] z, final int lane) {
+        for (int i = 0; i < 8; ++i) {
+            k[i][lane] = K[i];
+            x1[i][lane] = X1[i];
+        }
+
+        z[0][lane] = z0;
+        z[1][lane] = z1;
+        z[2][lane] = z2;
+        z[3][lane] = z3;
+        z[4][lane] = z4;
+    }
+
+    /*
+     * Restores the state words of this engine from one lane of a
+     * HelixMultiLane after the lane has been advanced by the specified number
+     * of blocks.
+     */
+    void importLane(final int[][] z, final int lane, final int blocks) {
+        z0 = z[0][lane];
+        z1 = z[1][lane];
+        z2 = z[2][lane];
+        z3 = z[3][lane];
+        z4 = z[4][lane];
+        i8 += blocks;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] macFunction(final int totalLength) {
+        int lengthMod4 = totalLength % 4;
+
+        z0 ^= 0x912d94f1;
+
+        for (int i = 0; i < 8; ++i) {
+            doBlock(lengthMod4);
+        }
+
+        int[] tag = new int[4];
+        for (int i = 0; i < 4; ++i) {
+            tag[i] = z0;
+            doBlock(lengthMod4);
+        }
+
+        return tag;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        lU = 0;
+        Arrays.fill(K, 0);
+        Arrays.fill(X1, 0);
+        z0 = z1 = z2 = z3 = z4 = 0;
+        i8 = 0;
+    }
+}
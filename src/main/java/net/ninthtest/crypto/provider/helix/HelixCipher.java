@@ -49,7 +49,10 @@ import net.ninthtest.crypto.helix.HelixDecryption;
 import net.ninthtest.crypto.helix.HelixEncryption;
 import net.ninthtest.crypto.helix.HelixPrimitive;
 import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
 import net.ninthtest.security.provider.NinthTestProvider;
+import net.ninthtest.security.provider.ProviderConfiguration;
 
 /**
  * This class provides encryption and decryption (with optional MAC generation
@@ -67,6 +70,15 @@ public final class HelixCipher extends CipherSpi {
      */
     private static final String[] KEY_TYPE_NAMES = new String[] {null, "PUBLIC_KEY", "PRIVATE_KEY", "SECRET_KEY"};
 
+    /*
+     * identifies the RNG stripes (used to generate nonces when the caller does
+     * not supply an RNG) cached with each configuration
+     */
+    private static final Object NONCE_RANDOM = new Object();
+
+    /* the configuration of the provider that created this cipher */
+    private final ProviderConfiguration configuration;
+
     /*
      * operation mode of this cipher (ENCRYPT_MODE, DECRYPT_MODE, WRAP_MODE, or
      * UNWRAP_MODE)
@@ -83,11 +95,24 @@ public final class HelixCipher extends CipherSpi {
     private HelixPrimitive primitive;
 
     /**
-     * Creates a new <tt>HelixCipher</tt> and performs the provider
-     * self-integrity check.
+     * Creates a new <tt>HelixCipher</tt> that uses the default provider
+     * configuration, and performs the provider self-integrity check.
      */
     public HelixCipher() {
+        this(ProviderConfiguration.getDefault());
+    }
+
+    /**
+     * Creates a new <tt>HelixCipher</tt> that uses a provider configuration,
+     * and performs the provider self-integrity check.
+     * 
+     * @param configuration
+     *            the configuration of the provider creating this cipher
+     */
+    public HelixCipher(final ProviderConfiguration configuration) {
         NinthTestProvider.doSelfIntegrityCheck();
+
+        this.configuration = configuration;
     }
 
     /**
@@ -155,6 +180,8 @@ public final class HelixCipher extends CipherSpi {
     @Override
     protected void engineInit(@SuppressWarnings("hiding") int opmode, Key key, SecureRandom random)
             throws InvalidKeyException {
+        Object event = ProviderEvents.begin(ProviderEvents.CIPHER);
+        long start = System.nanoTime();
         resetInternalState();
 
         if ((Cipher.DECRYPT_MODE == opmode) || (Cipher.UNWRAP_MODE == opmode)) {
@@ -169,7 +196,7 @@ public final class HelixCipher extends CipherSpi {
         if (random != null) {
             random.nextBytes(randomNonce);
         } else {
-            (new SecureRandom()).nextBytes(randomNonce);
+            getNonceRandom(configuration).nextBytes(randomNonce);
         }
 
         try {
@@ -178,7 +205,10 @@ public final class HelixCipher extends CipherSpi {
             throw new ProviderException(Messages.getMessage("helix.error.failed_to_create_params"), ex);
         }
 
-        primitive = new HelixEncryption(key.getEncoded(), randomNonce);
+        primitive = new HelixEncryption(key.getEncoded(), randomNonce, configuration);
+
+        ProviderStatistics.recordInit(start);
+        ProviderEvents.commit(event, ProviderEvents.CIPHER, "init", getModeName(opmode), 0);
     }
 
     /**
@@ -229,6 +259,8 @@ public final class HelixCipher extends CipherSpi {
     @Override
     protected void engineInit(@SuppressWarnings("hiding") int opmode, Key key, AlgorithmParameterSpec params,
             SecureRandom random) throws InvalidKeyException, InvalidAlgorithmParameterException {
+        Object event = ProviderEvents.begin(ProviderEvents.CIPHER);
+        long start = System.nanoTime();
         resetInternalState();
 
         if ((key == null) || !(key instanceof SecretKey) || !NinthTestProvider.HELIX.equals(key.getAlgorithm())) {
@@ -249,10 +281,15 @@ public final class HelixCipher extends CipherSpi {
         }
 
         if ((Cipher.ENCRYPT_MODE == opmode) || (Cipher.WRAP_MODE == opmode)) {
-            primitive = new HelixEncryption(key.getEncoded(), parameterSpec.getNonce());
+            primitive = new HelixEncryption(key.getEncoded(), parameterSpec.getNonce(), configuration);
         } else {
-            primitive = new HelixDecryption(key.getEncoded(), parameterSpec.getNonce(), parameterSpec.getMac());
+            primitive =
+                    new HelixDecryption(key.getEncoded(), parameterSpec.getNonce(), parameterSpec.getMac(),
+                            configuration);
         }
+
+        ProviderStatistics.recordInit(start);
+        ProviderEvents.commit(event, ProviderEvents.CIPHER, "init", getModeName(opmode), 0);
     }
 
     /**
@@ -303,6 +340,8 @@ public final class HelixCipher extends CipherSpi {
     @Override
     protected void engineInit(@SuppressWarnings("hiding") int opmode, Key key, AlgorithmParameters params,
             SecureRandom random) throws InvalidKeyException, InvalidAlgorithmParameterException {
+        Object event = ProviderEvents.begin(ProviderEvents.CIPHER);
+        long start = System.nanoTime();
         resetInternalState();
 
         if ((key == null) || !(key instanceof SecretKey) || !NinthTestProvider.HELIX.equals(key.getAlgorithm())) {
@@ -326,10 +365,74 @@ public final class HelixCipher extends CipherSpi {
         parameters = params;
 
         if ((Cipher.ENCRYPT_MODE == opmode) || (Cipher.WRAP_MODE == opmode)) {
-            primitive = new HelixEncryption(key.getEncoded(), parameterSpec.getNonce());
+            primitive = new HelixEncryption(key.getEncoded(), parameterSpec.getNonce(), configuration);
         } else {
-            primitive = new HelixDecryption(key.getEncoded(), parameterSpec.getNonce(), parameterSpec.getMac());
+            primitive =
+                    new HelixDecryption(key.getEncoded(), parameterSpec.getNonce(), parameterSpec.getMac(),
+                            configuration);
+        }
+
+        ProviderStatistics.recordInit(start);
+        ProviderEvents.commit(event, ProviderEvents.CIPHER, "init", getModeName(opmode), 0);
+    }
+
+    /* Records the number of bytes encrypted or decrypted (for JMX). */
+    private void recordBytes(final int length) {
+        boolean decrypting = (Cipher.DECRYPT_MODE == opmode) || (Cipher.UNWRAP_MODE == opmode);
+        ProviderStatistics.record(decrypting ? ProviderStatistics.BYTES_DECRYPTED
+                : ProviderStatistics.BYTES_ENCRYPTED, length);
+    }
+
+    /* Returns the name of a cipher operation mode (for diagnostic events). */
+    private static String getModeName(@SuppressWarnings("hiding") int opmode) {
+        switch (opmode) {
+        case Cipher.ENCRYPT_MODE:
+            return "ENCRYPT";
+        case Cipher.DECRYPT_MODE:
+            return "DECRYPT";
+        case Cipher.WRAP_MODE:
+            return "WRAP";
+        case Cipher.UNWRAP_MODE:
+            return "UNWRAP";
+        default:
+            return String.valueOf(opmode);
+        }
+    }
+
+    /*
+     * Returns the shared RNG stripe used by the current thread to generate
+     * nonces when the caller does not supply an RNG.
+     * 
+     * SecureRandom is thread-safe, so a few instances (of the algorithm
+     * specified by ProviderConfiguration#NONCE_RANDOM) are shared rather than
+     * creating and seeding a new SecureRandom for every initialization; each
+     * thread uses the stripe selected by its ID, so that concurrent
+     * initializations do not all contend for one SecureRandom. The stripes
+     * are created once per configuration, and cached with it.
+     */
+    private static SecureRandom getNonceRandom(final ProviderConfiguration configuration) {
+        SecureRandom[] randoms = (SecureRandom[]) configuration.getCached(NONCE_RANDOM);
+        if (randoms == null) {
+            String algorithm = configuration.get(ProviderConfiguration.NONCE_RANDOM);
+            int stripes = configuration.getInt(ProviderConfiguration.NONCE_RANDOM_STRIPES);
+            randoms = new SecureRandom[(stripes > 0) ? stripes : Runtime.getRuntime().availableProcessors()];
+            for (int i = 0; i < randoms.length; ++i) {
+                if (algorithm.isEmpty()) {
+                    randoms[i] = new SecureRandom();
+                } else {
+                    try {
+                        randoms[i] = SecureRandom.getInstance(algorithm);
+                    } catch (NoSuchAlgorithmException ex) {
+                        throw new ProviderException(Messages.getMessage("error.invalid_configuration_value",
+                                ProviderConfiguration.NONCE_RANDOM, algorithm), ex);
+                    }
+                }
+            }
+
+            randoms = (SecureRandom[]) configuration.cacheIfAbsent(NONCE_RANDOM, randoms);
         }
+
+        return randoms[(int) (Thread.currentThread().getId() % randoms.length)];
     }
 
     /*
@@ -371,7 +474,7 @@ public final class HelixCipher extends CipherSpi {
     private AlgorithmParameters createHelixAlgorithmParameters(HelixParameterSpec parameterSpec)
             throws InvalidParameterSpecException {
         AlgorithmParameters algorithmParameters =
-                new AlgorithmParameters(new HelixAlgorithmParameters(), new NinthTestProvider(),
+                new AlgorithmParameters(new HelixAlgorithmParameters(), ParametersProvider.INSTANCE,
                         NinthTestProvider.HELIX) {
                     // nothing overridden
                 };
@@ -580,10 +683,17 @@ public final class HelixCipher extends CipherSpi {
             throw new IllegalArgumentException(Messages.getMessage("error.invalid_input_length"));
         }
 
+        Object event = ProviderEvents.begin(ProviderEvents.CIPHER);
+
         byte[] part = new byte[inputLen];
         System.arraycopy(input, inputOffset, part, 0, inputLen);
 
-        return primitive.feed(part);
+        byte[] processed = primitive.feed(part);
+
+        recordBytes(inputLen);
+        ProviderEvents.commit(event, ProviderEvents.CIPHER, "update", getModeName(opmode), inputLen);
+
+        return processed;
     }
 
     /**
@@ -693,6 +803,8 @@ public final class HelixCipher extends CipherSpi {
             throw new IllegalArgumentException(Messages.getMessage("error.invalid_input_length"));
         }
 
+        Object event = ProviderEvents.begin(ProviderEvents.CIPHER);
+
         byte[] lastPart = new byte[inputLen];
         System.arraycopy(input, inputOffset, lastPart, 0, inputLen);
 
@@ -707,6 +819,10 @@ public final class HelixCipher extends CipherSpi {
             updateParametersWithMac(primitive.getGeneratedMac());
         }
 
+        recordBytes(inputLen);
+        ProviderStatistics.record(ProviderStatistics.CIPHER_OPERATIONS, 1L);
+        ProviderEvents.commit(event, ProviderEvents.CIPHER, "doFinal", getModeName(opmode), inputLen);
+
         return processed;
     }
 
@@ -818,11 +934,17 @@ public final class HelixCipher extends CipherSpi {
             throw new InvalidKeyException(Messages.getMessage("error.key_is_required"));
         }
 
+        Object event = ProviderEvents.begin(ProviderEvents.CIPHER);
+
         byte[] cipherText = primitive.finish(key.getEncoded());
         byte[] generatedMac = primitive.getGeneratedMac();
 
         updateParametersWithMac(generatedMac);
 
+        recordBytes(cipherText.length);
+        ProviderStatistics.record(ProviderStatistics.CIPHER_OPERATIONS, 1L);
+        ProviderEvents.commit(event, ProviderEvents.CIPHER, "wrap", getModeName(opmode), cipherText.length);
+
         return cipherText;
     }
 
@@ -869,8 +991,14 @@ public final class HelixCipher extends CipherSpi {
          * the cipher, this will throw MessageAuthenticationException if MAC
          * verification fails
          */
+        Object event = ProviderEvents.begin(ProviderEvents.CIPHER);
+
         byte[] plainText = primitive.finish(wrappedKey);
 
+        recordBytes(wrappedKey.length);
+        ProviderStatistics.record(ProviderStatistics.CIPHER_OPERATIONS, 1L);
+        ProviderEvents.commit(event, ProviderEvents.CIPHER, "unwrap", getModeName(opmode), wrappedKey.length);
+
         Key unwrappedKey = null;
         try {
             switch (wrappedKeyType) {
@@ -904,4 +1032,14 @@ public final class HelixCipher extends CipherSpi {
 
         return unwrappedKey;
     }
+
+    /*
+     * Holds the provider instance reported by the AlgorithmParameters that
+     * HelixCipher creates (constructed once, on first use, rather than on
+     * every initialization).
+     */
+    private static final class ParametersProvider {
+        /* the provider of the Helix algorithm parameters */
+        static final NinthTestProvider INSTANCE = new NinthTestProvider();
+    }
 }
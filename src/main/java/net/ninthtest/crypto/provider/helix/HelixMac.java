@@ -29,7 +29,10 @@ import javax.crypto.SecretKey;
 
 import net.ninthtest.crypto.helix.HelixEncryption;
 import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
 import net.ninthtest.security.provider.NinthTestProvider;
+import net.ninthtest.security.provider.ProviderConfiguration;
 
 /**
  * This class provides the MAC generation operation for the Helix stream cipher.
@@ -46,12 +49,28 @@ public final class HelixMac extends MacSpi {
     /* use a Helix encryption primitive to generate the MAC */
     private HelixEncryption primitive;
 
+    /* the configuration of the provider that created this MAC */
+    private final ProviderConfiguration configuration;
+
     /**
-     * Creates a new <tt>HelixMac</tt> and performs the provider self-integrity
-     * check.
+     * Creates a new <tt>HelixMac</tt> that uses the default provider
+     * configuration, and performs the provider self-integrity check.
      */
     public HelixMac() {
+        this(ProviderConfiguration.getDefault());
+    }
+
+    /**
+     * Creates a new <tt>HelixMac</tt> that uses a provider configuration, and
+     * performs the provider self-integrity check.
+     * 
+     * @param configuration
+     *            the configuration of the provider creating this MAC
+     */
+    public HelixMac(final ProviderConfiguration configuration) {
         NinthTestProvider.doSelfIntegrityCheck();
+
+        this.configuration = configuration;
     }
 
     /**
@@ -91,6 +110,8 @@ public final class HelixMac extends MacSpi {
     @Override
     protected void engineInit(Key key, AlgorithmParameterSpec params) throws InvalidKeyException,
             InvalidAlgorithmParameterException {
+        Object event = ProviderEvents.begin(ProviderEvents.MAC);
+        long start = System.nanoTime();
         clear();
 
         if ((key == null) || !NinthTestProvider.HELIX.equals(key.getAlgorithm()) || !(key instanceof SecretKey)) {
@@ -101,7 +122,10 @@ public final class HelixMac extends MacSpi {
 
         secret = (SecretKey) key;
         paramSpec = (HelixParameterSpec) params;
-        primitive = new HelixEncryption(key.getEncoded(), paramSpec.getNonce());
+        primitive = new HelixEncryption(key.getEncoded(), paramSpec.getNonce(), configuration);
+
+        ProviderStatistics.recordInit(start);
+        ProviderEvents.commit(event, ProviderEvents.MAC, "init", null, 0);
     }
 
     /*
@@ -122,7 +146,12 @@ public final class HelixMac extends MacSpi {
      */
     @Override
     protected void engineUpdate(byte input) {
+        Object event = ProviderEvents.begin(ProviderEvents.MAC);
+
         primitive.feed(new byte[] {input});
+
+        ProviderStatistics.record(ProviderStatistics.BYTES_MACED, 1L);
+        ProviderEvents.commit(event, ProviderEvents.MAC, "update", null, 1);
     }
 
     /**
@@ -148,10 +177,15 @@ public final class HelixMac extends MacSpi {
             throw new IllegalArgumentException(Messages.getMessage("error.invalid_input_length"));
         }
 
+        Object event = ProviderEvents.begin(ProviderEvents.MAC);
+
         byte[] part = new byte[len];
         System.arraycopy(input, offset, part, 0, len);
 
         primitive.feed(part);
+
+        ProviderStatistics.record(ProviderStatistics.BYTES_MACED, len);
+        ProviderEvents.commit(event, ProviderEvents.MAC, "update", null, len);
     }
 
     /**
@@ -163,11 +197,16 @@ public final class HelixMac extends MacSpi {
      */
     @Override
     protected byte[] engineDoFinal() {
+        Object event = ProviderEvents.begin(ProviderEvents.MAC);
+
         primitive.finish(new byte[0]);
         byte[] generatedMac = primitive.getGeneratedMac();
 
         engineReset();
 
+        ProviderStatistics.record(ProviderStatistics.MAC_OPERATIONS, 1L);
+        ProviderEvents.commit(event, ProviderEvents.MAC, "doFinal", null, 0);
+
         return generatedMac;
     }
 
@@ -185,6 +224,6 @@ public final class HelixMac extends MacSpi {
      */
     @Override
     protected void engineReset() {
-        primitive = new HelixEncryption(secret.getEncoded(), paramSpec.getNonce());
+        primitive = new HelixEncryption(secret.getEncoded(), paramSpec.getNonce(), configuration);
     }
 }
@@ -25,8 +25,12 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import net.ninthtest.crypto.helix.HelixEncryption;
 import net.ninthtest.crypto.helix.HelixPrimitive;
+import net.ninthtest.crypto.helix.HelixWords;
 import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.ProviderStatistics;
 import net.ninthtest.security.provider.NinthTestProvider;
+import net.ninthtest.security.provider.ProviderConfiguration;
 
 /**
  * This class is a pseudo-random number generator (PRNG) that uses the Helix key
@@ -70,12 +74,31 @@ public final class HelixSecureRandom extends SecureRandomSpi {
      */
     private long counter;
 
+    /*
+     * the configuration of the provider that created this PRNG (null once
+     * deserialized, meaning the default configuration)
+     */
+    private transient ProviderConfiguration configuration;
+
     /**
-     * Creates a new <tt>HelixSecureRandom</tt> and performs the provider
-     * self-integrity check.
+     * Creates a new <tt>HelixSecureRandom</tt> that uses the default provider
+     * configuration, and performs the provider self-integrity check.
      */
     public HelixSecureRandom() {
+        this(ProviderConfiguration.getDefault());
+    }
+
+    /**
+     * Creates a new <tt>HelixSecureRandom</tt> that uses a provider
+     * configuration, and performs the provider self-integrity check.
+     * 
+     * @param configuration
+     *            the configuration of the provider creating this PRNG
+     */
+    public HelixSecureRandom(final ProviderConfiguration configuration) {
         NinthTestProvider.doSelfIntegrityCheck();
+
+        this.configuration = configuration;
     }
 
     /**
@@ -116,6 +139,9 @@ public final class HelixSecureRandom extends SecureRandomSpi {
             return;
         }
 
+        ProviderStatistics.record(ProviderStatistics.RANDOM_OPERATIONS, 1L);
+        ProviderStatistics.record(ProviderStatistics.RANDOM_BYTES, bytes.length);
+
         lock.lock();
         try {
             if (primitive == null) {
@@ -138,20 +164,23 @@ public final class HelixSecureRandom extends SecureRandomSpi {
                 return;
             }
 
+            Object event = ProviderEvents.begin(ProviderEvents.RANDOM);
+
             int needBytes = bytes.length - buffer.length;
             /*
              * the minimum number of longs that will produce the number of bytes
              * needed to fulfill the request
              */
             int needLongs = (needBytes + 8 - 1) / 8;
-            long[] longs = new long[needLongs];
+            byte[] counterBytes = new byte[needLongs * 8];
             for (int i = 0; i < needLongs; ++i) {
-                longs[i] = counter++;
+                HelixWords.putLong(counterBytes, i * 8, counter++);
             }
 
-            byte[] counterBytes = longsToBytes(longs);
             byte[] pseudoRandomBytes = primitive.feed(counterBytes);
 
+            ProviderEvents.commit(event, ProviderEvents.RANDOM, "refill", null, pseudoRandomBytes.length);
+
             // create the pool of bytes used to fulfill the request
             byte[] pool = new byte[buffer.length + pseudoRandomBytes.length];
             System.arraycopy(buffer, 0, pool, 0, buffer.length);
@@ -170,6 +199,8 @@ public final class HelixSecureRandom extends SecureRandomSpi {
 
     /* Initializes (or re-initializes) the internal Helix primitive. */
     private void initializePrimitive(final byte[] seed) {
+        Object event = ProviderEvents.begin(ProviderEvents.RANDOM);
+
         /*
          * use platform default PRNG (usually SHA1PRNG unless NativePRNG is
          * registered) and the internal seeding mechanism (by immediately
@@ -217,41 +248,18 @@ public final class HelixSecureRandom extends SecureRandomSpi {
             byte[] nonce = new byte[16];
             System.arraycopy(seedState, 32, nonce, 0, 16);
 
-            primitive = new HelixEncryption(key, nonce);
+            primitive =
+                    new HelixEncryption(key, nonce, (configuration != null) ? configuration
+                            : ProviderConfiguration.getDefault());
         } finally {
             lock.unlock();
 
             // always clear the buffer when the primitive is (re)initialized
             buffer = new byte[0];
         }
-    }
-
-    /*
-     * Converts an array of 64-bit long integers into an array of bytes.
-     * 
-     * The returned bytes array is a contiguous block of 8-byte sequences
-     * representing long integers (least-significant bytes first).
-     */
-    private byte[] longsToBytes(final long[] longs) {
-        int lx = 0;
-        int ly = longs.length;
-        int bx = 0;
-
-        byte[] bytes = new byte[ly * 8];
-
-        while (lx < ly) {
-            bytes[bx++] = (byte) longs[lx];
-            bytes[bx++] = (byte) (longs[lx] >> 8);
-            bytes[bx++] = (byte) (longs[lx] >> 16);
-            bytes[bx++] = (byte) (longs[lx] >> 24);
-            bytes[bx++] = (byte) (longs[lx] >> 32);
-            bytes[bx++] = (byte) (longs[lx] >> 40);
-            bytes[bx++] = (byte) (longs[lx] >> 48);
-            bytes[bx++] = (byte) (longs[lx] >> 56);
-            ++lx;
-        }
 
-        return bytes;
+        ProviderStatistics.record(ProviderStatistics.RANDOM_RESEEDS, 1L);
+        ProviderEvents.commit(event, ProviderEvents.RANDOM, "reseed", null, (seed != null) ? seed.length : 0);
     }
 
     /**
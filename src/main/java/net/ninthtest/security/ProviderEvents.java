@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security;
+
+import net.ninthtest.security.provider.ProviderConfiguration;
+
+/**
+ * A utility class for recording diagnostic events (e.g. as Java Flight
+ * Recorder events) from the NinthTest security/crypto services.
+ * 
+ * <p>
+ * An event is recorded by calling {@link #begin(int)} before the operation and
+ * {@link #commit(Object, int, String, String, long)} after it:
+ * </p>
+ * 
+ * <pre>
+ * Object event = ProviderEvents.begin(ProviderEvents.CIPHER);
+ * // ... perform the operation ...
+ * ProviderEvents.commit(event, ProviderEvents.CIPHER, &quot;update&quot;, &quot;ENCRYPT&quot;, inputLen);
+ * </pre>
+ * 
+ * <p>
+ * When no recorder is available (Java 10 and earlier) or the kind of event is
+ * not enabled, {@link #begin(int)} returns <tt>null</tt> and
+ * {@link #commit(Object, int, String, String, long)} does nothing.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class ProviderEvents {
+    /** The kind of event recorded for Helix cipher operations. */
+    public static final int CIPHER = 0;
+
+    /** The kind of event recorded for Helix MAC operations. */
+    public static final int MAC = 1;
+
+    /** The kind of event recorded for Helix PRNG refill and reseed operations. */
+    public static final int RANDOM = 2;
+
+    /** The kind of event recorded for Helix MAC verification failures. */
+    public static final int MAC_FAILURE = 3;
+
+    /** The kind of event recorded for the provider self-integrity check. */
+    public static final int INTEGRITY = 4;
+
+    /**
+     * Records diagnostic events.
+     * 
+     * <p>
+     * Implementations must be thread-safe.
+     * </p>
+     */
+    public interface Recorder {
+        /**
+         * Begins an event of the specified kind.
+         * 
+         * @param kind
+         *            the kind of event
+         * @return an event object to be passed to
+         *         {@link #commit(Object, int, String, String, long)}, or
+         *         <tt>null</tt> if events of this kind are not enabled
+         */
+        public Object begin(int kind);
+
+        /**
+         * Ends and commits an event.
+         * 
+         * @param event
+         *            the (non-<tt>null</tt>) event object returned by
+         *            {@link #begin(int)}
+         * @param kind
+         *            the kind of event
+         * @param operation
+         *            the operation performed (e.g. "update")
+         * @param mode
+         *            the operation mode (e.g. "ENCRYPT"), or <tt>null</tt>
+         * @param bytes
+         *            the number of bytes processed
+         */
+        public void commit(Object event, int kind, String operation, String mode, long bytes);
+    }
+
+    /* the name of the Java Flight Recorder-based recorder (Java 11+) */
+    private static final String JFR_RECORDER_CLASS_NAME = "net.ninthtest.security.jfr.JfrEventRecorder";
+
+    /* the recorder, or null if events are not recorded */
+    private static final Recorder RECORDER = loadRecorder();
+
+    /*
+     * Loads the Java Flight Recorder-based recorder if it is enabled and
+     * available.
+     */
+    private static Recorder loadRecorder() {
+        if (!ProviderConfiguration.getDefault().getBoolean(ProviderConfiguration.EVENTS_JFR)) {
+            return null;
+        }
+
+        try {
+            return (Recorder) Class.forName(JFR_RECORDER_CLASS_NAME).newInstance();
+        } catch (Throwable th) {
+            /*
+             * the recorder is not available (not packaged, or Java Flight
+             * Recorder is not supported by this JVM)
+             */
+            return null;
+        }
+    }
+
+    /**
+     * Determines whether or not events are being recorded.
+     * 
+     * @return <tt>true</tt> if a recorder is available
+     */
+    public static boolean isRecording() {
+        return RECORDER != null;
+    }
+
+    /**
+     * Begins an event of the specified kind.
+     * 
+     * @param kind
+     *            the kind of event
+     * @return an event object to be passed to
+     *         {@link #commit(Object, int, String, String, long)}, or
+     *         <tt>null</tt> if events of this kind are not being recorded
+     */
+    public static Object begin(int kind) {
+        Recorder recorder = RECORDER;
+        return (recorder != null) ? recorder.begin(kind) : null;
+    }
+
+    /**
+     * Ends and commits an event.
+     * 
+     * @param event
+     *            the event object returned by {@link #begin(int)} (if
+     *            <tt>null</tt>, this method does nothing)
+     * @param kind
+     *            the kind of event
+     * @param operation
+     *            the operation performed
+     * @param mode
+     *            the operation mode, or <tt>null</tt>
+     * @param bytes
+     *            the number of bytes processed
+     */
+    public static void commit(Object event, int kind, String operation, String mode, long bytes) {
+        if (event != null) {
+            RECORDER.commit(event, kind, operation, mode, bytes);
+        }
+    }
+
+    private ProviderEvents() {
+        /* never instantiated */
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security;
+
+import java.lang.management.ManagementFactory;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The provider-wide throughput counters of the NinthTest JCA Provider, exposed
+ * as a JMX MBean.
+ * 
+ * <p>
+ * The services record their work by calling
+ * {@link #record(int, long)} (and {@link #recordInit(long)}). The counters are
+ * striped, so recording is inexpensive and does not contend between threads
+ * on the hot paths.
+ * </p>
+ * 
+ * <p>
+ * The MBean is registered with the platform MBean server under the name
+ * {@value #OBJECT_NAME} when a <tt>NinthTestProvider</tt> is created (unless
+ * disabled by the <i>ninthtest.provider.jmx</i> configuration key).
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class ProviderStatistics implements ProviderStatisticsMBean {
+    /** The JMX object name of the provider MBean. */
+    public static final String OBJECT_NAME = "net.ninthtest.security.provider:type=NinthTestProvider";
+
+    /** The counter of bytes encrypted. */
+    public static final int BYTES_ENCRYPTED = 0;
+
+    /** The counter of bytes decrypted. */
+    public static final int BYTES_DECRYPTED = 1;
+
+    /** The counter of bytes MACed. */
+    public static final int BYTES_MACED = 2;
+
+    /** The counter of completed cipher operations. */
+    public static final int CIPHER_OPERATIONS = 3;
+
+    /** The counter of completed MAC operations. */
+    public static final int MAC_OPERATIONS = 4;
+
+    /** The counter of PRNG requests. */
+    public static final int RANDOM_OPERATIONS = 5;
+
+    /** The counter of MAC verification failures. */
+    public static final int MAC_VERIFICATION_FAILURES = 6;
+
+    /** The counter of pseudo-random bytes generated. */
+    public static final int RANDOM_BYTES = 7;
+
+    /** The counter of PRNG (re)seeds. */
+    public static final int RANDOM_RESEEDS = 8;
+
+    /** The counter of key schedules computed. */
+    public static final int KEY_SCHEDULES = 9;
+
+    /* the counter of initializations (recorded by #recordInit(long)) */
+    private static final int INITIALIZATIONS = 10;
+
+    /* the counter of initialization nanoseconds */
+    private static final int INIT_NANOS = 11;
+
+    /* the counters, indexed by the constants above */
+    private static final StripedCounter[] COUNTERS = new StripedCounter[12];
+
+    static {
+        for (int i = 0; i < COUNTERS.length; ++i) {
+            COUNTERS[i] = new StripedCounter();
+        }
+    }
+
+    /* whether or not the MBean has been registered */
+    private static final AtomicBoolean registered = new AtomicBoolean();
+
+    /**
+     * Adds an amount to a counter.
+     * 
+     * @param counter
+     *            one of the counter constants (e.g. {@link #BYTES_ENCRYPTED})
+     * @param amount
+     *            the amount to add
+     */
+    public static void record(final int counter, final long amount) {
+        COUNTERS[counter].add(amount);
+    }
+
+    /**
+     * Records a <tt>Cipher</tt> or <tt>Mac</tt> initialization.
+     * 
+     * @param startNanos
+     *            the value of {@link System#nanoTime()} when the initialization
+     *            started
+     */
+    public static void recordInit(final long startNanos) {
+        COUNTERS[INIT_NANOS].add(System.nanoTime() - startNanos);
+        COUNTERS[INITIALIZATIONS].add(1L);
+    }
+
+    /**
+     * Registers the provider MBean with the platform MBean server (if it is
+     * not already registered).
+     * 
+     * <p>
+     * Registration failures (e.g. a security manager that denies
+     * <tt>MBeanServerPermission</tt>) are ignored; the counters are maintained
+     * regardless.
+     * </p>
+     * 
+     * @return <tt>true</tt> if the MBean is registered
+     */
+    public static boolean registerMBean() {
+        if (registered.get()) {
+            return true;
+        }
+
+        return AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+            @Override
+            public Boolean run() {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(new ProviderStatistics(),
+                            new ObjectName(OBJECT_NAME));
+                } catch (InstanceAlreadyExistsException ex) {
+                    /* registered by another class loader's copy of the provider */
+                } catch (JMException ex) {
+                    return Boolean.FALSE;
+                } catch (SecurityException ex) {
+                    return Boolean.FALSE;
+                }
+
+                registered.set(true);
+                return Boolean.TRUE;
+            }
+        }).booleanValue();
+    }
+
+    /* Reads a counter. */
+    private static long sum(final int counter) {
+        return COUNTERS[counter].sum();
+    }
+
+    /*
+     * Creates the MBean (the counters are static, so every instance reports
+     * the same values).
+     */
+    ProviderStatistics() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesEncrypted() {
+        return sum(BYTES_ENCRYPTED);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesDecrypted() {
+        return sum(BYTES_DECRYPTED);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesMaced() {
+        return sum(BYTES_MACED);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCipherOperations() {
+        return sum(CIPHER_OPERATIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMacOperations() {
+        return sum(MAC_OPERATIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRandomOperations() {
+        return sum(RANDOM_OPERATIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMacVerificationFailures() {
+        return sum(MAC_VERIFICATION_FAILURES);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRandomBytes() {
+        return sum(RANDOM_BYTES);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRandomReseeds() {
+        return sum(RANDOM_RESEEDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getKeySchedules() {
+        return sum(KEY_SCHEDULES);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getInitializations() {
+        return sum(INITIALIZATIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAverageInitLatencyNanos() {
+        long initializations = sum(INITIALIZATIONS);
+
+        return (initializations > 0L) ? (sum(INIT_NANOS) / initializations) : 0L;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        for (StripedCounter counter : COUNTERS) {
+            counter.reset();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security;
+
+/**
+ * The management interface of the NinthTest JCA Provider throughput counters.
+ * 
+ * <p>
+ * All counters are provider-wide and cumulative since the provider classes
+ * were loaded (or since the last {@link #reset()}).
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ * @see ProviderStatistics
+ */
+public interface ProviderStatisticsMBean {
+    /**
+     * Returns the number of bytes encrypted (including wrapped keys).
+     * 
+     * @return the number of bytes encrypted
+     */
+    public long getBytesEncrypted();
+
+    /**
+     * Returns the number of bytes decrypted (including unwrapped keys).
+     * 
+     * @return the number of bytes decrypted
+     */
+    public long getBytesDecrypted();
+
+    /**
+     * Returns the number of bytes passed to the Helix <tt>Mac</tt>.
+     * 
+     * @return the number of bytes MACed
+     */
+    public long getBytesMaced();
+
+    /**
+     * Returns the number of completed Helix <tt>Cipher</tt> operations
+     * (<tt>doFinal</tt>, <tt>wrap</tt> and <tt>unwrap</tt>).
+     * 
+     * @return the number of cipher operations
+     */
+    public long getCipherOperations();
+
+    /**
+     * Returns the number of completed Helix <tt>Mac</tt> operations
+     * (<tt>doFinal</tt>).
+     * 
+     * @return the number of MAC operations
+     */
+    public long getMacOperations();
+
+    /**
+     * Returns the number of Helix <tt>SecureRandom</tt> requests
+     * (<tt>nextBytes</tt> and <tt>generateSeed</tt>).
+     * 
+     * @return the number of PRNG operations
+     */
+    public long getRandomOperations();
+
+    /**
+     * Returns the number of failed MAC verifications.
+     * 
+     * @return the number of MAC verification failures
+     */
+    public long getMacVerificationFailures();
+
+    /**
+     * Returns the number of pseudo-random bytes generated.
+     * 
+     * @return the number of PRNG bytes
+     */
+    public long getRandomBytes();
+
+    /**
+     * Returns the number of times a Helix <tt>SecureRandom</tt> was seeded or
+     * reseeded.
+     * 
+     * @return the number of PRNG (re)seeds
+     */
+    public long getRandomReseeds();
+
+    /**
+     * Returns the number of Helix key schedules (key mixings) computed.
+     * 
+     * @return the number of key schedules
+     */
+    public long getKeySchedules();
+
+    /**
+     * Returns the number of Helix <tt>Cipher</tt> and <tt>Mac</tt>
+     * initializations.
+     * 
+     * @return the number of initializations
+     */
+    public long getInitializations();
+
+    /**
+     * Returns the average latency of a Helix <tt>Cipher</tt> or <tt>Mac</tt>
+     * initialization.
+     * 
+     * @return the average initialization latency in nanoseconds (or <i>0</i>
+     *         if there have been no initializations)
+     */
+    public long getAverageInitLatencyNanos();
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset();
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads concurrent updates across several cells so that it
+ * does not become a point of contention.
+ * 
+ * <p>
+ * This is a Java 6-compatible counterpart of
+ * <tt>java.util.concurrent.atomic.LongAdder</tt>: each thread updates the cell
+ * selected by its thread ID, and each cell occupies its own cache line. The
+ * {@link #sum()} is not an atomic snapshot if the counter is updated
+ * concurrently.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class StripedCounter {
+    /* the number of longs per (64-byte) cache line */
+    private static final int PADDING = 8;
+
+    /* the number of cells (a power of two) */
+    private static final int CELLS;
+
+    static {
+        int cells = 1;
+        while (cells < (2 * Runtime.getRuntime().availableProcessors())) {
+            cells <<= 1;
+        }
+
+        CELLS = cells;
+    }
+
+    /* the cells (only every PADDING-th element is used) */
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS * PADDING);
+
+    /**
+     * Adds a value to this counter.
+     * 
+     * @param x
+     *            the value to add
+     */
+    void add(final long x) {
+        long id = Thread.currentThread().getId();
+        cells.addAndGet((int) ((id ^ (id >>> 16)) & (CELLS - 1)) * PADDING, x);
+    }
+
+    /**
+     * Returns the current sum of this counter.
+     * 
+     * @return the sum of all cells
+     */
+    long sum() {
+        long sum = 0L;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Resets this counter to zero.
+     */
+    void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0L);
+        }
+    }
+}
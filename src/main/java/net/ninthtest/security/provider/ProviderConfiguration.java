@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security.provider;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidParameterException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.ninthtest.security.Messages;
+
+/**
+ * The runtime configuration of the NinthTest JCA Provider.
+ * 
+ * <p>
+ * Each configuration value is resolved from (in order of precedence):
+ * </p>
+ * 
+ * <ol>
+ * <li>the properties file passed to {@link NinthTestProvider#configure(String)}
+ * (or named by the <i>ninthtest.provider.config</i> system property);</li>
+ * <li>the system property having the same name as the configuration key;</li>
+ * <li>the built-in default value.</li>
+ * </ol>
+ * 
+ * <p>
+ * Each {@link NinthTestProvider} instance has its own configuration, which it
+ * passes to the SPI implementations that it creates; configuring one provider
+ * instance does not affect any other. A provider that has not been configured,
+ * and any SPI implementation that is constructed directly, uses the
+ * {@link #getDefault() default} configuration (the properties file named by
+ * the <i>ninthtest.provider.config</i> system property, the system properties
+ * and the built-in defaults).
+ * </p>
+ * 
+ * <p>
+ * Instances are immutable: the system properties are read (and validated,
+ * like the values of a properties file) when a configuration is created, so
+ * a system property set later does not change an existing configuration
+ * (including the default configuration, once it has been used). Because of
+ * this, the objects that the provider derives from a configuration (such as
+ * the selected Helix engine and the nonce RNGs) are kept with it; see
+ * {@link #getCached(Object)}.
+ * </p>
+ * 
+ * <p>
+ * A few keys govern resources that exist once per JVM. The
+ * <i>integrity.*</i> keys are read from the configuration of the provider
+ * instance that starts the self-integrity check (which is performed at most
+ * once), <i>ninthtest.provider.events.jfr</i> is read from the default
+ * configuration when the first event is recorded, and
+ * <i>ninthtest.provider.jmx</i> determines whether a provider instance
+ * registers the (single) provider MBean.
+ * </p>
+ * 
+ * <p>
+ * The buffer sizes and thread pools of the Helix stream, file, pipeline and
+ * batch classes are not provider configuration: those classes are not created
+ * by the provider, and accept their buffer sizes, executors and thread
+ * factories as constructor arguments.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class ProviderConfiguration {
+    /**
+     * The system property that names a properties file from which the initial
+     * configuration is loaded.
+     */
+    public static final String CONFIG_FILE = "ninthtest.provider.config";
+
+    /**
+     * When <i>true</i>, the provider self-integrity check is started on a
+     * background thread when the provider is constructed (default
+     * <i>false</i>).
+     */
+    public static final String INTEGRITY_EAGER = "ninthtest.provider.integrity.eager";
+
+    /**
+     * The number of threads used to verify the provider JAR entries (default
+     * <i>0</i>, meaning the number of available processors).
+     */
+    public static final String INTEGRITY_THREADS = "ninthtest.provider.integrity.threads";
+
+    /**
+     * The path of the file that records the digest of a successfully-verified
+     * provider JAR (default empty, meaning that the digest is not cached).
+     */
+    public static final String INTEGRITY_CACHE = "ninthtest.provider.integrity.cache";
+
+    /**
+     * The {@link java.security.SecureRandom} algorithm used to generate Helix
+     * nonces when the caller does not supply a source of randomness (default
+     * empty, meaning the platform default algorithm).
+     */
+    public static final String NONCE_RANDOM = "ninthtest.provider.nonce.random";
+
+    /**
+     * The number of {@link java.security.SecureRandom} instances (stripes)
+     * among which the generation of Helix nonces is spread, so that threads
+     * initializing ciphers concurrently do not contend for a single RNG
+     * (default <i>0</i>, meaning the number of available processors).
+     */
+    public static final String NONCE_RANDOM_STRIPES = "ninthtest.provider.nonce.random.stripes";
+
+    /**
+     * When <i>true</i>, Java Flight Recorder events are recorded for Helix
+     * operations on Java 11 and later (default <i>true</i>; the individual
+     * event types are enabled or disabled in the recording settings).
+     */
+    public static final String EVENTS_JFR = "ninthtest.provider.events.jfr";
+
+    /**
+     * When <i>true</i>, the provider throughput counters are registered as a
+     * JMX MBean when the provider is constructed (default <i>true</i>).
+     */
+    public static final String JMX = "ninthtest.provider.jmx";
+
+    /**
+     * The Helix engine implementation used by new Helix primitives: one of
+     * <i>auto</i>, <i>reference</i> or <i>scalar</i> (default <i>auto</i>,
+     * meaning the fastest engine available on this platform).
+     */
+    public static final String ENGINE = "ninthtest.provider.engine";
+
+    /* the default values of all recognized configuration keys */
+    private static final Map<String, String> DEFAULTS;
+
+    /* the configuration keys whose values must be booleans */
+    private static final String[] BOOLEAN_KEYS = new String[] {INTEGRITY_EAGER, EVENTS_JFR, JMX};
+
+    /* the configuration keys whose values must be non-negative integers */
+    private static final String[] INTEGER_KEYS = new String[] {INTEGRITY_THREADS, NONCE_RANDOM_STRIPES};
+
+    /* the configuration keys whose values must be one of a fixed set */
+    private static final Map<String, String[]> CHOICE_KEYS;
+
+    static {
+        Map<String, String> defaults = new TreeMap<String, String>();
+        defaults.put(INTEGRITY_EAGER, "false");
+        defaults.put(INTEGRITY_THREADS, "0");
+        defaults.put(INTEGRITY_CACHE, "");
+        defaults.put(NONCE_RANDOM, "");
+        defaults.put(NONCE_RANDOM_STRIPES, "0");
+        defaults.put(EVENTS_JFR, "true");
+        defaults.put(JMX, "true");
+        defaults.put(ENGINE, "auto");
+        DEFAULTS = Collections.unmodifiableMap(defaults);
+
+        Map<String, String[]> choices = new TreeMap<String, String[]>();
+        choices.put(ENGINE, new String[] {"auto", "reference", "scalar"});
+        CHOICE_KEYS = Collections.unmodifiableMap(choices);
+    }
+
+    /* the default configuration (created on first use) */
+    private static volatile ProviderConfiguration defaultConfiguration;
+
+    /* the effective value of every recognized key */
+    private final Map<String, String> values;
+
+    /* the source of the explicitly-configured values (for diagnostics) */
+    private final String source;
+
+    /* the objects derived from this configuration (see #getCached) */
+    private final ConcurrentMap<Object, Object> cached = new ConcurrentHashMap<Object, Object>();
+
+    /*
+     * Creates a configuration from explicitly-configured values, and takes a
+     * snapshot of the (validated) system properties for the other keys.
+     */
+    private ProviderConfiguration(final Properties configured, final String source) {
+        Map<String, String> effective = new TreeMap<String, String>();
+        for (String key : DEFAULTS.keySet()) {
+            String value = configured.getProperty(key);
+            if (value == null) {
+                value = System.getProperty(key);
+                if (value == null) {
+                    value = DEFAULTS.get(key);
+                } else if (!isValid(key, value.trim())) {
+                    throw new InvalidParameterException(Messages.getMessage("error.invalid_configuration_value",
+                            key, value));
+                }
+            }
+
+            effective.put(key, value.trim());
+        }
+
+        values = Collections.unmodifiableMap(effective);
+        this.source = source;
+    }
+
+    /**
+     * Returns the default configuration (used by providers that have not been
+     * configured, and by SPI implementations that are constructed directly).
+     * 
+     * <p>
+     * The default configuration is loaded from the properties file named by
+     * the <i>ninthtest.provider.config</i> system property (if any), and the
+     * system properties, when it is first used.
+     * </p>
+     * 
+     * @return the default configuration
+     * @throws InvalidParameterException
+     *             if the default configuration file cannot be loaded, or if a
+     *             configuration system property has an invalid value
+     */
+    public static ProviderConfiguration getDefault() {
+        ProviderConfiguration configuration = defaultConfiguration;
+        if (configuration == null) {
+            synchronized (ProviderConfiguration.class) {
+                configuration = defaultConfiguration;
+                if (configuration == null) {
+                    String path = System.getProperty(CONFIG_FILE);
+                    configuration =
+                            ((path != null) && !path.isEmpty()) ? load(path) : new ProviderConfiguration(
+                                    new Properties(), null);
+                    defaultConfiguration = configuration;
+                }
+            }
+        }
+
+        return configuration;
+    }
+
+    /*
+     * Loads (and validates) a configuration from a properties file.
+     */
+    static ProviderConfiguration load(final String path) {
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(path);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            InvalidParameterException ipe =
+                    new InvalidParameterException(Messages.getMessage("error.invalid_configuration", path));
+            ipe.initCause(ex);
+            throw ipe;
+        }
+
+        return create(properties, path);
+    }
+
+    /*
+     * Creates (and validates) a configuration from explicitly-configured
+     * values and the current system properties.
+     */
+    static ProviderConfiguration create(final Properties properties, final String source) {
+        Properties configured = new Properties();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            if (!DEFAULTS.containsKey(key)) {
+                throw new InvalidParameterException(Messages.getMessage("error.unknown_configuration_key", key));
+            } else if (!isValid(key, value)) {
+                throw new InvalidParameterException(Messages.getMessage("error.invalid_configuration_value", key,
+                        value));
+            }
+
+            configured.setProperty(key, value);
+        }
+
+        return new ProviderConfiguration(configured, source);
+    }
+
+    /* Determines whether or not a value is valid for a configuration key. */
+    private static boolean isValid(final String key, final String value) {
+        for (String booleanKey : BOOLEAN_KEYS) {
+            if (booleanKey.equals(key)) {
+                return "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value);
+            }
+        }
+
+        for (String integerKey : INTEGER_KEYS) {
+            if (integerKey.equals(key)) {
+                try {
+                    return Integer.parseInt(value) >= 0;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+
+        String[] choices = CHOICE_KEYS.get(key);
+        if (choices != null) {
+            for (String choice : choices) {
+                if (choice.equalsIgnoreCase(value)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the effective value of a configuration key.
+     * 
+     * @param key
+     *            a recognized configuration key
+     * @return the configured value, the system property value (when this
+     *         configuration was created), or the default value (in that order
+     *         of precedence)
+     * @throws IllegalArgumentException
+     *             if <i>key</i> is not a recognized configuration key
+     */
+    public String get(final String key) {
+        String value = values.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException(Messages.getMessage("error.unknown_configuration_key", key));
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the effective value of a boolean configuration key.
+     * 
+     * @param key
+     *            a recognized boolean configuration key
+     * @return the effective boolean value
+     */
+    public boolean getBoolean(final String key) {
+        return Boolean.parseBoolean(get(key));
+    }
+
+    /**
+     * Returns the effective value of an integer configuration key.
+     * 
+     * @param key
+     *            a recognized integer configuration key
+     * @return the effective integer value
+     */
+    public int getInt(final String key) {
+        return Integer.parseInt(get(key));
+    }
+
+    /**
+     * Returns the effective values of all recognized configuration keys.
+     * 
+     * @return an unmodifiable map of configuration keys to effective values,
+     *         sorted by key
+     */
+    public Map<String, String> getEffectiveConfiguration() {
+        return values;
+    }
+
+    /**
+     * Returns an object that has been derived from this configuration and
+     * cached with it.
+     * 
+     * <p>
+     * SPI implementations use this to keep what they derive from a
+     * configuration (e.g. the Helix engine it selects, or the RNGs used to
+     * generate nonces) with the configuration itself, so that it is derived
+     * once per configuration rather than once per use.
+     * </p>
+     * 
+     * @param key
+     *            identifies the derived object (an object private to the
+     *            class that derives it)
+     * @return the cached object, or <tt>null</tt> if none has been cached
+     */
+    public Object getCached(final Object key) {
+        return cached.get(key);
+    }
+
+    /**
+     * Caches an object derived from this configuration, unless one has
+     * already been cached for the same key.
+     * 
+     * @param key
+     *            identifies the derived object (an object private to the
+     *            class that derives it)
+     * @param value
+     *            the derived object
+     * @return the object now cached for <i>key</i> (<i>value</i>, or the
+     *         object that another thread cached first)
+     */
+    public Object cacheIfAbsent(final Object key, final Object value) {
+        Object existing = cached.putIfAbsent(key, value);
+        return (existing != null) ? existing : value;
+    }
+
+    /**
+     * Returns the path of the properties file that this configuration was
+     * loaded from.
+     * 
+     * @return the configuration file path, or <tt>null</tt> if this
+     *         configuration consists only of system properties and defaults
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns a description of the effective configuration.
+     * 
+     * @return the configuration source and effective values
+     */
+    @Override
+    public String toString() {
+        return "ProviderConfiguration[source=" + source + ", " + getEffectiveConfiguration() + "]";
+    }
+}
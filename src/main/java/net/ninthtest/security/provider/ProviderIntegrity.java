@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security.provider;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.AccessController;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import net.ninthtest.security.Messages;
+import net.ninthtest.security.ProviderEvents;
+
+/* Verifies the integrity of the signed provider JAR. */
+final class ProviderIntegrity {
+    /* raw bytes of the provider signing certificate */
+    private static final byte[] PROVIDER_CERTIFICATE_BYTES = new byte[] {(byte) 0x30, (byte) 0x82, (byte) 0x03,
+            (byte) 0xad, (byte) 0x30, (byte) 0x82, (byte) 0x03, (byte) 0x6b, (byte) 0xa0, (byte) 0x03, (byte) 0x02,
+            (byte) 0x01, (byte) 0x02, (byte) 0x02, (byte) 0x02, (byte) 0x03, (byte) 0x34, (byte) 0x30, (byte) 0x0b,
+            (byte) 0x06, (byte) 0x07, (byte) 0x2a, (byte) 0x86, (byte) 0x48, (byte) 0xce, (byte) 0x38, (byte) 0x04,
+            (byte) 0x03, (byte) 0x05, (byte) 0x00, (byte) 0x30, (byte) 0x81, (byte) 0x90, (byte) 0x31, (byte) 0x0b,
+            (byte) 0x30, (byte) 0x09, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x04, (byte) 0x06, (byte) 0x13,
+            (byte) 0x02, (byte) 0x55, (byte) 0x53, (byte) 0x31, (byte) 0x0b, (byte) 0x30, (byte) 0x09, (byte) 0x06,
+            (byte) 0x03, (byte) 0x55, (byte) 0x04, (byte) 0x08, (byte) 0x13, (byte) 0x02, (byte) 0x43, (byte) 0x41,
+            (byte) 0x31, (byte) 0x12, (byte) 0x30, (byte) 0x10, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x04,
+            (byte) 0x07, (byte) 0x13, (byte) 0x09, (byte) 0x50, (byte) 0x61, (byte) 0x6c, (byte) 0x6f, (byte) 0x20,
+            (byte) 0x41, (byte) 0x6c, (byte) 0x74, (byte) 0x6f, (byte) 0x31, (byte) 0x1d, (byte) 0x30, (byte) 0x1b,
+            (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x04, (byte) 0x0a, (byte) 0x13, (byte) 0x14, (byte) 0x53,
+            (byte) 0x75, (byte) 0x6e, (byte) 0x20, (byte) 0x4d, (byte) 0x69, (byte) 0x63, (byte) 0x72, (byte) 0x6f,
+            (byte) 0x73, (byte) 0x79, (byte) 0x73, (byte) 0x74, (byte) 0x65, (byte) 0x6d, (byte) 0x73, (byte) 0x20,
+            (byte) 0x49, (byte) 0x6e, (byte) 0x63, (byte) 0x31, (byte) 0x23, (byte) 0x30, (byte) 0x21, (byte) 0x06,
+            (byte) 0x03, (byte) 0x55, (byte) 0x04, (byte) 0x0b, (byte) 0x13, (byte) 0x1a, (byte) 0x4a, (byte) 0x61,
+            (byte) 0x76, (byte) 0x61, (byte) 0x20, (byte) 0x53, (byte) 0x6f, (byte) 0x66, (byte) 0x74, (byte) 0x77,
+            (byte) 0x61, (byte) 0x72, (byte) 0x65, (byte) 0x20, (byte) 0x43, (byte) 0x6f, (byte) 0x64, (byte) 0x65,
+            (byte) 0x20, (byte) 0x53, (byte) 0x69, (byte) 0x67, (byte) 0x6e, (byte) 0x69, (byte) 0x6e, (byte) 0x67,
+            (byte) 0x31, (byte) 0x1c, (byte) 0x30, (byte) 0x1a, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x04,
+            (byte) 0x03, (byte) 0x13, (byte) 0x13, (byte) 0x4a, (byte) 0x43, (byte) 0x45, (byte) 0x20, (byte) 0x43,
+            (byte) 0x6f, (byte) 0x64, (byte) 0x65, (byte) 0x20, (byte) 0x53, (byte) 0x69, (byte) 0x67, (byte) 0x6e,
+            (byte) 0x69, (byte) 0x6e, (byte) 0x67, (byte) 0x20, (byte) 0x43, (byte) 0x41, (byte) 0x30, (byte) 0x1e,
+            (byte) 0x17, (byte) 0x0d, (byte) 0x31, (byte) 0x31, (byte) 0x30, (byte) 0x31, (byte) 0x31, (byte) 0x38,
+            (byte) 0x32, (byte) 0x33, (byte) 0x35, (byte) 0x35, (byte) 0x31, (byte) 0x39, (byte) 0x5a, (byte) 0x17,
+            (byte) 0x0d, (byte) 0x31, (byte) 0x36, (byte) 0x30, (byte) 0x31, (byte) 0x32, (byte) 0x32, (byte) 0x32,
+            (byte) 0x33, (byte) 0x35, (byte) 0x35, (byte) 0x31, (byte) 0x39, (byte) 0x5a, (byte) 0x30, (byte) 0x5c,
+            (byte) 0x31, (byte) 0x1d, (byte) 0x30, (byte) 0x1b, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x04,
+            (byte) 0x0a, (byte) 0x13, (byte) 0x14, (byte) 0x53, (byte) 0x75, (byte) 0x6e, (byte) 0x20, (byte) 0x4d,
+            (byte) 0x69, (byte) 0x63, (byte) 0x72, (byte) 0x6f, (byte) 0x73, (byte) 0x79, (byte) 0x73, (byte) 0x74,
+            (byte) 0x65, (byte) 0x6d, (byte) 0x73, (byte) 0x20, (byte) 0x49, (byte) 0x6e, (byte) 0x63, (byte) 0x31,
+            (byte) 0x23, (byte) 0x30, (byte) 0x21, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x04, (byte) 0x0b,
+            (byte) 0x13, (byte) 0x1a, (byte) 0x4a, (byte) 0x61, (byte) 0x76, (byte) 0x61, (byte) 0x20, (byte) 0x53,
+            (byte) 0x6f, (byte) 0x66, (byte) 0x74, (byte) 0x77, (byte) 0x61, (byte) 0x72, (byte) 0x65, (byte) 0x20,
+            (byte) 0x43, (byte) 0x6f, (byte) 0x64, (byte) 0x65, (byte) 0x20, (byte) 0x53, (byte) 0x69, (byte) 0x67,
+            (byte) 0x6e, (byte) 0x69, (byte) 0x6e, (byte) 0x67, (byte) 0x31, (byte) 0x16, (byte) 0x30, (byte) 0x14,
+            (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x04, (byte) 0x03, (byte) 0x13, (byte) 0x0d, (byte) 0x4e,
+            (byte) 0x69, (byte) 0x6e, (byte) 0x74, (byte) 0x68, (byte) 0x54, (byte) 0x65, (byte) 0x73, (byte) 0x74,
+            (byte) 0x2e, (byte) 0x6e, (byte) 0x65, (byte) 0x74, (byte) 0x30, (byte) 0x82, (byte) 0x01, (byte) 0xb7,
+            (byte) 0x30, (byte) 0x82, (byte) 0x01, (byte) 0x2c, (byte) 0x06, (byte) 0x07, (byte) 0x2a, (byte) 0x86,
+            (byte) 0x48, (byte) 0xce, (byte) 0x38, (byte) 0x04, (byte) 0x01, (byte) 0x30, (byte) 0x82, (byte) 0x01,
+            (byte) 0x1f, (byte) 0x02, (byte) 0x81, (byte) 0x81, (byte) 0x00, (byte) 0xfd, (byte) 0x7f, (byte) 0x53,
+            (byte) 0x81, (byte) 0x1d, (byte) 0x75, (byte) 0x12, (byte) 0x29, (byte) 0x52, (byte) 0xdf, (byte) 0x4a,
+            (byte) 0x9c, (byte) 0x2e, (byte) 0xec, (byte) 0xe4, (byte) 0xe7, (byte) 0xf6, (byte) 0x11, (byte) 0xb7,
+            (byte) 0x52, (byte) 0x3c, (byte) 0xef, (byte) 0x44, (byte) 0x00, (byte) 0xc3, (byte) 0x1e, (byte) 0x3f,
+            (byte) 0x80, (byte) 0xb6, (byte) 0x51, (byte) 0x26, (byte) 0x69, (byte) 0x45, (byte) 0x5d, (byte) 0x40,
+            (byte) 0x22, (byte) 0x51, (byte) 0xfb, (byte) 0x59, (byte) 0x3d, (byte) 0x8d, (byte) 0x58, (byte) 0xfa,
+            (byte) 0xbf, (byte) 0xc5, (byte) 0xf5, (byte) 0xba, (byte) 0x30, (byte) 0xf6, (byte) 0xcb, (byte) 0x9b,
+            (byte) 0x55, (byte) 0x6c, (byte) 0xd7, (byte) 0x81, (byte) 0x3b, (byte) 0x80, (byte) 0x1d, (byte) 0x34,
+            (byte) 0x6f, (byte) 0xf2, (byte) 0x66, (byte) 0x60, (byte) 0xb7, (byte) 0x6b, (byte) 0x99, (byte) 0x50,
+            (byte) 0xa5, (byte) 0xa4, (byte) 0x9f, (byte) 0x9f, (byte) 0xe8, (byte) 0x04, (byte) 0x7b, (byte) 0x10,
+            (byte) 0x22, (byte) 0xc2, (byte) 0x4f, (byte) 0xbb, (byte) 0xa9, (byte) 0xd7, (byte) 0xfe, (byte) 0xb7,
+            (byte) 0xc6, (byte) 0x1b, (byte) 0xf8, (byte) 0x3b, (byte) 0x57, (byte) 0xe7, (byte) 0xc6, (byte) 0xa8,
+            (byte) 0xa6, (byte) 0x15, (byte) 0x0f, (byte) 0x04, (byte) 0xfb, (byte) 0x83, (byte) 0xf6, (byte) 0xd3,
+            (byte) 0xc5, (byte) 0x1e, (byte) 0xc3, (byte) 0x02, (byte) 0x35, (byte) 0x54, (byte) 0x13, (byte) 0x5a,
+            (byte) 0x16, (byte) 0x91, (byte) 0x32, (byte) 0xf6, (byte) 0x75, (byte) 0xf3, (byte) 0xae, (byte) 0x2b,
+            (byte) 0x61, (byte) 0xd7, (byte) 0x2a, (byte) 0xef, (byte) 0xf2, (byte) 0x22, (byte) 0x03, (byte) 0x19,
+            (byte) 0x9d, (byte) 0xd1, (byte) 0x48, (byte) 0x01, (byte) 0xc7, (byte) 0x02, (byte) 0x15, (byte) 0x00,
+            (byte) 0x97, (byte) 0x60, (byte) 0x50, (byte) 0x8f, (byte) 0x15, (byte) 0x23, (byte) 0x0b, (byte) 0xcc,
+            (byte) 0xb2, (byte) 0x92, (byte) 0xb9, (byte) 0x82, (byte) 0xa2, (byte) 0xeb, (byte) 0x84, (byte) 0x0b,
+            (byte) 0xf0, (byte) 0x58, (byte) 0x1c, (byte) 0xf5, (byte) 0x02, (byte) 0x81, (byte) 0x81, (byte) 0x00,
+            (byte) 0xf7, (byte) 0xe1, (byte) 0xa0, (byte) 0x85, (byte) 0xd6, (byte) 0x9b, (byte) 0x3d, (byte) 0xde,
+            (byte) 0xcb, (byte) 0xbc, (byte) 0xab, (byte) 0x5c, (byte) 0x36, (byte) 0xb8, (byte) 0x57, (byte) 0xb9,
+            (byte) 0x79, (byte) 0x94, (byte) 0xaf, (byte) 0xbb, (byte) 0xfa, (byte) 0x3a, (byte) 0xea, (byte) 0x82,
+            (byte) 0xf9, (byte) 0x57, (byte) 0x4c, (byte) 0x0b, (byte) 0x3d, (byte) 0x07, (byte) 0x82, (byte) 0x67,
+            (byte) 0x51, (byte) 0x59, (byte) 0x57, (byte) 0x8e, (byte) 0xba, (byte) 0xd4, (byte) 0x59, (byte) 0x4f,
+            (byte) 0xe6, (byte) 0x71, (byte) 0x07, (byte) 0x10, (byte) 0x81, (byte) 0x80, (byte) 0xb4, (byte) 0x49,
+            (byte) 0x16, (byte) 0x71, (byte) 0x23, (byte) 0xe8, (byte) 0x4c, (byte) 0x28, (byte) 0x16, (byte) 0x13,
+            (byte) 0xb7, (byte) 0xcf, (byte) 0x09, (byte) 0x32, (byte) 0x8c, (byte) 0xc8, (byte) 0xa6, (byte) 0xe1,
+            (byte) 0x3c, (byte) 0x16, (byte) 0x7a, (byte) 0x8b, (byte) 0x54, (byte) 0x7c, (byte) 0x8d, (byte) 0x28,
+            (byte) 0xe0, (byte) 0xa3, (byte) 0xae, (byte) 0x1e, (byte) 0x2b, (byte) 0xb3, (byte) 0xa6, (byte) 0x75,
+            (byte) 0x91, (byte) 0x6e, (byte) 0xa3, (byte) 0x7f, (byte) 0x0b, (byte) 0xfa, (byte) 0x21, (byte) 0x35,
+            (byte) 0x62, (byte) 0xf1, (byte) 0xfb, (byte) 0x62, (byte) 0x7a, (byte) 0x01, (byte) 0x24, (byte) 0x3b,
+            (byte) 0xcc, (byte) 0xa4, (byte) 0xf1, (byte) 0xbe, (byte) 0xa8, (byte) 0x51, (byte) 0x90, (byte) 0x89,
+            (byte) 0xa8, (byte) 0x83, (byte) 0xdf, (byte) 0xe1, (byte) 0x5a, (byte) 0xe5, (byte) 0x9f, (byte) 0x06,
+            (byte) 0x92, (byte) 0x8b, (byte) 0x66, (byte) 0x5e, (byte) 0x80, (byte) 0x7b, (byte) 0x55, (byte) 0x25,
+            (byte) 0x64, (byte) 0x01, (byte) 0x4c, (byte) 0x3b, (byte) 0xfe, (byte) 0xcf, (byte) 0x49, (byte) 0x2a,
+            (byte) 0x03, (byte) 0x81, (byte) 0x84, (byte) 0x00, (byte) 0x02, (byte) 0x81, (byte) 0x80, (byte) 0x67,
+            (byte) 0xaa, (byte) 0xea, (byte) 0xa7, (byte) 0x8f, (byte) 0xa5, (byte) 0x6b, (byte) 0xe6, (byte) 0xb8,
+            (byte) 0x0f, (byte) 0x9b, (byte) 0xf6, (byte) 0x2f, (byte) 0xa3, (byte) 0xe4, (byte) 0x40, (byte) 0xc9,
+            (byte) 0x6d, (byte) 0x0c, (byte) 0xf8, (byte) 0xd9, (byte) 0x84, (byte) 0xa9, (byte) 0xe0, (byte) 0x62,
+            (byte) 0xba, (byte) 0x3a, (byte) 0xf0, (byte) 0xff, (byte) 0x33, (byte) 0x7b, (byte) 0xfd, (byte) 0x5e,
+            (byte) 0xfd, (byte) 0xfa, (byte) 0x73, (byte) 0xf3, (byte) 0x92, (byte) 0xb2, (byte) 0xf6, (byte) 0x80,
+            (byte) 0x8c, (byte) 0xf0, (byte) 0xdf, (byte) 0xde, (byte) 0x50, (byte) 0x18, (byte) 0xd4, (byte) 0x79,
+            (byte) 0x2f, (byte) 0x13, (byte) 0xae, (byte) 0x1f, (byte) 0xcf, (byte) 0x24, (byte) 0x7c, (byte) 0x03,
+            (byte) 0x82, (byte) 0x3b, (byte) 0xe7, (byte) 0xfd, (byte) 0xdb, (byte) 0x01, (byte) 0xba, (byte) 0x9a,
+            (byte) 0x82, (byte) 0xcc, (byte) 0x74, (byte) 0xa5, (byte) 0xe2, (byte) 0xae, (byte) 0xa0, (byte) 0xbe,
+            (byte) 0xfa, (byte) 0x0f, (byte) 0xd1, (byte) 0x17, (byte) 0xd4, (byte) 0x14, (byte) 0xae, (byte) 0x18,
+            (byte) 0x24, (byte) 0x8a, (byte) 0xf9, (byte) 0xfe, (byte) 0x5b, (byte) 0x7c, (byte) 0x04, (byte) 0x7b,
+            (byte) 0x61, (byte) 0xf2, (byte) 0x85, (byte) 0x0b, (byte) 0x1f, (byte) 0xdb, (byte) 0x33, (byte) 0xcb,
+            (byte) 0xf5, (byte) 0x4d, (byte) 0xdd, (byte) 0xd4, (byte) 0xd6, (byte) 0x27, (byte) 0x50, (byte) 0xbf,
+            (byte) 0x81, (byte) 0x31, (byte) 0xad, (byte) 0x76, (byte) 0x77, (byte) 0x59, (byte) 0x20, (byte) 0x4b,
+            (byte) 0x30, (byte) 0xb8, (byte) 0x89, (byte) 0x36, (byte) 0x19, (byte) 0x6f, (byte) 0x55, (byte) 0xf2,
+            (byte) 0x17, (byte) 0x23, (byte) 0x4e, (byte) 0x6a, (byte) 0xf2, (byte) 0xbb, (byte) 0x04, (byte) 0xa3,
+            (byte) 0x81, (byte) 0x86, (byte) 0x30, (byte) 0x81, (byte) 0x83, (byte) 0x30, (byte) 0x11, (byte) 0x06,
+            (byte) 0x09, (byte) 0x60, (byte) 0x86, (byte) 0x48, (byte) 0x01, (byte) 0x86, (byte) 0xf8, (byte) 0x42,
+            (byte) 0x01, (byte) 0x01, (byte) 0x04, (byte) 0x04, (byte) 0x03, (byte) 0x02, (byte) 0x04, (byte) 0x10,
+            (byte) 0x30, (byte) 0x0e, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x1d, (byte) 0x0f, (byte) 0x01,
+            (byte) 0x01, (byte) 0xff, (byte) 0x04, (byte) 0x04, (byte) 0x03, (byte) 0x02, (byte) 0x05, (byte) 0xe0,
+            (byte) 0x30, (byte) 0x1d, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x1d, (byte) 0x0e, (byte) 0x04,
+            (byte) 0x16, (byte) 0x04, (byte) 0x14, (byte) 0x78, (byte) 0x40, (byte) 0x8f, (byte) 0xf0, (byte) 0xe5,
+            (byte) 0xa4, (byte) 0xf3, (byte) 0x42, (byte) 0x8e, (byte) 0x0b, (byte) 0x6b, (byte) 0xa0, (byte) 0xbc,
+            (byte) 0x38, (byte) 0x3e, (byte) 0x8b, (byte) 0xed, (byte) 0xb3, (byte) 0x49, (byte) 0x6b, (byte) 0x30,
+            (byte) 0x1f, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x1d, (byte) 0x23, (byte) 0x04, (byte) 0x18,
+            (byte) 0x30, (byte) 0x16, (byte) 0x80, (byte) 0x14, (byte) 0x65, (byte) 0xe2, (byte) 0xf4, (byte) 0x86,
+            (byte) 0xc9, (byte) 0xd3, (byte) 0x4e, (byte) 0xf0, (byte) 0x91, (byte) 0x4e, (byte) 0x58, (byte) 0xa2,
+            (byte) 0x6a, (byte) 0xf5, (byte) 0xd8, (byte) 0x78, (byte) 0x5a, (byte) 0x9a, (byte) 0xc1, (byte) 0xa6,
+            (byte) 0x30, (byte) 0x1e, (byte) 0x06, (byte) 0x03, (byte) 0x55, (byte) 0x1d, (byte) 0x11, (byte) 0x04,
+            (byte) 0x17, (byte) 0x30, (byte) 0x15, (byte) 0x81, (byte) 0x13, (byte) 0x6d, (byte) 0x61, (byte) 0x74,
+            (byte) 0x74, (byte) 0x7a, (byte) 0x40, (byte) 0x6e, (byte) 0x69, (byte) 0x6e, (byte) 0x74, (byte) 0x68,
+            (byte) 0x74, (byte) 0x65, (byte) 0x73, (byte) 0x74, (byte) 0x2e, (byte) 0x6e, (byte) 0x65, (byte) 0x74,
+            (byte) 0x30, (byte) 0x0b, (byte) 0x06, (byte) 0x07, (byte) 0x2a, (byte) 0x86, (byte) 0x48, (byte) 0xce,
+            (byte) 0x38, (byte) 0x04, (byte) 0x03, (byte) 0x05, (byte) 0x00, (byte) 0x03, (byte) 0x2f, (byte) 0x00,
+            (byte) 0x30, (byte) 0x2c, (byte) 0x02, (byte) 0x14, (byte) 0x64, (byte) 0xf7, (byte) 0x4e, (byte) 0x3e,
+            (byte) 0x1e, (byte) 0x4e, (byte) 0xd9, (byte) 0xa3, (byte) 0x8d, (byte) 0xac, (byte) 0x67, (byte) 0xc4,
+            (byte) 0x6b, (byte) 0xee, (byte) 0x19, (byte) 0xa2, (byte) 0xc7, (byte) 0xc2, (byte) 0x01, (byte) 0x31,
+            (byte) 0x02, (byte) 0x14, (byte) 0x21, (byte) 0x09, (byte) 0xe0, (byte) 0x68, (byte) 0xa6, (byte) 0x58,
+            (byte) 0x6e, (byte) 0x13, (byte) 0xe4, (byte) 0x81, (byte) 0xd0, (byte) 0x66, (byte) 0x76, (byte) 0x7b,
+            (byte) 0x9b, (byte) 0x8d, (byte) 0x4b, (byte) 0x96, (byte) 0x94, (byte) 0x6c};
+
+    /* created from PROVIDER_CERTIFICATE_BYTES */
+    private static X509Certificate providerCertificate;
+
+    /*
+     * indicates whether or not the self-integrity check has passed
+     * 
+     * doSelfIntegrityCheck() will set this flag to true if the self-integrity
+     * check passes (avoids redundant checks)
+     */
+    // UNITTESTING: Set to true for unit testing.
+    private static volatile boolean selfIntegrityVerified = true;
+
+    /* ensures that at most one background verification is ever started */
+    private static final AtomicBoolean backgroundVerificationStarted = new AtomicBoolean();
+
+    /* creates the daemon threads used for (background) verification */
+    private static final ThreadFactory VERIFIER_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "NinthTest-integrity");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /*
+     * Verifies that the JAR containing this provider has not been tampered
+     * with.
+     * 
+     * 1. The provider JAR has been signed. 2. Each entry in the provider JAR is
+     * signed by a trusted signer. 3. The signature for each entry in the
+     * provider JAR was generated by the same entity as the one that developed
+     * this provider.
+     * 
+     * The JAR entries are verified in parallel. If a cache file has been
+     * configured and it records the digest of the current provider JAR, the
+     * entries are not verified again.
+     * 
+     * If the self-integrity check fails for any reason, SecurityException is
+     * thrown. The verifier threads and cache file are taken from the
+     * configuration of the provider that requested the check.
+     */
+    static final void verify(final ProviderConfiguration configuration) {
+        /* avoid redundant self-integrity checks (without locking) */
+        if (!selfIntegrityVerified) {
+            verifyOnce(configuration);
+        }
+    }
+
+    /* Performs the self-integrity check unless another thread has done so. */
+    private static synchronized void verifyOnce(final ProviderConfiguration configuration) {
+        if (selfIntegrityVerified) {
+            return;
+        }
+
+        Object event = ProviderEvents.begin(ProviderEvents.INTEGRITY);
+        final String[] outcome = new String[] {"verified"};
+        try {
+            AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
+                @Override
+                public Void run() throws Exception {
+                    File providerJarFile = getProviderJarFile();
+
+                    File cacheFile = getCacheFile(configuration);
+                    String digest = null;
+                    if (cacheFile != null) {
+                        digest = digestOf(providerJarFile);
+                        if (digest.equals(readCachedDigest(cacheFile))) {
+                            outcome[0] = "cached";
+                            return null;
+                        }
+                    }
+
+                    if (providerCertificate == null) {
+                        providerCertificate = getProviderCert();
+                    }
+
+                    verifyJar(providerJarFile, providerCertificate, getVerifierThreads(configuration));
+
+                    if (cacheFile != null) {
+                        cacheVerifiedDigest(cacheFile, providerJarFile, digest);
+                    }
+
+                    return null;
+                }
+            });
+        } catch (Exception ex) {
+            ProviderEvents.commit(event, ProviderEvents.INTEGRITY, "failed", null, 0);
+
+            Throwable cause = (ex instanceof PrivilegedActionException) ? ex.getCause() : ex;
+            throw new SecurityException(Messages.getMessage("error.integrity_not_verified"), cause);
+        }
+
+        ProviderEvents.commit(event, ProviderEvents.INTEGRITY, outcome[0], null, 0);
+
+        /* avoid redundant integrity checking */
+        selfIntegrityVerified = true;
+    }
+
+    /*
+     * Starts the self-integrity check on a daemon thread (at most once).
+     * 
+     * Because #verifyOnce() is synchronized, any SPI constructor that runs while
+     * the background check is in progress simply waits for it to complete. If
+     * the background check fails, the next synchronous check will fail as
+     * well (and report the failure to the caller).
+     */
+    static final void verifyInBackground(final ProviderConfiguration configuration) {
+        if (!backgroundVerificationStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        VERIFIER_THREAD_FACTORY.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    verify(configuration);
+                } catch (SecurityException ex) {
+                    /* reported by the next synchronous self-integrity check */
+                }
+            }
+        }).start();
+    }
+
+    /*
+     * Verifies every entry of a signed JAR (except the manifest and the
+     * signature files themselves), using up to `threads' worker threads.
+     * 
+     * The versioned entries of a multi-release JAR (META-INF/versions/N/...)
+     * are verified like any other, since they are the classes that are loaded
+     * on Java N and later.
+     * 
+     * The entries are read through a single random-access JarFile; reading
+     * each entry performs the signature & digest verification, after which
+     * the entry's code signers are compared against the trusted certificate.
+     */
+    static final void verifyJar(final File file, final X509Certificate trustedCertificate, final int threads)
+            throws Exception {
+        final JarFile jarFile = new JarFile(file, true);
+        try {
+            /*
+             * "early warning" - this will fail if ANY part of the signed JAR
+             * has been tampered with; however, it will pass silently if the JAR
+             * is NOT signed, so further checking is necessary
+             */
+            if (jarFile.getManifest() == null) {
+                throw new SecurityException(Messages.getMessage("error.not_signed"));
+            }
+
+            List<JarEntry> entries = new ArrayList<JarEntry>();
+            Enumeration<JarEntry> enumeration = jarFile.entries();
+            while (enumeration.hasMoreElements()) {
+                JarEntry entry = enumeration.nextElement();
+                if (!entry.isDirectory() && !isSignatureFile(entry.getName())) {
+                    entries.add(entry);
+                }
+            }
+
+            int workers = Math.max(1, Math.min(threads, entries.size()));
+            if (1 == workers) {
+                verifyEntries(jarFile, entries, trustedCertificate);
+                return;
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(workers, VERIFIER_THREAD_FACTORY);
+            try {
+                List<Future<Void>> results = new ArrayList<Future<Void>>(workers);
+                for (int w = 0; w < workers; ++w) {
+                    /* each worker verifies every workers-th entry */
+                    final List<JarEntry> stripe = new ArrayList<JarEntry>((entries.size() / workers) + 1);
+                    for (int i = w; i < entries.size(); i += workers) {
+                        stripe.add(entries.get(i));
+                    }
+
+                    results.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            verifyEntries(jarFile, stripe, trustedCertificate);
+                            return null;
+                        }
+                    }));
+                }
+
+                for (Future<Void> result : results) {
+                    try {
+                        result.get();
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        throw (cause instanceof Exception) ? (Exception) cause : ex;
+                    }
+                }
+            } finally {
+                /* abandons the remaining work if any entry failed */
+                pool.shutdownNow();
+            }
+        } finally {
+            try {
+                jarFile.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     * Determines whether or not a JAR entry is the manifest or a signature
+     * file (META-INF/MANIFEST.MF, *.SF, *.RSA, *.DSA, *.EC or SIG-*), which are
+     * not themselves covered by the JAR signature.
+     */
+    static final boolean isSignatureFile(final String name) {
+        if (!name.startsWith("META-INF/") || (name.indexOf('/', 9) >= 0)) {
+            return false;
+        }
+
+        String fileName = name.substring(9).toUpperCase(Locale.ENGLISH);
+        return fileName.equals("MANIFEST.MF") || fileName.endsWith(".SF") || fileName.endsWith(".RSA")
+                || fileName.endsWith(".DSA") || fileName.endsWith(".EC") || fileName.startsWith("SIG-");
+    }
+
+    /* Verifies a group of entries from a signed JAR. */
+    private static void verifyEntries(final JarFile jarFile, final List<JarEntry> entries,
+            final X509Certificate trustedCertificate) throws IOException {
+        byte[] buffer = new byte[8192];
+        for (JarEntry entry : entries) {
+            /*
+             * reading each entry will perform signature & digest verification
+             */
+            InputStream entryStream = jarFile.getInputStream(entry);
+            try {
+                while (entryStream.read(buffer) != -1) {
+                    // do nothing - only need to read the bytes
+                }
+            } finally {
+                entryStream.close();
+            }
+
+            /*
+             * also need to ensure that each entry was signed by the provider
+             * signing certificate; getCodeSigners() can only be called once the
+             * entry has been completely verified by reading from the entry
+             * input stream!
+             */
+            boolean signedByProviderCert = false;
+            CodeSigner[] signers = entry.getCodeSigners();
+            if (signers != null) {
+                for (CodeSigner signer : signers) {
+                    if (signedByProviderCert =
+                            trustedCertificate.equals(signer.getSignerCertPath().getCertificates().get(0))) {
+                        break;
+                    }
+                }
+            }
+
+            if (!signedByProviderCert) {
+                throw new SecurityException(Messages.getMessage("error.not_signed_by_trusted"));
+            }
+        }
+    }
+
+    /*
+     * Returns the provider JAR file.
+     * 
+     * The caller must already be running in a privileged block.
+     */
+    private static File getProviderJarFile() throws Exception {
+        CodeSource codeSource = NinthTestProvider.class.getProtectionDomain().getCodeSource();
+        URL location = (codeSource != null) ? codeSource.getLocation() : null;
+        if (location == null) {
+            throw new SecurityException(Messages.getMessage("error.not_signed"));
+        }
+
+        return new File(location.toURI());
+    }
+
+    /* Returns the configured number of verifier threads (at least one). */
+    private static int getVerifierThreads(final ProviderConfiguration configuration) {
+        int threads = configuration.getInt(ProviderConfiguration.INTEGRITY_THREADS);
+        return (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /* Returns the configured digest cache file, or null if not configured. */
+    private static File getCacheFile(final ProviderConfiguration configuration) {
+        String path = configuration.get(ProviderConfiguration.INTEGRITY_CACHE);
+        return !path.isEmpty() ? new File(path) : null;
+    }
+
+    /* Returns the hex-encoded SHA-256 digest of a file. */
+    static final String digestOf(final File file) throws Exception {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int count = 0;
+            while ((count = in.read(buffer)) != -1) {
+                sha256.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        byte[] digest = sha256.digest();
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /*
+     * Returns the digest recorded in the cache file, or null if the cache file
+     * does not exist or cannot be read.
+     */
+    static final String readCachedDigest(final File cacheFile) {
+        if (!cacheFile.isFile() || (cacheFile.length() > 1024)) {
+            return null;
+        }
+
+        try {
+            InputStream in = new FileInputStream(cacheFile);
+            try {
+                byte[] bytes = new byte[(int) cacheFile.length()];
+                int total = 0;
+                int count = 0;
+                while ((total < bytes.length) && ((count = in.read(bytes, total, bytes.length - total)) != -1)) {
+                    total += count;
+                }
+
+                return new String(bytes, 0, total, "US-ASCII").trim();
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /*
+     * Records the digest of a provider JAR that has just been verified, but
+     * only if the JAR still has the digest that it had before it was verified
+     * (otherwise the JAR was replaced while it was being verified, and the
+     * digest of an unverified JAR could be recorded). Returns whether or not
+     * the digest was recorded.
+     */
+    static final boolean cacheVerifiedDigest(final File cacheFile, final File jarFile, final String digest)
+            throws Exception {
+        if (!digest.equals(digestOf(jarFile))) {
+            return false;
+        }
+
+        writeCachedDigest(cacheFile, digest);
+        return true;
+    }
+
+    /*
+     * Records the digest of a successfully-verified provider JAR.
+     * 
+     * The digest is written to a temporary file that is then renamed, so the
+     * cache file is never seen half-written. Failure to write the cache is not
+     * an integrity failure; the JAR will simply be verified again the next
+     * time.
+     */
+    static final void writeCachedDigest(final File cacheFile, final String digest) {
+        File temporaryFile = null;
+        try {
+            File directory = cacheFile.getAbsoluteFile().getParentFile();
+            if ((directory != null) && !directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+
+            temporaryFile = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+            OutputStream out = new FileOutputStream(temporaryFile);
+            try {
+                out.write(digest.getBytes("US-ASCII"));
+            } finally {
+                out.close();
+            }
+
+            /* renameTo does not replace an existing file on every platform */
+            if (!temporaryFile.renameTo(cacheFile) && (!cacheFile.delete() || !temporaryFile.renameTo(cacheFile))) {
+                throw new IOException(cacheFile.getPath());
+            }
+            temporaryFile = null;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            if (temporaryFile != null) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    /*
+     * Generates the provider signing certificate.
+     */
+    private static X509Certificate getProviderCert() throws CertificateException, IOException {
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        ByteArrayInputStream byteStream = new ByteArrayInputStream(PROVIDER_CERTIFICATE_BYTES);
+        X509Certificate x509 = (X509Certificate) cf.generateCertificate(byteStream);
+        byteStream.close();
+        return x509;
+    }
+
+    private ProviderIntegrity() {
+        /* never instantiated */
+    }
+}
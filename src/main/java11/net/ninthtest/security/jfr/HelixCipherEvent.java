@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for a Helix <tt>Cipher</tt> operation.
+ * 
+ * <p>
+ * This event is disabled by default because it may be recorded for every
+ * <tt>update</tt>; enable <i>net.ninthtest.HelixCipher</i> in the recording
+ * settings to record it.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+@Name("net.ninthtest.HelixCipher")
+@Label("Helix Cipher")
+@Description("A Helix Cipher init, update, doFinal, wrap or unwrap operation")
+@Category({"NinthTest", "Helix"})
+@Enabled(false)
+@StackTrace(false)
+final class HelixCipherEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import net.ninthtest.security.ProviderEvents;
+
+/**
+ * Records NinthTest provider events as Java Flight Recorder events.
+ * 
+ * <p>
+ * This class is loaded reflectively by {@link ProviderEvents} on Java 11 and
+ * later. An event object is only created if its event type is enabled in a
+ * running recording, so disabled events cost no more than a
+ * {@link EventType#isEnabled()} check.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class JfrEventRecorder implements ProviderEvents.Recorder {
+    /* the registered event types (indexed by ProviderEvents kind) */
+    private final EventType[] eventTypes;
+
+    /**
+     * Creates a new <tt>JfrEventRecorder</tt> and registers the event types.
+     */
+    public JfrEventRecorder() {
+        eventTypes = new EventType[] {EventType.getEventType(HelixCipherEvent.class),
+                EventType.getEventType(HelixMacEvent.class), EventType.getEventType(HelixRandomEvent.class),
+                EventType.getEventType(HelixMacFailureEvent.class), EventType.getEventType(ProviderIntegrityEvent.class)};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object begin(int kind) {
+        if (!eventTypes[kind].isEnabled()) {
+            return null;
+        }
+
+        Event event;
+        switch (kind) {
+        case ProviderEvents.CIPHER:
+            event = new HelixCipherEvent();
+            break;
+        case ProviderEvents.MAC:
+            event = new HelixMacEvent();
+            break;
+        case ProviderEvents.RANDOM:
+            event = new HelixRandomEvent();
+            break;
+        case ProviderEvents.MAC_FAILURE:
+            event = new HelixMacFailureEvent();
+            break;
+        default:
+            event = new ProviderIntegrityEvent();
+            break;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit(Object event, int kind, String operation, String mode, long bytes) {
+        Event jfrEvent = (Event) event;
+        jfrEvent.end();
+        if (!jfrEvent.shouldCommit()) {
+            return;
+        }
+
+        switch (kind) {
+        case ProviderEvents.CIPHER:
+            HelixCipherEvent cipherEvent = (HelixCipherEvent) event;
+            cipherEvent.operation = operation;
+            cipherEvent.mode = mode;
+            cipherEvent.bytes = bytes;
+            break;
+        case ProviderEvents.MAC:
+            HelixMacEvent macEvent = (HelixMacEvent) event;
+            macEvent.operation = operation;
+            macEvent.bytes = bytes;
+            break;
+        case ProviderEvents.RANDOM:
+            HelixRandomEvent randomEvent = (HelixRandomEvent) event;
+            randomEvent.operation = operation;
+            randomEvent.bytes = bytes;
+            break;
+        case ProviderEvents.MAC_FAILURE:
+            ((HelixMacFailureEvent) event).bytes = bytes;
+            break;
+        default:
+            ((ProviderIntegrityEvent) event).outcome = operation;
+            break;
+        }
+
+        jfrEvent.commit();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Converts between bytes and the little-endian 32-bit words processed by
+ * Helix (and the 64-bit counter words of the Helix PRNG).
+ * 
+ * <p>
+ * This is the Java 17 implementation (packaged in
+ * <tt>META-INF/versions/17</tt> of the multi-release provider JAR). Each word
+ * is read or written with a single little-endian array view access, which the
+ * JIT compiles to a plain (unaligned) load or store; 64-bit words likewise.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public final class HelixWords {
+    /* a little-endian int view of a byte array */
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    /* a little-endian long view of a byte array */
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Converts bytes into little-endian 32-bit words.
+     * 
+     * @param bytes
+     *            the source bytes
+     * @param byteOffset
+     *            the offset of the first source byte
+     * @param words
+     *            receives the words
+     * @param wordOffset
+     *            the offset of the first word to be written
+     * @param count
+     *            the number of words to convert
+     */
+    public static void toInts(final byte[] bytes, final int byteOffset, final int[] words, final int wordOffset,
+            final int count) {
+        for (int i = 0; i < count; ++i) {
+            words[wordOffset + i] = (int) INT_LE.get(bytes, byteOffset + (i << 2));
+        }
+    }
+
+    /**
+     * Converts 32-bit words into little-endian bytes.
+     * 
+     * @param words
+     *            the source words
+     * @param wordOffset
+     *            the offset of the first source word
+     * @param bytes
+     *            receives the bytes
+     * @param byteOffset
+     *            the offset of the first byte to be written
+     * @param count
+     *            the number of words to convert
+     */
+    public static void toBytes(final int[] words, final int wordOffset, final byte[] bytes, final int byteOffset,
+            final int count) {
+        for (int i = 0; i < count; ++i) {
+            INT_LE.set(bytes, byteOffset + (i << 2), words[wordOffset + i]);
+        }
+    }
+
+    /**
+     * Stores a 64-bit word as eight little-endian bytes.
+     * 
+     * @param bytes
+     *            receives the bytes
+     * @param offset
+     *            the offset of the first byte to be written
+     * @param value
+     *            the word
+     */
+    public static void putLong(final byte[] bytes, final int offset, final long value) {
+        LONG_LE.set(bytes, offset, value);
+    }
+
+    private HelixWords() {
+        /* never instantiated */
+    }
+}
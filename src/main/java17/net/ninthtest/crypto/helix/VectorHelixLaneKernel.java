@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link HelixLaneKernel} that advances one lane per SIMD element using the
+ * Vector API.
+ * 
+ * <p>
+ * This class exists only in the Java 17 classes (<tt>META-INF/versions/17</tt>
+ * of the multi-release provider JAR) and requires the incubating
+ * <tt>jdk.incubator.vector</tt> module to be resolved (e.g. with
+ * <tt>--add-modules jdk.incubator.vector</tt>); {@link HelixEngines} falls
+ * back to the scalar lockstep if it cannot be loaded.
+ * </p>
+ * 
+ * <p>
+ * Each state word of a lane is one element of a vector, so every Helix
+ * operation (32-bit add, XOR and rotate) is a single lane-wise vector
+ * operation. The key word index and block counter are shared by every lane in
+ * a step (all lanes start at block index 8).
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class VectorHelixLaneKernel implements HelixLaneKernel {
+    /* the vector shape (the preferred shape, capped at MAX_LANES elements) */
+    private static final VectorSpecies<Integer> SPECIES =
+            (IntVector.SPECIES_PREFERRED.length() <= HelixMultiLane.MAX_LANES) ? IntVector.SPECIES_PREFERRED
+                    : IntVector.SPECIES_512;
+
+    /**
+     * Creates the kernel.
+     * 
+     * @throws IllegalStateException
+     *             if the preferred vector shape holds fewer than four lanes
+     *             (the scalar lockstep is then at least as fast)
+     */
+    public VectorHelixLaneKernel() {
+        if (SPECIES.length() < 4) {
+            throw new IllegalStateException(SPECIES.toString());
+        }
+    }
+
+    @Override
+    public int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void lockstep(final int[][] k, final int[][] x1, final int[][] z, final int[] in, final int[] out,
+            final int stride, final int lane, final int steps, final boolean encrypt) {
+        IntVector a = IntVector.fromArray(SPECIES, z[0], lane);
+        IntVector b = IntVector.fromArray(SPECIES, z[1], lane);
+        IntVector c = IntVector.fromArray(SPECIES, z[2], lane);
+        IntVector d = IntVector.fromArray(SPECIES, z[3], lane);
+        IntVector e = IntVector.fromArray(SPECIES, z[4], lane);
+
+        for (int s = 0; s < steps; ++s) {
+            int n = 8 + s;
+            int i = n & 7;
+            int counter = ((i & 3) == 3) ? n + (n >> 31) : n;
+            int x = (s * stride) + lane;
+
+            IntVector w = IntVector.fromArray(SPECIES, in, x);
+            IntVector o = w.lanewise(VectorOperators.XOR, a);
+            o.intoArray(out, x);
+            if (!encrypt) {
+                w = o;
+            }
+
+            a = a.add(d);
+            d = d.lanewise(VectorOperators.ROL, 15);
+            b = b.add(e);
+            e = e.lanewise(VectorOperators.ROL, 25);
+            c = c.lanewise(VectorOperators.XOR, a);
+            a = a.lanewise(VectorOperators.ROL, 9);
+            d = d.lanewise(VectorOperators.XOR, b);
+            b = b.lanewise(VectorOperators.ROL, 10);
+            e = e.add(c);
+            c = c.lanewise(VectorOperators.ROL, 17);
+
+            a = a.lanewise(VectorOperators.XOR, d.add(IntVector.fromArray(SPECIES, k[i], lane)));
+            d = d.lanewise(VectorOperators.ROL, 30);
+            b = b.lanewise(VectorOperators.XOR, e);
+            e = e.lanewise(VectorOperators.ROL, 13);
+            c = c.add(a);
+            a = a.lanewise(VectorOperators.ROL, 20);
+            d = d.add(b);
+            b = b.lanewise(VectorOperators.ROL, 11);
+            e = e.lanewise(VectorOperators.XOR, c);
+            c = c.lanewise(VectorOperators.ROL, 5);
+
+            a = a.add(d.lanewise(VectorOperators.XOR, w));
+            d = d.lanewise(VectorOperators.ROL, 15);
+            b = b.add(e);
+            e = e.lanewise(VectorOperators.ROL, 25);
+            c = c.lanewise(VectorOperators.XOR, a);
+            a = a.lanewise(VectorOperators.ROL, 9);
+            d = d.lanewise(VectorOperators.XOR, b);
+            b = b.lanewise(VectorOperators.ROL, 10);
+            e = e.add(c);
+            c = c.lanewise(VectorOperators.ROL, 17);
+
+            a = a.lanewise(VectorOperators.XOR, d.add(IntVector.fromArray(SPECIES, x1[i], lane)).add(counter));
+            d = d.lanewise(VectorOperators.ROL, 30);
+            b = b.lanewise(VectorOperators.XOR, e);
+            e = e.lanewise(VectorOperators.ROL, 13);
+            c = c.add(a);
+            a = a.lanewise(VectorOperators.ROL, 20);
+            d = d.add(b);
+            b = b.lanewise(VectorOperators.ROL, 11);
+            e = e.lanewise(VectorOperators.XOR, c);
+            c = c.lanewise(VectorOperators.ROL, 5);
+        }
+
+        a.intoArray(z[0], lane);
+        b.intoArray(z[1], lane);
+        c.intoArray(z[2], lane);
+        d.intoArray(z[3], lane);
+        e.intoArray(z[4], lane);
+    }
+}
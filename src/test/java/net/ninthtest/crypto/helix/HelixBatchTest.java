@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixBatch}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixBatchTest {
+    /* The number of records per random batch. */
+    private static final int RECORDS = 200;
+
+    /* The executor used for fan-out tests. */
+    private static ExecutorService executor;
+
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17};
+
+    /**
+     * Creates the executor.
+     */
+    @BeforeClass
+    public static void createExecutor() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    /**
+     * Shuts down the executor.
+     */
+    @AfterClass
+    public static void shutDownExecutor() {
+        executor.shutdownNow();
+    }
+
+    /* Creates random nonces. */
+    private static byte[][] randomNonces(final Random random, final int count) {
+        byte[][] nonces = new byte[count][16];
+        for (byte[] nonce : nonces) {
+            random.nextBytes(nonce);
+        }
+
+        return nonces;
+    }
+
+    /* Asserts that every record of an arena matches the reference implementation. */
+    private void assertMatchesReference(final HelixBatch.Arena arena, final byte[][] nonces, final byte[] plainText,
+            final int[] offsets, final int[] lengths) {
+        assertEquals(nonces.length, arena.getCount());
+        for (int r = 0; r < nonces.length; ++r) {
+            byte[][] expected =
+                    ReferenceHelix.encrypt(key, nonces[r], Arrays.copyOfRange(plainText, offsets[r], offsets[r]
+                            + lengths[r]));
+            int offset = arena.getOffset(r);
+            assertArrayEquals("record " + r, expected[0], Arrays.copyOfRange(arena.getBytes(), offset, offset
+                    + arena.getLength(r)));
+            int tag = arena.getTagOffset(r);
+            assertArrayEquals("record " + r, expected[1], Arrays.copyOfRange(arena.getBytes(), tag, tag
+                    + HelixBatch.TAG_LENGTH));
+        }
+    }
+
+    /**
+     * Asserts that a key longer than 32 bytes is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsLongKey() {
+        new HelixBatch(new byte[33]);
+    }
+
+    /**
+     * Asserts that a negative parallel threshold is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsNegativeThreshold() {
+        new HelixBatch(key, executor, -1);
+    }
+
+    /**
+     * Asserts that a slice beyond the end of the plaintext is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void encryptRejectsOutOfBoundsSlice() {
+        new HelixBatch(key).encrypt(new byte[1][16], new byte[8], new int[] {4}, new int[] {5});
+    }
+
+    /**
+     * Asserts that the nonce, offset and length arrays must have the same
+     * length.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void encryptRejectsMismatchedArrays() {
+        new HelixBatch(key).encrypt(new byte[2][16], new byte[8], new int[2], new int[1]);
+    }
+
+    /**
+     * Asserts that an arena whose records are shorter than a tag is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void arenaRejectsShortRecord() {
+        new HelixBatch.Arena(new byte[32], new int[] {0, 16, 31});
+    }
+
+    /**
+     * Asserts that an offsets table whose differences wrap around (so that
+     * every difference looks like a whole tag in int arithmetic) is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void arenaRejectsWrappingOffsets() {
+        new HelixBatch.Arena(new byte[32], new int[] {0, 0x7ffffff0, Integer.MIN_VALUE, -16});
+    }
+
+    /**
+     * Asserts that an offset beyond the records is rejected, even when the
+     * last offset is within them.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void arenaRejectsOffsetBeyondRecords() {
+        new HelixBatch.Arena(new byte[32], new int[] {0, 64, 16});
+    }
+
+    /**
+     * Asserts that a plaintext output shorter than the arena's plaintexts is
+     * rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void decryptRejectsShortOutput() {
+        HelixBatch batch = new HelixBatch(key);
+        HelixBatch.Arena arena = batch.encrypt(new byte[1][16], new byte[8], new int[] {0}, new int[] {8});
+        batch.decrypt(new byte[1][16], arena, new byte[7]);
+    }
+
+    /**
+     * Asserts that an empty batch produces an empty arena.
+     */
+    @Test
+    public void encryptAcceptsEmptyBatch() {
+        HelixBatch.Arena arena = new HelixBatch(key, executor, 0).encrypt(new byte[0][], new byte[0], new int[0],
+                new int[0]);
+        assertEquals(0, arena.getCount());
+        assertEquals(0, arena.getBytes().length);
+        assertTrue(new HelixBatch(key).decrypt(new byte[0][], arena, new byte[0]).isEmpty());
+    }
+
+    /**
+     * Asserts that batches processed on the calling thread and fanned out
+     * across an executor (with several thresholds) match the reference
+     * implementation, and decrypt without failures.
+     */
+    @Test
+    public void batchesMatchReference() {
+        Random random = new Random(0x6261746368L);
+        byte[] plainText = new byte[4096];
+        random.nextBytes(plainText);
+        byte[][] nonces = randomNonces(random, RECORDS);
+        int[] offsets = new int[RECORDS];
+        int[] lengths = new int[RECORDS];
+        for (int r = 0; r < RECORDS; ++r) {
+            lengths[r] = random.nextBoolean() ? random.nextInt(8) : random.nextInt(600);
+            offsets[r] = random.nextInt(plainText.length - lengths[r] + 1);
+        }
+
+        HelixBatch[] batches =
+                new HelixBatch[] {new HelixBatch(key), new HelixBatch(key, executor, 0),
+                        new HelixBatch(key, executor, 1024), new HelixBatch(key, executor, Integer.MAX_VALUE)};
+        for (HelixBatch batch : batches) {
+            HelixBatch.Arena arena = batch.encrypt(nonces, plainText, offsets, lengths);
+            assertMatchesReference(arena, nonces, plainText, offsets, lengths);
+
+            byte[] decrypted = new byte[arena.getPlainTextLength()];
+            assertTrue(batch.decrypt(nonces, arena, decrypted).isEmpty());
+            for (int r = 0; r < RECORDS; ++r) {
+                int offset = arena.getPlainTextOffset(r);
+                assertArrayEquals("record " + r, Arrays.copyOfRange(plainText, offsets[r], offsets[r] + lengths[r]),
+                        Arrays.copyOfRange(decrypted, offset, offset + lengths[r]));
+            }
+        }
+    }
+
+    /**
+     * Asserts that records with an altered ciphertext or tag are reported in
+     * the failure bitset (and their plaintexts zeroed), while the other
+     * records decrypt normally.
+     */
+    @Test
+    public void decryptReportsFailures() {
+        Random random = new Random(0x6661696cL);
+        byte[] plainText = new byte[RECORDS * 32];
+        random.nextBytes(plainText);
+        byte[][] nonces = randomNonces(random, RECORDS);
+        int[] offsets = new int[RECORDS];
+        int[] lengths = new int[RECORDS];
+        for (int r = 0; r < RECORDS; ++r) {
+            offsets[r] = r * 32;
+            lengths[r] = 32;
+        }
+
+        HelixBatch batch = new HelixBatch(key, executor, 256);
+        HelixBatch.Arena arena = batch.encrypt(nonces, plainText, offsets, lengths);
+        arena.getBytes()[arena.getOffset(3) + 7] ^= 0x10;
+        arena.getBytes()[arena.getTagOffset(150) + 15] ^= 0x01;
+
+        byte[] decrypted = new byte[arena.getPlainTextLength()];
+        BitSet failures = batch.decrypt(nonces, arena, decrypted);
+
+        BitSet expected = new BitSet();
+        expected.set(3);
+        expected.set(150);
+        assertEquals(expected, failures);
+        assertArrayEquals(new byte[32], Arrays.copyOfRange(decrypted, 3 * 32, 4 * 32));
+        assertArrayEquals(new byte[32], Arrays.copyOfRange(decrypted, 150 * 32, 151 * 32));
+        assertArrayEquals(Arrays.copyOfRange(plainText, 4 * 32, 150 * 32), Arrays.copyOfRange(decrypted, 4 * 32,
+                150 * 32));
+    }
+
+    /**
+     * Asserts that an arena constructed over received records (not starting
+     * at offset zero) decrypts into contiguous plaintexts.
+     */
+    @Test
+    public void decryptAcceptsReceivedArena() {
+        byte[] plainText = new byte[] {1, 2, 3, 4, 5, 6, 7};
+        byte[][] nonces = new byte[2][16];
+        nonces[1][0] = 1;
+        HelixBatch batch = new HelixBatch(key);
+        HelixBatch.Arena arena = batch.encrypt(nonces, plainText, new int[] {0, 3}, new int[] {3, 4});
+
+        byte[] received = new byte[5 + arena.getBytes().length];
+        System.arraycopy(arena.getBytes(), 0, received, 5, arena.getBytes().length);
+        int[] receivedOffsets = arena.getOffsets();
+        for (int i = 0; i < receivedOffsets.length; ++i) {
+            receivedOffsets[i] += 5;
+        }
+
+        byte[] decrypted = new byte[7];
+        assertTrue(batch.decrypt(nonces, new HelixBatch.Arena(received, receivedOffsets), decrypted).isEmpty());
+        assertArrayEquals(plainText, decrypted);
+    }
+}
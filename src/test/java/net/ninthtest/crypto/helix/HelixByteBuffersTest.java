@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixByteBuffers}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixByteBuffersTest {
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {4, 6, 6, 9, 2, 0, 1, 6, 0, 9};
+
+    /* The nonce used by every test. */
+    private final byte[] nonce = new byte[] {15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0};
+
+    /* Splits bytes into buffers of random lengths, kinds and byte orders. */
+    private static ByteBuffer[] split(final Random random, final byte[] bytes) {
+        int count = random.nextInt(6) + 1;
+        int[] cuts = new int[count + 1];
+        cuts[count] = bytes.length;
+        for (int i = 1; i < count; ++i) {
+            cuts[i] = random.nextInt(bytes.length + 1);
+        }
+        Arrays.sort(cuts);
+
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            int length = cuts[i + 1] - cuts[i];
+            ByteBuffer buffer = random.nextBoolean() ? ByteBuffer.allocateDirect(length + 3) : ByteBuffer.allocate(
+                    length + 3);
+            buffer.order(random.nextBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            buffer.position(random.nextInt(4));
+            buffer.put(bytes, cuts[i], length);
+            buffer.limit(buffer.position()).position(buffer.position() - length);
+            buffers[i] = buffer;
+        }
+
+        return buffers;
+    }
+
+    /* Returns empty buffers (of random lengths) totalling a length. */
+    private static ByteBuffer[] space(final Random random, final int length) {
+        ByteBuffer[] buffers = split(random, new byte[length]);
+        for (ByteBuffer buffer : buffers) {
+            buffer.mark();
+        }
+
+        return buffers;
+    }
+
+    /* Returns the bytes written to buffers since they were marked. */
+    private static byte[] written(final ByteBuffer[] buffers, final int length) {
+        byte[] bytes = new byte[length];
+        int position = 0;
+        for (ByteBuffer buffer : buffers) {
+            ByteBuffer written = buffer.duplicate();
+            int end = written.position();
+            written.reset();
+            written.limit(end);
+            int count = written.remaining();
+            written.get(bytes, position, count);
+            position += count;
+        }
+        assertEquals(length, position);
+
+        return bytes;
+    }
+
+    /**
+     * Asserts that destinations with too little space are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void encryptRejectsInsufficientSpace() {
+        HelixByteBuffers.encrypt(key, nonce, new ByteBuffer[] {ByteBuffer.allocate(10)},
+                new ByteBuffer[] {ByteBuffer.allocate(4), ByteBuffer.allocate(5)});
+    }
+
+    /**
+     * Asserts that decryption into destinations with too little space is
+     * rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void decryptRejectsInsufficientSpace() {
+        HelixByteBuffers.decrypt(key, nonce, new ByteBuffer[] {ByteBuffer.allocate(10)},
+                new ByteBuffer[] {ByteBuffer.allocate(9)}, new byte[16]);
+    }
+
+    /**
+     * Asserts that messages scattered across buffers of every kind, order and
+     * length (so that words straddle buffers) encrypt to the reference
+     * ciphertext and MAC, and decrypt.
+     */
+    @Test
+    public void scatteredMessagesMatchReference() {
+        Random random = new Random(0x73636174L);
+        for (int n = 0; n < 200; ++n) {
+            byte[] plainText = new byte[random.nextInt(5000)];
+            random.nextBytes(plainText);
+            byte[][] expected = ReferenceHelix.encrypt(key, nonce, plainText);
+
+            ByteBuffer[] sources = split(random, plainText);
+            ByteBuffer[] cipherTexts = space(random, plainText.length);
+            byte[] mac = HelixByteBuffers.encrypt(key, nonce, sources, cipherTexts);
+            assertArrayEquals(expected[0], written(cipherTexts, plainText.length));
+            assertArrayEquals(expected[1], mac);
+            for (ByteBuffer source : sources) {
+                assertFalse(source.hasRemaining());
+            }
+
+            ByteBuffer[] plainTexts = space(random, plainText.length);
+            assertTrue(HelixByteBuffers.decrypt(key, nonce, split(random, expected[0]), plainTexts, mac));
+            assertArrayEquals(plainText, written(plainTexts, plainText.length));
+        }
+    }
+
+    /**
+     * Asserts that a message is transformed in place when the destinations
+     * are duplicates of the sources.
+     */
+    @Test
+    public void duplicatesTransformInPlace() {
+        byte[] plainText = new byte[1001];
+        new Random(4L).nextBytes(plainText);
+        byte[][] expected = ReferenceHelix.encrypt(key, nonce, plainText);
+
+        ByteBuffer[] sources =
+                new ByteBuffer[] {ByteBuffer.wrap(plainText, 0, 3), ByteBuffer.wrap(plainText, 3, 498),
+                        ByteBuffer.wrap(plainText, 501, 500)};
+        ByteBuffer[] destinations = new ByteBuffer[sources.length];
+        for (int i = 0; i < sources.length; ++i) {
+            destinations[i] = sources[i].duplicate();
+        }
+
+        assertArrayEquals(expected[1], HelixByteBuffers.encrypt(key, nonce, sources, destinations));
+        assertArrayEquals(expected[0], plainText);
+    }
+
+    /**
+     * Asserts that a forged MAC fails verification and that the plaintext
+     * written is zeroed.
+     */
+    @Test
+    public void forgedMacZeroesPlainText() {
+        byte[] cipherText = ReferenceHelix.encrypt(key, nonce, new byte[] {1, 2, 3, 4, 5, 6, 7})[0];
+        ByteBuffer first = ByteBuffer.allocate(5);
+        ByteBuffer second = ByteBuffer.allocateDirect(5);
+
+        assertFalse(HelixByteBuffers.decrypt(key, nonce, new ByteBuffer[] {ByteBuffer.wrap(cipherText)},
+                new ByteBuffer[] {first, second}, new byte[16]));
+        assertEquals(5, first.position());
+        assertEquals(2, second.position());
+        assertArrayEquals(new byte[5], first.array());
+        assertEquals(0, second.get(0) | second.get(1));
+    }
+}
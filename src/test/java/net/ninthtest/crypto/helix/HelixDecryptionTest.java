@@ -20,10 +20,13 @@
 package net.ninthtest.crypto.helix;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.nio.ByteBuffer;
 
 import net.ninthtest.crypto.MessageAuthenticationException;
+import net.ninthtest.security.Messages;
 import org.junit.Test;
 
 /**
@@ -376,4 +379,67 @@ public class HelixDecryptionTest implements HelixTestVectors {
 
         assertArrayEquals(TEST_VECTOR_3[PLAINTEXT], actualPlainText);
     }
+
+    /* tests for HelixDecryption#finishQuietly(byte[]) */
+
+    /**
+     * Asserts that {@link HelixDecryption#finishQuietly(byte[])} reports a
+     * verified MAC for Helix test vector #3.
+     */
+    @Test
+    public void finishQuietlyReportsVerifiedMac() {
+        HelixDecryption primitive =
+                new HelixDecryption(TEST_VECTOR_3[KEY], TEST_VECTOR_3[NONCE], TEST_VECTOR_3[MAC]);
+        assertEquals(HelixDecryption.MAC_UNVERIFIED, primitive.getMacStatus());
+
+        assertArrayEquals(TEST_VECTOR_3[PLAINTEXT], primitive.finishQuietly(TEST_VECTOR_3[CIPHERTEXT]));
+        assertEquals(HelixDecryption.MAC_VERIFIED, primitive.getMacStatus());
+    }
+
+    /**
+     * Asserts that {@link HelixDecryption#finishQuietly(byte[])} reports a MAC
+     * mismatch (and zeroes the plaintext) instead of throwing an exception.
+     */
+    @Test
+    public void finishQuietlyReportsMacMismatch() {
+        byte[] alteredMac = TEST_VECTOR_3[MAC].clone();
+        alteredMac[15] ^= 0x01;
+        HelixDecryption primitive = new HelixDecryption(TEST_VECTOR_3[KEY], TEST_VECTOR_3[NONCE], alteredMac);
+
+        assertArrayEquals(new byte[TEST_VECTOR_3[PLAINTEXT].length],
+                primitive.finishQuietly(TEST_VECTOR_3[CIPHERTEXT]));
+        assertEquals(HelixDecryption.MAC_MISMATCH, primitive.getMacStatus());
+    }
+
+    /**
+     * Asserts that the MAC status remains unverified when no expected MAC was
+     * specified.
+     */
+    @Test
+    public void finishQuietlyWithoutExpectedMacIsUnverified() {
+        HelixDecryption primitive = new HelixDecryption(TEST_VECTOR_3[KEY], TEST_VECTOR_3[NONCE]);
+
+        assertArrayEquals(TEST_VECTOR_3[PLAINTEXT], primitive.finishQuietly(TEST_VECTOR_3[CIPHERTEXT]));
+        assertEquals(HelixDecryption.MAC_UNVERIFIED, primitive.getMacStatus());
+    }
+
+    /**
+     * Asserts that the {@link MessageAuthenticationException} thrown on MAC
+     * mismatch has no stack trace, but still has a detail message and both
+     * MACs.
+     */
+    @Test
+    public void macMismatchExceptionIsStackless() {
+        byte[] expectedMac = new byte[16];
+        HelixDecryption primitive = new HelixDecryption(TEST_VECTOR_3[KEY], TEST_VECTOR_3[NONCE], expectedMac);
+        try {
+            primitive.finish(TEST_VECTOR_3[CIPHERTEXT]);
+            fail("expected MessageAuthenticationException");
+        } catch (MessageAuthenticationException ex) {
+            assertEquals(0, ex.getStackTrace().length);
+            assertEquals(Messages.getMessage("error.mac_mismatch"), ex.getMessage());
+            assertArrayEquals(expectedMac, ex.getExpectedMac());
+            assertArrayEquals(TEST_VECTOR_3[MAC], ex.getActualMac());
+        }
+    }
 }
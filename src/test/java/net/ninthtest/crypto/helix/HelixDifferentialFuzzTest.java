@@ -0,0 +1,1029 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import net.ninthtest.crypto.MessageAuthenticationException;
+import org.junit.Test;
+
+/**
+ * Differential fuzz tests that compare the Helix engines against the frozen
+ * {@link ReferenceHelix}.
+ * 
+ * <p>
+ * Each case uses a random key (0 to 32 bytes), nonce and plaintext, and feeds
+ * the engine at random boundaries (biased towards the 1- to 3-byte parts and
+ * tails that the engines must buffer and pad). The ciphertext, plaintext and
+ * MAC must be identical to the reference. The whole-message formats built on
+ * the engines (multi-lane batches, segmented files, page ciphers and so on)
+ * are compared with the reference in the same way.
+ * </p>
+ * 
+ * <p>
+ * The number of cases and the seed can be set with the
+ * <i>ninthtest.fuzz.iterations</i> and <i>ninthtest.fuzz.seed</i> system
+ * properties; a failure message always includes the seed and case number so
+ * that it can be reproduced.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixDifferentialFuzzTest implements HelixTestVectors {
+    /* The number of random cases per test. */
+    private static final int ITERATIONS = Integer.getInteger("ninthtest.fuzz.iterations", 500).intValue();
+
+    /* The seed of the first case. */
+    private static final long SEED = Long.getLong("ninthtest.fuzz.seed", 0x4e696e746854L).longValue();
+
+    /* A Helix engine under test. */
+    private interface Engine {
+        HelixPrimitive encryption(byte[] key, byte[] nonce);
+
+        HelixPrimitive decryption(byte[] key, byte[] nonce, byte[] expectedMac);
+    }
+
+    /* A named HelixEngine implementation under test. */
+    private static final class NamedEngine implements Engine {
+        private final String name;
+
+        NamedEngine(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public HelixPrimitive encryption(byte[] key, byte[] nonce) {
+            return new HelixEncryption(key, nonce, HelixEngines.newEngine(name));
+        }
+
+        @Override
+        public HelixPrimitive decryption(byte[] key, byte[] nonce, byte[] expectedMac) {
+            return new HelixDecryption(key, nonce, expectedMac, HelixEngines.newEngine(name));
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /* The engines under test (every engine must match the reference). */
+    private static final Engine[] ENGINES = new Engine[] {new Engine() {
+        @Override
+        public HelixPrimitive encryption(byte[] key, byte[] nonce) {
+            return new HelixEncryption(key, nonce);
+        }
+
+        @Override
+        public HelixPrimitive decryption(byte[] key, byte[] nonce, byte[] expectedMac) {
+            return new HelixDecryption(key, nonce, expectedMac);
+        }
+
+        @Override
+        public String toString() {
+            return "HelixImpl";
+        }
+    }, new NamedEngine(HelixEngines.REFERENCE), new NamedEngine(HelixEngines.SCALAR)};
+
+    /* A whole-message Helix format under test. */
+    private abstract static class MessageEngine {
+        /*
+         * Returns the nonce that the format uses for a message given a random
+         * nonce (formats that derive their nonces fix some of its bytes).
+         */
+        byte[] nonce(final byte[] nonce) {
+            return nonce;
+        }
+
+        /*
+         * Returns {ciphertext, MAC} (the message is encrypted using
+         * nonce(nonce)), or null if the format cannot carry the message.
+         */
+        abstract byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) throws Exception;
+
+        /* Returns the plaintext, or null if the MAC is rejected. */
+        abstract byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) throws Exception;
+    }
+
+    /*
+     * A HelixMultiLane batch of the message and same-length companions (so
+     * that the message is advanced in lockstep whenever lanes >= 4).
+     */
+    private static final class MultiLaneEngine extends MessageEngine {
+        private final HelixMultiLane multiLane;
+
+        MultiLaneEngine(final int lanes) {
+            multiLane = new HelixMultiLane(lanes, false);
+        }
+
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) {
+            byte[][][] batch = batch(key, nonce, plainText);
+            byte[][] cipherTexts = new byte[batch[0].length][];
+            byte[][] macs = new byte[batch[0].length][];
+            multiLane.encrypt(batch[0], batch[1], batch[2], cipherTexts, macs);
+
+            return new byte[][] {cipherTexts[0], macs[0]};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) {
+            byte[][][] batch = batch(key, nonce, cipherText);
+            byte[][] plainTexts = new byte[batch[0].length][];
+            byte[][] macs = new byte[batch[0].length][];
+            multiLane.decrypt(batch[0], batch[1], batch[2], plainTexts, macs);
+
+            /* HelixMultiLane returns the generated MAC for the caller to compare */
+            return Arrays.equals(mac, macs[0]) ? plainTexts[0] : null;
+        }
+
+        /* Returns {keys, nonces, inputs} with the message first. */
+        private byte[][][] batch(final byte[] key, final byte[] nonce, final byte[] input) {
+            int count = multiLane.getLanes();
+            Random random = new Random(Arrays.hashCode(input));
+            byte[][][] batch = new byte[3][count][];
+            batch[0][0] = key;
+            batch[1][0] = nonce;
+            batch[2][0] = input;
+            for (int m = 1; m < count; ++m) {
+                batch[0][m] = randomBytes(random, random.nextInt(33));
+                batch[1][m] = randomBytes(random, 16);
+                batch[2][m] = randomBytes(random, input.length);
+            }
+
+            return batch;
+        }
+
+        @Override
+        public String toString() {
+            return "HelixMultiLane(" + multiLane.getLanes() + " lanes, no kernel)";
+        }
+    }
+
+    /* A HelixBatch arena holding the message as its second record. */
+    private static final class BatchEngine extends MessageEngine {
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) {
+            byte[] slices = new byte[plainText.length + 3];
+            System.arraycopy(plainText, 0, slices, 3, plainText.length);
+            HelixBatch.Arena arena = new HelixBatch(key).encrypt(new byte[][] {nonce, nonce}, slices,
+                    new int[] {0, 3}, new int[] {3, plainText.length});
+
+            byte[] cipherText = new byte[plainText.length];
+            System.arraycopy(arena.getBytes(), arena.getOffset(1), cipherText, 0, cipherText.length);
+            byte[] mac = new byte[16];
+            System.arraycopy(arena.getBytes(), arena.getTagOffset(1), mac, 0, 16);
+
+            return new byte[][] {cipherText, mac};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) {
+            byte[] bytes = new byte[cipherText.length + 16];
+            System.arraycopy(cipherText, 0, bytes, 0, cipherText.length);
+            System.arraycopy(mac, 0, bytes, cipherText.length, 16);
+            byte[] plainText = new byte[cipherText.length];
+            BitSet failures = new HelixBatch(key).decrypt(new byte[][] {nonce},
+                    new HelixBatch.Arena(bytes, new int[] {0, bytes.length}), plainText);
+
+            return failures.isEmpty() ? plainText : null;
+        }
+
+        @Override
+        public String toString() {
+            return "HelixBatch";
+        }
+    }
+
+    /* A HelixStreamTransform fed whole words in random chunks. */
+    private static final class StreamTransformEngine extends MessageEngine {
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) {
+            byte[] cipherText = plainText.clone();
+            byte[] mac = transform(new HelixStreamTransform(key, nonce, true), cipherText);
+
+            return new byte[][] {cipherText, mac};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) {
+            byte[] plainText = cipherText.clone();
+
+            return Arrays.equals(mac, transform(new HelixStreamTransform(key, nonce, false), plainText))
+                    ? plainText : null;
+        }
+
+        /* Transforms the bytes in place and returns the MAC. */
+        private static byte[] transform(final HelixStreamTransform transform, final byte[] bytes) {
+            Random random = new Random(bytes.length);
+            int whole = bytes.length & ~3;
+            int offset = 0;
+            while (offset < whole) {
+                int length = Math.min(4 * randomLength(random, 32), whole - offset);
+                transform.transform(bytes, offset, length);
+                offset += length;
+            }
+
+            return transform.finish(bytes, whole, bytes.length - whole);
+        }
+
+        @Override
+        public String toString() {
+            return "HelixStreamTransform";
+        }
+    }
+
+    /* HelixOutputStream and HelixInputStream with random buffer and part sizes. */
+    private static final class StreamsEngine extends MessageEngine {
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) throws IOException {
+            Random random = new Random(Arrays.hashCode(plainText));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            HelixOutputStream out = new HelixOutputStream(bytes, key, nonce, 36 + random.nextInt(300));
+            int offset = 0;
+            while (offset < plainText.length) {
+                int length = Math.min(randomLength(random, 64), plainText.length - offset);
+                out.write(plainText, offset, length);
+                offset += length;
+            }
+            out.close();
+
+            byte[] stream = bytes.toByteArray();
+            return new byte[][] {Arrays.copyOfRange(stream, 16, stream.length - 16),
+                    Arrays.copyOfRange(stream, stream.length - 16, stream.length)};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) throws IOException {
+            Random random = new Random(Arrays.hashCode(cipherText));
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(nonce);
+            stream.write(cipherText);
+            stream.write(mac);
+
+            HelixInputStream in = new HelixInputStream(new ByteArrayInputStream(stream.toByteArray()), key,
+                    36 + random.nextInt(300));
+            ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+            try {
+                byte[] part = new byte[64];
+                for (int read; (read = in.read(part, 0, 1 + random.nextInt(64))) != -1;) {
+                    plainText.write(part, 0, read);
+                }
+            } catch (IOException ex) {
+                if (ex.getCause() instanceof MessageAuthenticationException) {
+                    return null;
+                }
+                throw ex;
+            } finally {
+                in.close();
+            }
+
+            return plainText.toByteArray();
+        }
+
+        @Override
+        public String toString() {
+            return "HelixOutputStream/HelixInputStream";
+        }
+    }
+
+    /* HelixPipeline with a few small buffers (so that long messages span several) of random sizes. */
+    private static final class PipelineEngine extends MessageEngine {
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            pipeline(key, plainText).encrypt(Channels.newChannel(new ByteArrayInputStream(plainText)),
+                    Channels.newChannel(bytes), nonce);
+
+            byte[] stream = bytes.toByteArray();
+            return new byte[][] {Arrays.copyOfRange(stream, 16, stream.length - 16),
+                    Arrays.copyOfRange(stream, stream.length - 16, stream.length)};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) throws IOException {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(nonce);
+            stream.write(cipherText);
+            stream.write(mac);
+
+            ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+            try {
+                pipeline(key, cipherText).decrypt(Channels.newChannel(new ByteArrayInputStream(stream.toByteArray())),
+                        Channels.newChannel(plainText));
+            } catch (IOException ex) {
+                if (ex.getCause() instanceof MessageAuthenticationException) {
+                    return null;
+                }
+                throw ex;
+            }
+
+            return plainText.toByteArray();
+        }
+
+        @Override
+        public String toString() {
+            return "HelixPipeline";
+        }
+
+        /* Returns a pipeline whose buffer size and count are random (seeded by the message). */
+        private static HelixPipeline pipeline(final byte[] key, final byte[] message) {
+            Random random = new Random(Arrays.hashCode(message));
+            int bufferSize = HelixPipeline.MIN_BUFFER_SIZE + (4 * random.nextInt(16));
+
+            return new HelixPipeline(key, bufferSize, 2 + random.nextInt(3), null);
+        }
+    }
+
+    /*
+     * A single-chunk HelixSegmentedFile (the chunk size is at least the
+     * message length) whose nonce prefix is the first 11 nonce bytes.
+     */
+    private static class SegmentedEngine extends MessageEngine {
+        @Override
+        byte[] nonce(final byte[] nonce) {
+            byte[] chunkNonce = nonce.clone();
+            Arrays.fill(chunkNonce, HelixSegmentedFile.NONCE_PREFIX_LENGTH, 15, (byte) 0);
+            chunkNonce[15] = 1;
+
+            return chunkNonce;
+        }
+
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) throws IOException {
+            int chunkSize = Math.max(HelixSegmentedFile.MIN_CHUNK_SIZE, plainText.length);
+            File in = writeTemporaryFile(plainText);
+            File out = writeTemporaryFile(new byte[0]);
+            RandomAccessFile inFile = new RandomAccessFile(in, "r");
+            RandomAccessFile outFile = new RandomAccessFile(out, "rw");
+            try {
+                new HelixSegmentedFile(key, chunkSize, null).encrypt(inFile.getChannel(), outFile.getChannel(),
+                        Arrays.copyOf(nonce, HelixSegmentedFile.NONCE_PREFIX_LENGTH));
+
+                byte[] segmented = readTemporaryFile(outFile);
+                int header = HelixSegmentedFile.HEADER_LENGTH;
+                return new byte[][] {Arrays.copyOfRange(segmented, header, header + plainText.length),
+                        Arrays.copyOfRange(segmented, header + plainText.length, segmented.length)};
+            } finally {
+                inFile.close();
+                outFile.close();
+                in.delete();
+                out.delete();
+            }
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) throws IOException {
+            File in = writeTemporaryFile(segmentedFile(nonce, cipherText, mac));
+            File out = writeTemporaryFile(new byte[0]);
+            RandomAccessFile inFile = new RandomAccessFile(in, "r");
+            RandomAccessFile outFile = new RandomAccessFile(out, "rw");
+            try {
+                new HelixSegmentedFile(key).decrypt(inFile.getChannel(), outFile.getChannel(), cipherText.length
+                        + HelixSegmentedFile.MIN_CHUNK_SIZE);
+
+                return readTemporaryFile(outFile);
+            } catch (IOException ex) {
+                if (ex.getCause() instanceof MessageAuthenticationException) {
+                    return null;
+                }
+                throw ex;
+            } finally {
+                inFile.close();
+                outFile.close();
+                in.delete();
+                out.delete();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "HelixSegmentedFile";
+        }
+
+        /* Returns the single-chunk segmented file that holds a ciphertext and MAC. */
+        static byte[] segmentedFile(final byte[] nonce, final byte[] cipherText, final byte[] mac)
+                throws IOException {
+            ByteArrayOutputStream segmented = new ByteArrayOutputStream();
+            segmented.write(new byte[] {'H', 'X', 'S', '1'});
+            byte[] chunkSize = new byte[4];
+            HelixWords.toBytes(new int[] {Math.max(HelixSegmentedFile.MIN_CHUNK_SIZE, cipherText.length)}, 0,
+                    chunkSize, 0, 1);
+            segmented.write(chunkSize);
+            segmented.write(nonce, 0, HelixSegmentedFile.NONCE_PREFIX_LENGTH);
+            segmented.write(0);
+            segmented.write(cipherText);
+            segmented.write(mac);
+
+            return segmented.toByteArray();
+        }
+    }
+
+    /*
+     * A single-chunk segmented file read through a HelixSegmentedChannel,
+     * from a random position first and then from the start in random parts.
+     * Empty messages are skipped: the channel only verifies the chunks that a
+     * read covers, and there is nothing to read.
+     */
+    private static final class SegmentedChannelEngine extends SegmentedEngine {
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) throws IOException {
+            return (plainText.length > 0) ? super.encrypt(key, nonce, plainText) : null;
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) throws IOException {
+            Random random = new Random(Arrays.hashCode(cipherText));
+            File in = writeTemporaryFile(segmentedFile(nonce, cipherText, mac));
+            RandomAccessFile inFile = new RandomAccessFile(in, "r");
+            HelixSegmentedChannel channel = new HelixSegmentedChannel(key, inFile.getChannel(), 1);
+            try {
+                ByteBuffer part = ByteBuffer.allocate(64);
+                channel.position(random.nextInt(cipherText.length + 2));
+                channel.read(part);
+
+                ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+                channel.position(0L);
+                for (int read; (read = channel.read(limit(part, 1 + random.nextInt(64)))) != -1;) {
+                    plainText.write(part.array(), 0, read);
+                }
+
+                return plainText.toByteArray();
+            } catch (IOException ex) {
+                if (ex.getCause() instanceof MessageAuthenticationException) {
+                    return null;
+                }
+                throw ex;
+            } finally {
+                channel.close();
+                inFile.close();
+                in.delete();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "HelixSegmentedChannel";
+        }
+    }
+
+    /* A HelixMappedFile with the smallest window (so that long messages span windows). */
+    private static final class MappedEngine extends MessageEngine {
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) throws IOException {
+            byte[] encrypted = transform(new HelixMappedFile(key, HelixMappedFile.MIN_WINDOW_SIZE), plainText, nonce);
+
+            return new byte[][] {Arrays.copyOfRange(encrypted, 16, encrypted.length - 16),
+                    Arrays.copyOfRange(encrypted, encrypted.length - 16, encrypted.length)};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) throws IOException {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            encrypted.write(nonce);
+            encrypted.write(cipherText);
+            encrypted.write(mac);
+
+            try {
+                return transform(new HelixMappedFile(key, HelixMappedFile.MIN_WINDOW_SIZE), encrypted
+                        .toByteArray(), null);
+            } catch (IOException ex) {
+                if (ex.getCause() instanceof MessageAuthenticationException) {
+                    return null;
+                }
+                throw ex;
+            }
+        }
+
+        /* Encrypts (if nonce is not null) or decrypts bytes through temporary files. */
+        private static byte[] transform(final HelixMappedFile mappedFile, final byte[] input, final byte[] nonce)
+                throws IOException {
+            File in = writeTemporaryFile(input);
+            File out = writeTemporaryFile(new byte[0]);
+            RandomAccessFile inFile = new RandomAccessFile(in, "r");
+            RandomAccessFile outFile = new RandomAccessFile(out, "rw");
+            try {
+                if (nonce != null) {
+                    mappedFile.encrypt(inFile.getChannel(), outFile.getChannel(), nonce);
+                } else {
+                    mappedFile.decrypt(inFile.getChannel(), outFile.getChannel());
+                }
+
+                return readTemporaryFile(outFile);
+            } finally {
+                inFile.close();
+                outFile.close();
+                in.delete();
+                out.delete();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "HelixMappedFile";
+        }
+    }
+
+    /*
+     * A HelixPageCipher whose page id and version are the little-endian
+     * halves of the nonce (pages are encrypted in an array, and decrypted in
+     * a direct buffer).
+     */
+    private static final class PageCipherEngine extends MessageEngine {
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) {
+            if (plainText.length == 0) {
+                return null;
+            }
+
+            byte[] page = new byte[plainText.length + 3];
+            System.arraycopy(plainText, 0, page, 3, plainText.length);
+            byte[] tags = new byte[19];
+            new HelixPageCipher(key, plainText.length).encrypt(pageId(nonce), version(nonce), page, 3, tags, 3);
+
+            return new byte[][] {Arrays.copyOfRange(page, 3, page.length), Arrays.copyOfRange(tags, 3, 19)};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) {
+            ByteBuffer page = ByteBuffer.allocateDirect(cipherText.length + 5);
+            page.position(5);
+            page.put(cipherText);
+            page.position(5);
+            if (!new HelixPageCipher(key, cipherText.length).decrypt(pageId(nonce), version(nonce), page, mac, 0)) {
+                return null;
+            }
+
+            byte[] plainText = new byte[cipherText.length];
+            page.get(plainText);
+            return plainText;
+        }
+
+        /* Returns the page id (nonce bytes 0-7). */
+        private static long pageId(final byte[] nonce) {
+            return ByteBuffer.wrap(nonce).order(ByteOrder.LITTLE_ENDIAN).getLong(0);
+        }
+
+        /* Returns the page version (nonce bytes 8-15). */
+        private static long version(final byte[] nonce) {
+            return ByteBuffer.wrap(nonce).order(ByteOrder.LITTLE_ENDIAN).getLong(8);
+        }
+
+        @Override
+        public String toString() {
+            return "HelixPageCipher";
+        }
+    }
+
+    /* An in-memory channel that reads from a byte array and records writes. */
+    private static final class MemoryChannel implements ByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final ByteBuffer readable;
+
+        MemoryChannel(final byte[] bytes) {
+            readable = ByteBuffer.wrap(bytes);
+        }
+
+        @Override
+        public int read(final ByteBuffer destination) {
+            if (!readable.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(destination.remaining(), readable.remaining());
+            ByteBuffer part = readable.duplicate();
+            part.limit(part.position() + count);
+            destination.put(part);
+            readable.position(readable.position() + count);
+
+            return count;
+        }
+
+        @Override
+        public int write(final ByteBuffer source) {
+            int count = source.remaining();
+            while (source.hasRemaining()) {
+                written.write(source.get());
+            }
+
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            /* nothing to close */
+        }
+    }
+
+    /*
+     * The last of a sequence of HelixSocketChannel records: nonce byte 0
+     * (modulo 8) is the record counter and byte 8 (modulo 2) the direction,
+     * so 0 to 7 one-byte records precede the message record.
+     */
+    private static final class SocketRecordEngine extends MessageEngine {
+        @Override
+        byte[] nonce(final byte[] nonce) {
+            byte[] recordNonce = new byte[16];
+            recordNonce[0] = (byte) (nonce[0] & 7);
+            recordNonce[8] = (byte) (nonce[8] & 1);
+
+            return recordNonce;
+        }
+
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) throws IOException {
+            if (plainText.length == 0) {
+                return null;
+            }
+
+            byte[] records = records(key, nonce, plainText);
+            int start = records.length - plainText.length - 16;
+            return new byte[][] {Arrays.copyOfRange(records, start, start + plainText.length),
+                    Arrays.copyOfRange(records, start + plainText.length, records.length)};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) throws IOException {
+            /* replace the ciphertext and MAC of the message record */
+            byte[] records = records(key, nonce, new byte[cipherText.length]);
+            int start = records.length - cipherText.length - 16;
+            System.arraycopy(cipherText, 0, records, start, cipherText.length);
+            System.arraycopy(mac, 0, records, start + cipherText.length, 16);
+
+            HelixSocketChannel reader =
+                    new HelixSocketChannel(new MemoryChannel(records), key, (nonce[8] & 1) != 0, Math.max(1,
+                            cipherText.length));
+            for (int r = 0; r < (nonce[0] & 7); ++r) {
+                reader.read(ByteBuffer.allocate(1));
+            }
+            ByteBuffer plainText = ByteBuffer.allocate(cipherText.length);
+            try {
+                while (plainText.hasRemaining()) {
+                    reader.read(plainText);
+                }
+            } catch (IOException ex) {
+                if (ex.getCause() instanceof MessageAuthenticationException) {
+                    return null;
+                }
+                throw ex;
+            }
+
+            return plainText.array();
+        }
+
+        /* Returns the records written for the one-byte records and the message. */
+        private static byte[] records(final byte[] key, final byte[] nonce, final byte[] message)
+                throws IOException {
+            MemoryChannel records = new MemoryChannel(new byte[0]);
+            HelixSocketChannel writer =
+                    new HelixSocketChannel(records, key, (nonce[8] & 1) == 0, Math.max(1, message.length));
+            for (int r = 0; r < (nonce[0] & 7); ++r) {
+                writer.write(ByteBuffer.allocate(1));
+            }
+            writer.write(ByteBuffer.wrap(message));
+
+            return records.written.toByteArray();
+        }
+
+        @Override
+        public String toString() {
+            return "HelixSocketChannel";
+        }
+    }
+
+    /*
+     * HelixByteBuffers over random scatterings of the message into heap and
+     * direct buffers of either byte order.
+     */
+    private static final class ByteBuffersEngine extends MessageEngine {
+        @Override
+        public byte[][] encrypt(byte[] key, byte[] nonce, byte[] plainText) {
+            Random random = new Random(Arrays.hashCode(plainText));
+            ByteBuffer[] sources = scatter(random, plainText);
+            ByteBuffer[] destinations = scatter(random, new byte[plainText.length]);
+            byte[] mac = HelixByteBuffers.encrypt(key, nonce, sources, destinations);
+
+            return new byte[][] {gather(destinations), mac};
+        }
+
+        @Override
+        public byte[] decrypt(byte[] key, byte[] nonce, byte[] cipherText, byte[] mac) {
+            Random random = new Random(Arrays.hashCode(cipherText));
+            ByteBuffer[] sources = scatter(random, cipherText);
+            ByteBuffer[] destinations = scatter(random, new byte[cipherText.length]);
+
+            return HelixByteBuffers.decrypt(key, nonce, sources, destinations, mac) ? gather(destinations) : null;
+        }
+
+        /*
+         * Returns buffers of random lengths, kinds and byte orders (each a
+         * slice after a random gap, so not word-aligned) holding the bytes.
+         */
+        private static ByteBuffer[] scatter(final Random random, final byte[] bytes) {
+            List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+            int offset = 0;
+            do {
+                int length = Math.min(randomLength(random, 64), bytes.length - offset);
+                int gap = random.nextInt(4);
+                ByteBuffer buffer =
+                        random.nextBoolean() ? ByteBuffer.allocate(gap + length) : ByteBuffer.allocateDirect(gap
+                                + length);
+                buffer.position(gap);
+                ByteBuffer slice = buffer.slice();
+                slice.order(random.nextBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                slice.put(bytes, offset, length).flip();
+                buffers.add(slice);
+                offset += length;
+            } while (offset < bytes.length);
+
+            return buffers.toArray(new ByteBuffer[buffers.size()]);
+        }
+
+        /* Returns the bytes written to (before the positions of) scattered buffers. */
+        private static byte[] gather(final ByteBuffer[] buffers) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (ByteBuffer buffer : buffers) {
+                ByteBuffer written = buffer.duplicate();
+                written.flip();
+                while (written.hasRemaining()) {
+                    bytes.write(written.get());
+                }
+            }
+
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public String toString() {
+            return "HelixByteBuffers";
+        }
+    }
+
+    /* The whole-message formats under test (every format must match the reference). */
+    private static final MessageEngine[] MESSAGE_ENGINES = new MessageEngine[] {new MultiLaneEngine(1),
+            new MultiLaneEngine(4), new MultiLaneEngine(8), new BatchEngine(), new StreamTransformEngine(),
+            new StreamsEngine(), new PipelineEngine(), new SegmentedEngine(), new SegmentedChannelEngine(),
+            new MappedEngine(), new PageCipherEngine(), new SocketRecordEngine(), new ByteBuffersEngine()};
+
+    /* Clears a buffer and sets its limit. */
+    private static ByteBuffer limit(final ByteBuffer buffer, final int limit) {
+        buffer.clear();
+        buffer.limit(limit);
+
+        return buffer;
+    }
+
+    /* Writes bytes to a new temporary file. */
+    private static File writeTemporaryFile(final byte[] bytes) throws IOException {
+        File file = File.createTempFile("fuzz", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    /* Reads the whole of an open file. */
+    private static byte[] readTemporaryFile(final RandomAccessFile file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        file.seek(0L);
+        file.readFully(bytes);
+
+        return bytes;
+    }
+
+    /* Returns a random length, biased towards small and word-unaligned values. */
+    private static int randomLength(final Random random, final int max) {
+        switch (random.nextInt(4)) {
+        case 0:
+            return random.nextInt(4);
+        case 1:
+            return random.nextInt(Math.min(max, 16) + 1);
+        default:
+            return random.nextInt(max + 1);
+        }
+    }
+
+    /* Returns random bytes. */
+    private static byte[] randomBytes(final Random random, final int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+
+        return bytes;
+    }
+
+    /*
+     * Feeds input to a primitive in random parts (the last part is passed to
+     * finish) and returns the concatenated output.
+     */
+    private static byte[] feedInRandomParts(final Random random, final HelixPrimitive primitive, final byte[] input) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length);
+        int offset = 0;
+        while (true) {
+            int length = Math.min(randomLength(random, 64), input.length - offset);
+            byte[] part = new byte[length];
+            System.arraycopy(input, offset, part, 0, length);
+            offset += length;
+
+            if ((offset == input.length) && random.nextBoolean()) {
+                byte[] last = primitive.finish(part);
+                output.write(last, 0, last.length);
+                break;
+            } else if (offset == input.length) {
+                byte[] fed = primitive.feed(part);
+                if (fed != null) {
+                    output.write(fed, 0, fed.length);
+                }
+
+                byte[] last = primitive.finish(new byte[0]);
+                output.write(last, 0, last.length);
+                break;
+            }
+
+            byte[] fed = primitive.feed(part);
+            if (fed != null) {
+                output.write(fed, 0, fed.length);
+            }
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Asserts that the reference implementation reproduces the official Helix
+     * test vectors (so that it is a trustworthy oracle).
+     */
+    @Test
+    public void referenceMatchesTestVectors() {
+        for (byte[][] vector : new byte[][][] {TEST_VECTOR_1, TEST_VECTOR_2, TEST_VECTOR_3}) {
+            byte[][] encrypted = ReferenceHelix.encrypt(vector[KEY], vector[NONCE], vector[PLAINTEXT]);
+            assertArrayEquals(vector[CIPHERTEXT], encrypted[0]);
+            assertArrayEquals(vector[MAC], encrypted[1]);
+
+            byte[][] decrypted = ReferenceHelix.decrypt(vector[KEY], vector[NONCE], vector[CIPHERTEXT]);
+            assertArrayEquals(vector[PLAINTEXT], decrypted[0]);
+            assertArrayEquals(vector[MAC], decrypted[1]);
+        }
+    }
+
+    /**
+     * Asserts that every engine encrypts and decrypts random messages, fed at
+     * random boundaries, exactly like the reference implementation.
+     */
+    @Test
+    public void enginesMatchReference() {
+        for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+            Random random = new Random(SEED + iteration);
+            byte[] key = randomBytes(random, random.nextInt(33));
+            byte[] nonce = randomBytes(random, 16);
+            byte[] plainText = randomBytes(random, randomLength(random, (iteration % 50 == 0) ? 8192 : 256));
+            byte[][] expected = ReferenceHelix.encrypt(key, nonce, plainText);
+
+            for (Engine engine : ENGINES) {
+                String context = engine + " (seed " + (SEED + iteration) + ", case " + iteration + ")";
+
+                HelixPrimitive encryption = engine.encryption(key, nonce);
+                assertArrayEquals(context + " ciphertext", expected[0], feedInRandomParts(random, encryption,
+                        plainText));
+                assertArrayEquals(context + " encryption MAC", expected[1], encryption.getGeneratedMac());
+
+                HelixPrimitive decryption = engine.decryption(key, nonce, expected[1]);
+                assertArrayEquals(context + " plaintext", plainText, feedInRandomParts(random, decryption,
+                        expected[0]));
+                assertArrayEquals(context + " decryption MAC", expected[1], decryption.getGeneratedMac());
+            }
+        }
+    }
+
+    /**
+     * Asserts that every whole-message format encrypts and decrypts random
+     * messages exactly like the reference implementation.
+     * 
+     * @throws Exception
+     *             if a format fails unexpectedly
+     */
+    @Test
+    public void messageEnginesMatchReference() throws Exception {
+        for (int iteration = 0; iteration < (ITERATIONS / 5); ++iteration) {
+            Random random = new Random(SEED + iteration);
+            byte[] key = randomBytes(random, random.nextInt(33));
+            byte[] nonce = randomBytes(random, 16);
+            byte[] plainText = randomBytes(random, randomLength(random, (iteration % 25 == 0) ? 8192 : 256));
+
+            for (MessageEngine engine : MESSAGE_ENGINES) {
+                String context = engine + " (seed " + (SEED + iteration) + ", case " + iteration + ")";
+
+                byte[][] encrypted = engine.encrypt(key, nonce, plainText);
+                if (encrypted == null) {
+                    continue;
+                }
+                byte[][] expected = ReferenceHelix.encrypt(key, engine.nonce(nonce), plainText);
+                assertArrayEquals(context + " ciphertext", expected[0], encrypted[0]);
+                assertArrayEquals(context + " encryption MAC", expected[1], encrypted[1]);
+                assertArrayEquals(context + " plaintext", plainText, engine.decrypt(key, nonce, expected[0],
+                        expected[1]));
+            }
+        }
+    }
+
+    /**
+     * Asserts that every whole-message format rejects a MAC that differs from
+     * the reference MAC in a single bit.
+     * 
+     * @throws Exception
+     *             if a format fails unexpectedly
+     */
+    @Test
+    public void messageEnginesRejectAlteredMac() throws Exception {
+        for (int iteration = 0; iteration < (ITERATIONS / 10); ++iteration) {
+            Random random = new Random(SEED - iteration);
+            byte[] key = randomBytes(random, random.nextInt(33));
+            byte[] nonce = randomBytes(random, 16);
+            byte[] plainText = randomBytes(random, randomLength(random, 256));
+            int alteredByte = random.nextInt(16);
+            byte alteredBit = (byte) (1 << random.nextInt(8));
+
+            for (MessageEngine engine : MESSAGE_ENGINES) {
+                if (engine.encrypt(key, nonce, plainText) == null) {
+                    continue;
+                }
+                byte[][] expected = ReferenceHelix.encrypt(key, engine.nonce(nonce), plainText);
+                byte[] alteredMac = expected[1].clone();
+                alteredMac[alteredByte] ^= alteredBit;
+                assertNull(engine + " accepted an altered MAC (seed " + (SEED - iteration) + ")",
+                        engine.decrypt(key, nonce, expected[0], alteredMac));
+            }
+        }
+    }
+
+    /**
+     * Asserts that every engine rejects a MAC that differs from the reference
+     * MAC in a single bit.
+     */
+    @Test
+    public void enginesRejectAlteredMac() {
+        for (int iteration = 0; iteration < (ITERATIONS / 10); ++iteration) {
+            Random random = new Random(SEED - iteration);
+            byte[] key = randomBytes(random, random.nextInt(33));
+            byte[] nonce = randomBytes(random, 16);
+            byte[] plainText = randomBytes(random, randomLength(random, 256));
+            byte[][] expected = ReferenceHelix.encrypt(key, nonce, plainText);
+            byte[] alteredMac = expected[1].clone();
+            alteredMac[random.nextInt(16)] ^= (byte) (1 << random.nextInt(8));
+
+            for (Engine engine : ENGINES) {
+                try {
+                    feedInRandomParts(random, engine.decryption(key, nonce, alteredMac), expected[0]);
+                    fail(engine + " accepted an altered MAC (seed " + (SEED - iteration) + ")");
+                } catch (MessageAuthenticationException expectedException) {
+                    /* expected */
+                }
+            }
+        }
+    }
+}
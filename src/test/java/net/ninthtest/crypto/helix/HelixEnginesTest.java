@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import net.ninthtest.security.provider.NinthTestProvider;
+import net.ninthtest.security.provider.ProviderConfiguration;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixEngines} and the {@link HelixEngine}
+ * implementations.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixEnginesTest implements HelixTestVectors {
+    /* The names of all engine implementations. */
+    private static final String[] NAMES = new String[] {HelixEngines.REFERENCE, HelixEngines.SCALAR};
+
+    /* A configuration file created by a unit test (if any). */
+    private File configFile;
+
+    /**
+     * Deletes the configuration file.
+     */
+    @After
+    public void deleteConfigFile() {
+        if (configFile != null) {
+            configFile.delete();
+        }
+    }
+
+    /* Returns the configuration of a provider configured with properties. */
+    private ProviderConfiguration configure(final Properties properties) throws Exception {
+        configFile = File.createTempFile("ninthtest", ".properties");
+        OutputStream out = new FileOutputStream(configFile);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+
+        NinthTestProvider provider = new NinthTestProvider();
+        provider.configure(configFile.getPath());
+
+        return provider.getConfiguration();
+    }
+
+    /**
+     * Asserts that the <i>auto</i> engine resolves to the scalar engine.
+     */
+    @Test
+    public void autoSelectsScalarEngine() {
+        assertTrue(HelixEngines.newEngine(HelixEngines.AUTO) instanceof ScalarHelixEngine);
+    }
+
+    /**
+     * Asserts that engine names are not case-sensitive.
+     */
+    @Test
+    public void engineNamesAreNotCaseSensitive() {
+        assertTrue(HelixEngines.newEngine("Reference") instanceof ReferenceHelixEngine);
+    }
+
+    /**
+     * Asserts that an unrecognized engine name is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void newEngineRejectsUnknownName() {
+        HelixEngines.newEngine("quantum");
+    }
+
+    /**
+     * Asserts that a provider configuration selects the engine, without
+     * changing the engine selected by the default configuration.
+     * 
+     * @throws Exception
+     *             if the configuration file cannot be written
+     */
+    @Test
+    public void configurationSelectsEngine() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(ProviderConfiguration.ENGINE, HelixEngines.REFERENCE);
+        ProviderConfiguration configuration = configure(properties);
+
+        assertEquals(HelixEngines.REFERENCE, HelixEngines.getSelectedName(configuration));
+        assertTrue(HelixEngines.newEngine(configuration) instanceof ReferenceHelixEngine);
+        assertEquals(HelixEngines.SCALAR, HelixEngines.getSelectedName(ProviderConfiguration.getDefault()));
+        assertTrue(HelixEngines.newEngine() instanceof ScalarHelixEngine);
+    }
+
+    /**
+     * Asserts that every engine produces the expected working keys, ciphertext
+     * and MACs for the Helix test vectors.
+     */
+    @Test
+    public void enginesProduceTestVectors() {
+        for (String name : NAMES) {
+            for (byte[][] vector : new byte[][][] {TEST_VECTOR_1, TEST_VECTOR_2, TEST_VECTOR_3}) {
+                HelixEncryption encryption =
+                        new HelixEncryption(vector[KEY], vector[NONCE], HelixEngines.newEngine(name));
+                assertArrayEquals(name, vector[WORKING_KEY], encryption.getWorkingKey());
+                assertArrayEquals(name, vector[CIPHERTEXT], encryption.finish(vector[PLAINTEXT]));
+                assertArrayEquals(name, vector[MAC], encryption.getGeneratedMac());
+
+                HelixDecryption decryption =
+                        new HelixDecryption(vector[KEY], vector[NONCE], vector[MAC], HelixEngines.newEngine(name));
+                assertArrayEquals(name, vector[PLAINTEXT], decryption.finish(vector[CIPHERTEXT]));
+            }
+        }
+    }
+
+    /**
+     * Asserts that the engines' encryption and decryption loops may write
+     * their output over their input.
+     */
+    @Test
+    public void enginesTransformInPlace() {
+        for (String name : NAMES) {
+            int[] words = new int[] {1, 2, 3, 4, 5, 6, 7, 8, 9};
+            int[] expected = new int[words.length];
+
+            HelixEngine engine = HelixEngines.newEngine(name);
+            engine.keyMixing(new int[8], 0);
+            engine.nonceMixing(new int[4]);
+            engine.encrypt(words, expected, words.length);
+
+            engine = HelixEngines.newEngine(name);
+            engine.keyMixing(new int[8], 0);
+            engine.nonceMixing(new int[4]);
+            engine.encrypt(words, words, words.length);
+
+            assertArrayEquals(name, expected, words);
+
+            engine = HelixEngines.newEngine(name);
+            engine.keyMixing(new int[8], 0);
+            engine.nonceMixing(new int[4]);
+            engine.decrypt(words, words, words.length, 0xffffffff);
+
+            assertArrayEquals(name, new int[] {1, 2, 3, 4, 5, 6, 7, 8, 9}, words);
+        }
+    }
+}
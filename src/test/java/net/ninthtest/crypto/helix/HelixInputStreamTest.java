@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import net.ninthtest.crypto.MessageAuthenticationException;
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixInputStream}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixInputStreamTest {
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {9, 8, 7, 6, 5, 4, 3, 2, 1};
+
+    /* The nonce used by every test. */
+    private final byte[] nonce = new byte[] {16, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1};
+
+    /* Encrypts a plaintext with HelixOutputStream. */
+    private byte[] encryptedStream(final byte[] plainText) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelixOutputStream stream = new HelixOutputStream(out, key, nonce);
+        stream.write(plainText);
+        stream.close();
+
+        return out.toByteArray();
+    }
+
+    /* Reads a stream to the end in parts of random sizes. */
+    private static byte[] readFully(final Random random, final HelixInputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] part = new byte[5000];
+        while (true) {
+            if (random.nextInt(4) == 0) {
+                int b = stream.read();
+                if (b < 0) {
+                    break;
+                }
+                out.write(b);
+            } else {
+                int read = stream.read(part, 0, random.nextInt(part.length) + 1);
+                if (read < 0) {
+                    break;
+                }
+                out.write(part, 0, read);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /* Asserts that reading (or closing) a stream fails MAC verification. */
+    private void assertMacMismatch(final byte[] encrypted, final boolean read) throws IOException {
+        HelixInputStream stream = new HelixInputStream(new ByteArrayInputStream(encrypted), key, 64);
+        try {
+            if (read) {
+                readFully(new Random(0L), stream);
+            } else {
+                stream.close();
+            }
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        }
+    }
+
+    /**
+     * Asserts that a buffer size too small to hold back the MAC is rejected.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsTinyBuffer() throws IOException {
+        new HelixInputStream(new ByteArrayInputStream(encryptedStream(new byte[0])), key, 35);
+    }
+
+    /**
+     * Asserts that a stream shorter than the nonce is rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void constructorRejectsMissingNonce() throws IOException {
+        new HelixInputStream(new ByteArrayInputStream(new byte[15]), key);
+    }
+
+    /**
+     * Asserts that a stream without a complete MAC is rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void readRejectsTruncatedStream() throws IOException {
+        byte[] encrypted = encryptedStream(new byte[10]);
+        byte[] truncated = new byte[16 + 10];
+        System.arraycopy(encrypted, 0, truncated, 0, truncated.length);
+
+        readFully(new Random(0L), new HelixInputStream(new ByteArrayInputStream(truncated), key));
+    }
+
+    /**
+     * Asserts that streams of random lengths decrypt (through buffers of
+     * several sizes) to the original plaintext.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void randomStreamsRoundTrip() throws IOException {
+        Random random = new Random(0x696eL);
+        for (int bufferSize : new int[] {36, 37, 100, 4096, HelixInputStream.DEFAULT_BUFFER_SIZE}) {
+            for (int n = 0; n < 5; ++n) {
+                byte[] plainText = new byte[(n == 0) ? random.nextInt(4) : random.nextInt(30000)];
+                random.nextBytes(plainText);
+
+                HelixInputStream stream =
+                        new HelixInputStream(new ByteArrayInputStream(encryptedStream(plainText)), key, bufferSize);
+                assertArrayEquals("buffer size " + bufferSize, plainText, readFully(random, stream));
+                assertEquals(-1, stream.read());
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Asserts that skipped bytes are still authenticated.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void skipReadsThrough() throws IOException {
+        byte[] plainText = new byte[1000];
+        new Random(1L).nextBytes(plainText);
+        HelixInputStream stream = new HelixInputStream(new ByteArrayInputStream(encryptedStream(plainText)), key);
+
+        assertEquals(990L, stream.skip(990L));
+        byte[] rest = new byte[10];
+        assertEquals(10, stream.read(rest));
+        assertEquals(plainText[990], rest[0]);
+        assertEquals(0L, stream.skip(1L));
+        stream.close();
+    }
+
+    /**
+     * Asserts that an altered ciphertext byte fails MAC verification at the
+     * end of the stream.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void alteredCipherTextFailsAtEnd() throws IOException {
+        byte[] encrypted = encryptedStream(new byte[500]);
+        encrypted[16 + 123] ^= 0x04;
+
+        assertMacMismatch(encrypted, true);
+    }
+
+    /**
+     * Asserts that an altered MAC fails verification when the stream is closed
+     * before it has been read to the end.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void alteredMacFailsOnClose() throws IOException {
+        byte[] encrypted = encryptedStream(new byte[500]);
+        encrypted[encrypted.length - 1] ^= 0x01;
+
+        assertMacMismatch(encrypted, false);
+    }
+
+    /* Encrypts a plaintext with HelixOutputStream and a codec. */
+    private byte[] encryptedStream(final byte[] plainText, final int codec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelixOutputStream stream = new HelixOutputStream(out, key, nonce, 4096, codec);
+        stream.write(plainText);
+        stream.close();
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Asserts that deflate-compressed streams decrypt and decompress (through
+     * buffers of several sizes) to the original plaintext.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void deflateStreamsRoundTrip() throws IOException {
+        Random random = new Random(0x7a6970L);
+        for (int bufferSize : new int[] {36, 100, 4096, HelixInputStream.DEFAULT_BUFFER_SIZE}) {
+            for (int n = 0; n < 5; ++n) {
+                byte[] plainText = new byte[(n == 0) ? random.nextInt(4) : random.nextInt(30000)];
+                for (int i = 0; i < plainText.length; ++i) {
+                    plainText[i] = (byte) random.nextInt((n % 2 == 0) ? 4 : 256);
+                }
+
+                byte[] encrypted = encryptedStream(plainText, HelixOutputStream.CODEC_DEFLATE);
+                HelixInputStream stream =
+                        new HelixInputStream(new ByteArrayInputStream(encrypted), key, bufferSize, true);
+                assertArrayEquals("buffer size " + bufferSize, plainText, readFully(random, stream));
+                assertEquals(-1, stream.read());
+                assertEquals(0, stream.available());
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Asserts that a stream written without compression but with a codec byte
+     * reads back unchanged.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void uncompressedCodecStreamRoundTrips() throws IOException {
+        byte[] plainText = new byte[1000];
+        new Random(2L).nextBytes(plainText);
+        byte[] encrypted = encryptedStream(plainText, HelixOutputStream.CODEC_NONE);
+
+        HelixInputStream stream = new HelixInputStream(new ByteArrayInputStream(encrypted), key, 64, true);
+        assertArrayEquals(plainText, readFully(new Random(3L), stream));
+        stream.close();
+    }
+
+    /**
+     * Asserts that skipping through a compressed stream skips plaintext bytes.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void skipReadsThroughCompressedStream() throws IOException {
+        byte[] plainText = new byte[10000];
+        for (int i = 0; i < plainText.length; ++i) {
+            plainText[i] = (byte) (i / 100);
+        }
+        byte[] encrypted = encryptedStream(plainText, HelixOutputStream.CODEC_DEFLATE);
+        HelixInputStream stream = new HelixInputStream(new ByteArrayInputStream(encrypted), key, 64, true);
+
+        assertEquals(9990L, stream.skip(9990L));
+        assertEquals(plainText[9990], (byte) stream.read());
+        assertEquals(9L, stream.skip(100L));
+        assertEquals(-1, stream.read());
+        stream.close();
+    }
+
+    /**
+     * Asserts that skipping zero or a negative number of bytes skips nothing,
+     * whether or not the stream is compressed.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void skipIgnoresNonPositiveCounts() throws IOException {
+        byte[] plainText = new byte[1000];
+        new Random(4L).nextBytes(plainText);
+        for (int codec : new int[] {HelixOutputStream.CODEC_NONE, HelixOutputStream.CODEC_DEFLATE}) {
+            byte[] encrypted = encryptedStream(plainText, codec);
+            HelixInputStream stream = new HelixInputStream(new ByteArrayInputStream(encrypted), key, 64, true);
+
+            assertEquals(0L, stream.skip(0L));
+            assertEquals(0L, stream.skip(-1L));
+            assertEquals(0L, stream.skip(Long.MIN_VALUE));
+            assertEquals(10L, stream.skip(10L));
+            assertEquals(0L, stream.skip(-10L));
+            assertEquals(plainText[10], (byte) stream.read());
+            assertEquals(989L, stream.skip(500L) + stream.skip(500L));
+            assertEquals(-1, stream.read());
+            stream.close();
+        }
+    }
+
+    /**
+     * Asserts that skipping through a closed stream fails.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void skipFailsWhenClosed() throws IOException {
+        byte[] encrypted = encryptedStream(new byte[100], HelixOutputStream.CODEC_DEFLATE);
+        HelixInputStream stream = new HelixInputStream(new ByteArrayInputStream(encrypted), key, 64, true);
+        stream.close();
+
+        stream.skip(0L);
+    }
+
+    /**
+     * Asserts that an unknown codec byte is rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void constructorRejectsUnknownCodec() throws IOException {
+        new HelixInputStream(new ByteArrayInputStream(encryptedStream(new byte[] {7, 0, 0})), key, 64, true);
+    }
+
+    /**
+     * Asserts that an altered compressed stream is rejected (as invalid
+     * compressed data, or by MAC verification).
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void alteredCompressedStreamIsRejected() throws IOException {
+        byte[] plainText = new byte[5000];
+        new Random(4L).nextBytes(plainText);
+        byte[] encrypted = encryptedStream(plainText, HelixOutputStream.CODEC_DEFLATE);
+
+        for (int index : new int[] {17, 16 + 200, encrypted.length - 17, encrypted.length - 1}) {
+            byte[] altered = encrypted.clone();
+            altered[index] ^= 0x10;
+            try {
+                readFully(new Random(5L), new HelixInputStream(new ByteArrayInputStream(altered), key, 64, true));
+                fail("expected IOException (altered byte " + index + ")");
+            } catch (IOException ex) {
+                /* expected */
+            }
+        }
+    }
+}
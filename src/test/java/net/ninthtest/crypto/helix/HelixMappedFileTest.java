@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import net.ninthtest.crypto.MessageAuthenticationException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The unit test case for {@link HelixMappedFile}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixMappedFileTest {
+    /** The directory for the test files. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {1, 4, 1, 4, 2, 1, 3, 5, 6, 2};
+
+    /* The nonce used by every test. */
+    private final byte[] nonce = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    /* The mapped file (with the smallest window, so that files span windows). */
+    private final HelixMappedFile mapped = new HelixMappedFile(key, HelixMappedFile.MIN_WINDOW_SIZE);
+
+    /* Writes bytes to a new temporary file. */
+    private File write(final byte[] bytes) throws IOException {
+        File file = folder.newFile();
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    /* Reads a whole file. */
+    private static byte[] read(final File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * A file channel that refuses to truncate (as Windows does while any part
+     * of a file is mapped).
+     */
+    private static final class UntruncatableChannel extends FileChannel {
+        private final FileChannel channel;
+
+        UntruncatableChannel(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public FileChannel truncate(final long size) throws IOException {
+            throw new IOException("the file is mapped");
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(final long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public void force(final boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(final long position, final long count, final WritableByteChannel target)
+                throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(final ReadableByteChannel src, final long position, final long count)
+                throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(final ByteBuffer dst, final long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(final ByteBuffer src, final long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(final long position, final long size, final boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(final long position, final long size, final boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+
+    /* Encrypts (or decrypts) one file into another with the mapped file. */
+    private File transform(final File file, final boolean encrypt) throws IOException {
+        File result = folder.newFile();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        RandomAccessFile out = new RandomAccessFile(result, "rw");
+        try {
+            if (encrypt) {
+                mapped.encrypt(in.getChannel(), out.getChannel(), nonce);
+            } else {
+                mapped.decrypt(in.getChannel(), out.getChannel());
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Asserts that a window size that is not a multiple of four is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsUnalignedWindowSize() {
+        new HelixMappedFile(key, HelixMappedFile.MIN_WINDOW_SIZE + 1);
+    }
+
+    /**
+     * Asserts that files of lengths around the window boundaries are
+     * encrypted in the {@link HelixOutputStream} format and round-trip.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void filesRoundTripInStreamFormat() throws IOException {
+        Random random = new Random(0x6d6d6170L);
+        for (int length : new int[] {0, 1, 3, 4095, 4096, 4097, 10003}) {
+            byte[] plainText = new byte[length];
+            random.nextBytes(plainText);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            HelixOutputStream stream = new HelixOutputStream(expected, key, nonce);
+            stream.write(plainText);
+            stream.close();
+
+            File encrypted = transform(write(plainText), true);
+            assertArrayEquals("length " + length, expected.toByteArray(), read(encrypted));
+            assertArrayEquals("length " + length, plainText, read(transform(encrypted, false)));
+        }
+    }
+
+    /**
+     * Asserts that an altered byte fails verification and that the output is
+     * truncated.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void alteredByteFailsAndTruncatesOutput() throws IOException {
+        byte[] encrypted = read(transform(write(new byte[9000]), true));
+        encrypted[5000] ^= 0x04;
+
+        File decrypted = folder.newFile();
+        RandomAccessFile in = new RandomAccessFile(write(encrypted), "r");
+        RandomAccessFile out = new RandomAccessFile(decrypted, "rw");
+        try {
+            mapped.decrypt(in.getChannel(), out.getChannel());
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+            assertEquals(0L, out.length());
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Asserts that, when the platform refuses to truncate the output, a
+     * failed verification still throws the MAC failure and leaves no
+     * plaintext in the output.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void refusedTruncationStillZeroesOutput() throws IOException {
+        byte[] plainText = new byte[9000];
+        new Random(0x7a65726fL).nextBytes(plainText);
+        byte[] encrypted = read(transform(write(plainText), true));
+        encrypted[5000] ^= 0x04;
+
+        File decrypted = folder.newFile();
+        RandomAccessFile in = new RandomAccessFile(write(encrypted), "r");
+        RandomAccessFile out = new RandomAccessFile(decrypted, "rw");
+        try {
+            mapped.decrypt(in.getChannel(), new UntruncatableChannel(out.getChannel()));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        assertArrayEquals(new byte[plainText.length], read(decrypted));
+    }
+
+    /**
+     * Asserts that an output file that is no longer than the result is
+     * overwritten without being truncated.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void outputIsOnlyTruncatedWhenLonger() throws IOException {
+        byte[] plainText = new byte[5000];
+        new Random(0x6c6f6e67L).nextBytes(plainText);
+        File encrypted = transform(write(plainText), true);
+        byte[] expected = read(encrypted);
+
+        File reused = write(new byte[expected.length - 1]);
+        RandomAccessFile in = new RandomAccessFile(write(plainText), "r");
+        RandomAccessFile out = new RandomAccessFile(reused, "rw");
+        try {
+            mapped.encrypt(in.getChannel(), new UntruncatableChannel(out.getChannel()), nonce);
+        } finally {
+            in.close();
+            out.close();
+        }
+        assertArrayEquals(expected, read(reused));
+
+        File decrypted = write(new byte[plainText.length + 100]);
+        in = new RandomAccessFile(encrypted, "r");
+        out = new RandomAccessFile(decrypted, "rw");
+        try {
+            mapped.decrypt(in.getChannel(), out.getChannel());
+        } finally {
+            in.close();
+            out.close();
+        }
+        assertArrayEquals(plainText, read(decrypted));
+    }
+
+    /**
+     * Asserts that a file too short to hold a nonce and MAC is rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void decryptRejectsShortFile() throws IOException {
+        transform(write(new byte[31]), false);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixMultiLane}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixMultiLaneTest implements HelixTestVectors {
+    /* Creates a batch of random messages (of uneven lengths). */
+    private static byte[][][] randomBatch(final Random random, final int count) {
+        byte[][] keys = new byte[count][];
+        byte[][] nonces = new byte[count][];
+        byte[][] plainTexts = new byte[count][];
+        for (int m = 0; m < count; ++m) {
+            keys[m] = new byte[random.nextInt(33)];
+            random.nextBytes(keys[m]);
+            nonces[m] = new byte[16];
+            random.nextBytes(nonces[m]);
+            plainTexts[m] = new byte[random.nextBoolean() ? random.nextInt(16) : random.nextInt(300)];
+            random.nextBytes(plainTexts[m]);
+        }
+
+        return new byte[][][] {keys, nonces, plainTexts};
+    }
+
+    /**
+     * Asserts that the number of lanes must be between 1 and
+     * {@link HelixMultiLane#MAX_LANES}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsTooManyLanes() {
+        new HelixMultiLane(HelixMultiLane.MAX_LANES + 1);
+    }
+
+    /**
+     * Asserts that the number of lanes must be positive.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsZeroLanes() {
+        new HelixMultiLane(0);
+    }
+
+    /**
+     * Asserts that the batch arrays must all have the same length.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void encryptRejectsMismatchedArrays() {
+        new HelixMultiLane(4).encrypt(new byte[2][32], new byte[2][16], new byte[2][0], new byte[1][], new byte[2][]);
+    }
+
+    /**
+     * Asserts that a message with an invalid nonce is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void encryptRejectsInvalidNonce() {
+        new HelixMultiLane(4).encrypt(new byte[1][32], new byte[1][15], new byte[1][0], new byte[1][], new byte[1][]);
+    }
+
+    /**
+     * Asserts that an output array shorter than its input is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void decryptRejectsShortOutput() {
+        new HelixMultiLane(4).decrypt(new byte[1][32], new byte[1][16], new byte[][] {new byte[8]},
+                new byte[][] {new byte[7]}, new byte[1][]);
+    }
+
+    /**
+     * Asserts that an empty batch is accepted.
+     */
+    @Test
+    public void encryptAcceptsEmptyBatch() {
+        new HelixMultiLane(4).encrypt(new byte[0][], new byte[0][], new byte[0][], new byte[0][], new byte[0][]);
+    }
+
+    /**
+     * Asserts that a batch of the Helix test vectors produces the expected
+     * ciphertexts and MACs, and decrypts to the expected plaintexts.
+     */
+    @Test
+    public void batchProducesTestVectors() {
+        byte[][][] vectors = new byte[][][] {TEST_VECTOR_1, TEST_VECTOR_2, TEST_VECTOR_3};
+        byte[][] keys = new byte[vectors.length][];
+        byte[][] nonces = new byte[vectors.length][];
+        byte[][] plainTexts = new byte[vectors.length][];
+        byte[][] cipherTexts = new byte[vectors.length][];
+        for (int m = 0; m < vectors.length; ++m) {
+            keys[m] = vectors[m][KEY];
+            nonces[m] = vectors[m][NONCE];
+            plainTexts[m] = vectors[m][PLAINTEXT];
+            cipherTexts[m] = vectors[m][CIPHERTEXT];
+        }
+
+        byte[][] encrypted = new byte[vectors.length][];
+        byte[][] encryptionMacs = new byte[vectors.length][];
+        new HelixMultiLane(4).encrypt(keys, nonces, plainTexts, encrypted, encryptionMacs);
+
+        byte[][] decrypted = new byte[vectors.length][];
+        byte[][] decryptionMacs = new byte[vectors.length][];
+        new HelixMultiLane(4).decrypt(keys, nonces, cipherTexts, decrypted, decryptionMacs);
+
+        for (int m = 0; m < vectors.length; ++m) {
+            assertArrayEquals(vectors[m][CIPHERTEXT], encrypted[m]);
+            assertArrayEquals(vectors[m][MAC], encryptionMacs[m]);
+            assertArrayEquals(vectors[m][PLAINTEXT], decrypted[m]);
+            assertArrayEquals(vectors[m][MAC], decryptionMacs[m]);
+        }
+    }
+
+    /**
+     * Asserts that every lane count produces the same ciphertexts, plaintexts
+     * and MACs as the reference implementation for random batches of uneven
+     * lengths.
+     */
+    @Test
+    public void batchesMatchReference() {
+        Random random = new Random(0x6c616e6573L);
+        for (int lanes = 1; lanes <= HelixMultiLane.MAX_LANES; ++lanes) {
+            HelixMultiLane multiLane = new HelixMultiLane(lanes);
+            for (int n = 0; n < 10; ++n) {
+                int count = random.nextInt(3 * lanes) + 1;
+                byte[][][] batch = randomBatch(random, count);
+
+                byte[][] cipherTexts = new byte[count][];
+                byte[][] encryptionMacs = new byte[count][];
+                multiLane.encrypt(batch[0], batch[1], batch[2], cipherTexts, encryptionMacs);
+
+                byte[][] plainTexts = new byte[count][];
+                byte[][] decryptionMacs = new byte[count][];
+                multiLane.decrypt(batch[0], batch[1], cipherTexts, plainTexts, decryptionMacs);
+
+                for (int m = 0; m < count; ++m) {
+                    String message = "lanes " + lanes + ", batch " + n + ", message " + m;
+                    byte[][] expected = ReferenceHelix.encrypt(batch[0][m], batch[1][m], batch[2][m]);
+                    assertArrayEquals(message, expected[0], cipherTexts[m]);
+                    assertArrayEquals(message, expected[1], encryptionMacs[m]);
+                    assertArrayEquals(message, batch[2][m], plainTexts[m]);
+                    assertArrayEquals(message, expected[1], decryptionMacs[m]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Asserts that caller-supplied output arrays longer than the input are
+     * filled only up to the input length.
+     */
+    @Test
+    public void encryptWritesIntoSuppliedOutput() {
+        byte[] plainText = new byte[] {1, 2, 3, 4, 5};
+        byte[] cipherText = new byte[8];
+        byte[] mac = new byte[16];
+
+        new HelixMultiLane(8).encrypt(new byte[][] {new byte[32]}, new byte[][] {new byte[16]},
+                new byte[][] {plainText}, new byte[][] {cipherText}, new byte[][] {mac});
+
+        byte[][] expected = ReferenceHelix.encrypt(new byte[32], new byte[16], plainText);
+        assertArrayEquals(expected[0], Arrays.copyOf(cipherText, 5));
+        assertEquals(0, cipherText[5] | cipherText[6] | cipherText[7]);
+        assertArrayEquals(expected[1], mac);
+    }
+
+    /**
+     * Asserts that the batch MACs are the MACs generated by the reference
+     * implementation.
+     */
+    @Test
+    public void macMatchesReference() {
+        Random random = new Random(0x6d616373L);
+        byte[][][] batch = randomBatch(random, 3 * HelixMultiLane.MAX_LANES);
+        byte[][] macs = new byte[batch[0].length][];
+
+        new HelixMultiLane(HelixMultiLane.MAX_LANES).mac(batch[0], batch[1], batch[2], macs);
+
+        for (int m = 0; m < macs.length; ++m) {
+            assertArrayEquals("message " + m, ReferenceHelix.encrypt(batch[0][m], batch[1][m], batch[2][m])[1],
+                    macs[m]);
+        }
+    }
+}
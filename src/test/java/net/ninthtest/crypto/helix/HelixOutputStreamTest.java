@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixOutputStream}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixOutputStreamTest {
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {9, 8, 7, 6, 5, 4, 3, 2, 1};
+
+    /* The nonce used by every test. */
+    private final byte[] nonce = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    /* Returns the expected stream: nonce, ciphertext, MAC. */
+    private byte[] expectedStream(final byte[] plainText) {
+        byte[][] encrypted = ReferenceHelix.encrypt(key, nonce, plainText);
+        byte[] expected = new byte[16 + plainText.length + 16];
+        System.arraycopy(nonce, 0, expected, 0, 16);
+        System.arraycopy(encrypted[0], 0, expected, 16, plainText.length);
+        System.arraycopy(encrypted[1], 0, expected, 16 + plainText.length, 16);
+
+        return expected;
+    }
+
+    /**
+     * Asserts that a buffer size smaller than one word is rejected.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsTinyBuffer() throws IOException {
+        new HelixOutputStream(new ByteArrayOutputStream(), key, nonce, 3);
+    }
+
+    /**
+     * Asserts that an empty stream is written as the nonce and the MAC.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void emptyStreamHasNonceAndMac() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HelixOutputStream(out, key, nonce).close();
+
+        assertArrayEquals(expectedStream(new byte[0]), out.toByteArray());
+    }
+
+    /**
+     * Asserts that writes of random sizes (with intermittent flushes) through
+     * buffers of several sizes produce the reference ciphertext and MAC.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void randomWritesMatchReference() throws IOException {
+        Random random = new Random(0x6f7574L);
+        for (int bufferSize : new int[] {4, 7, 64, 4096, HelixOutputStream.DEFAULT_BUFFER_SIZE}) {
+            byte[] plainText = new byte[random.nextInt(20000)];
+            random.nextBytes(plainText);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HelixOutputStream stream = new HelixOutputStream(out, key, nonce, bufferSize);
+            for (int offset = 0; offset < plainText.length;) {
+                switch (random.nextInt(4)) {
+                case 0:
+                    stream.write(plainText[offset++]);
+                    break;
+                case 1:
+                    stream.flush();
+                    break;
+                default:
+                    int length = Math.min(random.nextInt(3000), plainText.length - offset);
+                    stream.write(plainText, offset, length);
+                    offset += length;
+                }
+            }
+            stream.close();
+
+            assertArrayEquals("buffer size " + bufferSize, expectedStream(plainText), out.toByteArray());
+        }
+    }
+
+    /**
+     * Asserts that closing a stream twice writes the MAC only once.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void closeIsIdempotent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelixOutputStream stream = new HelixOutputStream(out, key, nonce);
+        stream.write(new byte[] {1, 2, 3});
+        stream.close();
+        stream.close();
+
+        assertArrayEquals(expectedStream(new byte[] {1, 2, 3}), out.toByteArray());
+    }
+
+    /**
+     * Asserts that writing to a closed stream is rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void writeAfterCloseIsRejected() throws IOException {
+        HelixOutputStream stream = new HelixOutputStream(new ByteArrayOutputStream(), key, nonce);
+        stream.close();
+        stream.write(1);
+    }
+
+    /**
+     * Asserts that the caller's plaintext array is not modified.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void writeDoesNotModifyInput() throws IOException {
+        byte[] plainText = new byte[100];
+        Arrays.fill(plainText, (byte) 0x5a);
+        HelixOutputStream stream = new HelixOutputStream(new ByteArrayOutputStream(), key, nonce, 8);
+        stream.write(plainText);
+        stream.close();
+
+        byte[] expected = new byte[100];
+        Arrays.fill(expected, (byte) 0x5a);
+        assertArrayEquals(expected, plainText);
+    }
+
+    /**
+     * Asserts that an unknown codec is rejected.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsUnknownCodec() throws IOException {
+        new HelixOutputStream(new ByteArrayOutputStream(), key, nonce, 64, 2);
+    }
+
+    /**
+     * Asserts that the codec byte is encrypted (and authenticated) as the first
+     * byte of the message.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void codecByteIsFirstMessageByte() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelixOutputStream stream = new HelixOutputStream(out, key, nonce, 8, HelixOutputStream.CODEC_NONE);
+        stream.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+        stream.close();
+
+        byte[] expected = expectedStream(new byte[] {HelixOutputStream.CODEC_NONE, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    /**
+     * Asserts that the deflate codec compresses compressible plaintext, and
+     * that the stream is the encryption of the codec byte and the raw deflate
+     * data.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void deflateCodecCompressesPlainText() throws IOException {
+        byte[] plainText = new byte[100000];
+        for (int i = 0; i < plainText.length; ++i) {
+            plainText[i] = (byte) ('a' + (i % 7));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelixOutputStream stream = new HelixOutputStream(out, key, nonce, 64, HelixOutputStream.CODEC_DEFLATE);
+        stream.write(plainText, 0, 50000);
+        for (int i = 50000; i < plainText.length; ++i) {
+            stream.write(plainText[i]);
+        }
+        stream.close();
+        byte[] encrypted = out.toByteArray();
+        assertTrue(encrypted.length < plainText.length / 10);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(plainText);
+        deflater.finish();
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        message.write(HelixOutputStream.CODEC_DEFLATE);
+        byte[] part = new byte[4096];
+        while (!deflater.finished()) {
+            message.write(part, 0, deflater.deflate(part));
+        }
+        deflater.end();
+        assertArrayEquals(expectedStream(message.toByteArray()), encrypted);
+    }
+}
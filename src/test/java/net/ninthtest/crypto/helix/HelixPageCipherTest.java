@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixPageCipher}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixPageCipherTest {
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {1, 7, 3, 2, 0, 5, 0, 8, 0, 7, 5, 6, 8, 8, 7, 7};
+
+    /* Returns the reference nonce of a page: id || version (little-endian). */
+    private static byte[] pageNonce(final long pageId, final long version) {
+        byte[] nonce = new byte[16];
+        for (int i = 0; i < 8; ++i) {
+            nonce[i] = (byte) (pageId >>> (i * 8));
+            nonce[8 + i] = (byte) (version >>> (i * 8));
+        }
+
+        return nonce;
+    }
+
+    /**
+     * Asserts that a page size of zero is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsZeroPageSize() {
+        new HelixPageCipher(key, 0);
+    }
+
+    /**
+     * Asserts that a page that does not fit in its array is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void encryptRejectsPageOutOfBounds() {
+        new HelixPageCipher(key, 64).encrypt(1L, 1L, new byte[100], 37, new byte[16], 0);
+    }
+
+    /**
+     * Asserts that a page that does not fit in a heap buffer slice is rejected
+     * (and the bytes after the slice are untouched), even though the backing
+     * array is large enough, exactly as for a direct buffer.
+     */
+    @Test
+    public void heapSliceMustHoldWholePage() {
+        HelixPageCipher cipher = new HelixPageCipher(key, 64);
+        byte[] backing = new byte[128];
+        Arrays.fill(backing, (byte) 0x5a);
+        ByteBuffer heapSlice = ByteBuffer.wrap(backing, 0, 48).slice();
+        ByteBuffer directSlice = ByteBuffer.allocateDirect(48);
+
+        for (ByteBuffer slice : new ByteBuffer[] {heapSlice, directSlice}) {
+            try {
+                cipher.encrypt(1L, 1L, slice, new byte[16], 0);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                /* expected */
+            }
+            try {
+                cipher.decrypt(1L, 1L, slice, new byte[16], 0);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                /* expected */
+            }
+        }
+
+        byte[] untouched = new byte[128];
+        Arrays.fill(untouched, (byte) 0x5a);
+        assertArrayEquals(untouched, backing);
+    }
+
+    /**
+     * Asserts that pages of several sizes (including sizes that are not a
+     * multiple of four) encrypt in place to the reference ciphertext and MAC,
+     * and decrypt in place, in arrays and heap buffers.
+     */
+    @Test
+    public void arrayPagesMatchReference() {
+        Random random = new Random(0x70616765L);
+        for (int pageSize : new int[] {1, 3, 4, 5, 64, 4095, 4096}) {
+            HelixPageCipher cipher = new HelixPageCipher(key, pageSize);
+            for (int n = 0; n < 5; ++n) {
+                long pageId = random.nextLong();
+                long version = random.nextLong();
+                byte[] plainText = new byte[pageSize];
+                random.nextBytes(plainText);
+                byte[][] expected = ReferenceHelix.encrypt(key, pageNonce(pageId, version), plainText);
+
+                byte[] pages = new byte[pageSize + 10];
+                byte[] tags = new byte[40];
+                System.arraycopy(plainText, 0, pages, 7, pageSize);
+                if ((n & 1) == 0) {
+                    cipher.encrypt(pageId, version, pages, 7, tags, 24);
+                } else {
+                    cipher.encrypt(pageId, version, (ByteBuffer) ByteBuffer.wrap(pages).position(7), tags, 24);
+                }
+                assertArrayEquals(expected[0], Arrays.copyOfRange(pages, 7, 7 + pageSize));
+                assertArrayEquals(expected[1], Arrays.copyOfRange(tags, 24, 40));
+
+                assertTrue(cipher.decrypt(pageId, version, pages, 7, tags, 24));
+                assertArrayEquals(plainText, Arrays.copyOfRange(pages, 7, 7 + pageSize));
+            }
+        }
+    }
+
+    /**
+     * Asserts that pages of direct buffers are encrypted and decrypted in
+     * place, without changing the buffer position.
+     */
+    @Test
+    public void directBufferPagesMatchReference() {
+        Random random = new Random(0x64697265L);
+        for (int pageSize : new int[] {1, 6, 8192}) {
+            HelixPageCipher cipher = new HelixPageCipher(key, pageSize);
+            byte[] plainText = new byte[pageSize];
+            random.nextBytes(plainText);
+            byte[][] expected = ReferenceHelix.encrypt(key, pageNonce(42L, 3L), plainText);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(pageSize + 5);
+            buffer.position(5);
+            buffer.put(plainText);
+            buffer.position(5);
+            byte[] tags = new byte[16];
+            cipher.encrypt(42L, 3L, buffer, tags, 0);
+
+            byte[] cipherText = new byte[pageSize];
+            buffer.duplicate().get(cipherText);
+            assertEquals(5, buffer.position());
+            assertArrayEquals(expected[0], cipherText);
+            assertArrayEquals(expected[1], tags);
+
+            assertTrue(cipher.decrypt(42L, 3L, buffer, tags, 0));
+            byte[] decrypted = new byte[pageSize];
+            buffer.duplicate().get(decrypted);
+            assertArrayEquals(plainText, decrypted);
+        }
+    }
+
+    /**
+     * Asserts that a page decrypted under the wrong version fails
+     * verification and is zeroed.
+     */
+    @Test
+    public void wrongVersionFailsAndZeroesPage() {
+        HelixPageCipher cipher = new HelixPageCipher(key, 100);
+        byte[] page = new byte[100];
+        Arrays.fill(page, (byte) 0x5a);
+        byte[] tags = new byte[16];
+        cipher.encrypt(9L, 1L, page, 0, tags, 0);
+
+        assertFalse(cipher.decrypt(9L, 2L, page, 0, tags, 0));
+        assertArrayEquals(new byte[100], page);
+    }
+
+    /**
+     * Asserts that a direct buffer page with an altered tag fails
+     * verification and is zeroed.
+     */
+    @Test
+    public void alteredTagFailsAndZeroesDirectPage() {
+        HelixPageCipher cipher = new HelixPageCipher(key, 10);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        buffer.put(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}).flip();
+        byte[] tags = new byte[16];
+        cipher.encrypt(1L, 1L, buffer, tags, 0);
+        tags[15] ^= 1;
+
+        assertFalse(cipher.decrypt(1L, 1L, buffer, tags, 0));
+        byte[] page = new byte[10];
+        buffer.get(page);
+        assertArrayEquals(new byte[10], page);
+    }
+
+    /**
+     * Asserts that a cleared page cipher cannot be used.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void clearedCipherCannotBeUsed() {
+        HelixPageCipher cipher = new HelixPageCipher(key, 16);
+        cipher.clear();
+
+        cipher.encrypt(1L, 1L, new byte[16], 0, new byte[16], 0);
+    }
+}
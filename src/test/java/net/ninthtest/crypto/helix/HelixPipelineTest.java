@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.ninthtest.crypto.MessageAuthenticationException;
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixPipeline}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixPipelineTest {
+    /* The buffer size used by most tests (so that streams span buffers). */
+    private static final int BUFFER_SIZE = HelixPipeline.MIN_BUFFER_SIZE;
+
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {6, 6, 2, 6, 0, 7, 0, 0, 4};
+
+    /* The nonce used by every test. */
+    private final byte[] nonce = new byte[] {1, 1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 14, 67, 81, 92, 17};
+
+    /* Encrypts a plaintext with HelixOutputStream. */
+    private byte[] encryptedStream(final byte[] plainText) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelixOutputStream stream = new HelixOutputStream(out, key, nonce);
+        stream.write(plainText);
+        stream.close();
+
+        return out.toByteArray();
+    }
+
+    /* Returns a channel that reads at most seven bytes at a time. */
+    private static ReadableByteChannel trickle(final byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        });
+    }
+
+    /**
+     * Asserts that a buffer size that is not a multiple of four is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsUnalignedBufferSize() {
+        new HelixPipeline(key, BUFFER_SIZE + 2, 2, null);
+    }
+
+    /**
+     * Asserts that a single buffer is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsOneBuffer() {
+        new HelixPipeline(key, BUFFER_SIZE, 1, null);
+    }
+
+    /**
+     * Asserts that streams of lengths around the buffer boundaries (including
+     * streams whose MAC spans two buffers) are encrypted in the
+     * {@link HelixOutputStream} format and round-trip, using the same
+     * pipeline repeatedly.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void streamsRoundTripInStreamFormat() throws IOException {
+        Random random = new Random(0x70697065L);
+        HelixPipeline pipeline = new HelixPipeline(key, BUFFER_SIZE, 3, null);
+        for (int length : new int[] {0, 1, 3, 47, 48, 49, 50, 63, 64, 65, 111, 112, 113, 128, 1000, 65537}) {
+            byte[] plainText = new byte[length];
+            random.nextBytes(plainText);
+            byte[] expected = encryptedStream(plainText);
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            assertEquals(length, pipeline.encrypt(trickle(plainText), Channels.newChannel(encrypted), nonce));
+            assertArrayEquals("length " + length, expected, encrypted.toByteArray());
+
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            assertEquals(length, pipeline.decrypt(trickle(expected), Channels.newChannel(decrypted)));
+            assertArrayEquals("length " + length, plainText, decrypted.toByteArray());
+        }
+    }
+
+    /**
+     * Asserts that the reader and writer stages run on threads from the
+     * supplied thread factory.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void stagesUseThreadFactory() throws IOException {
+        final AtomicInteger threads = new AtomicInteger();
+        HelixPipeline pipeline = new HelixPipeline(key, BUFFER_SIZE, 2, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                threads.incrementAndGet();
+                return new Thread(runnable);
+            }
+        });
+
+        pipeline.encrypt(trickle(new byte[500]), Channels.newChannel(new ByteArrayOutputStream()), nonce);
+        assertEquals(2, threads.get());
+    }
+
+    /**
+     * Asserts that an altered byte fails MAC verification.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void alteredByteFailsVerification() throws IOException {
+        byte[] encrypted = encryptedStream(new byte[300]);
+        encrypted[200] ^= 0x10;
+
+        try {
+            new HelixPipeline(key, BUFFER_SIZE, 2, null).decrypt(trickle(encrypted),
+                    Channels.newChannel(new ByteArrayOutputStream()));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        }
+    }
+
+    /**
+     * Asserts that no (unverified) plaintext is left in the buffers after a
+     * failed decryption, nor after a successful one.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void buffersAreZeroedAfterDecryption() throws IOException {
+        byte[] plainText = new byte[300];
+        Arrays.fill(plainText, (byte) 0x5a);
+        byte[] encrypted = encryptedStream(plainText);
+        HelixPipeline pipeline = new HelixPipeline(key, BUFFER_SIZE, 3, null);
+
+        pipeline.decrypt(trickle(encrypted), Channels.newChannel(new ByteArrayOutputStream()));
+        assertBuffersZeroed(pipeline);
+
+        encrypted[encrypted.length - 1] ^= 0x01;
+        try {
+            pipeline.decrypt(trickle(encrypted), Channels.newChannel(new ByteArrayOutputStream()));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        }
+        assertBuffersZeroed(pipeline);
+    }
+
+    /* Asserts that every byte of every buffer of a pipeline is zero. */
+    private static void assertBuffersZeroed(final HelixPipeline pipeline) {
+        for (ByteBuffer buffer : pipeline.buffers) {
+            for (int i = 0; i < buffer.capacity(); ++i) {
+                assertEquals(0, buffer.get(i));
+            }
+        }
+    }
+
+    /**
+     * Asserts that a stream too short to hold a nonce and MAC is rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void decryptRejectsShortStream() throws IOException {
+        new HelixPipeline(key).decrypt(trickle(new byte[31]), Channels.newChannel(new ByteArrayOutputStream()));
+    }
+
+    /**
+     * Asserts that a write failure on the writer stage is thrown by the
+     * calling thread.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void writerFailureIsThrown() throws IOException {
+        final IOException failure = new IOException("disk full");
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw failure;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                throw failure;
+            }
+        };
+
+        try {
+            new HelixPipeline(key, BUFFER_SIZE, 2, null).decrypt(trickle(encryptedStream(new byte[5000])),
+                    Channels.newChannel(failing));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex == failure);
+        }
+    }
+}
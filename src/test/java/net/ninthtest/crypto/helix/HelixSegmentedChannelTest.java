@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.ninthtest.crypto.MessageAuthenticationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The unit test case for {@link HelixSegmentedChannel}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixSegmentedChannelTest {
+    /* The chunk size of the test file. */
+    private static final int CHUNK_SIZE = 100;
+
+    /** The directory for the test files. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {2, 7, 1, 8, 2, 8, 1, 8, 2, 8};
+
+    /* The plaintext of the test file. */
+    private byte[] plainText;
+
+    /* The segmented test file. */
+    private RandomAccessFile file;
+
+    /**
+     * Creates the segmented test file.
+     * 
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    @Before
+    public void createFile() throws IOException {
+        plainText = new byte[1234];
+        new Random(0x7365656bL).nextBytes(plainText);
+
+        File plain = folder.newFile();
+        RandomAccessFile in = new RandomAccessFile(plain, "rw");
+        file = new RandomAccessFile(folder.newFile(), "rw");
+        try {
+            in.write(plainText);
+            new HelixSegmentedFile(key, CHUNK_SIZE, null).encrypt(in.getChannel(), file.getChannel(),
+                    new byte[HelixSegmentedFile.NONCE_PREFIX_LENGTH]);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Closes the segmented test file.
+     * 
+     * @throws IOException
+     *             if the file cannot be closed
+     */
+    @After
+    public void closeFile() throws IOException {
+        file.close();
+    }
+
+    /* Reads length bytes from a position of a channel. */
+    private static byte[] read(final HelixSegmentedChannel channel, final long position, final int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+            /* read until the buffer is full or end-of-stream */
+        }
+
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Asserts that a cache size of zero is rejected.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsZeroCacheSize() throws IOException {
+        new HelixSegmentedChannel(key, file.getChannel(), 0);
+    }
+
+    /**
+     * Asserts that a file whose chunk size exceeds the maximum accepted is
+     * rejected, and that one whose chunk size is the maximum is accepted.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void constructorRejectsChunkSizeAboveMaximum() throws IOException {
+        try {
+            new HelixSegmentedChannel(key, file.getChannel(), 1, CHUNK_SIZE - 4);
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertFalse(ex.getCause() instanceof MessageAuthenticationException);
+        }
+
+        HelixSegmentedChannel channel = new HelixSegmentedChannel(key, file.getChannel(), 1, CHUNK_SIZE);
+        assertArrayEquals(plainText, read(channel, 0L, plainText.length));
+        channel.close();
+    }
+
+    /**
+     * Asserts that the channel size is the plaintext length and that a
+     * sequential read returns the whole plaintext.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void sequentialReadReturnsPlainText() throws IOException {
+        HelixSegmentedChannel channel = new HelixSegmentedChannel(key, file.getChannel(), 1);
+
+        assertEquals(plainText.length, channel.size());
+        assertArrayEquals(plainText, read(channel, 0L, plainText.length + 10));
+        assertEquals(plainText.length, channel.position());
+        assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+    }
+
+    /**
+     * Asserts that random reads (including reads that span chunks and reads
+     * beyond the end) return the plaintext at their positions.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void randomReadsReturnPlainText() throws IOException {
+        HelixSegmentedChannel channel = new HelixSegmentedChannel(key, file.getChannel(), 3);
+        Random random = new Random(1L);
+        for (int n = 0; n < 200; ++n) {
+            int position = random.nextInt(plainText.length + 20);
+            int length = random.nextInt(300);
+            int end = Math.min(plainText.length, position + length);
+
+            byte[] expected = (position < plainText.length) ? Arrays.copyOfRange(plainText, position, end)
+                    : new byte[0];
+            assertArrayEquals("position " + position, expected, read(channel, position, length));
+        }
+    }
+
+    /**
+     * Asserts that only the chunk covering a read is verified: a tampered
+     * chunk fails only the reads that cover it.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void tamperedChunkFailsOnlyItsReads() throws IOException {
+        /* tamper with chunk 5 */
+        long tampered = HelixSegmentedFile.HEADER_LENGTH + (5 * (CHUNK_SIZE + HelixSegmentedFile.TAG_LENGTH)) + 7;
+        file.seek(tampered);
+        int b = file.read();
+        file.seek(tampered);
+        file.write(b ^ 0x01);
+
+        HelixSegmentedChannel channel = new HelixSegmentedChannel(key, file.getChannel());
+        assertArrayEquals(Arrays.copyOfRange(plainText, 1000, 1100), read(channel, 1000L, 100));
+        try {
+            read(channel, 550L, 10);
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        }
+    }
+
+    /**
+     * Asserts that a closed channel cannot be read.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test(expected = ClosedChannelException.class)
+    public void closedChannelCannotBeRead() throws IOException {
+        HelixSegmentedChannel channel = new HelixSegmentedChannel(key, file.getChannel());
+        channel.close();
+
+        assertFalse(channel.isOpen());
+        channel.read(ByteBuffer.allocate(1));
+    }
+
+    /**
+     * Asserts that a negative position is rejected.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void positionRejectsNegative() throws IOException {
+        new HelixSegmentedChannel(key, file.getChannel()).position(-1L);
+    }
+}
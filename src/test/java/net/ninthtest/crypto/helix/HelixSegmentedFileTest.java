@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.ninthtest.crypto.MessageAuthenticationException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The unit test case for {@link HelixSegmentedFile}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixSegmentedFileTest {
+    /* The chunk size used by most tests. */
+    private static final int CHUNK_SIZE = 100;
+
+    /* The executor used for fan-out tests. */
+    private static ExecutorService executor;
+
+    /** The directory for the test files. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* The key used by every test. */
+    private final byte[] key = new byte[] {3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5, 8, 9, 7, 9};
+
+    /* The nonce prefix used by every test. */
+    private final byte[] noncePrefix = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    /**
+     * Creates the executor.
+     */
+    @BeforeClass
+    public static void createExecutor() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    /**
+     * Shuts down the executor.
+     */
+    @AfterClass
+    public static void shutDownExecutor() {
+        executor.shutdownNow();
+    }
+
+    /* Writes bytes to a new temporary file. */
+    private File write(final byte[] bytes) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    /* Reads a whole file. */
+    private static byte[] read(final File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < bytes.length) {
+                n += in.read(bytes, n, bytes.length - n);
+            }
+        } finally {
+            in.close();
+        }
+
+        return bytes;
+    }
+
+    /* Encrypts a plaintext into a new segmented file. */
+    private File encrypt(final HelixSegmentedFile segmented, final byte[] plainText) throws IOException {
+        File plain = write(plainText);
+        File encrypted = folder.newFile();
+        RandomAccessFile in = new RandomAccessFile(plain, "r");
+        RandomAccessFile out = new RandomAccessFile(encrypted, "rw");
+        try {
+            segmented.encrypt(in.getChannel(), out.getChannel(), noncePrefix);
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        return encrypted;
+    }
+
+    /* Decrypts a segmented file into a new file. */
+    private File decrypt(final HelixSegmentedFile segmented, final File encrypted) throws IOException {
+        File decrypted = folder.newFile();
+        RandomAccessFile in = new RandomAccessFile(encrypted, "r");
+        RandomAccessFile out = new RandomAccessFile(decrypted, "rw");
+        try {
+            segmented.decrypt(in.getChannel(), out.getChannel());
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        return decrypted;
+    }
+
+    /* Asserts that decrypting an encrypted file fails MAC verification. */
+    private void assertMacMismatch(final byte[] encrypted) throws IOException {
+        try {
+            decrypt(new HelixSegmentedFile(key, CHUNK_SIZE, executor), write(encrypted));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        }
+    }
+
+    /**
+     * Asserts that a chunk size below the minimum is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsSmallChunkSize() {
+        new HelixSegmentedFile(key, HelixSegmentedFile.MIN_CHUNK_SIZE - 1, null);
+    }
+
+    /**
+     * Asserts that files of lengths around the chunk boundaries round-trip,
+     * on the calling thread and across an executor, and have the expected
+     * length.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void filesRoundTrip() throws IOException {
+        Random random = new Random(0x7365676dL);
+        HelixSegmentedFile[] segmentedFiles =
+                new HelixSegmentedFile[] {new HelixSegmentedFile(key, CHUNK_SIZE, null),
+                        new HelixSegmentedFile(key, CHUNK_SIZE, executor),
+                        new HelixSegmentedFile(key, HelixSegmentedFile.MIN_CHUNK_SIZE, executor)};
+        for (HelixSegmentedFile segmented : segmentedFiles) {
+            for (int length : new int[] {0, 1, 99, 100, 101, 250, 300, 123457}) {
+                byte[] plainText = new byte[length];
+                random.nextBytes(plainText);
+
+                File encrypted = encrypt(segmented, plainText);
+                assertEquals(HelixSegmentedFile.encryptedLength(length, (segmented == segmentedFiles[2])
+                        ? HelixSegmentedFile.MIN_CHUNK_SIZE : CHUNK_SIZE), encrypted.length());
+                assertArrayEquals("length " + length, plainText, read(decrypt(segmented, encrypted)));
+            }
+        }
+    }
+
+    /**
+     * Asserts that each chunk is the reference encryption of its plaintext
+     * under the chunk nonce (<i>prefix || index || last</i>).
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void chunksMatchReference() throws IOException {
+        byte[] plainText = new byte[250];
+        new Random(1L).nextBytes(plainText);
+        byte[] encrypted = read(encrypt(new HelixSegmentedFile(key, CHUNK_SIZE, null), plainText));
+
+        int position = HelixSegmentedFile.HEADER_LENGTH;
+        for (int index = 0; index < 3; ++index) {
+            int length = (index == 2) ? 50 : CHUNK_SIZE;
+            byte[][] expected =
+                    ReferenceHelix.encrypt(key, HelixSegmentedFile.chunkNonce(noncePrefix, index, index == 2),
+                            Arrays.copyOfRange(plainText, index * CHUNK_SIZE, (index * CHUNK_SIZE) + length));
+            assertArrayEquals(expected[0], Arrays.copyOfRange(encrypted, position, position + length));
+            assertArrayEquals(expected[1], Arrays.copyOfRange(encrypted, position + length, position + length + 16));
+            position += length + 16;
+        }
+    }
+
+    /**
+     * Asserts that swapping two chunks is detected.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void reorderedChunksAreDetected() throws IOException {
+        byte[] encrypted = read(encrypt(new HelixSegmentedFile(key, CHUNK_SIZE, null), new byte[350]));
+        int chunk = CHUNK_SIZE + 16;
+        byte[] first = Arrays.copyOfRange(encrypted, 20, 20 + chunk);
+        System.arraycopy(encrypted, 20 + chunk, encrypted, 20, chunk);
+        System.arraycopy(first, 0, encrypted, 20 + chunk, chunk);
+
+        assertMacMismatch(encrypted);
+    }
+
+    /**
+     * Asserts that removing the last chunk (truncation at a chunk boundary) is
+     * detected.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void truncationAtChunkBoundaryIsDetected() throws IOException {
+        byte[] encrypted = read(encrypt(new HelixSegmentedFile(key, CHUNK_SIZE, null), new byte[350]));
+
+        assertMacMismatch(Arrays.copyOf(encrypted, 20 + (3 * (CHUNK_SIZE + 16))));
+    }
+
+    /**
+     * Asserts that an altered byte is detected, and that the output is
+     * truncated.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void alteredByteIsDetectedAndOutputTruncated() throws IOException {
+        byte[] encrypted = read(encrypt(new HelixSegmentedFile(key, CHUNK_SIZE, null), new byte[1000]));
+        encrypted[500] ^= 0x20;
+
+        File decrypted = folder.newFile();
+        RandomAccessFile in = new RandomAccessFile(write(encrypted), "r");
+        RandomAccessFile out = new RandomAccessFile(decrypted, "rw");
+        try {
+            new HelixSegmentedFile(key, CHUNK_SIZE, executor).decrypt(in.getChannel(), out.getChannel());
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        } finally {
+            in.close();
+            out.close();
+        }
+        assertEquals(0L, decrypted.length());
+    }
+
+    /**
+     * Asserts that a file without the segmented file magic number is
+     * rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void decryptRejectsInvalidHeader() throws IOException {
+        byte[] encrypted = read(encrypt(new HelixSegmentedFile(key), new byte[10]));
+        encrypted[0] = 'X';
+
+        decrypt(new HelixSegmentedFile(key), write(encrypted));
+    }
+
+    /**
+     * Asserts that a small file whose (unauthenticated) header names the
+     * largest chunk size is decrypted without buffering a whole chunk.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void forgedChunkSizeIsNotBuffered() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] plainText = new byte[10];
+        new Random(43L).nextBytes(plainText);
+        byte[] encrypted = read(encrypt(new HelixSegmentedFile(key, CHUNK_SIZE, null), plainText));
+        HelixWords.toBytes(new int[] {HelixSegmentedFile.MAX_CHUNK_SIZE}, 0, encrypted, 4, 1);
+        File forged = write(encrypted);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        File decrypted = decrypt(new HelixSegmentedFile(key), forged);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertArrayEquals(plainText, read(decrypted));
+        assertTrue("allocated " + allocated + " bytes", allocated < (1 << 20));
+    }
+
+    /**
+     * Asserts that a file whose chunk size exceeds the caller's maximum is
+     * rejected before any chunk is read.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void decryptRejectsChunkSizeAboveMaximum() throws IOException {
+        File encrypted = encrypt(new HelixSegmentedFile(key, 4096, null), new byte[10]);
+        File decrypted = folder.newFile();
+        RandomAccessFile in = new RandomAccessFile(encrypted, "r");
+        RandomAccessFile out = new RandomAccessFile(decrypted, "rw");
+        try {
+            new HelixSegmentedFile(key).decrypt(in.getChannel(), out.getChannel(), 4095);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            assertEquals(0L, out.length());
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        assertArrayEquals(new byte[10], read(decrypt(new HelixSegmentedFile(key), encrypted)));
+    }
+}
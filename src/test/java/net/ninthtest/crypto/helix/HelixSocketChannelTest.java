@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.ninthtest.crypto.MessageAuthenticationException;
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixSocketChannel}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixSocketChannelTest {
+    /* The maximum record size used by most tests (so that writes span records). */
+    private static final int RECORD_SIZE = 100;
+
+    /* The session key used by every test. */
+    private final byte[] sessionKey = new byte[] {5, 7, 7, 2, 1, 5, 6, 6, 4, 9, 0, 1, 5, 3, 2, 8};
+
+    /*
+     * An in-memory channel that reads from a byte array and records writes
+     * (and can fail once, at a read position or on a write).
+     */
+    private static final class MemoryChannel implements ByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final ByteBuffer readable;
+        int failReadAt = -1;
+        boolean failWrite;
+
+        MemoryChannel(final byte[] bytes) {
+            readable = ByteBuffer.wrap(bytes);
+        }
+
+        @Override
+        public int read(final ByteBuffer destination) throws IOException {
+            if ((failReadAt >= 0) && (readable.position() >= failReadAt)) {
+                failReadAt = -1;
+                throw new IOException("injected read failure");
+            } else if (!readable.hasRemaining()) {
+                return -1;
+            }
+
+            /* deliver at most five bytes at a time */
+            int count = Math.min(5, Math.min(destination.remaining(), readable.remaining()));
+            for (int i = 0; i < count; ++i) {
+                destination.put(readable.get());
+            }
+
+            return count;
+        }
+
+        @Override
+        public int write(final ByteBuffer source) throws IOException {
+            if (failWrite) {
+                failWrite = false;
+                throw new IOException("injected write failure");
+            }
+
+            int count = source.remaining();
+            while (source.hasRemaining()) {
+                written.write(source.get());
+            }
+
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            /* nothing to close */
+        }
+    }
+
+    /* Returns the reference nonce of a record. */
+    private static byte[] recordNonce(final long counter, final int direction) {
+        byte[] nonce = new byte[16];
+        for (int i = 0; i < 8; ++i) {
+            nonce[i] = (byte) (counter >>> (i * 8));
+        }
+        nonce[8] = (byte) direction;
+
+        return nonce;
+    }
+
+    /*
+     * Returns the records that a client writes for a plaintext (followed by
+     * the end-of-stream record if the client closes its channel).
+     */
+    private byte[] clientRecords(final byte[] plainText, final boolean close) throws IOException {
+        MemoryChannel memory = new MemoryChannel(new byte[0]);
+        HelixSocketChannel client = new HelixSocketChannel(memory, sessionKey, true, RECORD_SIZE);
+        client.write(ByteBuffer.wrap(plainText));
+        if (close) {
+            client.close();
+        }
+
+        return memory.written.toByteArray();
+    }
+
+    /* Reads a channel to the end. */
+    private static byte[] readAll(final HelixSocketChannel channel) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(37);
+        while (channel.read(buffer) >= 0) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Asserts that a maximum record size of zero is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsZeroRecordSize() {
+        new HelixSocketChannel(new MemoryChannel(new byte[0]), sessionKey, true, 0);
+    }
+
+    /**
+     * Asserts that a write is framed as length-prefixed records that are the
+     * reference encryption under the record counter nonces.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void recordsMatchReference() throws IOException {
+        byte[] plainText = new byte[250];
+        new Random(2L).nextBytes(plainText);
+        ByteBuffer records = ByteBuffer.wrap(clientRecords(plainText, true)).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int r = 0; r < 3; ++r) {
+            int length = records.getInt();
+            assertEquals((r < 2) ? RECORD_SIZE : 50, length);
+            byte[][] expected =
+                    ReferenceHelix.encrypt(sessionKey, recordNonce(r, 0),
+                            Arrays.copyOfRange(plainText, r * RECORD_SIZE, (r * RECORD_SIZE) + length));
+            byte[] cipherText = new byte[length];
+            byte[] mac = new byte[16];
+            records.get(cipherText).get(mac);
+            assertArrayEquals(expected[0], cipherText);
+            assertArrayEquals(expected[1], mac);
+        }
+
+        /* the end-of-stream record is empty, and its nonce has an end-of-stream flag of 1 */
+        assertEquals(0x80000000, records.getInt());
+        byte[] endNonce = recordNonce(3, 0);
+        endNonce[12] = 1;
+        byte[] mac = new byte[16];
+        records.get(mac);
+        assertArrayEquals(ReferenceHelix.encrypt(sessionKey, endNonce, new byte[0])[1], mac);
+        assertEquals(0, records.remaining());
+    }
+
+    /**
+     * Asserts that a client's records cannot be read by another client (the
+     * direction is part of the nonce).
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void reflectedRecordsFailVerification() throws IOException {
+        HelixSocketChannel client =
+                new HelixSocketChannel(new MemoryChannel(clientRecords(new byte[10], true)), sessionKey, true,
+                        RECORD_SIZE);
+        try {
+            client.read(ByteBuffer.allocate(10));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        }
+    }
+
+    /**
+     * Asserts that an altered byte fails verification, that no plaintext of
+     * the record is delivered, and that subsequent reads also fail.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void alteredByteFailsEveryRead() throws IOException {
+        byte[] records = clientRecords(new byte[250], true);
+        records[(2 * (HelixSocketChannel.HEADER_LENGTH + RECORD_SIZE + 16)) + 10] ^= 0x01;
+        HelixSocketChannel server = new HelixSocketChannel(new MemoryChannel(records), sessionKey, false, RECORD_SIZE);
+
+        ByteBuffer buffer = ByteBuffer.allocate(300);
+        assertEquals(RECORD_SIZE, server.read(buffer));
+        assertEquals(RECORD_SIZE, server.read(buffer));
+        for (int n = 0; n < 2; ++n) {
+            try {
+                server.read(buffer);
+                fail("expected IOException");
+            } catch (IOException ex) {
+                assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+            }
+        }
+        assertEquals(2 * RECORD_SIZE, buffer.position());
+    }
+
+    /**
+     * Asserts that a record longer than the maximum is rejected before it is
+     * read.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void readRejectsOversizedRecord() throws IOException {
+        byte[] records = clientRecords(new byte[10], true);
+        records[1] = 1;
+
+        new HelixSocketChannel(new MemoryChannel(records), sessionKey, false, RECORD_SIZE).read(ByteBuffer
+                .allocate(10));
+    }
+
+    /**
+     * Asserts that an underlying channel that ends within a record is
+     * reported as truncated.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = EOFException.class)
+    public void readRejectsTruncatedRecord() throws IOException {
+        byte[] records = clientRecords(new byte[10], true);
+
+        readAll(new HelixSocketChannel(new MemoryChannel(Arrays.copyOf(records, records.length - 1)), sessionKey,
+                false, RECORD_SIZE));
+    }
+
+    /**
+     * Asserts that reads return <tt>-1</tt> (repeatedly) once the peer's
+     * end-of-stream record has been received.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void endOfStreamRecordEndsReads() throws IOException {
+        byte[] plainText = new byte[150];
+        new Random(4L).nextBytes(plainText);
+        HelixSocketChannel server =
+                new HelixSocketChannel(new MemoryChannel(clientRecords(plainText, true)), sessionKey, false,
+                        RECORD_SIZE);
+
+        assertArrayEquals(plainText, readAll(server));
+        assertEquals(-1, server.read(ByteBuffer.allocate(1)));
+    }
+
+    /**
+     * Asserts that an underlying channel that ends between records, without
+     * the peer's end-of-stream record, is reported as truncated.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = EOFException.class)
+    public void endWithoutEndOfStreamRecordIsTruncation() throws IOException {
+        readAll(new HelixSocketChannel(new MemoryChannel(clientRecords(new byte[150], false)), sessionKey, false,
+                RECORD_SIZE));
+    }
+
+    /**
+     * Asserts that setting the end-of-stream flag of a data record (to end the
+     * stream early) fails verification.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void forgedEndOfStreamFlagFailsVerification() throws IOException {
+        byte[] records = clientRecords(new byte[10], false);
+        records[3] |= (byte) 0x80;
+        HelixSocketChannel server = new HelixSocketChannel(new MemoryChannel(records), sessionKey, false, RECORD_SIZE);
+
+        try {
+            server.read(ByteBuffer.allocate(10));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof MessageAuthenticationException);
+        }
+    }
+
+    /**
+     * Asserts that an underlying read failure part-way through a record fails
+     * every subsequent read (rather than resuming out of step).
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void readFailureWithinRecordFailsEveryRead() throws IOException {
+        MemoryChannel memory = new MemoryChannel(clientRecords(new byte[250], true));
+        memory.failReadAt = HelixSocketChannel.HEADER_LENGTH + RECORD_SIZE + 16 + 10;
+        HelixSocketChannel server = new HelixSocketChannel(memory, sessionKey, false, RECORD_SIZE);
+
+        ByteBuffer buffer = ByteBuffer.allocate(300);
+        assertEquals(RECORD_SIZE, server.read(buffer));
+        IOException failure = null;
+        try {
+            server.read(buffer);
+            fail("expected IOException");
+        } catch (IOException ex) {
+            failure = ex;
+        }
+        try {
+            server.read(buffer);
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertEquals(failure, ex);
+        }
+        assertEquals(RECORD_SIZE, buffer.position());
+    }
+
+    /**
+     * Asserts that an underlying write failure fails every subsequent write,
+     * and that no end-of-stream record is sent on close.
+     * 
+     * @throws IOException
+     *             if the test fails
+     */
+    @Test
+    public void writeFailureFailsEveryWrite() throws IOException {
+        MemoryChannel memory = new MemoryChannel(new byte[0]);
+        HelixSocketChannel client = new HelixSocketChannel(memory, sessionKey, true, RECORD_SIZE);
+        memory.failWrite = true;
+
+        IOException failure = null;
+        try {
+            client.write(ByteBuffer.allocate(10));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            failure = ex;
+        }
+        try {
+            client.write(ByteBuffer.allocate(10));
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertEquals(failure, ex);
+        }
+        client.close();
+        assertEquals(0, memory.written.size());
+    }
+
+    /**
+     * Asserts that gathered heap and direct buffers written by a client over
+     * loopback are delivered to scattered buffers of the server, and that the
+     * server's reply is delivered to the client.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void loopbackRoundTrip() throws Exception {
+        final byte[] plainText = new byte[5000];
+        new Random(3L).nextBytes(plainText);
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            final SocketChannel clientSocket = SocketChannel.open(server.socket().getLocalSocketAddress());
+            HelixSocketChannel serverChannel =
+                    new HelixSocketChannel(server.accept(), sessionKey, false, RECORD_SIZE);
+
+            Future<byte[]> reply = executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    HelixSocketChannel client = new HelixSocketChannel(clientSocket, sessionKey, true, RECORD_SIZE);
+                    ByteBuffer header = ByteBuffer.wrap(plainText, 0, 13);
+                    ByteBuffer body = ByteBuffer.allocateDirect(4000);
+                    body.put(plainText, 13, 4000).flip();
+                    ByteBuffer trailer = ByteBuffer.wrap(plainText, 4013, 987);
+                    assertEquals(5000L, client.write(new ByteBuffer[] {header, body, trailer}));
+
+                    byte[] reply = new byte[3];
+                    ByteBuffer replyBuffer = ByteBuffer.wrap(reply);
+                    while (replyBuffer.hasRemaining()) {
+                        client.read(replyBuffer);
+                    }
+                    client.close();
+
+                    return reply;
+                }
+            });
+
+            ByteBuffer[] scattered =
+                    new ByteBuffer[] {ByteBuffer.allocateDirect(1), ByteBuffer.allocate(2999),
+                            ByteBuffer.allocateDirect(2000)};
+            long received = 0L;
+            while (received < 5000L) {
+                received += serverChannel.read(scattered);
+            }
+            byte[] actual = new byte[5000];
+            int position = 0;
+            for (ByteBuffer buffer : scattered) {
+                buffer.flip();
+                int count = buffer.remaining();
+                buffer.get(actual, position, count);
+                position += count;
+            }
+            assertArrayEquals(plainText, actual);
+
+            serverChannel.write(ByteBuffer.wrap(new byte[] {'a', 'c', 'k'}));
+            assertArrayEquals(new byte[] {'a', 'c', 'k'}, reply.get());
+            assertEquals(-1, serverChannel.read(ByteBuffer.allocate(1)));
+            serverChannel.close();
+        } finally {
+            executor.shutdownNow();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link HelixWords}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixWordsTest {
+    /**
+     * Asserts that bytes are converted to little-endian words at the requested
+     * offsets.
+     */
+    @Test
+    public void toIntsIsLittleEndian() {
+        byte[] bytes = new byte[] {(byte) 0xff, 0x01, 0x02, 0x03, 0x04, (byte) 0x85, (byte) 0x86, (byte) 0x87,
+                (byte) 0x88};
+        int[] words = new int[3];
+
+        HelixWords.toInts(bytes, 1, words, 1, 2);
+
+        assertArrayEquals(new int[] {0, 0x04030201, 0x88878685}, words);
+    }
+
+    /**
+     * Asserts that words are converted to little-endian bytes at the requested
+     * offsets.
+     */
+    @Test
+    public void toBytesIsLittleEndian() {
+        byte[] bytes = new byte[9];
+
+        HelixWords.toBytes(new int[] {-1, 0x04030201, 0x88878685}, 1, bytes, 1, 2);
+
+        assertArrayEquals(new byte[] {0, 0x01, 0x02, 0x03, 0x04, (byte) 0x85, (byte) 0x86, (byte) 0x87,
+                (byte) 0x88}, bytes);
+    }
+
+    /**
+     * Asserts that a 64-bit word is stored as little-endian bytes.
+     */
+    @Test
+    public void putLongIsLittleEndian() {
+        byte[] bytes = new byte[10];
+
+        HelixWords.putLong(bytes, 1, 0x8807060504030201L);
+
+        assertArrayEquals(new byte[] {0, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, (byte) 0x88, 0}, bytes);
+    }
+}
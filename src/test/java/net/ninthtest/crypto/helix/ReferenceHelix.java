@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+/**
+ * A frozen, one-shot reference implementation of Helix used as the oracle for
+ * differential testing.
+ * 
+ * <p>
+ * This class is a direct transcription of the Python reference implementation
+ * presented in <a href="http://www.ddj.com/security/184405478">Helix: Fast
+ * Encryption &amp; Authentication</a> (Dr. Dobb's November 2003), processing
+ * one word at a time with no buffering or other optimizations. <b>Do not
+ * optimize or refactor this class</b>; its value is that it stays simple and
+ * unchanged while the provider engines evolve.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+final class ReferenceHelix {
+    /* the key words (working key after key mixing) */
+    private final int[] k = new int[8];
+
+    /* the state words */
+    private final int[] z = new int[5];
+
+    /* the second X key words */
+    private final int[] x1 = new int[8];
+
+    /* the key length in bytes */
+    private final int keyLength;
+
+    /* the block counter */
+    private int i8;
+
+    /**
+     * Encrypts a message.
+     * 
+     * @param key
+     *            the key (0 to 32 bytes)
+     * @param nonce
+     *            the nonce (16 bytes)
+     * @param plainText
+     *            the plaintext
+     * @return <tt>{ciphertext, MAC}</tt>
+     */
+    static byte[][] encrypt(final byte[] key, final byte[] nonce, final byte[] plainText) {
+        return new ReferenceHelix(key, nonce).process(plainText, false);
+    }
+
+    /**
+     * Decrypts a message (without verifying the MAC).
+     * 
+     * @param key
+     *            the key (0 to 32 bytes)
+     * @param nonce
+     *            the nonce (16 bytes)
+     * @param cipherText
+     *            the ciphertext
+     * @return <tt>{plaintext, generated MAC}</tt>
+     */
+    static byte[][] decrypt(final byte[] key, final byte[] nonce, final byte[] cipherText) {
+        return new ReferenceHelix(key, nonce).process(cipherText, true);
+    }
+
+    /* Performs key mixing and nonce mixing. */
+    private ReferenceHelix(final byte[] key, final byte[] nonce) {
+        keyLength = key.length;
+
+        byte[] paddedKey = new byte[32];
+        System.arraycopy(key, 0, paddedKey, 0, key.length);
+        for (int i = 0; i < 8; ++i) {
+            k[i] = word(paddedKey, 4 * i);
+        }
+
+        /* key mixing */
+        for (int round = 0; round < 8; ++round) {
+            z[0] = k[0];
+            z[1] = k[1];
+            z[2] = k[2];
+            z[3] = k[3];
+            z[4] = keyLength + 64;
+            block(0, 0, 0);
+
+            int[] previous = k.clone();
+            k[0] = previous[4] ^ z[0];
+            k[1] = previous[5] ^ z[1];
+            k[2] = previous[6] ^ z[2];
+            k[3] = previous[7] ^ z[3];
+            k[4] = previous[0];
+            k[5] = previous[1];
+            k[6] = previous[2];
+            k[7] = previous[3];
+        }
+
+        /* nonce mixing */
+        int[] n = new int[8];
+        for (int i = 0; i < 4; ++i) {
+            n[i] = word(nonce, 4 * i);
+            n[i + 4] = i - n[i];
+        }
+
+        for (int i = 0; i < 8; ++i) {
+            x1[i] = k[(i + 4) % 8] + n[i] + (((i % 4) == 1) ? (4 * keyLength) : 0);
+        }
+
+        z[0] = k[3] ^ n[0];
+        z[1] = k[4] ^ n[1];
+        z[2] = k[5] ^ n[2];
+        z[3] = k[6] ^ n[3];
+        z[4] = k[7];
+
+        for (int i = 0; i < 8; ++i) {
+            step(0);
+        }
+    }
+
+    /* Encrypts or decrypts a whole message and generates the MAC. */
+    private byte[][] process(final byte[] input, final boolean decrypt) {
+        byte[] output = new byte[input.length];
+
+        for (int offset = 0; offset < input.length; offset += 4) {
+            int length = Math.min(4, input.length - offset);
+            byte[] padded = new byte[4];
+            System.arraycopy(input, offset, padded, 0, length);
+
+            int mask = (length == 4) ? 0xffffffff : ((1 << (8 * length)) - 1);
+            int in = word(padded, 0);
+            int out = (in ^ z[0]) & mask;
+            step(decrypt ? out : in);
+
+            byte[] outBytes = new byte[4];
+            putWord(out, outBytes, 0);
+            System.arraycopy(outBytes, 0, output, offset, length);
+        }
+
+        /* MAC function */
+        z[0] ^= 0x912d94f1;
+        int lengthMod4 = input.length % 4;
+        for (int i = 0; i < 8; ++i) {
+            step(lengthMod4);
+        }
+
+        byte[] mac = new byte[16];
+        for (int i = 0; i < 4; ++i) {
+            putWord(z[0], mac, 4 * i);
+            step(lengthMod4);
+        }
+
+        return new byte[][] {output, mac};
+    }
+
+    /* Applies one Helix block with the next key words and plaintext word. */
+    private void step(final int plainTextWord) {
+        int i = i8 % 8;
+        int xi1 = x1[i] + i8;
+        if ((i % 4) == 3) {
+            xi1 += i8 >> 31;
+        }
+
+        block(k[i], xi1, plainTextWord);
+        ++i8;
+    }
+
+    /* The Helix block function. */
+    private void block(final int xi0, final int xi1, final int w) {
+        for (int half = 0; half < 2; ++half) {
+            z[0] += (half == 0) ? z[3] : (z[3] ^ w);
+            z[3] = Integer.rotateLeft(z[3], 15);
+            z[1] += z[4];
+            z[4] = Integer.rotateLeft(z[4], 25);
+            z[2] ^= z[0];
+            z[0] = Integer.rotateLeft(z[0], 9);
+            z[3] ^= z[1];
+            z[1] = Integer.rotateLeft(z[1], 10);
+            z[4] += z[2];
+            z[2] = Integer.rotateLeft(z[2], 17);
+
+            if (half == 0) {
+                z[0] ^= z[3] + xi0;
+            } else {
+                z[0] ^= z[3] + xi1;
+            }
+            z[3] = Integer.rotateLeft(z[3], 30);
+            z[1] ^= z[4];
+            z[4] = Integer.rotateLeft(z[4], 13);
+            z[2] += z[0];
+            z[0] = Integer.rotateLeft(z[0], 20);
+            z[3] += z[1];
+            z[1] = Integer.rotateLeft(z[1], 11);
+            z[4] ^= z[2];
+            z[2] = Integer.rotateLeft(z[2], 5);
+        }
+    }
+
+    /* Reads a little-endian word. */
+    private static int word(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8) | ((bytes[offset + 2] & 0xff) << 16)
+                | (bytes[offset + 3] << 24);
+    }
+
+    /* Writes a little-endian word. */
+    private static void putWord(final int word, final byte[] bytes, final int offset) {
+        bytes[offset] = (byte) word;
+        bytes[offset + 1] = (byte) (word >>> 8);
+        bytes[offset + 2] = (byte) (word >>> 16);
+        bytes[offset + 3] = (byte) (word >>> 24);
+    }
+}
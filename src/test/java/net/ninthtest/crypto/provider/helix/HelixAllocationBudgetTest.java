@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.provider.helix;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.ninthtest.crypto.helix.HelixDecryption;
+import net.ninthtest.crypto.helix.HelixPageCipher;
+import net.ninthtest.security.provider.NinthTestProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Allocation-budget regression tests for the steady-state Helix hot paths.
+ * 
+ * <p>
+ * Each test warms up a path, then measures the bytes allocated by the current
+ * thread (<tt>com.sun.management.ThreadMXBean#getThreadAllocatedBytes</tt>)
+ * per operation and fails if the path exceeds its declared budget. When a
+ * path is made cheaper, lower its budget so that the improvement cannot
+ * regress unnoticed. The tests are skipped on JVMs that do not support
+ * thread allocation measurement.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixAllocationBudgetTest {
+    /* The payload size (bytes) of each update, doFinal and MAC operation. */
+    private static final int PAYLOAD = 1024;
+
+    /* The number of bytes per nextBytes request. */
+    private static final int RANDOM_BYTES = 64;
+
+    /* The number of warm-up iterations (so that the JIT has settled). */
+    private static final int WARMUP = 20000;
+
+    /* The number of measured iterations. */
+    private static final int ITERATIONS = 2000;
+
+    /*
+     * The allocation budgets (bytes per operation). The current engine copies
+     * the input, converts it to and from words and copies the output, i.e.
+     * about four payload-sized arrays per update; lower these budgets as the
+     * paths are made cheaper.
+     */
+
+    /* Budget: HelixCipher#engineUpdate(byte[], int, int, byte[], int). */
+    private static final long UPDATE_BUDGET = (4 * PAYLOAD) + 768;
+
+    /* Budget: HelixCipher#engineInit and #engineDoFinal(byte[], int, int). */
+    private static final long INIT_AND_DO_FINAL_BUDGET = (6 * PAYLOAD) + 768;
+
+    /* Budget: HelixMac#engineInit, #engineUpdate and #engineDoFinal. */
+    private static final long MAC_BUDGET = (5 * PAYLOAD) + 768;
+
+    /* Budget: HelixDecryption#finishQuietly(byte[]) with a forged MAC. */
+    private static final long FORGED_MAC_BUDGET = (3 * PAYLOAD) + 768;
+
+    /* Budget: HelixPageCipher#encrypt and #decrypt of a page (the MAC words). */
+    private static final long PAGE_BUDGET = 128;
+
+    /* Budget: HelixSecureRandom#engineNextBytes(byte[]). */
+    private static final long NEXT_BYTES_BUDGET = (6 * RANDOM_BYTES) + 128;
+
+    /* The platform thread bean (if it supports allocation measurement). */
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    /* A Helix key. */
+    private static final SecretKeySpec KEY = new SecretKeySpec(new byte[32], NinthTestProvider.HELIX);
+
+    /**
+     * Enables thread allocation measurement (or skips the tests if it is not
+     * supported).
+     */
+    @BeforeClass
+    public static void enableAllocationMeasurement() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /* An operation whose allocation is measured. */
+    private interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    /* Warms up an operation and returns its bytes allocated per iteration. */
+    private static long allocatedPerOperation(final Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP; ++i) {
+            operation.run(i);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; ++i) {
+            operation.run(i);
+        }
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+
+        return (after - before) / ITERATIONS;
+    }
+
+    /* Asserts that a path is within its budget. */
+    private static void assertWithinBudget(final String path, final long budget, final long allocated) {
+        assertTrue(path + " allocated " + allocated + " bytes per operation (budget " + budget + ")",
+                allocated <= budget);
+    }
+
+    /* Returns a distinct nonce for an iteration. */
+    private static byte[] nonce(final int iteration) {
+        byte[] nonce = new byte[16];
+        nonce[0] = (byte) iteration;
+        nonce[1] = (byte) (iteration >>> 8);
+        nonce[2] = (byte) (iteration >>> 16);
+
+        return nonce;
+    }
+
+    /**
+     * Asserts that a steady-state encrypting <tt>update</tt> is within its
+     * allocation budget.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void updateIsWithinBudget() throws Exception {
+        final HelixCipher cipher = new HelixCipher();
+        final byte[] input = new byte[PAYLOAD];
+        final byte[] output = new byte[PAYLOAD];
+        cipher.engineInit(Cipher.ENCRYPT_MODE, KEY, new HelixParameterSpec(new byte[16]), null);
+
+        long allocated = allocatedPerOperation(new Operation() {
+            @Override
+            public void run(int iteration) throws Exception {
+                cipher.engineUpdate(input, 0, PAYLOAD, output, 0);
+            }
+        });
+
+        assertWithinBudget("update", UPDATE_BUDGET, allocated);
+    }
+
+    /**
+     * Asserts that an <tt>init</tt> and <tt>doFinal</tt> (a complete
+     * encryption) is within its allocation budget.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void initAndDoFinalIsWithinBudget() throws Exception {
+        final HelixCipher cipher = new HelixCipher();
+        final byte[] input = new byte[PAYLOAD];
+
+        long allocated = allocatedPerOperation(new Operation() {
+            @Override
+            public void run(int iteration) throws Exception {
+                cipher.engineInit(Cipher.ENCRYPT_MODE, KEY, new HelixParameterSpec(nonce(iteration)), null);
+                cipher.engineDoFinal(input, 0, PAYLOAD);
+            }
+        });
+
+        assertWithinBudget("init+doFinal", INIT_AND_DO_FINAL_BUDGET, allocated);
+    }
+
+    /**
+     * Asserts that a complete MAC operation is within its allocation budget.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void macIsWithinBudget() throws Exception {
+        final HelixMac mac = new HelixMac();
+        final byte[] input = new byte[PAYLOAD];
+
+        long allocated = allocatedPerOperation(new Operation() {
+            @Override
+            public void run(int iteration) throws Exception {
+                mac.engineInit(KEY, new HelixParameterSpec(nonce(iteration)));
+                mac.engineUpdate(input, 0, PAYLOAD);
+                mac.engineDoFinal();
+            }
+        });
+
+        assertWithinBudget("MAC", MAC_BUDGET, allocated);
+    }
+
+    /**
+     * Asserts that a steady-state <tt>nextBytes</tt> is within its allocation
+     * budget.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void nextBytesIsWithinBudget() throws Exception {
+        final HelixSecureRandom random = new HelixSecureRandom();
+        final byte[] bytes = new byte[RANDOM_BYTES];
+        random.engineSetSeed(new SecureRandom().generateSeed(16));
+
+        long allocated = allocatedPerOperation(new Operation() {
+            @Override
+            public void run(int iteration) throws Exception {
+                random.engineNextBytes(bytes);
+            }
+        });
+
+        assertWithinBudget("nextBytes", NEXT_BYTES_BUDGET, allocated);
+    }
+
+    /**
+     * Asserts that rejecting a forged MAC (without an exception) is within its
+     * allocation budget.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void forgedMacIsWithinBudget() throws Exception {
+        final byte[] key = KEY.getEncoded();
+        final byte[] input = new byte[PAYLOAD];
+        final byte[] forgedMac = new byte[16];
+
+        long allocated = allocatedPerOperation(new Operation() {
+            @Override
+            public void run(int iteration) throws Exception {
+                HelixDecryption decryption = new HelixDecryption(key, nonce(iteration), forgedMac);
+                decryption.finishQuietly(input);
+                assertTrue(decryption.getMacStatus() == HelixDecryption.MAC_MISMATCH);
+            }
+        });
+
+        assertWithinBudget("forged MAC", FORGED_MAC_BUDGET, allocated);
+    }
+
+    /**
+     * Asserts that encrypting and decrypting a page in place is within its
+     * allocation budget.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void pageCipherIsWithinBudget() throws Exception {
+        final HelixPageCipher pageCipher = new HelixPageCipher(KEY.getEncoded(), PAYLOAD);
+        final byte[] page = new byte[PAYLOAD];
+        final byte[] tags = new byte[HelixPageCipher.TAG_LENGTH];
+
+        long allocated = allocatedPerOperation(new Operation() {
+            @Override
+            public void run(int iteration) throws Exception {
+                pageCipher.encrypt(7L, iteration, page, 0, tags, 0);
+                assertTrue(pageCipher.decrypt(7L, iteration, page, 0, tags, 0));
+            }
+        });
+
+        assertWithinBudget("page cipher", PAGE_BUDGET, allocated);
+    }
+}
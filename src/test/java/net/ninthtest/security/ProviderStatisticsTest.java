@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.ninthtest.crypto.provider.helix.HelixParameterSpec;
+import net.ninthtest.security.provider.NinthTestProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link ProviderStatistics}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class ProviderStatisticsTest {
+    /* The MBean used by unit tests. */
+    private ProviderStatistics statistics;
+
+    /**
+     * Creates a {@link ProviderStatistics} MBean and resets the counters.
+     */
+    @Before
+    public void resetStatistics() {
+        statistics = new ProviderStatistics();
+        statistics.reset();
+    }
+
+    /**
+     * Asserts that recorded amounts are reported by the MBean.
+     */
+    @Test
+    public void recordIsReported() {
+        ProviderStatistics.record(ProviderStatistics.BYTES_ENCRYPTED, 10L);
+        ProviderStatistics.record(ProviderStatistics.BYTES_ENCRYPTED, 5L);
+        ProviderStatistics.record(ProviderStatistics.RANDOM_RESEEDS, 1L);
+
+        assertEquals(15L, statistics.getBytesEncrypted());
+        assertEquals(1L, statistics.getRandomReseeds());
+        assertEquals(0L, statistics.getBytesDecrypted());
+    }
+
+    /**
+     * Asserts that amounts recorded concurrently are all counted.
+     * 
+     * @throws Exception
+     *             if a recording thread is interrupted
+     */
+    @Test
+    public void concurrentRecordsAreCounted() throws Exception {
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; ++j) {
+                        ProviderStatistics.record(ProviderStatistics.BYTES_MACED, 2L);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(8 * 10000 * 2L, statistics.getBytesMaced());
+    }
+
+    /**
+     * Asserts that the average initialization latency is zero when there have
+     * been no initializations.
+     */
+    @Test
+    public void averageInitLatencyIsZeroWithoutInitializations() {
+        assertEquals(0L, statistics.getAverageInitLatencyNanos());
+    }
+
+    /**
+     * Asserts that initializations and their latency are recorded.
+     */
+    @Test
+    public void recordInitIsReported() {
+        ProviderStatistics.recordInit(System.nanoTime() - 1000L);
+        ProviderStatistics.recordInit(System.nanoTime() - 3000L);
+
+        assertEquals(2L, statistics.getInitializations());
+        assertTrue(statistics.getAverageInitLatencyNanos() >= 2000L);
+    }
+
+    /**
+     * Asserts that a Helix <tt>Mac</tt> operation updates the counters.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void macOperationIsCounted() throws Exception {
+        Mac mac = Mac.getInstance(NinthTestProvider.HELIX, new NinthTestProvider());
+        mac.init(new SecretKeySpec(new byte[32], NinthTestProvider.HELIX), new HelixParameterSpec(new byte[16]));
+        mac.update(new byte[100]);
+        mac.doFinal();
+
+        assertEquals(100L, statistics.getBytesMaced());
+        assertEquals(1L, statistics.getMacOperations());
+        assertEquals(1L, statistics.getInitializations());
+        assertTrue(statistics.getKeySchedules() >= 1L);
+    }
+
+    /**
+     * Asserts that creating a provider registers the MBean with the platform
+     * MBean server.
+     * 
+     * @throws Exception
+     *             if the MBean cannot be read
+     */
+    @Test
+    public void providerRegistersMBean() throws Exception {
+        new NinthTestProvider();
+        ProviderStatistics.record(ProviderStatistics.CIPHER_OPERATIONS, 3L);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ProviderStatistics.OBJECT_NAME);
+
+        assertTrue(server.isRegistered(name));
+        assertEquals(3L, server.getAttribute(name, "CipherOperations"));
+    }
+}
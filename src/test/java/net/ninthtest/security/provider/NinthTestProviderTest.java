@@ -20,7 +20,11 @@
 package net.ninthtest.security.provider;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.util.Set;
 
@@ -154,4 +158,64 @@ public class NinthTestProviderTest {
 
         assertEquals(6, services.size());
     }
+
+    /**
+     * Asserts that the Helix Cipher service instantiates {@link HelixCipher}.
+     * 
+     * @throws Exception
+     *             if the service cannot be instantiated
+     */
+    @Test
+    public void helixCipherServiceCreatesHelixCipher() throws Exception {
+        Provider.Service service = provider.getService("Cipher", NinthTestProvider.HELIX);
+
+        assertTrue(service.newInstance(null) instanceof HelixCipher);
+    }
+
+    /**
+     * Asserts that each service instantiates the SPI implementation named by
+     * its class name.
+     * 
+     * @throws Exception
+     *             if a service cannot be instantiated
+     */
+    @Test
+    public void servicesCreateNamedImplementations() throws Exception {
+        for (Provider.Service service : provider.getServices()) {
+            assertEquals(service.getClassName(), service.newInstance(null).getClass().getName());
+        }
+    }
+
+    /**
+     * Asserts that the services are registered as provider properties as soon
+     * as the provider is constructed (so that <tt>Security.getProviders</tt>
+     * and <tt>Security.getAlgorithms</tt> find them).
+     */
+    @Test
+    public void constructorRegistersServiceProperties() {
+        Provider fresh = new NinthTestProvider();
+
+        assertEquals(HelixCipher.class.getName(), fresh.getProperty("Cipher." + NinthTestProvider.HELIX));
+        assertEquals(HelixSecureRandom.class.getName(), fresh.getProperty("SecureRandom." + NinthTestProvider.HELIX));
+    }
+
+    /**
+     * Asserts that a non-<tt>null</tt> constructor parameter is handled as
+     * <tt>Provider.Service</tt> handles it (a Mac service rejects it, either
+     * directly or wrapped in a <tt>NoSuchAlgorithmException</tt>).
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void serviceRejectsConstructorParameter() throws Exception {
+        try {
+            provider.getService("Mac", NinthTestProvider.HELIX).newInstance(new Object());
+            fail("expected InvalidParameterException");
+        } catch (InvalidParameterException ex) {
+            /* expected (Java 6 - 8) */
+        } catch (NoSuchAlgorithmException ex) {
+            assertTrue(ex.getCause() instanceof InvalidParameterException);
+        }
+    }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.InvalidParameterException;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link ProviderConfiguration}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class ProviderConfigurationTest {
+    /* A configuration file created by a unit test (if any). */
+    private File configFile;
+
+    /**
+     * Clears the system properties and deletes the configuration file.
+     */
+    @After
+    public void restoreDefaultConfiguration() {
+        System.clearProperty(ProviderConfiguration.INTEGRITY_THREADS);
+        if (configFile != null) {
+            configFile.delete();
+        }
+    }
+
+    /* Writes a configuration file containing the specified properties. */
+    private String writeConfigFile(final Properties properties) throws Exception {
+        configFile = File.createTempFile("ninthtest", ".properties");
+        OutputStream out = new FileOutputStream(configFile);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+
+        return configFile.getPath();
+    }
+
+    /**
+     * Asserts that the default value is used when a key is neither configured
+     * nor set as a system property.
+     */
+    @Test
+    public void getReturnsDefaultValue() {
+        assertFalse(ProviderConfiguration.getDefault().getBoolean(ProviderConfiguration.INTEGRITY_EAGER));
+        assertEquals(0, ProviderConfiguration.getDefault().getInt(ProviderConfiguration.INTEGRITY_THREADS));
+    }
+
+    /**
+     * Asserts that a system property is used when a key is not configured.
+     */
+    @Test
+    public void getFallsBackToSystemProperty() {
+        System.setProperty(ProviderConfiguration.INTEGRITY_THREADS, "3");
+
+        assertEquals(3, ProviderConfiguration.create(new Properties(), null).getInt(
+                ProviderConfiguration.INTEGRITY_THREADS));
+    }
+
+    /**
+     * Asserts that an invalid system property value is rejected (like an
+     * invalid value in a configuration file).
+     */
+    @Test(expected = InvalidParameterException.class)
+    public void createRejectsInvalidSystemProperty() {
+        System.setProperty(ProviderConfiguration.INTEGRITY_THREADS, "many");
+
+        ProviderConfiguration.create(new Properties(), null);
+    }
+
+    /**
+     * Asserts that the system properties are read when a configuration is
+     * created, and that a later change does not affect it.
+     */
+    @Test
+    public void systemPropertiesAreReadOnCreation() {
+        System.setProperty(ProviderConfiguration.INTEGRITY_THREADS, "3");
+        ProviderConfiguration configuration = ProviderConfiguration.create(new Properties(), null);
+        System.setProperty(ProviderConfiguration.INTEGRITY_THREADS, "7");
+
+        assertEquals(3, configuration.getInt(ProviderConfiguration.INTEGRITY_THREADS));
+        assertEquals("3", configuration.getEffectiveConfiguration().get(ProviderConfiguration.INTEGRITY_THREADS));
+    }
+
+    /**
+     * Asserts that an object cached with a configuration is kept by that
+     * configuration only, and is not replaced once cached.
+     */
+    @Test
+    public void cachedObjectsAreKeptPerConfiguration() {
+        Object key = new Object();
+        ProviderConfiguration configuration = ProviderConfiguration.create(new Properties(), null);
+        ProviderConfiguration other = ProviderConfiguration.create(new Properties(), null);
+
+        assertNull(configuration.getCached(key));
+        assertEquals("first", configuration.cacheIfAbsent(key, "first"));
+        assertEquals("first", configuration.cacheIfAbsent(key, "second"));
+        assertEquals("first", configuration.getCached(key));
+        assertNull(other.getCached(key));
+    }
+
+    /**
+     * Asserts that a configured value takes precedence over a system property.
+     * 
+     * @throws Exception
+     *             if the configuration file cannot be written
+     */
+    @Test
+    public void configuredValueOverridesSystemProperty() throws Exception {
+        System.setProperty(ProviderConfiguration.INTEGRITY_THREADS, "3");
+        Properties properties = new Properties();
+        properties.setProperty(ProviderConfiguration.INTEGRITY_THREADS, "5");
+
+        ProviderConfiguration configuration = ProviderConfiguration.load(writeConfigFile(properties));
+
+        assertEquals(5, configuration.getInt(ProviderConfiguration.INTEGRITY_THREADS));
+        assertEquals(configFile.getPath(), configuration.getSource());
+    }
+
+    /**
+     * Asserts that an unrecognized configuration key is rejected.
+     */
+    @Test(expected = InvalidParameterException.class)
+    public void createRejectsUnknownKey() {
+        Properties properties = new Properties();
+        properties.setProperty("ninthtest.provider.unknown", "true");
+
+        ProviderConfiguration.create(properties, null);
+    }
+
+    /**
+     * Asserts that an invalid configuration value is rejected.
+     */
+    @Test(expected = InvalidParameterException.class)
+    public void createRejectsInvalidValue() {
+        Properties properties = new Properties();
+        properties.setProperty(ProviderConfiguration.INTEGRITY_EAGER, "sometimes");
+
+        ProviderConfiguration.create(properties, null);
+    }
+
+    /**
+     * Asserts that a value outside a fixed set of choices is rejected.
+     */
+    @Test(expected = InvalidParameterException.class)
+    public void createRejectsUnknownChoice() {
+        Properties properties = new Properties();
+        properties.setProperty(ProviderConfiguration.ENGINE, "quantum");
+
+        ProviderConfiguration.create(properties, null);
+    }
+
+    /**
+     * Asserts that a value from a fixed set of choices is accepted.
+     */
+    @Test
+    public void createAcceptsKnownChoice() {
+        Properties properties = new Properties();
+        properties.setProperty(ProviderConfiguration.ENGINE, "reference");
+
+        assertEquals("reference", ProviderConfiguration.create(properties, null).get(ProviderConfiguration.ENGINE));
+    }
+
+    /**
+     * Asserts that a missing configuration file is rejected.
+     */
+    @Test(expected = InvalidParameterException.class)
+    public void loadRejectsMissingFile() {
+        ProviderConfiguration.load(new File("no-such-dir", "ninthtest.properties").getPath());
+    }
+
+    /**
+     * Asserts that the effective configuration contains every recognized key.
+     */
+    @Test
+    public void effectiveConfigurationContainsAllKeys() {
+        assertTrue(ProviderConfiguration.getDefault().getEffectiveConfiguration()
+                .containsKey(ProviderConfiguration.NONCE_RANDOM));
+        assertTrue(ProviderConfiguration.getDefault().getEffectiveConfiguration()
+                .containsKey(ProviderConfiguration.INTEGRITY_CACHE));
+    }
+
+    /**
+     * Asserts that a value of an integer key must be a non-negative integer.
+     */
+    @Test(expected = InvalidParameterException.class)
+    public void createRejectsNegativeStripes() {
+        Properties properties = new Properties();
+        properties.setProperty(ProviderConfiguration.NONCE_RANDOM_STRIPES, "-1");
+
+        ProviderConfiguration.create(properties, null);
+    }
+
+    /**
+     * Asserts that {@link NinthTestProvider#configure(String)} configures the
+     * provider in place, without affecting the default configuration or any
+     * other provider instance.
+     * 
+     * @throws Exception
+     *             if the configuration file cannot be written
+     */
+    @Test
+    public void providerConfigureConfiguresOnlyThatInstance() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(ProviderConfiguration.INTEGRITY_THREADS, "2");
+        properties.setProperty(ProviderConfiguration.NONCE_RANDOM_STRIPES, "4");
+        NinthTestProvider provider = new NinthTestProvider();
+        NinthTestProvider other = new NinthTestProvider();
+
+        assertSame(provider, provider.configure(writeConfigFile(properties)));
+        assertEquals("2", provider.getConfiguration().get(ProviderConfiguration.INTEGRITY_THREADS));
+        assertEquals(4, provider.getConfiguration().getInt(ProviderConfiguration.NONCE_RANDOM_STRIPES));
+        assertNotSame(ProviderConfiguration.getDefault(), provider.getConfiguration());
+        assertSame(ProviderConfiguration.getDefault(), other.getConfiguration());
+        assertEquals(0, other.getConfiguration().getInt(ProviderConfiguration.INTEGRITY_THREADS));
+    }
+}
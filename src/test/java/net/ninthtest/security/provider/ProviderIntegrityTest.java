@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The unit test case for <tt>ProviderIntegrity</tt>.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class ProviderIntegrityTest {
+    /* An unsigned JAR containing several entries. */
+    private File unsignedJar;
+
+    /* The digest cache file used by unit tests. */
+    private File cacheFile;
+
+    /**
+     * Creates an unsigned JAR and a (nonexistent) cache file for testing.
+     * 
+     * @throws Exception
+     *             if the test JAR cannot be created
+     */
+    @Before
+    public void createUnsignedJar() throws Exception {
+        unsignedJar = File.createTempFile("ninthtest-unsigned", ".jar");
+        cacheFile = new File(unsignedJar.getPath() + ".cache");
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(unsignedJar), manifest);
+        try {
+            for (int i = 0; i < 16; ++i) {
+                out.putNextEntry(new JarEntry("entry" + i + ".bin"));
+                out.write(new byte[1024 * i]);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes the files created for testing.
+     */
+    @After
+    public void deleteFiles() {
+        unsignedJar.delete();
+        cacheFile.delete();
+    }
+
+    /**
+     * Asserts that serial verification rejects an unsigned JAR.
+     * 
+     * @throws Exception
+     *             if the test succeeds
+     */
+    @Test(expected = SecurityException.class)
+    public void verifyJarRejectsUnsignedJarSerially() throws Exception {
+        ProviderIntegrity.verifyJar(unsignedJar, null, 1);
+    }
+
+    /**
+     * Asserts that parallel verification rejects an unsigned JAR.
+     * 
+     * @throws Exception
+     *             if the test succeeds
+     */
+    @Test(expected = SecurityException.class)
+    public void verifyJarRejectsUnsignedJarInParallel() throws Exception {
+        ProviderIntegrity.verifyJar(unsignedJar, null, 4);
+    }
+
+    /**
+     * Asserts that a digest that has not been cached cannot be read.
+     */
+    @Test
+    public void readCachedDigestReturnsNullWhenNotCached() {
+        assertNull(ProviderIntegrity.readCachedDigest(cacheFile));
+    }
+
+    /**
+     * Asserts that a cached digest can be read back.
+     * 
+     * @throws Exception
+     *             if the digest cannot be computed
+     */
+    @Test
+    public void cachedDigestCanBeRead() throws Exception {
+        String digest = ProviderIntegrity.digestOf(unsignedJar);
+        ProviderIntegrity.writeCachedDigest(cacheFile, digest);
+
+        assertEquals(digest, ProviderIntegrity.readCachedDigest(cacheFile));
+    }
+
+    /**
+     * Asserts that a cached digest is replaced (without leaving a temporary
+     * file behind).
+     * 
+     * @throws Exception
+     *             if the digest cannot be computed
+     */
+    @Test
+    public void cachedDigestCanBeReplaced() throws Exception {
+        ProviderIntegrity.writeCachedDigest(cacheFile, "stale");
+        String digest = ProviderIntegrity.digestOf(unsignedJar);
+        ProviderIntegrity.writeCachedDigest(cacheFile, digest);
+
+        assertEquals(digest, ProviderIntegrity.readCachedDigest(cacheFile));
+        for (String name : cacheFile.getAbsoluteFile().getParentFile().list()) {
+            assertFalse(name, name.startsWith(cacheFile.getName()) && name.endsWith(".tmp"));
+        }
+    }
+
+    /**
+     * Asserts that the digest of a verified JAR is cached only if the JAR has
+     * not changed since the digest was computed.
+     * 
+     * @throws Exception
+     *             if the digest cannot be computed
+     */
+    @Test
+    public void replacedJarDigestIsNotCached() throws Exception {
+        String digest = ProviderIntegrity.digestOf(unsignedJar);
+
+        FileOutputStream out = new FileOutputStream(unsignedJar, true);
+        try {
+            out.write(0);
+        } finally {
+            out.close();
+        }
+
+        assertFalse(ProviderIntegrity.cacheVerifiedDigest(cacheFile, unsignedJar, digest));
+        assertNull(ProviderIntegrity.readCachedDigest(cacheFile));
+        assertTrue(ProviderIntegrity.cacheVerifiedDigest(cacheFile, unsignedJar,
+                ProviderIntegrity.digestOf(unsignedJar)));
+    }
+
+    /**
+     * Asserts that the digest of a JAR changes when the JAR changes.
+     * 
+     * @throws Exception
+     *             if the digest cannot be computed
+     */
+    @Test
+    public void digestChangesWhenJarChanges() throws Exception {
+        String digest = ProviderIntegrity.digestOf(unsignedJar);
+
+        FileOutputStream out = new FileOutputStream(unsignedJar, true);
+        try {
+            out.write(0);
+        } finally {
+            out.close();
+        }
+
+        assertFalse(digest.equals(ProviderIntegrity.digestOf(unsignedJar)));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.ninthtest.crypto.MessageAuthenticationException;
+import net.ninthtest.crypto.helix.HelixDecryption;
+import net.ninthtest.crypto.provider.helix.HelixParameterSpec;
+import net.ninthtest.security.ProviderEvents;
+import net.ninthtest.security.provider.NinthTestProvider;
+import org.junit.Test;
+
+/**
+ * The unit test case for {@link JfrEventRecorder}.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class JfrEventRecorderTest {
+    /* Runs an action while recording the named events, and returns them. */
+    private static List<RecordedEvent> record(Runnable action, String... eventNames) throws Exception {
+        Path dump = Files.createTempFile("ninthtest", ".jfr");
+        try {
+            Recording recording = new Recording();
+            try {
+                for (String eventName : eventNames) {
+                    recording.enable(eventName);
+                }
+
+                recording.start();
+                action.run();
+                recording.stop();
+                recording.dump(dump);
+            } finally {
+                recording.close();
+            }
+
+            List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+                if (event.getEventType().getName().startsWith("net.ninthtest.")) {
+                    events.add(event);
+                }
+            }
+
+            return events;
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+    /**
+     * Asserts that the JFR recorder is loaded by {@link ProviderEvents}.
+     */
+    @Test
+    public void providerEventsIsRecording() {
+        assertTrue(ProviderEvents.isRecording());
+    }
+
+    /**
+     * Asserts that an event is not created for a disabled event type.
+     */
+    @Test
+    public void beginReturnsNullWhenNotEnabled() {
+        assertNull(new JfrEventRecorder().begin(ProviderEvents.CIPHER));
+    }
+
+    /**
+     * Asserts that Helix cipher operations are recorded when the
+     * <i>net.ninthtest.HelixCipher</i> event is enabled.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void cipherOperationsAreRecorded() throws Exception {
+        List<RecordedEvent> events = record(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Cipher cipher = Cipher.getInstance(NinthTestProvider.HELIX, new NinthTestProvider());
+                    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[32], NinthTestProvider.HELIX),
+                            new HelixParameterSpec(new byte[16]));
+                    cipher.doFinal(new byte[100]);
+                } catch (Exception ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        }, "net.ninthtest.HelixCipher");
+
+        assertEquals(2, events.size());
+        assertEquals("init", events.get(0).getString("operation"));
+        assertEquals("doFinal", events.get(1).getString("operation"));
+        assertEquals("ENCRYPT", events.get(1).getString("mode"));
+        assertEquals(100L, events.get(1).getLong("bytes"));
+    }
+
+    /**
+     * Asserts that a MAC verification failure is recorded by default.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void macFailureIsRecorded() throws Exception {
+        List<RecordedEvent> events = record(new Runnable() {
+            @Override
+            public void run() {
+                HelixDecryption decryption = new HelixDecryption(new byte[32], new byte[16], new byte[16]);
+                try {
+                    decryption.finish(new byte[8]);
+                    throw new AssertionError("expected MessageAuthenticationException");
+                } catch (MessageAuthenticationException expected) {
+                    /* expected */
+                }
+            }
+        }, "net.ninthtest.HelixMacFailure");
+
+        assertEquals(1, events.size());
+        assertEquals("net.ninthtest.HelixMacFailure", events.get(0).getEventType().getName());
+        assertEquals(8L, events.get(0).getLong("bytes"));
+    }
+}
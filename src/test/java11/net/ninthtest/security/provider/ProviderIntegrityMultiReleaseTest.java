@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.security.provider;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.CertPath;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import jdk.security.jarsigner.JarSigner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The unit test case for the verification of the versioned entries of a signed
+ * multi-release JAR by <tt>ProviderIntegrity</tt>.
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class ProviderIntegrityMultiReleaseTest {
+    /* The name of the versioned entry. */
+    private static final String VERSIONED_ENTRY = "META-INF/versions/17/net/ninthtest/Example.class";
+
+    /* A directory for the key store and JARs. */
+    private Path directory;
+
+    /* The signed multi-release JAR. */
+    private File signedJar;
+
+    /* The certificate of the signer. */
+    private X509Certificate certificate;
+
+    /**
+     * Creates a signing key (with <tt>keytool</tt>) and a signed multi-release
+     * JAR.
+     * 
+     * @throws Exception
+     *             if the signed JAR cannot be created
+     */
+    @Before
+    public void createSignedJar() throws Exception {
+        directory = Files.createTempDirectory("ninthtest-mrjar");
+        File keyStoreFile = directory.resolve("signer.p12").toFile();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-keyalg", "RSA", "-keysize", "2048",
+                "-alias", "signer", "-dname", "CN=NinthTest Test", "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", keyStoreFile.getPath(), "-storepass", "changeit", "-keypass", "changeit")
+                .redirectErrorStream(true).start();
+        process.getInputStream().transferTo(OutputStream.nullOutputStream());
+        assertTrue("keytool failed", process.waitFor() == 0);
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keyStoreFile)) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        PrivateKey privateKey = (PrivateKey) keyStore.getKey("signer", "changeit".toCharArray());
+        Certificate[] chain = keyStore.getCertificateChain("signer");
+        certificate = (X509Certificate) chain[0];
+        CertPath certPath = CertificateFactory.getInstance("X.509").generateCertPath(Arrays.asList(chain));
+
+        File unsignedJar = directory.resolve("unsigned.jar").toFile();
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Multi-Release", "true");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(unsignedJar), manifest)) {
+            out.putNextEntry(new JarEntry("net/ninthtest/Example.class"));
+            out.write(new byte[] {1, 2, 3, 4});
+            out.closeEntry();
+            out.putNextEntry(new JarEntry(VERSIONED_ENTRY));
+            out.write(new byte[] {5, 6, 7, 8});
+            out.closeEntry();
+        }
+
+        signedJar = directory.resolve("signed.jar").toFile();
+        JarSigner signer = new JarSigner.Builder(privateKey, certPath).build();
+        try (ZipFile in = new ZipFile(unsignedJar); OutputStream out = new FileOutputStream(signedJar)) {
+            signer.sign(in, out);
+        }
+    }
+
+    /**
+     * Deletes the files created for testing.
+     * 
+     * @throws Exception
+     *             if a file cannot be deleted
+     */
+    @After
+    public void deleteFiles() throws Exception {
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(directory);
+    }
+
+    /* Copies the signed JAR, replacing the contents of one entry. */
+    private File tamperWith(final String name, final byte[] contents) throws Exception {
+        File tamperedJar = directory.resolve("tampered.jar").toFile();
+        try (ZipFile in = new ZipFile(signedJar);
+                ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tamperedJar))) {
+            for (ZipEntry entry : Collections.list(in.entries())) {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                if (name.equals(entry.getName())) {
+                    out.write(contents);
+                } else {
+                    try (InputStream entryIn = in.getInputStream(entry)) {
+                        entryIn.transferTo(out);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+
+        return tamperedJar;
+    }
+
+    /**
+     * Asserts that only the manifest and the signature files are exempt from
+     * verification.
+     */
+    @Test
+    public void onlySignatureFilesAreExempt() {
+        assertTrue(ProviderIntegrity.isSignatureFile(JarFile.MANIFEST_NAME));
+        assertTrue(ProviderIntegrity.isSignatureFile("META-INF/SIGNER.SF"));
+        assertTrue(ProviderIntegrity.isSignatureFile("META-INF/SIGNER.RSA"));
+        assertFalse(ProviderIntegrity.isSignatureFile(VERSIONED_ENTRY));
+        assertFalse(ProviderIntegrity.isSignatureFile("META-INF/maven/pom.properties"));
+        assertFalse(ProviderIntegrity.isSignatureFile("net/ninthtest/Example.class"));
+    }
+
+    /**
+     * Asserts that an untampered signed multi-release JAR is verified.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void signedMultiReleaseJarIsVerified() throws Exception {
+        ProviderIntegrity.verifyJar(signedJar, certificate, 2);
+    }
+
+    /**
+     * Asserts that a tampered versioned entry is detected.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void tamperedVersionedEntryIsRejected() throws Exception {
+        File tamperedJar = tamperWith(VERSIONED_ENTRY, new byte[] {5, 6, 7, 9});
+
+        try {
+            ProviderIntegrity.verifyJar(tamperedJar, certificate, 2);
+            fail("expected SecurityException");
+        } catch (SecurityException ex) {
+            /* expected */
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Asserts that the Java 17 {@link HelixLaneKernel} (the Vector API kernel
+ * packaged in <tt>META-INF/versions/17</tt>) is selected by the <i>auto</i>
+ * engine and that {@link HelixMultiLane} batches processed with it match the
+ * reference implementation.
+ * 
+ * <p>
+ * Unit tests run from the class directories rather than the multi-release JAR,
+ * so the versioned classes are loaded from their own class loader.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixLaneKernelMultiReleaseTest {
+    /* The class loader that sees the versioned classes first. */
+    private ClassLoader loader;
+
+    /**
+     * Creates the class loader for the versioned classes.
+     * 
+     * @throws Exception
+     *             if the class directories cannot be located
+     */
+    @Before
+    public void createVersionedClassLoader() throws Exception {
+        File classes = new File(HelixWords.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        File versioned = new File(classes, "META-INF/versions/17");
+        assertTrue(new File(versioned, "net/ninthtest/crypto/helix/VectorHelixLaneKernel.class").isFile());
+
+        loader = new URLClassLoader(new URL[] {versioned.toURI().toURL(), classes.toURI().toURL()},
+                ClassLoader.getPlatformClassLoader());
+    }
+
+    /**
+     * Asserts that the vector kernel is selected by default and advances at
+     * least four lanes per call.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void autoSelectsVectorKernel() throws Exception {
+        Method getLaneKernel =
+                Class.forName(HelixEngines.class.getName(), true, loader).getDeclaredMethod("getLaneKernel");
+        getLaneKernel.setAccessible(true);
+        Object kernel = getLaneKernel.invoke(null);
+        assertNotNull(kernel);
+        assertEquals("net.ninthtest.crypto.helix.VectorHelixLaneKernel", kernel.getClass().getName());
+
+        Method lanes = kernel.getClass().getDeclaredMethod("lanes");
+        lanes.setAccessible(true);
+        assertTrue(((Integer) lanes.invoke(kernel)).intValue() >= 4);
+    }
+
+    /**
+     * Asserts that batches processed with the vector kernel produce the same
+     * ciphertexts, plaintexts and MACs as the reference implementation.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void vectorBatchesMatchReference() throws Exception {
+        Class<?> multiLaneClass = Class.forName(HelixMultiLane.class.getName(), true, loader);
+        Constructor<?> constructor = multiLaneClass.getConstructor(int.class);
+        Method encrypt = multiLaneClass.getMethod("encrypt", byte[][].class, byte[][].class, byte[][].class,
+                byte[][].class, byte[][].class);
+        Method decrypt = multiLaneClass.getMethod("decrypt", byte[][].class, byte[][].class, byte[][].class,
+                byte[][].class, byte[][].class);
+
+        Random random = new Random(0x766563746f72L);
+        for (int lanes = 4; lanes <= HelixMultiLane.MAX_LANES; lanes += 4) {
+            Object multiLane = constructor.newInstance(lanes);
+            int count = 2 * lanes;
+            byte[][] keys = new byte[count][];
+            byte[][] nonces = new byte[count][];
+            byte[][] plainTexts = new byte[count][];
+            for (int m = 0; m < count; ++m) {
+                keys[m] = new byte[random.nextInt(33)];
+                random.nextBytes(keys[m]);
+                nonces[m] = new byte[16];
+                random.nextBytes(nonces[m]);
+                plainTexts[m] = new byte[256 + random.nextInt(300)];
+                random.nextBytes(plainTexts[m]);
+            }
+
+            byte[][] cipherTexts = new byte[count][];
+            byte[][] encryptionMacs = new byte[count][];
+            encrypt.invoke(multiLane, keys, nonces, plainTexts, cipherTexts, encryptionMacs);
+
+            byte[][] decrypted = new byte[count][];
+            byte[][] decryptionMacs = new byte[count][];
+            decrypt.invoke(multiLane, keys, nonces, cipherTexts, decrypted, decryptionMacs);
+
+            for (int m = 0; m < count; ++m) {
+                String message = "lanes " + lanes + ", message " + m;
+                byte[][] expected = ReferenceHelix.encrypt(keys[m], nonces[m], plainTexts[m]);
+                assertArrayEquals(message, expected[0], cipherTexts[m]);
+                assertArrayEquals(message, expected[1], encryptionMacs[m]);
+                assertArrayEquals(message, plainTexts[m], decrypted[m]);
+                assertArrayEquals(message, expected[1], decryptionMacs[m]);
+            }
+        }
+    }
+
+    /**
+     * Asserts that batches of random, mostly word-unaligned lengths (down to
+     * empty messages) processed with the vector kernel match the reference
+     * implementation, so that the kernel's hand-off to the scalar tails is
+     * fuzzed as well as its lockstep.
+     * 
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public void vectorBatchesOfRandomLengthsMatchReference() throws Exception {
+        Class<?> multiLaneClass = Class.forName(HelixMultiLane.class.getName(), true, loader);
+        Constructor<?> constructor = multiLaneClass.getConstructor(int.class);
+        Method encrypt = multiLaneClass.getMethod("encrypt", byte[][].class, byte[][].class, byte[][].class,
+                byte[][].class, byte[][].class);
+        Method decrypt = multiLaneClass.getMethod("decrypt", byte[][].class, byte[][].class, byte[][].class,
+                byte[][].class, byte[][].class);
+
+        for (int iteration = 0; iteration < 200; ++iteration) {
+            Random random = new Random(0x66757a7aL + iteration);
+            int lanes = 4 * (1 + random.nextInt(HelixMultiLane.MAX_LANES / 4));
+            Object multiLane = constructor.newInstance(lanes);
+            int count = 1 + random.nextInt(3 * lanes);
+            byte[][] keys = new byte[count][];
+            byte[][] nonces = new byte[count][];
+            byte[][] plainTexts = new byte[count][];
+            for (int m = 0; m < count; ++m) {
+                keys[m] = new byte[random.nextInt(33)];
+                random.nextBytes(keys[m]);
+                nonces[m] = new byte[16];
+                random.nextBytes(nonces[m]);
+                plainTexts[m] = new byte[random.nextBoolean() ? random.nextInt(8) : random.nextInt(700)];
+                random.nextBytes(plainTexts[m]);
+            }
+
+            byte[][] cipherTexts = new byte[count][];
+            byte[][] encryptionMacs = new byte[count][];
+            encrypt.invoke(multiLane, keys, nonces, plainTexts, cipherTexts, encryptionMacs);
+
+            byte[][] decrypted = new byte[count][];
+            byte[][] decryptionMacs = new byte[count][];
+            decrypt.invoke(multiLane, keys, nonces, cipherTexts, decrypted, decryptionMacs);
+
+            for (int m = 0; m < count; ++m) {
+                String message = "case " + iteration + ", lanes " + lanes + ", message " + m;
+                byte[][] expected = ReferenceHelix.encrypt(keys[m], nonces[m], plainTexts[m]);
+                assertArrayEquals(message, expected[0], cipherTexts[m]);
+                assertArrayEquals(message, expected[1], encryptionMacs[m]);
+                assertArrayEquals(message, plainTexts[m], decrypted[m]);
+                assertArrayEquals(message, expected[1], decryptionMacs[m]);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2011-2014 Matthew Zipay <mattz@ninthtest.net>
+ * 
+ * This file is part of the NinthTest JCA Provider.
+ * 
+ * The NinthTest JCA Provider is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The NinthTest JCA Provider is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the NinthTest JCA Provider. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.ninthtest.crypto.helix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Asserts that the Java 17 {@link HelixWords} packaged in
+ * <tt>META-INF/versions/17</tt> produces the same results as the baseline
+ * implementation.
+ * 
+ * <p>
+ * Unit tests run from the class directories rather than the multi-release JAR,
+ * so the versioned class is loaded from its own class loader.
+ * </p>
+ * 
+ * @author Matthew Zipay (mattz@ninthtest.net)
+ * @version 1.1.0
+ */
+public class HelixWordsMultiReleaseTest {
+    /* The versioned HelixWords#toInts(byte[], int, int[], int, int) method. */
+    private Method versionedToInts;
+
+    /* The versioned HelixWords#toBytes(int[], int, byte[], int, int) method. */
+    private Method versionedToBytes;
+
+    /* The versioned HelixWords#putLong(byte[], int, long) method. */
+    private Method versionedPutLong;
+
+    /**
+     * Loads the versioned <tt>HelixWords</tt> class.
+     * 
+     * @throws Exception
+     *             if the versioned class cannot be loaded
+     */
+    @Before
+    public void loadVersionedClass() throws Exception {
+        File classes = new File(HelixWords.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        File versioned = new File(classes, "META-INF/versions/17");
+        assertTrue(new File(versioned, "net/ninthtest/crypto/helix/HelixWords.class").isFile());
+
+        ClassLoader loader =
+                new URLClassLoader(new URL[] {versioned.toURI().toURL(), classes.toURI().toURL()},
+                        ClassLoader.getPlatformClassLoader());
+        Class<?> versionedClass = Class.forName(HelixWords.class.getName(), true, loader);
+        assertNotNull(versionedClass.getDeclaredField("INT_LE"));
+
+        versionedToInts =
+                versionedClass.getDeclaredMethod("toInts", byte[].class, int.class, int[].class, int.class, int.class);
+        versionedToInts.setAccessible(true);
+        versionedToBytes =
+                versionedClass.getDeclaredMethod("toBytes", int[].class, int.class, byte[].class, int.class, int.class);
+        versionedToBytes.setAccessible(true);
+        versionedPutLong = versionedClass.getDeclaredMethod("putLong", byte[].class, int.class, long.class);
+    }
+
+    /**
+     * Asserts that the versioned and baseline implementations convert bytes
+     * to words (at arbitrary offsets) identically.
+     * 
+     * @throws Exception
+     *             if the versioned method cannot be invoked
+     */
+    @Test
+    public void toIntsMatchesBaseline() throws Exception {
+        Random random = new Random(17L);
+        for (int n = 0; n < 200; ++n) {
+            int count = random.nextInt(64);
+            int byteOffset = random.nextInt(4);
+            int wordOffset = random.nextInt(3);
+            byte[] bytes = new byte[byteOffset + (count * 4) + random.nextInt(4)];
+            random.nextBytes(bytes);
+
+            int[] expected = new int[wordOffset + count];
+            HelixWords.toInts(bytes, byteOffset, expected, wordOffset, count);
+            int[] actual = new int[wordOffset + count];
+            versionedToInts.invoke(null, bytes, byteOffset, actual, wordOffset, count);
+
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Asserts that the versioned and baseline implementations convert words
+     * to bytes (at arbitrary offsets) identically.
+     * 
+     * @throws Exception
+     *             if the versioned method cannot be invoked
+     */
+    @Test
+    public void toBytesMatchesBaseline() throws Exception {
+        Random random = new Random(71L);
+        for (int n = 0; n < 200; ++n) {
+            int count = random.nextInt(64);
+            int byteOffset = random.nextInt(4);
+            int wordOffset = random.nextInt(3);
+            int[] words = new int[wordOffset + count];
+            for (int i = 0; i < words.length; ++i) {
+                words[i] = random.nextInt();
+            }
+
+            byte[] expected = new byte[byteOffset + (count * 4)];
+            HelixWords.toBytes(words, wordOffset, expected, byteOffset, count);
+            byte[] actual = new byte[byteOffset + (count * 4)];
+            versionedToBytes.invoke(null, words, wordOffset, actual, byteOffset, count);
+
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Asserts that the versioned and baseline implementations store 64-bit
+     * words identically.
+     * 
+     * @throws Exception
+     *             if the versioned method cannot be invoked
+     */
+    @Test
+    public void putLongMatchesBaseline() throws Exception {
+        Random random = new Random(64L);
+        for (int n = 0; n < 200; ++n) {
+            int offset = random.nextInt(8);
+            long value = random.nextLong();
+
+            byte[] expected = new byte[offset + 8];
+            HelixWords.putLong(expected, offset, value);
+            byte[] actual = new byte[offset + 8];
+            versionedPutLong.invoke(null, actual, offset, value);
+
+            assertArrayEquals(expected, actual);
+        }
+    }
+}